@@ -23,11 +23,14 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -44,6 +47,7 @@ import org.apache.jackrabbit.core.data.AsyncUploadResult;
 import org.apache.jackrabbit.core.data.CachingDataStore;
 import org.apache.jackrabbit.core.data.DataIdentifier;
 import org.apache.jackrabbit.core.data.DataStoreException;
+import org.apache.jackrabbit.core.data.MultipartBackend;
 import org.apache.jackrabbit.core.data.util.NamedThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,16 +58,22 @@ import com.amazonaws.event.ProgressEvent;
 import com.amazonaws.event.ProgressListener;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
 import com.amazonaws.services.s3.model.CopyObjectRequest;
 import com.amazonaws.services.s3.model.DeleteObjectsRequest;
 import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.Region;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.amazonaws.services.s3.transfer.Copy;
 import com.amazonaws.services.s3.transfer.TransferManager;
 import com.amazonaws.services.s3.transfer.Upload;
@@ -72,7 +82,7 @@ import com.amazonaws.util.StringUtils;
 /**
  * A data store backend that stores data on Amazon S3.
  */
-public class S3Backend extends AbstractBackend {
+public class S3Backend extends AbstractBackend implements MultipartBackend {
 
     /**
      * Logger instance.
@@ -81,6 +91,11 @@ public class S3Backend extends AbstractBackend {
 
     private static final String KEY_PREFIX = "dataStore_";
 
+    /**
+     * The minimum size of all parts of a multipart upload but the last one.
+     */
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+
     private AmazonS3Client s3service;
 
     private String bucket;
@@ -93,6 +108,12 @@ public class S3Backend extends AbstractBackend {
 
     private S3RequestDecorator s3ReqDecorator;
 
+    /**
+     * ETags of the parts written so far, by upload id.
+     */
+    private final Map<String, List<PartETag>> partETags =
+        new ConcurrentHashMap<String, List<PartETag>>();
+
     /**
      * Initialize S3Backend. It creates AmazonS3Client and TransferManager from
      * aws.properties. It creates S3 bucket if it doesn't pre-exist in S3.
@@ -405,6 +426,159 @@ public class S3Backend extends AbstractBackend {
         }
     }
 
+    @Override
+    public InputStream read(DataIdentifier identifier, long offset,
+            long length) throws DataStoreException {
+        long start = System.currentTimeMillis();
+        String key = getKeyName(identifier);
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(
+                getClass().getClassLoader());
+            GetObjectRequest req = new GetObjectRequest(bucket, key).withRange(
+                offset, offset + length - 1);
+            S3Object object = s3service.getObject(req);
+            S3ObjectInputStream s3in = object.getObjectContent();
+            InputStream in = new S3BackendResourceAbortableInputStream(s3in);
+            LOG.debug("[{}] read of range [{}]+[{}] took [{}]ms", new Object[] {
+                identifier, offset, length,
+                (System.currentTimeMillis() - start) });
+            return in;
+        } catch (AmazonServiceException e) {
+            throw new DataStoreException("Object not found: " + key, e);
+        } finally {
+            if (contextClassLoader != null) {
+                Thread.currentThread().setContextClassLoader(contextClassLoader);
+            }
+        }
+    }
+
+    /**
+     * S3 requires all parts but the last one to be at least 5 MB.
+     */
+    @Override
+    public long getMinPartSize() {
+        return MIN_PART_SIZE;
+    }
+
+    /**
+     * Starts a multipart upload. Note that S3 requires all parts but the last
+     * one to be at least {@link #getMinPartSize() 5 MB}.
+     */
+    @Override
+    public String initiateWrite(DataIdentifier identifier, long length)
+            throws DataStoreException {
+        if (exists(identifier, true)) {
+            return null;
+        }
+        String key = getKeyName(identifier);
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(
+                getClass().getClassLoader());
+            String uploadId = s3service.initiateMultipartUpload(
+                s3ReqDecorator.decorate(new InitiateMultipartUploadRequest(
+                    bucket, key))).getUploadId();
+            partETags.put(uploadId,
+                Collections.synchronizedList(new ArrayList<PartETag>()));
+            LOG.debug("multipart upload [{}] of [{}] initiated", uploadId,
+                identifier);
+            return uploadId;
+        } catch (AmazonClientException e) {
+            throw new DataStoreException("Could not upload " + key, e);
+        } finally {
+            if (contextClassLoader != null) {
+                Thread.currentThread().setContextClassLoader(contextClassLoader);
+            }
+        }
+    }
+
+    @Override
+    public void writePart(DataIdentifier identifier, String uploadId,
+            int partNumber, File file, long offset, long length)
+            throws DataStoreException {
+        long start = System.currentTimeMillis();
+        String key = getKeyName(identifier);
+        List<PartETag> etags = partETags.get(uploadId);
+        if (etags == null) {
+            throw new DataStoreException("Unknown upload [" + uploadId
+                + "] of " + key);
+        }
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(
+                getClass().getClassLoader());
+            UploadPartRequest req = new UploadPartRequest().withBucketName(
+                bucket).withKey(key).withUploadId(uploadId).withPartNumber(
+                partNumber).withFile(file).withFileOffset(offset).withPartSize(
+                length);
+            etags.add(s3service.uploadPart(req).getPartETag());
+            LOG.debug("part [{}] of [{}] uploaded in [{}]ms", new Object[] {
+                partNumber, identifier, (System.currentTimeMillis() - start) });
+        } catch (AmazonClientException e) {
+            throw new DataStoreException("Could not upload part " + partNumber
+                + " of " + key, e);
+        } finally {
+            if (contextClassLoader != null) {
+                Thread.currentThread().setContextClassLoader(contextClassLoader);
+            }
+        }
+    }
+
+    @Override
+    public void completeWrite(DataIdentifier identifier, String uploadId,
+            int partCount) throws DataStoreException {
+        String key = getKeyName(identifier);
+        List<PartETag> etags = partETags.remove(uploadId);
+        if (etags == null || etags.size() != partCount) {
+            abortWrite(identifier, uploadId);
+            throw new DataStoreException("Missing parts of upload ["
+                + uploadId + "] of " + key);
+        }
+        etags = new ArrayList<PartETag>(etags);
+        Collections.sort(etags, new Comparator<PartETag>() {
+            @Override
+            public int compare(PartETag o1, PartETag o2) {
+                return o1.getPartNumber() - o2.getPartNumber();
+            }
+        });
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(
+                getClass().getClassLoader());
+            s3service.completeMultipartUpload(new CompleteMultipartUploadRequest(
+                bucket, key, uploadId, etags));
+            LOG.debug("multipart upload [{}] of [{}] completed", uploadId,
+                identifier);
+        } catch (AmazonClientException e) {
+            abortWrite(identifier, uploadId);
+            throw new DataStoreException("Could not upload " + key, e);
+        } finally {
+            if (contextClassLoader != null) {
+                Thread.currentThread().setContextClassLoader(contextClassLoader);
+            }
+        }
+    }
+
+    @Override
+    public void abortWrite(DataIdentifier identifier, String uploadId) {
+        partETags.remove(uploadId);
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(
+                getClass().getClassLoader());
+            s3service.abortMultipartUpload(new AbortMultipartUploadRequest(
+                bucket, getKeyName(identifier), uploadId));
+        } catch (AmazonClientException e) {
+            LOG.warn("Could not abort upload [" + uploadId + "] of ["
+                + identifier + "]", e);
+        } finally {
+            if (contextClassLoader != null) {
+                Thread.currentThread().setContextClassLoader(contextClassLoader);
+            }
+        }
+    }
+
     @Override
     public Iterator<DataIdentifier> getAllIdentifiers()
             throws DataStoreException {
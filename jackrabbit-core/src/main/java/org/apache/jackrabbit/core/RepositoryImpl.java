@@ -60,6 +60,7 @@ import org.apache.jackrabbit.core.cache.CacheManager;
 import org.apache.jackrabbit.core.cluster.ClusterContext;
 import org.apache.jackrabbit.core.cluster.ClusterException;
 import org.apache.jackrabbit.core.cluster.ClusterNode;
+import org.apache.jackrabbit.core.cluster.ClusterSnapshot;
 import org.apache.jackrabbit.core.cluster.LockEventChannel;
 import org.apache.jackrabbit.core.cluster.UpdateEventChannel;
 import org.apache.jackrabbit.core.cluster.UpdateEventListener;
@@ -91,6 +92,8 @@ import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
 import org.apache.jackrabbit.core.persistence.PMContext;
 import org.apache.jackrabbit.core.persistence.PersistenceManager;
 import org.apache.jackrabbit.core.persistence.check.ConsistencyChecker;
+import org.apache.jackrabbit.core.query.QueryHandler;
+import org.apache.jackrabbit.core.query.lucene.SearchIndex;
 import org.apache.jackrabbit.core.retention.RetentionRegistry;
 import org.apache.jackrabbit.core.retention.RetentionRegistryImpl;
 import org.apache.jackrabbit.core.security.JackrabbitSecurityManager;
@@ -1404,6 +1407,85 @@ public class RepositoryImpl extends AbstractRepository
                 context.getNodeIdFactory());
     }
 
+    /**
+     * Creates a snapshot of the search indexes of this cluster node, which
+     * lets new cluster nodes start from the snapshot and replay only the
+     * journal records appended after it. The directory must be empty or
+     * not exist.
+     *
+     * @param directory snapshot directory
+     * @return the snapshot description
+     * @throws RepositoryException if this repository is not clustered or
+     *                             the snapshot cannot be created
+     * @see ClusterSnapshot
+     */
+    public ClusterSnapshot createClusterSnapshot(File directory)
+            throws RepositoryException {
+        sanityCheck();
+
+        ClusterNode clusterNode = context.getClusterNode();
+        if (clusterNode == null) {
+            throw new RepositoryException("Repository is not clustered.");
+        }
+        String[] list = directory.list();
+        if (list != null && list.length > 0) {
+            throw new RepositoryException(
+                    "Snapshot directory is not empty: " + directory);
+        }
+
+        ClusterSnapshot snapshot = new ClusterSnapshot(
+                clusterNode.getCheckpointRevision(),
+                repConfig.getClusterConfig().getId(),
+                System.currentTimeMillis());
+        File home = new File(repConfig.getHomeDir());
+        for (String wspName : getWorkspaceNames()) {
+            copyIndex(getWorkspaceInfo(wspName).getSearchManager(),
+                    home, directory, snapshot);
+        }
+        copyIndex(getSystemSearchManager(repConfig.getDefaultWorkspaceName()),
+                home, directory, snapshot);
+        try {
+            snapshot.write(directory);
+        } catch (IOException e) {
+            throw new RepositoryException(
+                    "Unable to write snapshot " + directory, e);
+        }
+        log.info("Created cluster snapshot " + directory
+                + " at revision " + snapshot.getRevision());
+        return snapshot;
+    }
+
+    /**
+     * Copies the index of a search manager into a snapshot directory.
+     *
+     * @param searchMgr search manager, or <code>null</code> if search is
+     *                  disabled
+     * @param home repository home
+     * @param directory snapshot directory
+     * @param snapshot snapshot description
+     * @throws RepositoryException if the index cannot be copied
+     */
+    private void copyIndex(SearchManager searchMgr, File home, File directory,
+                           ClusterSnapshot snapshot) throws RepositoryException {
+        if (searchMgr == null) {
+            return;
+        }
+        QueryHandler handler = searchMgr.getQueryHandler();
+        if (!(handler instanceof SearchIndex)) {
+            throw new RepositoryException("Unable to create a snapshot of "
+                    + handler.getClass().getName());
+        }
+        SearchIndex index = (SearchIndex) handler;
+        try {
+            String path = ClusterSnapshot.getRelativePath(
+                    home, new File(index.getPath()));
+            long generation = index.copyIndex(new File(directory, path));
+            snapshot.addIndex(path, generation);
+        } catch (IOException e) {
+            throw new RepositoryException(e.getMessage(), e);
+        }
+    }
+
     /**
      * Creates a data store garbage collector for this repository.
      * <p>
@@ -2085,7 +2167,8 @@ public class RepositoryImpl extends AbstractRepository
                 throw new RepositoryException(msg, ise);
             }
 
-            dispatcher = new ObservationDispatcher();
+            dispatcher = new ObservationDispatcher(
+                    context.getRepositoryStatistics());
 
             // register the observation factory of that workspace
             delegatingDispatcher.addDispatcher(dispatcher);
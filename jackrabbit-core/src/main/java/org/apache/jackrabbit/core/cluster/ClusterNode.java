@@ -16,6 +16,8 @@
  */
 package org.apache.jackrabbit.core.cluster;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -34,6 +36,7 @@ import org.apache.jackrabbit.core.journal.JournalException;
 import org.apache.jackrabbit.core.journal.Record;
 import org.apache.jackrabbit.core.journal.RecordConsumer;
 import org.apache.jackrabbit.core.journal.RecordProducer;
+import org.apache.jackrabbit.core.journal.TimestampIndex;
 import org.apache.jackrabbit.core.nodetype.InvalidNodeTypeDefException;
 import org.apache.jackrabbit.core.observation.EventState;
 import org.apache.jackrabbit.core.state.ChangeLog;
@@ -59,11 +62,35 @@ public class ClusterNode implements Runnable,
      */
     public static final String SYSTEM_PROPERTY_NODE_ID = "org.apache.jackrabbit.core.cluster.node_id";
 
+    /**
+     * System property specifying a {@link ClusterSnapshot} directory to
+     * bootstrap a new cluster node from.
+     */
+    public static final String SYSTEM_PROPERTY_SNAPSHOT = "org.apache.jackrabbit.core.cluster.snapshot";
+
     /**
      * Producer identifier.
      */
     private static final String PRODUCER_ID = "JR";
 
+    /**
+     * Delay in milliseconds before syncing again when a notified revision
+     * is not yet visible in the journal.
+     */
+    private static final long SYNC_RETRY_DELAY = 50;
+
+    /**
+     * Maximum number of syncs to retry for a notified revision.
+     */
+    private static final int MAX_SYNC_RETRIES = 20;
+
+    /**
+     * Default number of records a single sync must process before the
+     * remaining workspace updates are applied in parallel. Catch-up mode is
+     * disabled by default.
+     */
+    public static final int DEFAULT_CATCH_UP_THRESHOLD = 0;
+
     /**
      * Status constant.
      */
@@ -124,6 +151,24 @@ public class ClusterNode implements Runnable,
      */
     private final Mutex syncLock = new Mutex();
 
+    /**
+     * Monitor guarding {@link #localUpdates} and {@link #checkpointing}.
+     */
+    private final Object checkpointMonitor = new Object();
+
+    /**
+     * Number of local workspace updates that have been created but not yet
+     * released, i.e. whose revision may be set before their changes are
+     * indexed. Guarded by {@link #checkpointMonitor}.
+     */
+    private int localUpdates;
+
+    /**
+     * Whether {@link #getCheckpointRevision()} is running, which holds back
+     * new local workspace updates. Guarded by {@link #checkpointMonitor}.
+     */
+    private boolean checkpointing;
+
     /**
      * Update counter, used in displaying the number of updates in audit log.
      */
@@ -134,6 +179,35 @@ public class ClusterNode implements Runnable,
      */
     private final Latch stopLatch = new Latch();
 
+    /**
+     * Monitor used to wake up the synchronization thread when another
+     * cluster node notified a new revision.
+     */
+    private final Object syncSignal = new Object();
+
+    /**
+     * Whether a notification arrived since the last sync. Guarded by
+     * {@link #syncSignal}.
+     */
+    private boolean syncRequested;
+
+    /**
+     * Highest revision notified by another cluster node. Guarded by
+     * {@link #syncSignal}.
+     */
+    private long notifiedRevision;
+
+    /**
+     * Number of syncs retried for {@link #notifiedRevision}. Guarded by
+     * {@link #syncSignal}.
+     */
+    private int syncRetries;
+
+    /**
+     * Sync notifier, or <code>null</code> if synchronization is polling only.
+     */
+    private SyncNotifier notifier;
+
     /**
      * Sync counter, used to avoid repeated sync() calls from piling up.
      * Only updated within the critical section guarded by {@link #syncLock}.
@@ -203,6 +277,43 @@ public class ClusterNode implements Runnable,
      */
     private boolean disableAutoSync;
 
+    /**
+     * Number of records a single sync must process before it switches to
+     * catch-up mode, or <code>0</code> to always apply updates inline.
+     */
+    private int catchUpThreshold = DEFAULT_CATCH_UP_THRESHOLD;
+
+    /**
+     * Number of threads applying workspace updates in catch-up mode.
+     */
+    private int catchUpThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Number of records processed since the revision was last set. Only
+     * accessed by the thread synchronizing the journal.
+     */
+    private int syncedRecords;
+
+    /**
+     * Applies workspace updates in parallel in catch-up mode, created on
+     * first use by the thread holding {@link #syncLock}.
+     */
+    private volatile ParallelUpdateApplier applier;
+
+    /**
+     * Failure of a workspace update applied in catch-up mode, which limits
+     * the next {@link #setRevision(long)} to the revision preceding
+     * {@link #updateFailureRevision}. Only accessed by the thread
+     * synchronizing the journal.
+     */
+    private IllegalStateException updateFailure;
+
+    /**
+     * Lowest revision not applied due to {@link #updateFailure}. Only
+     * accessed by the thread synchronizing the journal.
+     */
+    private long updateFailureRevision;
+
     /**
      * Initialize this cluster node.
      *
@@ -225,12 +336,19 @@ public class ClusterNode implements Runnable,
         clusterNodeId = cc.getId();
         syncDelay = cc.getSyncDelay();
         stopDelay = cc.getStopDelay();
+        catchUpThreshold = cc.getCatchUpThreshold();
 
         try {
             journal = cc.getJournal(clusterContext.getNamespaceResolver());
             instanceRevision = journal.getInstanceRevision();
             journal.register(this);
             producer = journal.getProducer(PRODUCER_ID);
+            notifier = cc.getSyncNotifier();
+
+            String snapshot = System.getProperty(SYSTEM_PROPERTY_SNAPSHOT);
+            if (snapshot != null) {
+                restoreSnapshot(new File(snapshot));
+            }
         } catch (RepositoryException e) {
             throw new ClusterException(
                     "Cluster initialization failed: " + this, e);
@@ -240,6 +358,114 @@ public class ClusterNode implements Runnable,
         }
     }
 
+    /**
+     * Bootstrap this cluster node from a snapshot, unless it already
+     * synchronized with the journal before.
+     *
+     * @param directory snapshot directory
+     * @throws ClusterException if the snapshot cannot be restored
+     * @throws JournalException if the local revision cannot be accessed
+     */
+    private void restoreSnapshot(File directory)
+            throws ClusterException, JournalException {
+        if (instanceRevision.get() != 0) {
+            log.info("Cluster node " + clusterNodeId + " already initialized,"
+                    + " ignoring snapshot " + directory);
+            return;
+        }
+        try {
+            ClusterSnapshot snapshot = ClusterSnapshot.read(directory);
+            snapshot.restore(directory, clusterContext.getRepositoryHome());
+            instanceRevision.set(snapshot.getRevision());
+            log.info("Cluster node " + clusterNodeId + " restored snapshot "
+                    + directory + " at revision " + snapshot.getRevision());
+        } catch (IOException e) {
+            throw new ClusterException(
+                    "Unable to restore snapshot " + directory, e);
+        }
+    }
+
+    /**
+     * Return the revision a {@link ClusterSnapshot} of this cluster node
+     * is consistent with. Holds back new local workspace updates and waits
+     * until the running ones have been dispatched, which indexes them, as
+     * well as for a running synchronization. Hence all updates up to the
+     * returned revision have been applied. Index copies taken after this
+     * method returned may contain later updates as well, which does no harm
+     * as a restored node replays them idempotently.
+     *
+     * @return revision
+     * @throws ClusterException if interrupted while waiting for running
+     *         updates or a running synchronization
+     */
+    public long getCheckpointRevision() throws ClusterException {
+        synchronized (checkpointMonitor) {
+            try {
+                while (checkpointing) {
+                    checkpointMonitor.wait();
+                }
+                checkpointing = true;
+                while (localUpdates > 0) {
+                    checkpointMonitor.wait();
+                }
+            } catch (InterruptedException e) {
+                checkpointing = false;
+                checkpointMonitor.notifyAll();
+                String msg = "Interrupted while waiting for local updates.";
+                throw new ClusterException(msg);
+            }
+        }
+        try {
+            try {
+                syncLock.acquire();
+            } catch (InterruptedException e) {
+                String msg = "Interrupted while waiting for mutex.";
+                throw new ClusterException(msg);
+            }
+            try {
+                return getRevision();
+            } finally {
+                syncLock.release();
+            }
+        } finally {
+            synchronized (checkpointMonitor) {
+                checkpointing = false;
+                checkpointMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Registers a local workspace update, waiting while
+     * {@link #getCheckpointRevision()} is running.
+     *
+     * @throws ClusterException if interrupted while waiting
+     */
+    private void localUpdateCreated() throws ClusterException {
+        synchronized (checkpointMonitor) {
+            try {
+                while (checkpointing) {
+                    checkpointMonitor.wait();
+                }
+            } catch (InterruptedException e) {
+                String msg = "Interrupted while waiting for a checkpoint.";
+                throw new ClusterException(msg);
+            }
+            localUpdates++;
+        }
+    }
+
+    /**
+     * Unregisters a local workspace update registered with
+     * {@link #localUpdateCreated()}.
+     */
+    private void localUpdateReleased() {
+        synchronized (checkpointMonitor) {
+            localUpdates--;
+            checkpointMonitor.notifyAll();
+        }
+    }
+
     /**
      * Set the stop delay, i.e. number of millseconds to wait for the
      * synchronization thread to stop.
@@ -260,6 +486,51 @@ public class ClusterNode implements Runnable,
         return stopDelay;
     }
     
+    /**
+     * Set the number of records a single sync must process before it
+     * switches to catch-up mode. In catch-up mode, updates of different
+     * workspaces are applied concurrently by {@link #setCatchUpThreads(int)}
+     * threads, and consecutive updates of the same workspace are coalesced.
+     * A value of <code>0</code> disables catch-up mode.
+     *
+     * @param catchUpThreshold number of records
+     */
+    public void setCatchUpThreshold(int catchUpThreshold) {
+        this.catchUpThreshold = catchUpThreshold;
+    }
+
+    /**
+     * Return the number of records a single sync must process before it
+     * switches to catch-up mode.
+     *
+     * @return number of records
+     * @see #setCatchUpThreshold(int)
+     */
+    public int getCatchUpThreshold() {
+        return catchUpThreshold;
+    }
+
+    /**
+     * Set the number of threads applying workspace updates in catch-up mode.
+     * Must be called before the first sync.
+     *
+     * @param catchUpThreads number of threads
+     */
+    public void setCatchUpThreads(int catchUpThreads) {
+        this.catchUpThreads = catchUpThreads;
+    }
+
+    /**
+     * Return the number of threads applying workspace updates in catch-up
+     * mode.
+     *
+     * @return number of threads
+     * @see #setCatchUpThreads(int)
+     */
+    public int getCatchUpThreads() {
+        return catchUpThreads;
+    }
+
     /**
      * Disable periodic background synchronization. Used for testing purposes, only.
      */
@@ -276,6 +547,13 @@ public class ClusterNode implements Runnable,
         if (status == NONE) {
             syncOnStartup();
 
+            if (notifier != null) {
+                notifier.init(clusterNodeId, new SyncNotifier.Listener() {
+                    public void revisionAppended(String id, long revision) {
+                        requestSync(revision);
+                    }
+                });
+            }
             if (!disableAutoSync) {
                 Thread t = new Thread(this, "ClusterNode-" + clusterNodeId);
                 t.setDaemon(true);
@@ -287,12 +565,13 @@ public class ClusterNode implements Runnable,
     }
 
     /**
-     * Run loop that will sync this node after some delay.
+     * Run loop that will sync this node after some delay, or as soon as
+     * another cluster node notified a new revision.
      */
     public void run() {
         for (;;) {
             try {
-                if (stopLatch.attempt(syncDelay)) {
+                if (awaitSync()) {
                     break;
                 }
             } catch (InterruptedException e) {
@@ -315,6 +594,62 @@ public class ClusterNode implements Runnable,
         }
     }
 
+    /**
+     * Waits until the next sync is due. A sync is due after the sync delay,
+     * when another cluster node notified a new revision or shortly after a
+     * sync that did not yet see a notified revision, because the revision
+     * may only be committed after the notification has been sent.
+     *
+     * @return <code>true</code> if this cluster node has been stopped
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private boolean awaitSync() throws InterruptedException {
+        if (stopLatch.attempt(0)) {
+            return true;
+        }
+        long revision = getRevision();
+        synchronized (syncSignal) {
+            if (!syncRequested) {
+                long timeout = syncDelay;
+                if (notifiedRevision > revision && syncRetries < MAX_SYNC_RETRIES) {
+                    syncRetries++;
+                    timeout = SYNC_RETRY_DELAY;
+                }
+                syncSignal.wait(timeout);
+            }
+            syncRequested = false;
+        }
+        return stopLatch.attempt(0);
+    }
+
+    /**
+     * Wakes up the synchronization thread because another cluster node
+     * appended a revision.
+     *
+     * @param revision the appended revision
+     */
+    void requestSync(long revision) {
+        synchronized (syncSignal) {
+            if (revision > notifiedRevision) {
+                notifiedRevision = revision;
+                syncRetries = 0;
+            }
+            syncRequested = true;
+            syncSignal.notifyAll();
+        }
+    }
+
+    /**
+     * Notifies the other cluster nodes of a revision appended by this node.
+     *
+     * @param revision the appended revision
+     */
+    private void revisionAppended(long revision) {
+        if (notifier != null) {
+            notifier.revisionAppended(revision);
+        }
+    }
+
     /** 
      * Synchronize contents from journal.
      * 
@@ -337,7 +672,19 @@ public class ClusterNode implements Runnable,
             // while we were waiting to acquire the syncLock.
             if (count == syncCount.get()) {
                 syncCount.incrementAndGet();
-                journal.sync(startup);
+                try {
+                    journal.sync(startup);
+                } catch (JournalException e) {
+                    // wait for the updates submitted so far, without
+                    // masking the failure of the sync
+                    try {
+                        drainUpdates();
+                    } catch (IllegalStateException ise) {
+                        e.addSuppressed(ise);
+                    }
+                    throw e;
+                }
+                drainUpdates();
             }
         } catch (JournalException e) {
             throw new ClusterException(e.getMessage(), e.getCause());
@@ -373,6 +720,12 @@ public class ClusterNode implements Runnable,
             status = STOPPED;
 
             stopLatch.release();
+            synchronized (syncSignal) {
+                syncSignal.notifyAll();
+            }
+            if (notifier != null) {
+                notifier.close();
+            }
 
             // Give synchronization thread some time to finish properly before
             // closing down the journal (see JCR-1553)
@@ -390,6 +743,9 @@ public class ClusterNode implements Runnable,
             if (instanceRevision != null) {
                 instanceRevision.close();
             }
+            if (applier != null) {
+                applier.close();
+            }
         }
     }
 
@@ -440,6 +796,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            revisionAppended(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -476,6 +833,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            revisionAppended(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -506,6 +864,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            revisionAppended(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -536,6 +895,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            revisionAppended(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -575,6 +935,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            revisionAppended(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -609,6 +970,18 @@ public class ClusterNode implements Runnable,
          */
         private static final String ATTRIBUTE_UPDATE_SIZE = "updateSize";
 
+        /**
+         * Attribute name used to store a record whose commit is awaited
+         * when the update is released.
+         */
+        private static final String ATTRIBUTE_UNCOMMITTED_RECORD = "uncommittedRecord";
+
+        /**
+         * Attribute name used to mark an update registered with
+         * {@link ClusterNode#localUpdateCreated()}.
+         */
+        private static final String ATTRIBUTE_LOCAL_UPDATE = "localUpdate";
+
         /**
          * Workspace name.
          */
@@ -631,9 +1004,13 @@ public class ClusterNode implements Runnable,
                 log.info("not started: update create ignored.");
                 return;
             }
+            localUpdateCreated();
+            boolean succeeded = false;
             try {
                 Record record = producer.append();
                 update.setAttribute(ATTRIBUTE_RECORD, record);
+                update.setAttribute(ATTRIBUTE_LOCAL_UPDATE, Boolean.TRUE);
+                succeeded = true;
             } catch (JournalException e) {
                 String msg = "Unable to create log entry: " + e.getMessage();
                 throw new ClusterException(msg, e);
@@ -641,6 +1018,10 @@ public class ClusterNode implements Runnable,
                 String msg = "Unexpected error while creating log entry: "
                         + e.getMessage();
                 throw new ClusterException(msg, e);
+            } finally {
+                if (!succeeded) {
+                    localUpdateReleased();
+                }
             }
         }
 
@@ -701,7 +1082,10 @@ public class ClusterNode implements Runnable,
                 long recordRevision = record.getRevision();
                 setRevision(recordRevision);
 
-                long journalUpdateSize = record.update();
+                long journalUpdateSize = record.update(false);
+                update.setAttribute(ATTRIBUTE_UNCOMMITTED_RECORD, record);
+                revisionAppended(recordRevision);
+                indexTimestamp(update.getTimestamp(), recordRevision);
 
                 log.debug("Stored record '{}' to Journal ({})", recordRevision, journalUpdateSize);
 
@@ -723,6 +1107,25 @@ public class ClusterNode implements Runnable,
             }
         }
 
+        /**
+         * {@inheritDoc}
+         */
+        public void updateReleased(Update update) {
+            releaseLocalUpdate(update);
+            Record record = (Record) update.getAttribute(ATTRIBUTE_UNCOMMITTED_RECORD);
+            if (record == null) {
+                return;
+            }
+            try {
+                record.awaitCommit();
+            } catch (JournalException e) {
+                String msg = "Unable to commit log entry.";
+                log.error(msg, e);
+            } finally {
+                update.setAttribute(ATTRIBUTE_UNCOMMITTED_RECORD, null);
+            }
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -732,6 +1135,20 @@ public class ClusterNode implements Runnable,
                 record.cancelUpdate();
                 update.setAttribute(ATTRIBUTE_RECORD, null);
             }
+            releaseLocalUpdate(update);
+        }
+
+        /**
+         * Unregisters an update registered in {@link #updateCreated}, if
+         * not done yet.
+         *
+         * @param update update operation
+         */
+        private void releaseLocalUpdate(Update update) {
+            if (update.getAttribute(ATTRIBUTE_LOCAL_UPDATE) != null) {
+                update.setAttribute(ATTRIBUTE_LOCAL_UPDATE, null);
+                localUpdateReleased();
+            }
         }
 
         /**
@@ -858,7 +1275,13 @@ public class ClusterNode implements Runnable,
         log.info("Processing revision: " + record.getRevision());
 
         try {
-            deserializer.deserialize(record).process(this);
+            ClusterRecord clusterRecord = deserializer.deserialize(record);
+            syncedRecords++;
+            if (!isParallel(clusterRecord)) {
+                // keep the order of updates and other records
+                drainUpdates();
+            }
+            clusterRecord.process(this);
         } catch (JournalException e) {
             String msg = "Unable to read revision '" + record.getRevision() + "'.";
             log.error(msg, e);
@@ -869,6 +1292,21 @@ public class ClusterNode implements Runnable,
      * {@inheritDoc}
      */
     public void setRevision(long revision) {
+        syncedRecords = 0;
+        try {
+            drainUpdates();
+        } catch (IllegalStateException e) {
+            // already recorded in updateFailure
+        }
+        if (updateFailure != null) {
+            // keep the records applied before the failed one
+            long applied = Math.min(revision, updateFailureRevision - 1);
+            log.error("Advancing revision only to " + applied + " instead of "
+                    + revision + " due to a failed update: "
+                    + updateFailure.getMessage());
+            updateFailure = null;
+            revision = applied;
+        }
         try {
             instanceRevision.set(revision);
         } catch (JournalException e) {
@@ -883,6 +1321,7 @@ public class ClusterNode implements Runnable,
      */
     public void process(ChangeLogRecord record) {
         String workspace = record.getWorkspace();
+        indexTimestamp(record.getTimestamp(), record.getRevision());
 
         UpdateEventListener listener = null;
         if (workspace != null) {
@@ -922,6 +1361,10 @@ public class ClusterNode implements Runnable,
            	auditLogger.info("[{}] {} {}", new Object[]{updateCount.incrementAndGet(), 
                     record.getRevision(), path});
 
+            if (isParallel(record)) {
+                getApplier().submit(workspace, listener, record);
+                return;
+            }
             listener.externalUpdate(record.getChanges(), eventStates,
                     record.getTimestamp(), record.getUserData());
         } catch (RepositoryException e) {
@@ -1073,6 +1516,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            revisionAppended(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -1106,6 +1550,7 @@ public class ClusterNode implements Runnable,
                 record.write();
                 record.update();
                 setRevision(record.getRevision());
+                revisionAppended(record.getRevision());
                 succeeded = true;
             }
         } catch (JournalException e) {
@@ -1121,6 +1566,73 @@ public class ClusterNode implements Runnable,
         }
     }
 
+    /**
+     * Return a flag indicating whether a record may be applied by the
+     * {@link ParallelUpdateApplier}, which is the case for workspace updates
+     * once the current sync processed more than {@link #catchUpThreshold}
+     * records.
+     *
+     * @param record cluster record
+     * @return <code>true</code> if the record may be applied in parallel
+     */
+    private boolean isParallel(ClusterRecord record) {
+        return catchUpThreshold > 0 && syncedRecords > catchUpThreshold
+                && record instanceof ChangeLogRecord
+                && record.getWorkspace() != null;
+    }
+
+    /**
+     * Return the parallel update applier, creating it if necessary.
+     *
+     * @return parallel update applier
+     */
+    private ParallelUpdateApplier getApplier() {
+        if (applier == null) {
+            applier = new ParallelUpdateApplier(
+                    clusterNodeId, Math.max(catchUpThreads, 1));
+        }
+        return applier;
+    }
+
+    /**
+     * Add an entry to the timestamp index of the journal, if available.
+     *
+     * @param timestamp time of the changes contained in a record
+     * @param revision revision of the record
+     */
+    private void indexTimestamp(long timestamp, long revision) {
+        if (journal instanceof AbstractJournal) {
+            try {
+                TimestampIndex index = ((AbstractJournal) journal).getTimestampIndex();
+                if (index != null) {
+                    index.add(timestamp, revision);
+                }
+            } catch (JournalException e) {
+                log.warn("Unable to access timestamp index: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Wait until all workspace updates submitted in catch-up mode have been
+     * applied.
+     *
+     * @throws IllegalStateException if an update failed in a way that must
+     *         stop the synchronization
+     */
+    private void drainUpdates() throws IllegalStateException {
+        ParallelUpdateApplier applier = this.applier;
+        if (applier != null) {
+            try {
+                applier.drain();
+            } catch (IllegalStateException e) {
+                updateFailure = e;
+                updateFailureRevision = applier.getFailedRevision();
+                throw e;
+            }
+        }
+    }
+
     private String getFirstUserId(List<EventState> eventStates) {
         if (eventStates == null || eventStates.isEmpty()) {
             return "";
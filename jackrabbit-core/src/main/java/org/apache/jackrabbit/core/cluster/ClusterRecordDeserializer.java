@@ -32,9 +32,22 @@ public class ClusterRecordDeserializer {
      * @throws JournalException if an error occurs
      */
     public ClusterRecord deserialize(Record record) throws JournalException {
+        return deserialize(record, record.readString());
+    }
+
+    /**
+     * Deserialize a cluster record whose workspace name has already been
+     * read, e.g. to skip records of other workspaces without reading them.
+     *
+     * @param record basic record containing a cluster record
+     * @param workspace workspace name read from the record
+     * @return deserialized cluster record
+     * @throws JournalException if an error occurs
+     */
+    public ClusterRecord deserialize(Record record, String workspace)
+            throws JournalException {
         ClusterRecord clusterRecord;
 
-        String workspace = record.readString();
         char c = record.readChar();
         switch (c) {
         case ChangeLogRecord.NODE_IDENTIFIER:
@@ -85,4 +98,28 @@ public class ClusterRecordDeserializer {
         }
         return clusterRecord;
     }
+
+    /**
+     * Return the time of the changes contained in a cluster record, reading
+     * only the header of the record. The record must be positioned after
+     * its workspace name.
+     *
+     * @param record basic record containing a cluster record
+     * @return time of the changes, or <code>0</code> if the record does not
+     *         contain changes
+     * @throws JournalException if an error occurs
+     */
+    public long readTimestamp(Record record) throws JournalException {
+        switch (record.readChar()) {
+        case ChangeLogRecord.DATE_IDENTIFIER:
+            return record.readLong();
+        case ChangeLogRecord.NODE_IDENTIFIER:
+        case ChangeLogRecord.PROPERTY_IDENTIFIER:
+        case ChangeLogRecord.EVENT_IDENTIFIER:
+            // written without timestamp, deserialized with the current time
+            return System.currentTimeMillis();
+        default:
+            return 0;
+        }
+    }
 }
@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Checkpoint of the local state of a cluster node, used to bootstrap new
+ * cluster nodes without replaying the entire journal. A snapshot is a
+ * directory that contains copies of the search indexes, stored at their
+ * paths relative to the repository home, and a
+ * <code>snapshot.properties</code> file with the journal revision the
+ * copies are consistent with.
+ * <p>
+ * A snapshot is restored by starting a new cluster node with the system
+ * property {@link ClusterNode#SYSTEM_PROPERTY_SNAPSHOT} pointing to the
+ * snapshot directory. The node copies the indexes into its repository home,
+ * sets its local revision to the revision of the snapshot and then replays
+ * only the journal records appended after that revision. The journal must
+ * therefore still contain these records, i.e. a revision janitor must not
+ * have removed records newer than the snapshot.
+ */
+public class ClusterSnapshot {
+
+    /**
+     * Name of the file that describes a snapshot.
+     */
+    public static final String PROPERTIES_FILE = "snapshot.properties";
+
+    /**
+     * Property holding the revision.
+     */
+    private static final String REVISION = "revision";
+
+    /**
+     * Property holding the id of the cluster node that created the snapshot.
+     */
+    private static final String CLUSTER_NODE_ID = "clusterNodeId";
+
+    /**
+     * Property holding the creation time.
+     */
+    private static final String CREATED = "created";
+
+    /**
+     * Prefix of the properties holding the index generations.
+     */
+    private static final String INDEX_PREFIX = "index.";
+
+    /**
+     * Journal revision the snapshot is consistent with.
+     */
+    private final long revision;
+
+    /**
+     * Id of the cluster node that created the snapshot.
+     */
+    private final String clusterNodeId;
+
+    /**
+     * Creation time, in milliseconds.
+     */
+    private final long created;
+
+    /**
+     * Index generations, indexed by index path relative to the repository
+     * home.
+     */
+    private final Map<String, Long> indexes = new TreeMap<String, Long>();
+
+    /**
+     * Create a new snapshot description.
+     *
+     * @param revision journal revision the snapshot is consistent with
+     * @param clusterNodeId id of the cluster node that creates the snapshot
+     * @param created creation time, in milliseconds
+     */
+    public ClusterSnapshot(long revision, String clusterNodeId, long created) {
+        this.revision = revision;
+        this.clusterNodeId = clusterNodeId;
+        this.created = created;
+    }
+
+    /**
+     * Return the journal revision the snapshot is consistent with.
+     *
+     * @return revision
+     */
+    public long getRevision() {
+        return revision;
+    }
+
+    /**
+     * Return the id of the cluster node that created the snapshot.
+     *
+     * @return cluster node id
+     */
+    public String getClusterNodeId() {
+        return clusterNodeId;
+    }
+
+    /**
+     * Return the creation time of the snapshot.
+     *
+     * @return creation time, in milliseconds
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * Return the indexes contained in the snapshot.
+     *
+     * @return unmodifiable map of index generations, indexed by index path
+     *         relative to the repository home
+     */
+    public Map<String, Long> getIndexes() {
+        return Collections.unmodifiableMap(indexes);
+    }
+
+    /**
+     * Add an index to the snapshot.
+     *
+     * @param path index path relative to the repository home
+     * @param generation generation of the copied index
+     */
+    public void addIndex(String path, long generation) {
+        indexes.put(path, generation);
+    }
+
+    /**
+     * Write the description of this snapshot to a snapshot directory. This
+     * must be the last step of creating a snapshot, as a directory without
+     * description is not a valid snapshot.
+     *
+     * @param directory snapshot directory
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(File directory) throws IOException {
+        Properties props = new Properties();
+        props.setProperty(REVISION, String.valueOf(revision));
+        props.setProperty(CLUSTER_NODE_ID, clusterNodeId);
+        props.setProperty(CREATED, String.valueOf(created));
+        for (Map.Entry<String, Long> entry : indexes.entrySet()) {
+            props.setProperty(INDEX_PREFIX + entry.getKey(),
+                    String.valueOf(entry.getValue()));
+        }
+        OutputStream out = new FileOutputStream(new File(directory, PROPERTIES_FILE));
+        try {
+            props.store(out, "Cluster snapshot");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read the description of a snapshot.
+     *
+     * @param directory snapshot directory
+     * @return snapshot description
+     * @throws IOException if the directory does not contain a valid snapshot
+     */
+    public static ClusterSnapshot read(File directory) throws IOException {
+        File file = new File(directory, PROPERTIES_FILE);
+        if (!file.isFile()) {
+            throw new IOException("Not a cluster snapshot: " + directory);
+        }
+        Properties props = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            props.load(in);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        try {
+            ClusterSnapshot snapshot = new ClusterSnapshot(
+                    Long.parseLong(props.getProperty(REVISION)),
+                    props.getProperty(CLUSTER_NODE_ID),
+                    Long.parseLong(props.getProperty(CREATED, "0")));
+            for (String name : props.stringPropertyNames()) {
+                if (name.startsWith(INDEX_PREFIX)) {
+                    snapshot.addIndex(name.substring(INDEX_PREFIX.length()),
+                            Long.parseLong(props.getProperty(name)));
+                }
+            }
+            return snapshot;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid cluster snapshot " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Copy the indexes of a snapshot into a repository home. Existing index
+     * directories are replaced.
+     *
+     * @param directory snapshot directory
+     * @param repositoryHome repository home
+     * @throws IOException if an I/O error occurs
+     */
+    public void restore(File directory, File repositoryHome) throws IOException {
+        for (String path : indexes.keySet()) {
+            File target = new File(repositoryHome, path);
+            FileUtils.deleteDirectory(target);
+            FileUtils.copyDirectory(new File(directory, path), target);
+        }
+    }
+
+    /**
+     * Return the path of a file relative to the repository home.
+     *
+     * @param repositoryHome repository home
+     * @param file file inside the repository home
+     * @return relative path, using <code>/</code> as separator
+     * @throws IOException if the file is not located inside the repository home
+     */
+    public static String getRelativePath(File repositoryHome, File file)
+            throws IOException {
+        String home = repositoryHome.getCanonicalPath();
+        String path = file.getCanonicalPath();
+        if (!path.startsWith(home + File.separator)) {
+            throw new IOException(file + " is not located in the repository home "
+                    + repositoryHome);
+        }
+        return path.substring(home.length() + 1).replace(File.separatorChar, '/');
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sync notifier that sends a UDP multicast datagram for every appended
+ * revision. It is configured through the following properties:
+ * <ul>
+ * <li><code>group</code>: the multicast group address
+ * (default = <code>239.255.42.42</code>)</li>
+ * <li><code>port</code>: the UDP port (default = <code>45564</code>)</li>
+ * <li><code>timeToLive</code>: the time to live of the datagrams
+ * (default = <code>1</code>, which keeps them in the local network)</li>
+ * </ul>
+ * All nodes of a cluster must use the same group and port. Datagrams may be
+ * lost, which only delays synchronization until the next periodic sync.
+ */
+public class MulticastSyncNotifier implements SyncNotifier, Runnable {
+
+    /**
+     * Logger.
+     */
+    private static Logger log = LoggerFactory.getLogger(MulticastSyncNotifier.class);
+
+    /**
+     * Maximum size of a datagram.
+     */
+    private static final int MAX_PACKET_SIZE = 1024;
+
+    /**
+     * Multicast group, bean property.
+     */
+    private String group = "239.255.42.42";
+
+    /**
+     * UDP port, bean property.
+     */
+    private int port = 45564;
+
+    /**
+     * Time to live, bean property.
+     */
+    private int timeToLive = 1;
+
+    /**
+     * Id of the local cluster node.
+     */
+    private String clusterNodeId;
+
+    /**
+     * Listener to inform.
+     */
+    private Listener listener;
+
+    /**
+     * The multicast socket.
+     */
+    private MulticastSocket socket;
+
+    /**
+     * The resolved multicast group address.
+     */
+    private InetAddress address;
+
+    /**
+     * Receiver thread.
+     */
+    private Thread receiver;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void init(String clusterNodeId, Listener listener) throws ClusterException {
+        this.clusterNodeId = clusterNodeId;
+        this.listener = listener;
+        try {
+            address = InetAddress.getByName(group);
+            socket = new MulticastSocket(port);
+            socket.setTimeToLive(timeToLive);
+            socket.joinGroup(address);
+        } catch (IOException e) {
+            close();
+            throw new ClusterException("Unable to join multicast group "
+                    + group + ":" + port, e);
+        }
+        receiver = new Thread(this, "ClusterSyncNotifier-" + clusterNodeId);
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void revisionAppended(long revision) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeUTF(clusterNodeId);
+            data.writeLong(revision);
+            data.flush();
+            byte[] buf = out.toByteArray();
+            socket.send(new DatagramPacket(buf, buf.length, address, port));
+        } catch (IOException e) {
+            log.warn("Unable to send notification for revision " + revision, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        if (socket != null) {
+            socket.close();
+        }
+        if (receiver != null) {
+            receiver.interrupt();
+        }
+    }
+
+    /**
+     * Receives notifications of other cluster nodes until the socket is
+     * closed.
+     */
+    public void run() {
+        byte[] buf = new byte[MAX_PACKET_SIZE];
+        while (!socket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buf, buf.length);
+            try {
+                socket.receive(packet);
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                        packet.getData(), packet.getOffset(), packet.getLength()));
+                String id = in.readUTF();
+                long revision = in.readLong();
+                if (!clusterNodeId.equals(id)) {
+                    listener.revisionAppended(id, revision);
+                }
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    log.warn("Unable to receive notification", e);
+                }
+            }
+        }
+    }
+
+    //----------------------------------------------------< bean properties >
+
+    public String getGroup() {
+        return group;
+    }
+
+    public void setGroup(String group) {
+        this.group = group;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public int getTimeToLive() {
+        return timeToLive;
+    }
+
+    public void setTimeToLive(int timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+}
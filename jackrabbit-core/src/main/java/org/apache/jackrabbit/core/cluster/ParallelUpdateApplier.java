@@ -0,0 +1,415 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.id.ItemId;
+import org.apache.jackrabbit.core.observation.EventState;
+import org.apache.jackrabbit.core.state.ChangeLog;
+import org.apache.jackrabbit.core.state.ItemState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies external workspace updates on a pool of worker threads while a
+ * cluster node catches up with a large journal backlog. Updates of the same
+ * workspace are applied serially and in revision order; updates of different
+ * workspaces are applied concurrently. Consecutive queued updates of a
+ * workspace that carry the same user data and timestamp are coalesced into a
+ * single {@link UpdateEventListener#externalUpdate} call, which also lets the
+ * search index of the workspace process them in one batch.
+ * <p>
+ * The synchronization thread submits updates with {@link #submit} and calls
+ * {@link #drain()} before it processes any record that must not be reordered
+ * with workspace updates, and before it persists the instance revision. If
+ * an update failed, {@link #getFailedRevision()} tells up to which revision
+ * the submitted updates have been applied in order.
+ */
+class ParallelUpdateApplier {
+
+    /**
+     * Logger.
+     */
+    private static Logger log = LoggerFactory.getLogger(ParallelUpdateApplier.class);
+
+    /**
+     * Maximum number of records coalesced into a single update.
+     */
+    static final int MAX_BATCH_SIZE = 100;
+
+    /**
+     * Maximum number of queued records before {@link #submit} blocks, which
+     * bounds the memory used by records decoded ahead of their application.
+     */
+    static final int MAX_PENDING = 1000;
+
+    /**
+     * Worker threads.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Queues, indexed by workspace name. Guarded by <code>this</code>.
+     */
+    private final Map<String, WorkspaceQueue> queues = new HashMap<String, WorkspaceQueue>();
+
+    /**
+     * Number of queued records not yet taken by a worker. Guarded by
+     * <code>this</code>.
+     */
+    private int pending;
+
+    /**
+     * Number of queues scheduled on a worker. Guarded by <code>this</code>.
+     */
+    private int active;
+
+    /**
+     * Failure of a worker that must stop the synchronization, reported by
+     * the next {@link #drain()}. Guarded by <code>this</code>.
+     */
+    private IllegalStateException failure;
+
+    /**
+     * Revisions of the submitted records that have not been applied yet.
+     * Guarded by <code>this</code>.
+     */
+    private final TreeSet<Long> unapplied = new TreeSet<Long>();
+
+    /**
+     * Lowest revision that was not applied when {@link #drain()} last
+     * reported a failure. Guarded by <code>this</code>.
+     */
+    private long failedRevision = Long.MAX_VALUE;
+
+    /**
+     * Whether this applier has been closed. Guarded by <code>this</code>.
+     */
+    private boolean closed;
+
+    /**
+     * Creates a new applier.
+     *
+     * @param clusterNodeId id of the cluster node, used in thread names
+     * @param threads number of worker threads
+     */
+    public ParallelUpdateApplier(final String clusterNodeId, int threads) {
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ClusterNode-" + clusterNodeId
+                        + "-apply-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Queues an update of a workspace. Blocks while too many records are
+     * queued.
+     *
+     * @param workspace workspace name
+     * @param listener listener to deliver the update to
+     * @param record record to apply
+     * @throws IllegalStateException if this applier has been closed
+     */
+    public synchronized void submit(
+            String workspace, UpdateEventListener listener, ChangeLogRecord record)
+            throws IllegalStateException {
+        while (pending >= MAX_PENDING && failure == null && !closed) {
+            await();
+        }
+        if (closed) {
+            throw new IllegalStateException("Cluster node stopped.");
+        }
+        WorkspaceQueue queue = queues.get(workspace);
+        if (queue == null) {
+            queue = new WorkspaceQueue(listener);
+            queues.put(workspace, queue);
+        }
+        queue.records.add(record);
+        unapplied.add(record.getRevision());
+        pending++;
+        if (!queue.scheduled) {
+            queue.scheduled = true;
+            active++;
+            try {
+                executor.execute(queue);
+            } catch (RejectedExecutionException e) {
+                throw new IllegalStateException("Cluster node stopped.");
+            }
+        }
+    }
+
+    /**
+     * Waits until all queued updates have been applied. Records that were
+     * not applied due to a failure are discarded, and the lowest revision
+     * among them is remembered for {@link #getFailedRevision()}.
+     *
+     * @throws IllegalStateException if applying an update failed in a way
+     *         that must stop the synchronization
+     */
+    public synchronized void drain() throws IllegalStateException {
+        while (active > 0) {
+            await();
+        }
+        if (failure != null) {
+            IllegalStateException e = failure;
+            failure = null;
+            failedRevision = unapplied.first();
+            unapplied.clear();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the lowest revision that was not applied when {@link #drain()}
+     * last reported a failure. All submitted records with a lower revision
+     * have been applied.
+     *
+     * @return the lowest revision not applied, or {@link Long#MAX_VALUE}
+     *         if no failure has been reported
+     */
+    public synchronized long getFailedRevision() {
+        return failedRevision;
+    }
+
+    /**
+     * Stops the worker threads. Updates still queued are discarded.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            queues.clear();
+            unapplied.clear();
+            pending = 0;
+            active = 0;
+            notifyAll();
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Waits for a change of the queue state, restoring the interrupt status
+     * if interrupted.
+     */
+    private void await() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while applying updates.");
+        }
+    }
+
+    /**
+     * Takes the next batch of records from a queue, or marks the queue as
+     * idle if it is empty.
+     *
+     * @param queue the queue
+     * @return the records to apply, or <code>null</code> if the queue is empty
+     */
+    private synchronized List<ChangeLogRecord> take(WorkspaceQueue queue) {
+        if (closed) {
+            return null;
+        }
+        if (queue.records.isEmpty() || failure != null) {
+            pending -= queue.records.size();
+            queue.records.clear();
+            queue.scheduled = false;
+            active--;
+            notifyAll();
+            return null;
+        }
+        List<ChangeLogRecord> batch = new ArrayList<ChangeLogRecord>();
+        ChangeLogRecord first = queue.records.removeFirst();
+        batch.add(first);
+        while (batch.size() < MAX_BATCH_SIZE && !queue.records.isEmpty()
+                && first.getTimestamp() == queue.records.getFirst().getTimestamp()
+                && equals(first.getUserData(), queue.records.getFirst().getUserData())) {
+            batch.add(queue.records.removeFirst());
+        }
+        pending -= batch.size();
+        notifyAll();
+        return batch;
+    }
+
+    /**
+     * Records a failure to be reported by {@link #drain()}.
+     *
+     * @param e the failure
+     */
+    private synchronized void failed(IllegalStateException e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Marks a batch of records as applied.
+     *
+     * @param batch the records
+     */
+    private synchronized void applied(List<ChangeLogRecord> batch) {
+        for (ChangeLogRecord record : batch) {
+            unapplied.remove(record.getRevision());
+        }
+    }
+
+    /**
+     * Applies a batch of records of the same workspace, which share their
+     * timestamp and user data.
+     *
+     * @param listener listener to deliver the update to
+     * @param batch records to apply, in revision order
+     */
+    private void apply(UpdateEventListener listener, List<ChangeLogRecord> batch) {
+        ChangeLogRecord last = batch.get(batch.size() - 1);
+        try {
+            if (batch.size() == 1) {
+                listener.externalUpdate(last.getChanges(), last.getEvents(),
+                        last.getTimestamp(), last.getUserData());
+            } else {
+                List<ChangeLog> changes = new ArrayList<ChangeLog>();
+                List<EventState> events = new ArrayList<EventState>();
+                for (ChangeLogRecord record : batch) {
+                    changes.add(record.getChanges());
+                    events.addAll(record.getEvents());
+                }
+                listener.externalUpdate(coalesce(changes), events,
+                        last.getTimestamp(), last.getUserData());
+            }
+            applied(batch);
+        } catch (RepositoryException e) {
+            String msg = "Unable to deliver update events: " + e.getMessage();
+            log.error(msg);
+            if (e.getCause() instanceof IllegalStateException) {
+                failed((IllegalStateException) e.getCause());
+            } else {
+                applied(batch);
+            }
+        } catch (IllegalStateException e) {
+            failed(e);
+        } catch (RuntimeException e) {
+            String msg = "Unable to apply external update up to revision "
+                    + last.getRevision();
+            log.error(msg, e);
+            failed(new IllegalStateException(msg, e));
+        }
+    }
+
+    /**
+     * Coalesces the changes of several updates into one change log. External
+     * updates only reload modified states and evict deleted ones, hence each
+     * state is reported as the last record that touched it left it: deleted,
+     * modified or added. A state added again after it was deleted by an
+     * earlier record is reported as modified, so that a cached copy of the
+     * deleted state is reloaded.
+     *
+     * @param batch change logs to coalesce, in revision order
+     * @return the coalesced change log
+     */
+    static ChangeLog coalesce(List<ChangeLog> batch) {
+        Map<ItemId, ItemState> added = new LinkedHashMap<ItemId, ItemState>();
+        Map<ItemId, ItemState> modified = new LinkedHashMap<ItemId, ItemState>();
+        Map<ItemId, ItemState> deleted = new LinkedHashMap<ItemId, ItemState>();
+        for (ChangeLog changes : batch) {
+            for (ItemState state : changes.deletedStates()) {
+                ItemId id = state.getId();
+                added.remove(id);
+                modified.remove(id);
+                deleted.put(id, state);
+            }
+            for (ItemState state : changes.modifiedStates()) {
+                ItemId id = state.getId();
+                added.remove(id);
+                deleted.remove(id);
+                modified.put(id, state);
+            }
+            for (ItemState state : changes.addedStates()) {
+                ItemId id = state.getId();
+                if (deleted.remove(id) != null || modified.containsKey(id)) {
+                    modified.put(id, state);
+                } else {
+                    added.put(id, state);
+                }
+            }
+        }
+        ChangeLog changes = new ChangeLog();
+        for (ItemState state : deleted.values()) {
+            changes.deleted(state);
+        }
+        for (ItemState state : modified.values()) {
+            changes.modified(state);
+        }
+        for (ItemState state : added.values()) {
+            changes.added(state);
+        }
+        return changes;
+    }
+
+    private static boolean equals(String s1, String s2) {
+        return s1 == null ? s2 == null : s1.equals(s2);
+    }
+
+    /**
+     * Records queued for a workspace.
+     */
+    private class WorkspaceQueue implements Runnable {
+
+        /**
+         * Listener of the workspace.
+         */
+        private final UpdateEventListener listener;
+
+        /**
+         * Queued records. Guarded by the applier.
+         */
+        private final LinkedList<ChangeLogRecord> records = new LinkedList<ChangeLogRecord>();
+
+        /**
+         * Whether this queue is scheduled on a worker. Guarded by the applier.
+         */
+        private boolean scheduled;
+
+        public WorkspaceQueue(UpdateEventListener listener) {
+            this.listener = listener;
+        }
+
+        public void run() {
+            List<ChangeLogRecord> batch;
+            while ((batch = take(this)) != null) {
+                apply(listener, batch);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+/**
+ * Notifies the other nodes of a cluster when a revision has been appended to
+ * the journal, so they can synchronize immediately instead of waiting for
+ * their next periodic synchronization. Notifications are hints only: a
+ * cluster node keeps synchronizing every <code>syncDelay</code> milliseconds,
+ * hence a lost notification merely delays the visibility of a change.
+ */
+public interface SyncNotifier {
+
+    /**
+     * Initializes this notifier and starts receiving notifications of other
+     * cluster nodes.
+     *
+     * @param clusterNodeId id of the local cluster node
+     * @param listener listener to inform about revisions appended by other
+     *                 cluster nodes
+     * @throws ClusterException if an error occurs
+     */
+    void init(String clusterNodeId, Listener listener) throws ClusterException;
+
+    /**
+     * Notifies the other cluster nodes that the local cluster node appended
+     * a revision to the journal. Must not block and must not throw.
+     *
+     * @param revision the appended revision
+     */
+    void revisionAppended(long revision);
+
+    /**
+     * Stops receiving notifications and releases all resources.
+     */
+    void close();
+
+    /**
+     * Listener receiving the notifications of other cluster nodes.
+     */
+    interface Listener {
+
+        /**
+         * Invoked when another cluster node appended a revision.
+         *
+         * @param clusterNodeId id of the cluster node that appended the revision
+         * @param revision the appended revision
+         */
+        void revisionAppended(String clusterNodeId, long revision);
+    }
+}
@@ -45,6 +45,16 @@ public interface UpdateEventChannel {
      */
     void updateCommitted(Update update, String path);
 
+    /**
+     * Called after an update operation has been committed, once its events
+     * have been dispatched and the locks held for it have been released.
+     * Waits until the journal record of the update is committed, if the
+     * journal shares that commit with the next update.
+     *
+     * @param update update operation
+     */
+    void updateReleased(Update update);
+
     /**
      * Called when an a update operation has been cancelled.
      *
@@ -18,6 +18,8 @@ package org.apache.jackrabbit.core.config;
 
 import javax.jcr.RepositoryException;
 
+import org.apache.jackrabbit.core.cluster.ClusterNode;
+import org.apache.jackrabbit.core.cluster.SyncNotifier;
 import org.apache.jackrabbit.core.journal.Journal;
 import org.apache.jackrabbit.core.journal.JournalFactory;
 import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
@@ -47,6 +49,16 @@ public class ClusterConfig implements JournalFactory {
      */
     private final JournalFactory jf;
 
+    /**
+     * Sync notifier configuration, or <code>null</code>.
+     */
+    private final BeanConfig notifierConfig;
+
+    /**
+     * Catch-up threshold.
+     */
+    private final int catchUpThreshold;
+
     /**
      * Creates a new cluster configuration.
      *
@@ -68,10 +80,44 @@ public class ClusterConfig implements JournalFactory {
      */
     public ClusterConfig(String id, long syncDelay,
                          long stopDelay, JournalFactory jf) {
+        this(id, syncDelay, stopDelay, jf, null);
+    }
+
+    /**
+     * Creates a new cluster configuration.
+     *
+     * @param id custom cluster node id
+     * @param syncDelay syncDelay, in milliseconds
+     * @param stopDelay stopDelay in milliseconds
+     * @param jf journal factory
+     * @param notifierConfig sync notifier configuration, or <code>null</code>
+     */
+    public ClusterConfig(String id, long syncDelay, long stopDelay,
+                         JournalFactory jf, BeanConfig notifierConfig) {
+        this(id, syncDelay, stopDelay, jf, notifierConfig,
+                ClusterNode.DEFAULT_CATCH_UP_THRESHOLD);
+    }
+
+    /**
+     * Creates a new cluster configuration.
+     *
+     * @param id custom cluster node id
+     * @param syncDelay syncDelay, in milliseconds
+     * @param stopDelay stopDelay in milliseconds
+     * @param jf journal factory
+     * @param notifierConfig sync notifier configuration, or <code>null</code>
+     * @param catchUpThreshold number of records a sync must process before
+     *                         it switches to catch-up mode, or <code>0</code>
+     */
+    public ClusterConfig(String id, long syncDelay, long stopDelay,
+                         JournalFactory jf, BeanConfig notifierConfig,
+                         int catchUpThreshold) {
         this.id = id;
         this.syncDelay = syncDelay;
         this.stopDelay = stopDelay < 0 ? syncDelay * 10 : stopDelay;
         this.jf = jf;
+        this.notifierConfig = notifierConfig;
+        this.catchUpThreshold = catchUpThreshold;
     }
 
     /**
@@ -99,6 +145,15 @@ public class ClusterConfig implements JournalFactory {
         return stopDelay;
     }
 
+    /**
+     * Return the catchUpThreshold configuration attribute value.
+     *
+     * @return catchUpThreshold
+     */
+    public int getCatchUpThreshold() {
+        return catchUpThreshold;
+    }
+
     /**
      * Returns an initialized journal instance.
      *
@@ -112,4 +167,18 @@ public class ClusterConfig implements JournalFactory {
         return jf.getJournal(resolver);
     }
 
+    /**
+     * Returns a new sync notifier instance, or <code>null</code> if no
+     * sync notifier is configured.
+     *
+     * @return sync notifier, or <code>null</code>
+     * @throws ConfigurationException if the sync notifier can not be created
+     */
+    public SyncNotifier getSyncNotifier() throws ConfigurationException {
+        if (notifierConfig == null) {
+            return null;
+        }
+        return notifierConfig.newInstance(SyncNotifier.class);
+    }
+
 }
@@ -28,6 +28,7 @@ import javax.xml.parsers.DocumentBuilderFactory;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.jackrabbit.core.cluster.ClusterNode;
+import org.apache.jackrabbit.core.data.ChunkingDataStore;
 import org.apache.jackrabbit.core.data.DataStore;
 import org.apache.jackrabbit.core.data.DataStoreFactory;
 import org.apache.jackrabbit.core.data.MultiDataStore;
@@ -136,6 +137,9 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
     /** Name of the journal configuration element. */
     public static final String JOURNAL_ELEMENT = "Journal";
 
+    /** Name of the cluster sync notifier configuration element. */
+    public static final String SYNC_NOTIFIER_ELEMENT = "SyncNotifier";
+
     /** Name of the data store configuration element. */
     public static final String DATA_STORE_ELEMENT = "DataStore";
 
@@ -181,6 +185,9 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
     /** Name of the stopDelay configuration attribute. */
     public static final String STOP_DELAY_ATTRIBUTE = "stopDelay";
 
+    /** Name of the catchUpThreshold configuration attribute. */
+    public static final String CATCH_UP_THRESHOLD_ATTRIBUTE = "catchUpThreshold";
+
     /** Name of the default search index implementation class. */
     public static final String DEFAULT_QUERY_HANDLER =
         "org.apache.jackrabbit.core.query.lucene.SearchIndex";
@@ -194,6 +201,9 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
     /** Name of the archive DataStore class attribute. */
     public static final String ARCHIVE_DATASTORE_ATTRIBUTE = "archive";
 
+    /** Name of the chunk DataStore class attribute. */
+    public static final String CHUNK_DATASTORE_ATTRIBUTE = "chunkStore";
+
     /** Default synchronization delay, in milliseconds. */
     public static final String DEFAULT_SYNC_DELAY = "5000";
 
@@ -844,11 +854,15 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
      * <pre>
      *   &lt;Cluster&gt;
      *     &lt;Journal ...&gt;
-     *   &lt;/Journal&gt;
+     *     &lt;/Journal&gt;
+     *     &lt;SyncNotifier class="..."&gt;
+     *       &lt;param name="..." value="..."&gt;
+     *     &lt;/SyncNotifier&gt;
+     *   &lt;/Cluster&gt;
      * </pre>
      * <p>
      * <code>Cluster</code> is a {@link #parseBeanConfig(Element,String) bean configuration}
-     * element.
+     * element. The <code>SyncNotifier</code> element is optional.
      * <p>
      * Clustering is an optional feature. If the cluster element is not found, then this
      * method returns <code>null</code>.
@@ -893,9 +907,18 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
                         element, SYNC_DELAY_ATTRIBUTE, DEFAULT_SYNC_DELAY)));
                 long stopDelay = Long.parseLong(replaceVariables(getAttribute(
                         element, STOP_DELAY_ATTRIBUTE, "-1")));
+                int catchUpThreshold = Integer.parseInt(replaceVariables(getAttribute(
+                        element, CATCH_UP_THRESHOLD_ATTRIBUTE,
+                        String.valueOf(ClusterNode.DEFAULT_CATCH_UP_THRESHOLD))));
 
                 JournalFactory jf = getJournalFactory(element, home, id);
-                return new ClusterConfig(id, syncDelay, stopDelay, jf);
+
+                BeanConfig notifierConfig = null;
+                if (getElement(element, SYNC_NOTIFIER_ELEMENT, false) != null) {
+                    notifierConfig = parseBeanConfig(element, SYNC_NOTIFIER_ELEMENT);
+                }
+                return new ClusterConfig(id, syncDelay, stopDelay, jf,
+                        notifierConfig, catchUpThreshold);
             }
         }
         return null;
@@ -1008,6 +1031,16 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
      *     &lt;/param&gt;
      *   &lt;/DataStore&gt;
      * </pre>
+     * A chunking data store is configured the same way, with a nested
+     * <code>chunkStore</code> parameter:
+     * <pre>
+     *   &lt;DataStore class="org.apache.jackrabbit.core.data.ChunkingDataStore"&gt;
+     *     &lt;param name="chunkStore" value="org.apache.jackrabbit.core.data.FileDataStore"&gt;
+     *         &lt;param name="..." value="..."&gt;
+     *         ...
+     *     &lt;/param&gt;
+     *   &lt;/DataStore&gt;
+     * </pre>
      * <p>
      * <code>DataStore</code> is a {@link #parseBeanConfig(Element,String) bean configuration}
      * element.
@@ -1040,21 +1073,7 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
                                         && (PRIMARY_DATASTORE_ATTRIBUTE.equals(paramNode.getAttributes().getNamedItem("name").getNodeValue())
                                                 || ARCHIVE_DATASTORE_ATTRIBUTE.equals(paramNode.getAttributes().getNamedItem("name").getNodeValue()))) {
                                     try {
-                                        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
-                                        Element newParent = document.createElement("parent");
-                                        document.appendChild(newParent);
-                                        Element datastoreElement = document.createElement(DATA_STORE_ELEMENT);
-                                        newParent.appendChild(datastoreElement);
-                                        NodeList childNodes = paramNode.getChildNodes();
-                                        for (int y = 0; childNodes.getLength() > y; y++) {
-                                            datastoreElement.appendChild(document.importNode(childNodes.item(y), true));
-                                        }
-                                        NamedNodeMap attributes = paramNode.getAttributes();
-                                        for (int z = 0; attributes.getLength() > z; z++) {
-                                            Node item = attributes.item(z);
-                                            datastoreElement.setAttribute(CLASS_ATTRIBUTE, item.getNodeValue());
-                                        }
-                                        DataStore subDataStore = getDataStoreFactory(newParent, directory).getDataStore();
+                                        DataStore subDataStore = getSubDataStore(paramNode, directory);
                                         if (!MultiDataStoreAware.class.isAssignableFrom(subDataStore.getClass())) {
                                             throw new ConfigurationException("Only MultiDataStoreAware datastore's can be used within a MultiDataStore.");
                                         }
@@ -1074,6 +1093,20 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
                             }
                             ((MultiDataStore) store).setPrimaryDataStore(primary);
                             ((MultiDataStore) store).setArchiveDataStore(archive);
+                        } else if (store instanceof ChunkingDataStore) {
+                            NodeList subParamNodes = child.getChildNodes();
+                            for (int x = 0; x < subParamNodes.getLength(); x++) {
+                                Node paramNode = subParamNodes.item(x);
+                                if (paramNode.getNodeType() == Node.ELEMENT_NODE
+                                        && CHUNK_DATASTORE_ATTRIBUTE.equals(getAttribute((Element) paramNode, NAME_ATTRIBUTE))) {
+                                    try {
+                                        ((ChunkingDataStore) store).setChunkDataStore(
+                                                getSubDataStore(paramNode, directory));
+                                    } catch (Exception e) {
+                                        throw new ConfigurationException("Failed to parse the ChunkingDataStore element.", e);
+                                    }
+                                }
+                            }
                         }
                         store.init(directory);
                         return store;
@@ -1084,6 +1117,37 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
         };
     }
 
+    /**
+     * Creates and initializes the data store configured by a nested
+     * <code>param</code> element of a data store configuration. The class
+     * attribute of the data store is the value of the element, and its
+     * parameters are the nested elements.
+     *
+     * @param paramNode the <code>param</code> element
+     * @param directory the repository directory
+     * @return the initialized data store
+     * @throws Exception if the configuration is broken or the data store
+     *                   can not be initialized
+     */
+    private DataStore getSubDataStore(Node paramNode, String directory)
+            throws Exception {
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element newParent = document.createElement("parent");
+        document.appendChild(newParent);
+        Element datastoreElement = document.createElement(DATA_STORE_ELEMENT);
+        newParent.appendChild(datastoreElement);
+        NodeList childNodes = paramNode.getChildNodes();
+        for (int y = 0; childNodes.getLength() > y; y++) {
+            datastoreElement.appendChild(document.importNode(childNodes.item(y), true));
+        }
+        NamedNodeMap attributes = paramNode.getAttributes();
+        for (int z = 0; attributes.getLength() > z; z++) {
+            Node item = attributes.item(z);
+            datastoreElement.setAttribute(CLASS_ATTRIBUTE, item.getNodeValue());
+        }
+        return getDataStoreFactory(newParent, directory).getDataStore();
+    }
+
     /**
      * Parses repository lock mechanism configuration. Repository lock mechanism
      * configuration uses the following format:
@@ -47,10 +47,14 @@ import org.apache.jackrabbit.api.management.DataStoreGarbageCollector;
 import org.apache.jackrabbit.api.management.MarkEventListener;
 import org.apache.jackrabbit.core.RepositoryContext;
 import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.data.DataIdentifier;
+import org.apache.jackrabbit.core.data.DataIdentifierFilter;
 import org.apache.jackrabbit.core.data.DataStore;
+import org.apache.jackrabbit.core.data.MarkAndSweepAware;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.PropertyId;
 import org.apache.jackrabbit.core.observation.SynchronousEventListener;
+import org.apache.jackrabbit.core.persistence.BinaryReferenceIndex;
 import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
 import org.apache.jackrabbit.core.persistence.PersistenceManager;
 import org.apache.jackrabbit.core.persistence.util.NodeInfo;
@@ -122,6 +126,26 @@ public class GarbageCollector implements DataStoreGarbageCollector {
      */
     private static final boolean NODE_ID_SCAN = Boolean.getBoolean("org.apache.jackrabbit.garbagecollector.node_id.scan");
 
+    /**
+     * Set this System Property to true to collect the identifiers of the
+     * referenced binaries during a persistence manager scan, instead of
+     * updating the modified date of each referenced record. Only used if
+     * the data store supports it, see {@link MarkAndSweepAware}.
+     */
+    private static final boolean COLLECT_REFERENCES = Boolean.getBoolean("org.apache.jackrabbit.garbagecollector.collect_references");
+
+    /**
+     * The number of identifiers the filter of referenced binaries is sized
+     * for initially. It grows as needed.
+     */
+    private static final int REFERENCES_INITIAL_CAPACITY = 1024 * 1024;
+
+    /**
+     * The false positive rate of the filter of referenced binaries. A false
+     * positive keeps an unreferenced record until the next collection.
+     */
+    private static final double REFERENCES_FALSE_POSITIVE_RATE = 0.01;
+
     private MarkEventListener callback;
 
     private long sleepBetweenNodes;
@@ -148,6 +172,14 @@ public class GarbageCollector implements DataStoreGarbageCollector {
 
     private boolean persistenceManagerScan;
 
+    private boolean collectReferences = COLLECT_REFERENCES;
+
+    /**
+     * The identifiers of the binaries found by the persistence manager
+     * scan, or null if the modified date of the records is updated instead.
+     */
+    private volatile DataIdentifierFilter references;
+
     private volatile RepositoryException observationException;
 
     /**
@@ -223,6 +255,11 @@ public class GarbageCollector implements DataStoreGarbageCollector {
                 scanNodes(s);
             }
         } else {
+            if (collectReferences && store instanceof MarkAndSweepAware
+                    && references == null) {
+                references = new DataIdentifierFilter(
+                        REFERENCES_INITIAL_CAPACITY, REFERENCES_FALSE_POSITIVE_RATE);
+            }
             try {
                 if (!NODE_ID_SCAN) {
                     scanPersistenceManagersByNodeInfos();
@@ -232,6 +269,11 @@ public class GarbageCollector implements DataStoreGarbageCollector {
             } catch (ItemStateException e) {
                 throw new RepositoryException(e);
             }
+            if (references != null) {
+                LOG.info("Found " + references.getCount()
+                        + " referenced binaries, the filter uses "
+                        + references.getMemoryUsage() + " bytes");
+            }
         }
     }
 
@@ -254,10 +296,30 @@ public class GarbageCollector implements DataStoreGarbageCollector {
         return persistenceManagerScan;
     }
 
+    /**
+     * Whether the persistence manager scan collects the identifiers of the
+     * referenced binaries, so that the sweep deletes the records that are
+     * not referenced, instead of updating the modified date of every
+     * referenced record. This is only done if the data store implements
+     * {@link MarkAndSweepAware}, otherwise the modified dates are updated.
+     *
+     * @param collectReferences true to collect the references
+     */
+    public void setCollectReferences(boolean collectReferences) {
+        this.collectReferences = collectReferences;
+    }
+
+    public boolean isCollectReferences() {
+        return collectReferences;
+    }
+
     private void scanPersistenceManagersByNodeInfos() throws RepositoryException, ItemStateException {
         int pmCount = 0;
         for (IterablePersistenceManager pm : pmList) {
             pmCount++;
+            if (scanBinaryReferences(pm, pmCount)) {
+                continue;
+            }
             int count = 0;
             Map<NodeId,NodeInfo> batch = pm.getAllNodeInfos(null, NODESATONCE);
             while (!batch.isEmpty()) {
@@ -280,9 +342,7 @@ public class GarbageCollector implements DataStoreGarbageCollector {
                                 PropertyState ps = pm.load(pid);
                                 if (ps.getType() == PropertyType.BINARY) {
                                     for (InternalValue v : ps.getValues()) {
-                                        // getLength will update the last modified date
-                                        // if the persistence manager scan is running
-                                        v.getLength();
+                                        markBinary(v);
                                     }
                                 }
                             }
@@ -301,6 +361,9 @@ public class GarbageCollector implements DataStoreGarbageCollector {
         int pmCount = 0;
         for (IterablePersistenceManager pm : pmList) {
             pmCount++;
+            if (scanBinaryReferences(pm, pmCount)) {
+                continue;
+            }
             List<NodeId> allNodeIds = pm.getAllNodeIds(null, 0);
             int overAllCount = allNodeIds.size();
             if (overAllCount > minSplitSize) {
@@ -350,9 +413,7 @@ public class GarbageCollector implements DataStoreGarbageCollector {
                     PropertyState ps = pm.load(pid);
                     if (ps.getType() == PropertyType.BINARY) {
                         for (InternalValue v : ps.getValues()) {
-                            // getLength will update the last modified date
-                            // if the persistence manager scan is running
-                            v.getLength();
+                            markBinary(v);
                         }
                     }
                 }
@@ -363,6 +424,92 @@ public class GarbageCollector implements DataStoreGarbageCollector {
         }
     }
 
+    /**
+     * Reads the binary references from the index of the persistence manager,
+     * if it maintains one, without loading the node states. The index is
+     * only used if it is complete before and after it is read; otherwise
+     * the bundles need to be scanned, which only marks more binaries.
+     *
+     * @param pm the persistence manager
+     * @param pmCount the number of the persistence manager, for logging
+     * @return false if the persistence manager does not maintain a complete
+     *         index
+     */
+    private boolean scanBinaryReferences(IterablePersistenceManager pm, int pmCount)
+            throws RepositoryException, ItemStateException {
+        if (!(pm instanceof BinaryReferenceIndex)
+                || !((BinaryReferenceIndex) pm).isBinaryReferenceIndexEnabled()) {
+            return false;
+        }
+        BinaryReferenceIndex index = (BinaryReferenceIndex) pm;
+        String marker = index.getBinaryReferenceIndexMarker();
+        if (marker == null) {
+            LOG.warn(pm.toString() + ": the binary reference index is not complete, scanning the bundles");
+            return false;
+        }
+        int count = 0;
+        Map<NodeId, Set<DataIdentifier>> batch =
+            index.getAllBinaryReferences(null, NODESATONCE);
+        while (!batch.isEmpty()) {
+            NodeId lastId = null;
+            for (Map.Entry<NodeId, Set<DataIdentifier>> entry : batch.entrySet()) {
+                count++;
+                if (count % 1000 == 0) {
+                    LOG.debug(pm.toString() + " (" + pmCount + "/" + pmList.length + "): analyzed " + count + " nodes with binaries...");
+                }
+                lastId = entry.getKey();
+                if (callback != null) {
+                    callback.beforeScanning(null);
+                }
+                for (DataIdentifier identifier : entry.getValue()) {
+                    markIdentifier(identifier);
+                }
+            }
+            batch = index.getAllBinaryReferences(lastId, NODESATONCE);
+        }
+        if (!marker.equals(index.getBinaryReferenceIndexMarker())) {
+            LOG.warn(pm.toString() + ": the binary reference index was disabled or built again while it was read, scanning the bundles");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Marks a binary found by the persistence manager scan as referenced.
+     *
+     * @param v the binary value
+     */
+    private void markBinary(InternalValue v) throws RepositoryException {
+        DataIdentifierFilter filter = references;
+        if (filter == null) {
+            // getLength will update the last modified date
+            // if the persistence manager scan is running
+            v.getLength();
+        } else {
+            DataIdentifier identifier = v.getDataIdentifier();
+            if (identifier != null) {
+                filter.add(identifier);
+            }
+        }
+    }
+
+    /**
+     * Marks a data store record read from a binary reference index as
+     * referenced.
+     *
+     * @param identifier the data identifier
+     */
+    private void markIdentifier(DataIdentifier identifier) throws RepositoryException {
+        DataIdentifierFilter filter = references;
+        if (filter == null) {
+            // reading the record updates the last modified date
+            // if the persistence manager scan is running
+            store.getRecordIfStored(identifier);
+        } else {
+            filter.add(identifier);
+        }
+    }
+
     private <T> List<List<T>> splitIntoParts(List<T> ls, int parts) {
         final List<List<T>> listParts = new ArrayList<List<T>>();
         final int chunkSize = ls.size() / parts;
@@ -404,6 +551,12 @@ public class GarbageCollector implements DataStoreGarbageCollector {
             throw new RepositoryException("scan must be called first");
         }
         stopScan();
+        DataIdentifierFilter filter = references;
+        references = null;
+        if (filter != null) {
+            return ((MarkAndSweepAware) store).deleteAllUnreferencedOlderThan(
+                    startScanTimestamp, filter);
+        }
         return store.deleteAllOlderThan(startScanTimestamp);
     }
 
@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.jackrabbit.core.util.XAReentrantWriterPreferenceReadWriteLock;
 import org.apache.jackrabbit.core.version.InternalVersionManagerImpl;
@@ -40,6 +41,11 @@ public abstract class AbstractJournal implements Journal {
      */
     private static Logger log = LoggerFactory.getLogger(AbstractJournal.class);
 
+    /**
+     * Name of the timestamp index file in the repository home.
+     */
+    private static final String TIMESTAMP_INDEX_FILE = "journal-timestamps.idx";
+
     /**
      * Journal id.
      */
@@ -71,6 +77,11 @@ public abstract class AbstractJournal implements Journal {
      */
     private final XAReentrantWriterPreferenceReadWriteLock rwLock = new XAReentrantWriterPreferenceReadWriteLock();
 
+    /**
+     * Number of threads currently waiting for the write lock.
+     */
+    private final AtomicInteger pendingLocks = new AtomicInteger();
+
     /**
      * The path of the local revision file on disk. Configurable through the repository.xml.
      *
@@ -80,6 +91,29 @@ public abstract class AbstractJournal implements Journal {
      */
     private String revision;
 
+    /**
+     * Whether appended records use the compact format. Records in the
+     * compact format can only be read by cluster nodes that support it,
+     * therefore this is disabled by default.
+     */
+    private boolean compactRecords;
+
+    /**
+     * Whether appended records are compressed. Implies the compact format.
+     */
+    private boolean compressRecords;
+
+    /**
+     * Minimum interval between two entries of the timestamp index, in
+     * milliseconds. A value of <code>0</code> or less disables the index.
+     */
+    private long timestampIndexInterval = TimestampIndex.DEFAULT_INTERVAL;
+
+    /**
+     * Timestamp index, created on first access.
+     */
+    private TimestampIndex timestampIndex;
+
     /**
      * Repository home.
      */
@@ -306,11 +340,14 @@ public abstract class AbstractJournal implements Journal {
     }
 
     private void internalLockAndSync() throws JournalException {
+        pendingLocks.incrementAndGet();
         try {
             rwLock.writeLock().acquire();
         } catch (InterruptedException e) {
             String msg = "Unable to acquire write lock.";
             throw new JournalException(msg, e);
+        } finally {
+            pendingLocks.decrementAndGet();
         }
 
         boolean succeeded = false;
@@ -321,7 +358,9 @@ public abstract class AbstractJournal implements Journal {
             doLock();
             try {
                 // and sync
-                doSync(getMinimalRevision());
+                if (isSyncRequiredAfterLock()) {
+                    doSync(getMinimalRevision());
+                }
                 succeeded = true;
             } finally {
                 if (!succeeded) {
@@ -336,6 +375,30 @@ public abstract class AbstractJournal implements Journal {
         }
     }
 
+    /**
+     * Returns whether the journal must be synchronized after it has been
+     * locked. Subclasses that know that no other cluster node can have
+     * appended a record since the last lock may override this method.
+     *
+     * @return <code>true</code> if the journal must be synchronized after
+     *         {@link #doLock()}; <code>false</code> otherwise
+     */
+    protected boolean isSyncRequiredAfterLock() {
+        return true;
+    }
+
+    /**
+     * Returns whether other threads of this cluster node are currently
+     * waiting to lock the journal. May be used by subclasses in
+     * {@link #doUnlock(boolean)} to decide whether to defer work that can be
+     * shared with the next lock holder.
+     *
+     * @return <code>true</code> if other threads are waiting for the lock
+     */
+    protected boolean hasPendingLocks() {
+        return pendingLocks.get() > 0;
+    }
+
     /**
      * Unlock the journal revision.
      *
@@ -353,6 +416,20 @@ public abstract class AbstractJournal implements Journal {
     	}
     }
 
+    /**
+     * Waits until the records appended by the current thread are committed.
+     * Called by {@link AppendRecord#update()} after the journal has been
+     * unlocked, or later by {@link AppendRecord#awaitCommit()}. The default
+     * implementation does nothing, because records are committed by
+     * {@link #doUnlock(boolean)}. Subclasses that share the commit of their
+     * records with the next lock holder must override it.
+     *
+     * @throws JournalException if the records could not be committed
+     */
+    protected void awaitCommit() throws JournalException {
+        // nothing to be done here
+    }
+
     /**
      * Lock the journal revision. Subclass responsibility.
      *
@@ -446,6 +523,23 @@ public abstract class AbstractJournal implements Journal {
         return repHome;
     }
 
+    /**
+     * Return the index mapping the time of changes to journal revisions.
+     * The index is stored in the repository home, hence it is local to the
+     * cluster node and only contains the records this node has seen.
+     *
+     * @return timestamp index, or <code>null</code> if the index is disabled
+     *         or no repository home is set
+     * @throws JournalException if the index cannot be loaded
+     */
+    public synchronized TimestampIndex getTimestampIndex() throws JournalException {
+        if (timestampIndex == null && repHome != null && timestampIndexInterval > 0) {
+            timestampIndex = new TimestampIndex(
+                    new File(repHome, TIMESTAMP_INDEX_FILE), timestampIndexInterval);
+        }
+        return timestampIndex;
+    }
+
     /*
      * Bean getters and setters.
      */
@@ -463,4 +557,49 @@ public abstract class AbstractJournal implements Journal {
      public void setRevision(String revision) {
          this.revision = revision;
      }
+
+     /**
+      * @return whether appended records use the compact format
+      */
+     public boolean isCompactRecords() {
+         return compactRecords;
+     }
+
+     /**
+      * @param compactRecords whether appended records use the compact format
+      */
+     public void setCompactRecords(boolean compactRecords) {
+         this.compactRecords = compactRecords;
+     }
+
+     /**
+      * @return whether appended records are compressed
+      */
+     public boolean isCompressRecords() {
+         return compressRecords;
+     }
+
+     /**
+      * @param compressRecords whether appended records are compressed
+      */
+     public void setCompressRecords(boolean compressRecords) {
+         this.compressRecords = compressRecords;
+     }
+
+     /**
+      * @return the minimum interval between two entries of the timestamp
+      *         index, in milliseconds
+      */
+     public long getTimestampIndexInterval() {
+         return timestampIndexInterval;
+     }
+
+     /**
+      * @param timestampIndexInterval the minimum interval between two entries
+      *        of the timestamp index, in milliseconds, or <code>0</code> to
+      *        disable the index
+      */
+     public void setTimestampIndexInterval(long timestampIndexInterval) {
+         this.timestampIndexInterval = timestampIndexInterval;
+     }
 }
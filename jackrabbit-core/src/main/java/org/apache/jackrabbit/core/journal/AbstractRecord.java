@@ -16,11 +16,15 @@
  */
 package org.apache.jackrabbit.core.journal;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.jcr.NamespaceException;
@@ -33,11 +37,13 @@ import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.PropertyId;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.spi.PathFactory;
 import org.apache.jackrabbit.spi.PrivilegeDefinition;
 import org.apache.jackrabbit.spi.QNodeTypeDefinition;
 import org.apache.jackrabbit.spi.commons.conversion.MalformedPathException;
 import org.apache.jackrabbit.spi.commons.conversion.NameException;
 import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
 import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
 import org.apache.jackrabbit.spi.commons.namespace.NamespaceMapping;
 import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
@@ -48,9 +54,49 @@ import org.apache.jackrabbit.spi.commons.privilege.PrivilegeDefinitionWriter;
 
 /**
  * Base implementation for a record.
+ * <p>
+ * Records are written either in the legacy format, where names and paths
+ * are written as JCR strings and numbers have a fixed size, or in the
+ * compact format. A compact record starts with {@link #COMPACT_MARKER},
+ * the format version and a flags byte. Numbers are written as variable
+ * length integers, and names, namespaces and paths are written only once
+ * per record and referenced by index afterwards. A path is written as a
+ * reference to its parent path plus its last element, hence the paths of
+ * siblings share the encoding of their parent. The rest of a compact record
+ * may be compressed with <code>Deflate</code>.
  */
 public abstract class AbstractRecord implements Record {
 
+    /**
+     * First byte of a record in the compact format. A record in the legacy
+     * format written by a cluster node starts with a boolean, which is
+     * either <code>0</code> or <code>1</code>.
+     */
+    protected static final int COMPACT_MARKER = 0xFF;
+
+    /**
+     * Version of the compact format.
+     */
+    protected static final int COMPACT_VERSION = 1;
+
+    /**
+     * Flag indicating that the rest of a compact record is compressed.
+     */
+    protected static final int FLAG_DEFLATE = 0x01;
+
+    /**
+     * Path element types of the compact format.
+     */
+    private static final byte ELEMENT_ROOT = 0;
+
+    private static final byte ELEMENT_CURRENT = 1;
+
+    private static final byte ELEMENT_PARENT = 2;
+
+    private static final byte ELEMENT_IDENTIFIER = 3;
+
+    private static final byte ELEMENT_NAME = 4;
+
     /**
      * Indicator for a literal UUID.
      */
@@ -66,6 +112,31 @@ public abstract class AbstractRecord implements Record {
      */
     private final BidiMap nodeIdIndex = new DualHashBidiMap();
 
+    /**
+     * Maps namespace URIs, names and paths to their index when writing a
+     * compact record.
+     */
+    private final Map<Object, Integer> writeIndex = new HashMap<Object, Integer>();
+
+    /**
+     * Namespace URIs, names and paths by index when reading a compact
+     * record. Each kind of object has its own list.
+     */
+    private final List<String> namespaces = new ArrayList<String>();
+
+    private final List<Name> names = new ArrayList<Name>();
+
+    private final List<Path> paths = new ArrayList<Path>();
+
+    /**
+     * Number of namespace URIs, names and paths written so far.
+     */
+    private int namespaceCount;
+
+    private int nameCount;
+
+    private int pathCount;
+
     /**
      * Namespace resolver.
      */
@@ -86,10 +157,33 @@ public abstract class AbstractRecord implements Record {
         this.resolver = resolver;
     }
 
+    /**
+     * Returns whether this record uses the compact format. Subclasses that
+     * support the compact format override this method.
+     *
+     * @return <code>true</code> if this record uses the compact format
+     * @throws JournalException if the format cannot be determined
+     */
+    protected boolean isCompact() throws JournalException {
+        return false;
+    }
+
     /**
      * {@inheritDoc}
      */
     public void writeQName(Name name) throws JournalException {
+        if (isCompact()) {
+            Integer index = writeIndex.get(name);
+            if (index != null) {
+                writeInt(index + 1);
+            } else {
+                writeInt(0);
+                writeNamespace(name.getNamespaceURI());
+                writeString(name.getLocalName());
+                writeIndex.put(name, nameCount++);
+            }
+            return;
+        }
         try {
             writeString(resolver.getJCRName(name));
         } catch (NamespaceException e) {
@@ -110,6 +204,10 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public void writePath(Path path) throws JournalException {
+        if (isCompact()) {
+            writeCompactPath(path);
+            return;
+        }
         try {
             writeString(resolver.getJCRPath(path));
         } catch (NamespaceException e) {
@@ -194,6 +292,16 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public Name readQName() throws JournalException {
+        if (isCompact()) {
+            int index = readInt();
+            if (index > 0) {
+                return names.get(index - 1);
+            }
+            String uri = readNamespace();
+            Name name = NameFactoryImpl.getInstance().create(uri, readString());
+            names.add(name);
+            return name;
+        }
         try {
             return resolver.getQName(readString());
         } catch (NameException e) {
@@ -210,7 +318,7 @@ public abstract class AbstractRecord implements Record {
      */
     public Path readPathElement() throws JournalException {
         try {
-            Name name = resolver.getQName(readString());
+            Name name = isCompact() ? readQName() : resolver.getQName(readString());
             int index = readInt();
             if (index != 0) {
                 return PathFactoryImpl.getInstance().create(name, index);
@@ -230,6 +338,9 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public Path readPath() throws JournalException {
+        if (isCompact()) {
+            return readCompactPath();
+        }
         try {
             return resolver.getQPath(readString());
         } catch (MalformedPathException e) {
@@ -318,6 +429,189 @@ public abstract class AbstractRecord implements Record {
         }
     }
 
+    /**
+     * Writes a namespace URI in the compact format.
+     *
+     * @param uri namespace URI
+     * @throws JournalException if an error occurs
+     */
+    private void writeNamespace(String uri) throws JournalException {
+        // namespace URIs and names never collide in the index map, because
+        // names are not strings
+        Integer index = writeIndex.get(uri);
+        if (index != null) {
+            writeInt(index + 1);
+        } else {
+            writeInt(0);
+            writeString(uri);
+            writeIndex.put(uri, namespaceCount++);
+        }
+    }
+
+    /**
+     * Reads a namespace URI in the compact format.
+     *
+     * @return namespace URI
+     * @throws JournalException if an error occurs
+     */
+    private String readNamespace() throws JournalException {
+        int index = readInt();
+        if (index > 0) {
+            return namespaces.get(index - 1);
+        }
+        String uri = readString();
+        namespaces.add(uri);
+        return uri;
+    }
+
+    /**
+     * Writes a path in the compact format: <code>0</code> for
+     * <code>null</code>, an index of a path written before, or
+     * <code>1</code> followed by the parent path and the last element.
+     *
+     * @param path path, may be <code>null</code>
+     * @throws JournalException if an error occurs
+     */
+    private void writeCompactPath(Path path) throws JournalException {
+        if (path == null) {
+            writeInt(0);
+            return;
+        }
+        // wrap paths to keep them apart from names and namespace URIs
+        PathKey key = new PathKey(path);
+        Integer index = writeIndex.get(key);
+        if (index != null) {
+            writeInt(index + 2);
+            return;
+        }
+        writeInt(1);
+        writeCompactPath(path.getFirstElements());
+        Path.Element element = path.getNameElement();
+        if (element.denotesRoot()) {
+            writeByte(ELEMENT_ROOT);
+        } else if (element.denotesCurrent()) {
+            writeByte(ELEMENT_CURRENT);
+        } else if (element.denotesParent()) {
+            writeByte(ELEMENT_PARENT);
+        } else if (element.denotesIdentifier()) {
+            writeByte(ELEMENT_IDENTIFIER);
+            writeString(element.getIdentifier());
+        } else {
+            writeByte(ELEMENT_NAME);
+            writeQName(element.getName());
+            writeInt(element.getIndex());
+        }
+        writeIndex.put(key, pathCount++);
+    }
+
+    /**
+     * Reads a path in the compact format.
+     *
+     * @return path, may be <code>null</code>
+     * @throws JournalException if an error occurs
+     */
+    private Path readCompactPath() throws JournalException {
+        int index = readInt();
+        if (index == 0) {
+            return null;
+        } else if (index > 1) {
+            return paths.get(index - 2);
+        }
+        Path parent = readCompactPath();
+        PathFactory factory = PathFactoryImpl.getInstance();
+        Path.Element element;
+        byte type = readByte();
+        switch (type) {
+            case ELEMENT_ROOT:
+                element = factory.getRootElement();
+                break;
+            case ELEMENT_CURRENT:
+                element = factory.getCurrentElement();
+                break;
+            case ELEMENT_PARENT:
+                element = factory.getParentElement();
+                break;
+            case ELEMENT_IDENTIFIER:
+                element = factory.createElement(readString());
+                break;
+            case ELEMENT_NAME:
+                Name name = readQName();
+                int elementIndex = readInt();
+                if (elementIndex != 0) {
+                    element = factory.createElement(name, elementIndex);
+                } else {
+                    element = factory.createElement(name);
+                }
+                break;
+            default:
+                throw new JournalException("Unknown path element type: " + type);
+        }
+        Path path;
+        if (parent == null) {
+            path = factory.create(element);
+        } else {
+            path = parent.resolve(element);
+        }
+        paths.add(path);
+        return path;
+    }
+
+    /**
+     * Writes a long as a variable length integer in zig-zag encoding, which
+     * takes one byte for values between -64 and 63.
+     *
+     * @param out output
+     * @param n value
+     * @throws IOException if an I/O error occurs
+     */
+    protected static void writeVarLong(DataOutput out, long n) throws IOException {
+        long v = (n << 1) ^ (n >> 63);
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    /**
+     * Reads a long written by {@link #writeVarLong(DataOutput, long)}.
+     *
+     * @param in input
+     * @return value
+     * @throws IOException if an I/O error occurs or the value is malformed
+     */
+    protected static long readVarLong(DataInput in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new IOException("Malformed variable length integer.");
+    }
+
+    /**
+     * Key of a path in {@link #writeIndex}.
+     */
+    private static final class PathKey {
+
+        private final Path path;
+
+        PathKey(Path path) {
+            this.path = path;
+        }
+
+        public int hashCode() {
+            return path.hashCode();
+        }
+
+        public boolean equals(Object obj) {
+            return obj instanceof PathKey && ((PathKey) obj).path.equals(path);
+        }
+    }
+
     /**
      * Get a <code>NodeId</code>'s existing cache index, creating a new entry
      * if necessary.
@@ -25,13 +25,18 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 import org.apache.jackrabbit.core.data.db.ResettableTempFileInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Default temporary record used for appending to some journal.
+ * Default temporary record used for appending to some journal. The record
+ * is written in the compact format if the journal has compact records
+ * enabled, see {@link AbstractRecord}.
  */
 public class AppendRecord extends AbstractRecord {
 
@@ -78,12 +83,38 @@ public class AppendRecord extends AbstractRecord {
     /**
      * Underlying data output.
      */
-    private DataOutputStream dataOut;
+    private final DataOutputStream dataOut;
 
     /**
      * Underlying byte output.
      */
-    private ByteArrayOutputStream byteOut;
+    private final ByteArrayOutputStream byteOut;
+
+    /**
+     * Stream the record bytes are currently written to, either
+     * {@link #byteOut} or a buffered stream on {@link #fileOut}.
+     */
+    private OutputStream target;
+
+    /**
+     * Number of record bytes written to {@link #target}.
+     */
+    private int size;
+
+    /**
+     * Whether this record uses the compact format.
+     */
+    private final boolean compact;
+
+    /**
+     * Compressor, or <code>null</code> if the record is not compressed.
+     */
+    private Deflater deflater;
+
+    /**
+     * Compressing output on top of {@link #target}, or <code>null</code>.
+     */
+    private DeflaterOutputStream deflaterOut;
 
     /**
      * Underlying file.
@@ -114,7 +145,46 @@ public class AppendRecord extends AbstractRecord {
         this.revision = 0L;
 
         byteOut = new ByteArrayOutputStream(DEFAULT_IN_MEMORY_SIZE);
-        dataOut = new DataOutputStream(byteOut);
+        target = byteOut;
+
+        OutputStream sink = new OutputStream() {
+            public void write(int b) throws IOException {
+                target.write(b);
+                size++;
+            }
+            public void write(byte[] b, int off, int len) throws IOException {
+                target.write(b, off, len);
+                size += len;
+            }
+            public void flush() throws IOException {
+                target.flush();
+            }
+            public void close() throws IOException {
+                target.close();
+            }
+        };
+
+        compact = journal.isCompactRecords() || journal.isCompressRecords();
+        if (compact) {
+            boolean compress = journal.isCompressRecords();
+            byteOut.write(COMPACT_MARKER);
+            byteOut.write(COMPACT_VERSION);
+            byteOut.write(compress ? FLAG_DEFLATE : 0);
+            size = 3;
+            if (compress) {
+                deflater = new Deflater(Deflater.BEST_SPEED);
+                deflaterOut = new DeflaterOutputStream(sink, deflater);
+                sink = deflaterOut;
+            }
+        }
+        dataOut = new DataOutputStream(sink);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected boolean isCompact() {
+        return compact;
     }
 
     /**
@@ -168,7 +238,11 @@ public class AppendRecord extends AbstractRecord {
         checkOutput();
 
         try {
-            dataOut.writeChar(c);
+            if (compact) {
+                writeVarLong(dataOut, c);
+            } else {
+                dataOut.writeChar(c);
+            }
         } catch (IOException e) {
             String msg = "I/O error while writing character.";
             throw new JournalException(msg, e);
@@ -196,7 +270,11 @@ public class AppendRecord extends AbstractRecord {
         checkOutput();
 
         try {
-            dataOut.writeInt(n);
+            if (compact) {
+                writeVarLong(dataOut, n);
+            } else {
+                dataOut.writeInt(n);
+            }
         } catch (IOException e) {
             String msg = "I/O error while writing integer.";
             throw new JournalException(msg, e);
@@ -210,7 +288,11 @@ public class AppendRecord extends AbstractRecord {
         checkOutput();
 
         try {
-            dataOut.writeLong(n);
+            if (compact) {
+                writeVarLong(dataOut, n);
+            } else {
+                dataOut.writeLong(n);
+            }
         } catch (IOException e) {
             String msg = "I/O error while writing long.";
             throw new JournalException(msg, e);
@@ -224,7 +306,15 @@ public class AppendRecord extends AbstractRecord {
         checkOutput();
 
         try {
-            if (s == null) {
+            if (compact) {
+                if (s == null) {
+                    writeVarLong(dataOut, 0);
+                } else {
+                    byte[] b = s.getBytes("UTF-8");
+                    writeVarLong(dataOut, b.length + 1L);
+                    dataOut.write(b);
+                }
+            } else if (s == null) {
                 dataOut.writeBoolean(true);
             } else {
                 dataOut.writeBoolean(false);
@@ -254,18 +344,25 @@ public class AppendRecord extends AbstractRecord {
      * {@inheritDoc}
      */
     public long update() throws JournalException {
+        return update(true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long update(boolean awaitCommit) throws JournalException {
         boolean succeeded = false;
+        int length;
 
         try {
-            int length = dataOut.size();
             closeOutput();
+            length = size;
 
             InputStream in = openInput();
 
             try {
                 journal.append(this, in, length);
                 succeeded = true;
-                return length;
             } finally {
                 try {
                     in.close();
@@ -279,6 +376,19 @@ public class AppendRecord extends AbstractRecord {
 
             journal.unlock(succeeded);
         }
+
+        if (awaitCommit) {
+            // wait outside the lock, which the next lock holder may share
+            journal.awaitCommit();
+        }
+        return length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void awaitCommit() throws JournalException {
+        journal.awaitCommit();
     }
 
     /**
@@ -330,10 +440,10 @@ public class AppendRecord extends AbstractRecord {
                 String msg = "Unable to open output stream on: " + file.getPath();
                 throw new JournalException(msg, e);
             }
-            dataOut = new DataOutputStream(new BufferedOutputStream(fileOut));
+            target = new BufferedOutputStream(fileOut);
 
             try {
-                dataOut.write(byteOut.toByteArray());
+                byteOut.writeTo(target);
             } catch (IOException e) {
                 String msg = "Unable to write in-memory record to file.";
                 throw new JournalException(msg, e);
@@ -349,8 +459,11 @@ public class AppendRecord extends AbstractRecord {
     private void closeOutput() throws JournalException {
         if (!outputClosed) {
             try {
+                if (deflaterOut != null) {
+                    deflaterOut.finish();
+                }
+                dataOut.flush();
                 if (fileOut != null) {
-                    dataOut.flush();
                     fileOut.getFD().sync();
                     dataOut.close();
                 }
@@ -359,6 +472,7 @@ public class AppendRecord extends AbstractRecord {
                 throw new JournalException(msg, e);
             } finally {
                 outputClosed = true;
+                endDeflater();
             }
         }
     }
@@ -375,6 +489,7 @@ public class AppendRecord extends AbstractRecord {
                 log.warn(msg, e);
             } finally {
                 outputClosed = true;
+                endDeflater();
             }
         }
         if (file != null) {
@@ -383,6 +498,16 @@ public class AppendRecord extends AbstractRecord {
         }
     }
 
+    /**
+     * Releases the resources of the compressor, if any.
+     */
+    private void endDeflater() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+    }
+
     /**
      * Unsupported methods when appending.
      */
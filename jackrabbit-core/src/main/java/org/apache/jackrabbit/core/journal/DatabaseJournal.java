@@ -35,6 +35,13 @@ import java.io.InputStreamReader;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Calendar;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.jcr.RepositoryException;
 import javax.sql.DataSource;
@@ -68,8 +75,30 @@ import javax.sql.DataSource;
  * thread initiates its first run (default = <code>3</code> which means 3:00 at night)</li>
  * <li><code>schemaCheckEnabled</code>:  whether the schema check during initialization is enabled
  * (default = <code>true</code>)</li>
+ * <li><code>groupCommitDelay</code>: the maximum time in milliseconds the records
+ * of concurrent saves on this cluster node are collected in a single database
+ * transaction before it is committed (default = <code>0</code>, which disables
+ * group commit)</li>
+ * <li><code>groupCommitMaxSize</code>: the maximum number of records committed
+ * in a single database transaction when group commit is enabled
+ * (default = <code>100</code>)</li>
+ * <li><code>groupCommitTimeout</code>: the maximum time in milliseconds a save
+ * waits for the commit of its group, when group commit is enabled
+ * (default = <code>10000</code>)</li>
  * </ul>
  * <p>
+ * With group commit enabled, all journal writes of this cluster node are
+ * executed by a single writer thread. The first save locks the global
+ * revision and opens a transaction. When it unlocks the journal while
+ * other saves wait for the journal lock, the transaction is handed over to
+ * the next one instead of being committed, which saves the round-trips to
+ * lock, synchronize and commit. The transaction is committed as soon as a
+ * save unlocks the journal while no more saves are waiting, the maximum size
+ * is reached or the delay expired. Every save waits for the commit of its
+ * transaction after it has unlocked the journal and released the locks of
+ * its workspace, and reports an error if the commit fails or does not
+ * complete within the group commit timeout.
+ * <p>
  * JNDI can be used to get the connection. In this case, use the javax.naming.InitialContext as the driver,
  * and the JNDI name as the URL. If the user and password are configured in the JNDI resource,
  * they should not be configured here. Example JNDI settings:
@@ -168,6 +197,43 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
 
     private Thread janitorThread;
 
+    /**
+     * Group commit delay in milliseconds, bean property.
+     */
+    private int groupCommitDelay = 0;
+
+    /**
+     * Maximum number of records per group commit, bean property.
+     */
+    private int groupCommitMaxSize = 100;
+
+    /**
+     * Maximum time in milliseconds to wait for a group commit, bean property.
+     */
+    private int groupCommitTimeout = 10000;
+
+    /**
+     * The group commit, or <code>null</code> if group commit is disabled.
+     */
+    private GroupCommit groupCommit;
+
+    /**
+     * The first revision locked by the current lock holder, if group commit
+     * is enabled.
+     */
+    private long memberRevision;
+
+    /**
+     * Whether the last lock joined an already open group commit.
+     */
+    private boolean joinedGroup;
+
+    /**
+     * The group whose commit the current thread has to wait for after it
+     * unlocked the journal.
+     */
+    private final ThreadLocal<CommitGroup> unlockedGroup = new ThreadLocal<CommitGroup>();
+
     /**
      * Whether the schema check must be done during initialization.
      */
@@ -198,6 +264,16 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
      */
     protected String insertRevisionStmtSQL;
 
+    /**
+     * SQL statement setting the global revision to a given value.
+     */
+    protected String setGlobalStmtSQL;
+
+    /**
+     * SQL statement removing the revisions starting at a given revision.
+     */
+    protected String deleteRevisionsStmtSQL;
+
     /**
      * SQL statement returning the minimum of the local revisions.
      */
@@ -382,6 +458,12 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         } else {
             log.info("Cluster revision janitor thread not started");
         }
+
+        if (groupCommitDelay > 0) {
+            groupCommit = new GroupCommit();
+            log.info("Journal group commit enabled; delay " + groupCommitDelay
+                    + " ms, max size " + groupCommitMaxSize);
+        }
     }
 
     /* (non-Javadoc)
@@ -473,6 +555,17 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
      * appended record, because a save may entail multiple appends (JCR-884).
      */
     protected void doLock() throws JournalException {
+        if (groupCommit != null) {
+            long revision = groupCommit.lock();
+            if (lockLevel++ == 0) {
+                memberRevision = revision;
+                unlockedGroup.remove();
+            }
+            lockedRevision = revision;
+            joinedGroup = groupCommit.joined;
+            return;
+        }
+
         ResultSet rs = null;
         boolean succeeded = false;
 
@@ -505,9 +598,51 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
      * {@inheritDoc}
      */
     protected void doUnlock(boolean successful) {
+        if (groupCommit != null) {
+            if (--lockLevel == 0) {
+                CommitGroup group = groupCommit.unlock(successful, memberRevision, hasPendingLocks());
+                if (group != null) {
+                    unlockedGroup.set(group);
+                }
+            }
+            return;
+        }
         endBatch(successful);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * With group commit enabled, waits until the group of the last successful
+     * unlock of the current thread is committed. This happens outside the
+     * journal lock, so that the next save can join the group meanwhile.
+     *
+     * @throws JournalException if the group was not committed, or is still
+     *                          open after the group commit timeout
+     */
+    protected void awaitCommit() throws JournalException {
+        CommitGroup group = unlockedGroup.get();
+        if (group == null) {
+            return;
+        }
+        unlockedGroup.remove();
+        if (!group.await(groupCommitTimeout)) {
+            throw new JournalException("Journal commit not completed within "
+                    + groupCommitTimeout + " ms.");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A lock that joined an open group commit does not need to synchronize,
+     * because the group holds the lock on the global revision since the
+     * previous synchronization.
+     */
+    protected boolean isSyncRequiredAfterLock() {
+        return !joinedGroup;
+    }
+
     private void startBatch() throws SQLException {
         if (lockLevel++ == 0) {
             conHelper.startBatch();
@@ -541,6 +676,11 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
     protected void append(AppendRecord record, InputStream in, int length)
             throws JournalException {
 
+        if (groupCommit != null) {
+            groupCommit.append(record, in, length);
+            return;
+        }
+
         try {
             conHelper.exec(insertRevisionStmtSQL, record.getRevision(), getId(), record.getProducerId(),
                 new StreamWrapper(in, length));
@@ -558,6 +698,9 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         if (janitorThread != null) {
             janitorThread.interrupt();
         }
+        if (groupCommit != null) {
+            groupCommit.close();
+        }
     }
 
     /**
@@ -605,6 +748,11 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         selectGlobalStmtSQL =
             "select REVISION_ID from "
             + schemaObjectPrefix + "GLOBAL_REVISION";
+        setGlobalStmtSQL =
+            "update " + schemaObjectPrefix + "GLOBAL_REVISION"
+            + " set REVISION_ID = ?";
+        deleteRevisionsStmtSQL =
+            "delete from " + schemaObjectPrefix + "JOURNAL " + "where REVISION_ID >= ?";
         insertRevisionStmtSQL =
             "insert into " + schemaObjectPrefix + "JOURNAL"
             + " (REVISION_ID, JOURNAL_ID, PRODUCER_ID, REVISION_DATA) "
@@ -679,6 +827,18 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         return janitorNextRun.get(Calendar.HOUR_OF_DAY);
     }
 
+    public int getGroupCommitDelay() {
+        return groupCommitDelay;
+    }
+
+    public int getGroupCommitMaxSize() {
+        return groupCommitMaxSize;
+    }
+
+    public int getGroupCommitTimeout() {
+        return groupCommitTimeout;
+    }
+
     /**
      * Bean setters
      */
@@ -730,6 +890,18 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         this.janitorSleep = sleep;
     }
 
+    public void setGroupCommitDelay(int delay) {
+        this.groupCommitDelay = delay;
+    }
+
+    public void setGroupCommitMaxSize(int maxSize) {
+        this.groupCommitMaxSize = maxSize;
+    }
+
+    public void setGroupCommitTimeout(int timeout) {
+        this.groupCommitTimeout = timeout;
+    }
+
     public void setJanitorFirstRunHourOfDay(int hourOfDay) {
         janitorNextRun = Calendar.getInstance();
         if (janitorNextRun.get(Calendar.HOUR_OF_DAY) >= hourOfDay) {
@@ -844,6 +1016,317 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         }
     }
 
+    /**
+     * Collects the records of consecutive saves in a single database
+     * transaction. All database operations are executed by a single writer
+     * thread, because the batch connection of the {@link ConnectionHelper}
+     * is bound to the thread that started the batch. The transaction holds
+     * the lock on the global revision row, which is set to the last revision
+     * of the group on commit. It is only kept open while a save holds the
+     * journal lock or another save waits for it.
+     */
+    class GroupCommit {
+
+        /**
+         * The writer thread.
+         */
+        private final ScheduledExecutorService writer =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Jackrabbit-ClusterJournalWriter");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+        /**
+         * Whether the last lock joined an open group. Written by the
+         * writer thread and read by the lock holder after the lock task
+         * completed.
+         */
+        volatile boolean joined;
+
+        // the following fields are only accessed by the writer thread
+
+        /**
+         * The group of the open transaction, or <code>null</code>.
+         */
+        private CommitGroup group;
+
+        /**
+         * The global revision locked when the transaction was opened.
+         */
+        private long firstRevision;
+
+        /**
+         * The last revision handed out in the open transaction.
+         */
+        private long lastRevision;
+
+        /**
+         * Number of successful saves in the open transaction.
+         */
+        private int size;
+
+        /**
+         * Time in milliseconds at which the open transaction must be committed.
+         */
+        private long deadline;
+
+        /**
+         * Whether a save currently holds the journal lock.
+         */
+        private boolean active;
+
+        /**
+         * Locks the next revision, opening a new transaction if necessary.
+         *
+         * @return the locked revision
+         * @throws JournalException if the global revision cannot be locked
+         */
+        long lock() throws JournalException {
+            return execute(new Callable<Long>() {
+                public Long call() throws Exception {
+                    if (group != null) {
+                        joined = true;
+                    } else {
+                        begin();
+                        joined = false;
+                    }
+                    active = true;
+                    return ++lastRevision;
+                }
+            }, "Unable to lock global revision table.");
+        }
+
+        /**
+         * Appends a record in the open transaction.
+         *
+         * @param record record to append
+         * @param in input stream
+         * @param length number of bytes in input stream
+         * @throws JournalException if the record cannot be inserted
+         */
+        void append(final AppendRecord record, final InputStream in, final int length)
+                throws JournalException {
+            execute(new Callable<Void>() {
+                public Void call() throws Exception {
+                    conHelper.exec(insertRevisionStmtSQL, record.getRevision(), getId(),
+                            record.getProducerId(), new StreamWrapper(in, length));
+                    return null;
+                }
+            }, "Unable to append revision " + record.getRevision() + ".");
+        }
+
+        /**
+         * Ends a save. Removes its records if it failed and commits the
+         * transaction unless another save waits for the journal lock, the
+         * group is full or the delay expired.
+         *
+         * @param successful whether the save was successful
+         * @param revision the first revision locked by the save
+         * @param pending whether other saves wait for the journal lock
+         * @return the group whose commit the save has to wait for, or
+         *         <code>null</code> if the save failed
+         */
+        CommitGroup unlock(final boolean successful, final long revision, final boolean pending) {
+            try {
+                return execute(new Callable<CommitGroup>() {
+                    public CommitGroup call() throws Exception {
+                        active = false;
+                        CommitGroup current = group;
+                        if (current == null) {
+                            return null;
+                        }
+                        if (!successful) {
+                            if (size == 0) {
+                                end(false);
+                                return null;
+                            }
+                            try {
+                                conHelper.exec(deleteRevisionsStmtSQL, revision);
+                                lastRevision = revision - 1;
+                            } catch (SQLException e) {
+                                log.error("failed to remove revisions of failed update", e);
+                                end(false);
+                                return null;
+                            }
+                        } else {
+                            size++;
+                        }
+                        if (!pending || size >= groupCommitMaxSize
+                                || System.currentTimeMillis() >= deadline) {
+                            end(true);
+                        }
+                        return successful ? current : null;
+                    }
+                }, "Unable to unlock global revision table.");
+            } catch (JournalException e) {
+                log.error("failed to end batch", e);
+                return null;
+            }
+        }
+
+        /**
+         * Commits an open transaction and stops the writer thread.
+         */
+        void close() {
+            writer.execute(new Runnable() {
+                public void run() {
+                    if (group != null) {
+                        end(true);
+                    }
+                }
+            });
+            writer.shutdown();
+            try {
+                writer.awaitTermination(groupCommitDelay + 10000, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Opens a transaction and locks the global revision. Called by the
+         * writer thread.
+         */
+        private void begin() throws SQLException, JournalException {
+            conHelper.startBatch();
+            ResultSet rs = null;
+            boolean succeeded = false;
+            try {
+                conHelper.exec(updateGlobalStmtSQL);
+                rs = conHelper.exec(selectGlobalStmtSQL, null, false, 0);
+                if (!rs.next()) {
+                    throw new JournalException("No revision available.");
+                }
+                firstRevision = rs.getLong(1);
+                lastRevision = firstRevision - 1;
+                size = 0;
+                deadline = System.currentTimeMillis() + groupCommitDelay;
+                final CommitGroup opened = new CommitGroup();
+                group = opened;
+                writer.schedule(new Runnable() {
+                    public void run() {
+                        if (group == opened && !active) {
+                            end(true);
+                        }
+                    }
+                }, groupCommitDelay, TimeUnit.MILLISECONDS);
+                succeeded = true;
+            } finally {
+                DbUtility.close(rs);
+                if (!succeeded) {
+                    conHelper.endBatch(false);
+                }
+            }
+        }
+
+        /**
+         * Commits or rolls back the open transaction and notifies the members
+         * of its group. Called by the writer thread.
+         *
+         * @param commit whether to commit the transaction
+         */
+        private void end(boolean commit) {
+            CommitGroup ended = group;
+            group = null;
+            JournalException failure = null;
+            try {
+                if (commit && lastRevision > firstRevision) {
+                    conHelper.exec(setGlobalStmtSQL, lastRevision);
+                }
+            } catch (SQLException e) {
+                failure = new JournalException("Unable to set global revision.", e);
+                commit = false;
+            }
+            try {
+                conHelper.endBatch(commit);
+            } catch (SQLException e) {
+                if (failure == null) {
+                    failure = new JournalException("Unable to commit revisions.", e);
+                }
+            }
+            if (failure == null && !commit) {
+                failure = new JournalException("Revisions rolled back.");
+            }
+            if (failure != null) {
+                log.error("failed to end batch of revisions " + firstRevision
+                        + " to " + lastRevision, failure);
+            }
+            ended.done(failure);
+        }
+
+        /**
+         * Executes a task on the writer thread and waits for its result.
+         */
+        private <T> T execute(Callable<T> task, String msg) throws JournalException {
+            try {
+                return writer.submit(task).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JournalException(msg, e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof JournalException) {
+                    throw (JournalException) cause;
+                }
+                throw new JournalException(msg, cause);
+            }
+        }
+    }
+
+    /**
+     * The saves whose records are committed in the same transaction.
+     */
+    static class CommitGroup {
+
+        /**
+         * Released when the transaction has ended.
+         */
+        private final CountDownLatch ended = new CountDownLatch(1);
+
+        /**
+         * The reason why the transaction was not committed, or
+         * <code>null</code> if it was.
+         */
+        private volatile JournalException failure;
+
+        /**
+         * Notifies the members that the transaction has ended.
+         *
+         * @param failure the reason why the transaction was not committed,
+         *                or <code>null</code> if it was
+         */
+        void done(JournalException failure) {
+            this.failure = failure;
+            ended.countDown();
+        }
+
+        /**
+         * Waits until the transaction has ended.
+         *
+         * @param timeout maximum time to wait in milliseconds
+         * @return <code>true</code> if the transaction was committed;
+         *         <code>false</code> if it is still open after the timeout
+         * @throws JournalException if the transaction was not committed
+         */
+        boolean await(long timeout) throws JournalException {
+            try {
+                if (!ended.await(timeout, TimeUnit.MILLISECONDS)) {
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JournalException("Interrupted while waiting for journal commit.", e);
+            }
+            if (failure != null) {
+                throw new JournalException("Unable to commit journal record.", failure);
+            }
+            return true;
+        }
+    }
+
     /**
      * Class for maintaining the revision table. This is only useful if all
      * JR information except the search index is in the database (i.e., node types
@@ -21,8 +21,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 /**
  * File-based journal implementation that appends journal records to a single
@@ -38,7 +40,19 @@ import java.io.InputStream;
  * value is {@link #DEFAULT_BASENAME}</li>
  * <li><code>maximumSize</code>: the maximum size of an active journal file
  * before rotating it: the default value is {@link #DEFAULT_MAXSIZE} </li>
+ * <li><code>segmented</code>: whether to store the journal in segments
+ * instead of rotating files; the default value is <code>false</code></li>
  * </ul>
+ * A segmented journal never renames its files: every segment is named after
+ * the revision preceding its first record, and a new segment is started once
+ * the active one exceeds <code>maximumSize</code>. As revisions are byte
+ * offsets, the segment names form an offset index of the journal, which
+ * lets a reader locate the segment of a revision by binary search and
+ * position itself directly on the record. Readers open segments read-only,
+ * so any number of them can scan the journal concurrently without
+ * interfering with the appender. Rotated journal files found when
+ * a segmented journal is initialized are converted into segments. All
+ * cluster nodes sharing a journal directory must use the same setting.
  */
 public class FileJournal extends AbstractJournal {
 
@@ -57,6 +71,11 @@ public class FileJournal extends AbstractJournal {
      */
     private static final String LOG_EXTENSION = "log";
 
+    /**
+     * Segment extension.
+     */
+    private static final String SEGMENT_EXTENSION = "seg";
+
     /**
      * Default base name for journal files.
      */
@@ -87,6 +106,11 @@ public class FileJournal extends AbstractJournal {
      */
     private int maximumSize;
 
+    /**
+     * Whether the journal is segmented, bean property.
+     */
+    private boolean segmented;
+
     /**
      * Journal root directory.
      */
@@ -102,6 +126,12 @@ public class FileJournal extends AbstractJournal {
      */
     private LockableFileRevision globalRevision;
 
+    /**
+     * Log of the active segment of a segmented journal, cached between
+     * appends. Only accessed while holding the journal lock.
+     */
+    private FileRecordLog activeSegment;
+
     /**
      * {@inheritDoc}
      */
@@ -142,6 +172,10 @@ public class FileJournal extends AbstractJournal {
         journalFile = new File(rootDirectory, basename + "." + LOG_EXTENSION);
         globalRevision = new LockableFileRevision(new File(rootDirectory, REVISION_NAME));
 
+        if (segmented) {
+            convertLogs();
+        }
+
         log.info("FileJournal initialized at path: " + directory);
     }
 
@@ -160,6 +194,12 @@ public class FileJournal extends AbstractJournal {
 
         long stopRevision = getGlobalRevision();
 
+        if (segmented) {
+            Segments segments = listSegments();
+            return new FileRecordIterator(segments.files, segments.revisions,
+                    startRevision, stopRevision, getResolver(), getNamePathResolver());
+        }
+
         File[] files = null;
         if (startRevision < stopRevision) {
             RotatingLogFile[] logFiles = RotatingLogFile.listFiles(rootDirectory, basename);
@@ -179,6 +219,15 @@ public class FileJournal extends AbstractJournal {
         long stopRevision = getGlobalRevision();
         long startRevision = 0;
 
+        if (segmented) {
+            Segments segments = listSegments();
+            if (segments.revisions.length > 0) {
+                startRevision = segments.revisions[0];
+            }
+            return new FileRecordIterator(segments.files, segments.revisions,
+                    startRevision, stopRevision, getResolver(), getNamePathResolver());
+        }
+
         RotatingLogFile[] logFiles = RotatingLogFile.listFiles(rootDirectory, basename);
         File[] files = new File[logFiles.length];
         for (int i = 0; i < files.length; i++) {
@@ -211,6 +260,10 @@ public class FileJournal extends AbstractJournal {
     protected void append(AppendRecord record, InputStream in, int length)
             throws JournalException {
 
+        if (segmented) {
+            appendSegment(record, in, length);
+            return;
+        }
         try {
             FileRecordLog recordLog = new FileRecordLog(journalFile);
             if (recordLog.exceeds(maximumSize)) {
@@ -266,6 +319,10 @@ public class FileJournal extends AbstractJournal {
         return maximumSize;
     }
 
+    public boolean isSegmented() {
+        return segmented;
+    }
+
     /**
      * Bean setters
      */
@@ -281,6 +338,139 @@ public class FileJournal extends AbstractJournal {
         this.maximumSize = maximumSize;
     }
 
+    public void setSegmented(boolean segmented) {
+        this.segmented = segmented;
+    }
+
+    /**
+     * Append a record to the active segment, starting a new segment if the
+     * active one exceeds the maximum size.
+     */
+    private void appendSegment(AppendRecord record, InputStream in, int length)
+            throws JournalException {
+
+        File segment = null;
+        try {
+            long revision = globalRevision.get();
+            FileRecordLog recordLog = activeSegment;
+            activeSegment = null;
+            if (recordLog == null || recordLog.getLastRevision() != revision) {
+                // first append, or another cluster node appended meanwhile
+                recordLog = null;
+                Segments segments = listSegments();
+                int n = segments.files.length;
+                if (n > 0) {
+                    segment = segments.files[n - 1];
+                    recordLog = new FileRecordLog(segment);
+                }
+            }
+            if (recordLog != null && recordLog.exceeds(maximumSize)) {
+                recordLog = null;
+            }
+            if (recordLog == null) {
+                segment = getSegmentFile(revision);
+                recordLog = new FileRecordLog(segment);
+                recordLog.init(revision);
+            }
+            segment = recordLog.getFile();
+            revision = recordLog.append(getId(),
+                    record.getProducerId(), in, length);
+            globalRevision.set(revision);
+            record.setRevision(revision);
+            activeSegment = recordLog;
+
+        } catch (IOException e) {
+            String msg = "Unable to append new record to journal segment '" + segment + "'.";
+            throw new JournalException(msg, e);
+        }
+    }
+
+    /**
+     * Return the segments of this journal, sorted ascending by revision.
+     */
+    private Segments listSegments() {
+        final String prefix = basename + ".";
+        final String suffix = "." + SEGMENT_EXTENSION;
+        File[] files = rootDirectory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix) && name.endsWith(suffix)
+                        && name.length() > prefix.length() + suffix.length();
+            }
+        });
+        if (files == null) {
+            files = new File[0];
+        }
+        Arrays.sort(files);
+
+        Segments segments = new Segments(files.length);
+        int n = 0;
+        for (File file : files) {
+            String name = file.getName();
+            try {
+                segments.revisions[n] = Long.parseLong(name.substring(
+                        prefix.length(), name.length() - suffix.length()));
+                segments.files[n++] = file;
+            } catch (NumberFormatException e) {
+                log.warn("Bogusly named journal segment, skipped: " + file);
+            }
+        }
+        if (n < files.length) {
+            segments.files = Arrays.copyOf(segments.files, n);
+            segments.revisions = Arrays.copyOf(segments.revisions, n);
+        }
+        return segments;
+    }
+
+    /**
+     * Return the segment file starting after the given revision. The
+     * revision is zero-padded, so that segment names sort like revisions.
+     */
+    private File getSegmentFile(long revision) {
+        return new File(rootDirectory, basename + "."
+                + String.format("%019d", revision) + "." + SEGMENT_EXTENSION);
+    }
+
+    /**
+     * Convert rotated journal files into segments.
+     */
+    private void convertLogs() throws JournalException {
+        globalRevision.lock(false);
+        try {
+            RotatingLogFile[] logFiles = RotatingLogFile.listFiles(rootDirectory, basename);
+            for (int i = 0; i < logFiles.length; i++) {
+                File file = logFiles[i].getFile();
+                FileRecordLog recordLog = new FileRecordLog(file);
+                File segment = getSegmentFile(recordLog.getPreviousRevision());
+                if (!file.renameTo(segment)) {
+                    String msg = "Unable to convert journal file '" + file
+                        + "' into segment '" + segment + "'.";
+                    throw new JournalException(msg);
+                }
+                log.info("Converted journal file " + file + " into segment " + segment);
+            }
+        } catch (IOException e) {
+            String msg = "Unable to convert journal files into segments.";
+            throw new JournalException(msg, e);
+        } finally {
+            globalRevision.unlock();
+        }
+    }
+
+    /**
+     * Segment files and the revisions they start after.
+     */
+    private static class Segments {
+
+        File[] files;
+
+        long[] revisions;
+
+        Segments(int size) {
+            files = new File[size];
+            revisions = new long[size];
+        }
+    }
+
     /**
      * Move away current journal file (and all other files), incrementing their
      * version counter. A file named <code>journal.N.log</code> gets renamed to
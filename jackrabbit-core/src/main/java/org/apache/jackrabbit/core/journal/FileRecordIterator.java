@@ -21,6 +21,7 @@ import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 
 /**
@@ -34,6 +35,12 @@ public class FileRecordIterator implements RecordIterator {
      */
     private File[] logFiles;
 
+    /**
+     * Previous revisions of the log files, sorted ascending, or
+     * <code>null</code> if the log files are not segments.
+     */
+    private long[] segmentRevisions;
+
     /**
      * Current revision being visited.
      */
@@ -80,6 +87,22 @@ public class FileRecordIterator implements RecordIterator {
         this.npResolver = npResolver;
     }
 
+    /**
+     * Creates a new instance of this class, that reads the records of a
+     * segmented journal, positioning directly on the start revision.
+     *
+     * @param segments segment files, sorted ascending by previous revision
+     * @param segmentRevisions previous revisions of the segments
+     * @param startRevision start point (exclusive)
+     * @param stopRevision stop point (inclusive)
+     */
+    public FileRecordIterator(File[] segments, long[] segmentRevisions,
+                              long startRevision, long stopRevision,
+                              NamespaceResolver resolver, NamePathResolver npResolver) {
+        this(segments, startRevision, stopRevision, resolver, npResolver);
+        this.segmentRevisions = segmentRevisions;
+    }
+
 
     /**
      * Return a flag indicating whether there are next records.
@@ -150,6 +173,25 @@ public class FileRecordIterator implements RecordIterator {
      * @throws IOException if an I/O error occurs
      */
     private FileRecordLog getRecordLog(long revision) throws IOException {
+        if (segmentRevisions != null) {
+            // the segment starting at or last before revision
+            int i = Arrays.binarySearch(segmentRevisions, revision);
+            if (i < 0) {
+                i = -i - 2;
+            }
+            for (; i >= 0 && i < logFiles.length; i++) {
+                FileRecordLog recordLog = new FileRecordLog(logFiles[i]);
+                if (recordLog.contains(revision)) {
+                    recordLog.open(revision);
+                    return recordLog;
+                }
+                if (recordLog.getPreviousRevision() > revision) {
+                    break;
+                }
+            }
+            String msg = "No segment found containing revision: " + revision;
+            throw new IOException(msg);
+        }
         for (int i = 0; i < logFiles.length; i++) {
             FileRecordLog recordLog = new FileRecordLog(logFiles[i]);
             if (recordLog.contains(revision)) {
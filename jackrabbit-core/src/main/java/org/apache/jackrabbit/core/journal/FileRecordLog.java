@@ -33,6 +33,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.nio.channels.FileChannel;
 
 /**
  * A file record log is a file containing {@link Record}s. Every file record
@@ -226,6 +227,38 @@ public class FileRecordLog {
         position = revision - previousRevision;
     }
 
+    /**
+     * Seek an entry by positioning the underlying file channel directly on
+     * it, instead of skipping all preceding entries like {@link #seek(long)}.
+     * The file is read with plain reads and is released by {@link #close()},
+     * so that it can be deleted afterwards on any platform. Like
+     * {@link #seek(long)}, this method must not be called twice.
+     *
+     * @param revision revision to seek
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    public void open(long revision) throws IOException {
+        if (in != null) {
+            String msg = "Stream already open: open() only allowed once.";
+            throw new IllegalStateException(msg);
+        }
+        long offset = revision - previousRevision + HEADER_SIZE;
+        FileInputStream fin = new FileInputStream(logFile);
+        try {
+            FileChannel channel = fin.getChannel();
+            if (offset > channel.size()) {
+                String msg = "Revision " + revision + " beyond end of log.";
+                throw new IOException(msg);
+            }
+            channel.position(offset);
+        } catch (IOException e) {
+            close(fin);
+            throw e;
+        }
+        in = new DataInputStream(new BufferedInputStream(fin));
+        position = revision - previousRevision;
+    }
+
     /**
      * Skip exactly <code>n</code> bytes. Throws if less bytes are skipped.
      *
@@ -319,6 +352,15 @@ public class FileRecordLog {
         return lastRevision;
     }
 
+    /**
+     * Return the file containing this record log.
+     *
+     * @return log file
+     */
+    public File getFile() {
+        return logFile;
+    }
+
     /**
      * Close this log.
      */
@@ -20,11 +20,20 @@ import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
 import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
 import org.apache.jackrabbit.spi.Name;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.input.CountingInputStream;
 
 /**
- * Record used for reading.
+ * Record used for reading. Reads records in the legacy and in the compact
+ * format, which is detected by the first byte of the record, see
+ * {@link AbstractRecord}.
  */
 public class ReadRecord extends AbstractRecord {
 
@@ -43,10 +52,35 @@ public class ReadRecord extends AbstractRecord {
      */
     private final long revision;
 
+    /**
+     * Format constant: the format has not been detected yet.
+     */
+    private static final int FORMAT_UNKNOWN = 0;
+
+    /**
+     * Format constant: legacy format.
+     */
+    private static final int FORMAT_LEGACY = 1;
+
+    /**
+     * Format constant: compact format.
+     */
+    private static final int FORMAT_COMPACT = 2;
+
     /**
      * Underlying data input.
      */
-    private final DataInputStream dataIn;
+    private DataInputStream dataIn;
+
+    /**
+     * This record's format, one of the format constants.
+     */
+    private int format = FORMAT_UNKNOWN;
+
+    /**
+     * Decompressor, or <code>null</code> if the record is not compressed.
+     */
+    private Inflater inflater;
 
     /**
      * This record's length.
@@ -54,9 +88,10 @@ public class ReadRecord extends AbstractRecord {
     private final int length;
 
     /**
-     * Flag indicating whether this record was consumed.
+     * Counts the bytes read from the underlying input, or <code>null</code>
+     * if the record length is unknown.
      */
-    private boolean consumed;
+    private final CountingInputStream counter;
 
     /**
      * Create a new instance of this class.
@@ -70,8 +105,14 @@ public class ReadRecord extends AbstractRecord {
         this.journalId = journalId;
         this.producerId = producerId;
         this.revision = revision;
-        this.dataIn = dataIn;
         this.length = length;
+        if (length != 0) {
+            counter = new CountingInputStream(dataIn);
+            this.dataIn = new DataInputStream(counter);
+        } else {
+            counter = null;
+            this.dataIn = dataIn;
+        }
     }
 
     /**
@@ -99,9 +140,8 @@ public class ReadRecord extends AbstractRecord {
      * {@inheritDoc}
      */
     public byte readByte() throws JournalException {
-        consumed = true;
-
         try {
+            checkFormat();
             return dataIn.readByte();
         } catch (IOException e) {
             String msg = "I/O error while reading byte.";
@@ -113,9 +153,11 @@ public class ReadRecord extends AbstractRecord {
      * {@inheritDoc}
      */
     public char readChar() throws JournalException {
-        consumed = true;
-
         try {
+            checkFormat();
+            if (format == FORMAT_COMPACT) {
+                return (char) readVarLong(dataIn);
+            }
             return dataIn.readChar();
         } catch (IOException e) {
             String msg = "I/O error while reading character.";
@@ -127,9 +169,8 @@ public class ReadRecord extends AbstractRecord {
      * {@inheritDoc}
      */
     public boolean readBoolean() throws JournalException {
-        consumed = true;
-
         try {
+            checkFormat();
             return dataIn.readBoolean();
         } catch (IOException e) {
             String msg = "I/O error while reading boolean.";
@@ -141,9 +182,11 @@ public class ReadRecord extends AbstractRecord {
      * {@inheritDoc}
      */
     public int readInt() throws JournalException {
-        consumed = true;
-
         try {
+            checkFormat();
+            if (format == FORMAT_COMPACT) {
+                return (int) readVarLong(dataIn);
+            }
             return dataIn.readInt();
         } catch (IOException e) {
             String msg = "I/O error while reading integer.";
@@ -155,9 +198,11 @@ public class ReadRecord extends AbstractRecord {
      * {@inheritDoc}
      */
     public long readLong() throws JournalException {
-        consumed = true;
-
         try {
+            checkFormat();
+            if (format == FORMAT_COMPACT) {
+                return readVarLong(dataIn);
+            }
             return dataIn.readLong();
         } catch (IOException e) {
             String msg = "I/O error while reading long.";
@@ -169,9 +214,17 @@ public class ReadRecord extends AbstractRecord {
      * {@inheritDoc}
      */
     public String readString() throws JournalException {
-        consumed = true;
-
         try {
+            checkFormat();
+            if (format == FORMAT_COMPACT) {
+                long n = readVarLong(dataIn);
+                if (n == 0) {
+                    return null;
+                }
+                byte[] b = new byte[(int) (n - 1)];
+                dataIn.readFully(b);
+                return new String(b, "UTF-8");
+            }
             boolean isNull = dataIn.readBoolean();
             if (isNull) {
                 return null;
@@ -188,9 +241,8 @@ public class ReadRecord extends AbstractRecord {
      * {@inheritDoc}
      */
     public void readFully(byte[] b) throws JournalException {
-        consumed = true;
-
         try {
+            checkFormat();
             dataIn.readFully(b);
         } catch (IOException e) {
             String msg = "I/O error while reading byte array.";
@@ -199,18 +251,80 @@ public class ReadRecord extends AbstractRecord {
     }
 
     /**
-     * Close this record, eventually skipping unconsumed bytes.
+     * Close this record, skipping the bytes not read yet. A record may
+     * therefore be read partially, e.g. to inspect its header only.
      *
      * @throws IOException if an I/O error occurs
      */
     public void close() throws IOException {
-        if (length != 0) {
-            if (!consumed) {
-                skip(length);
+        try {
+            if (length != 0) {
+                skip(length - counter.getByteCount());
+            } else {
+                dataIn.close();
             }
-        } else {
-            dataIn.close();
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+                inflater = null;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected boolean isCompact() throws JournalException {
+        try {
+            checkFormat();
+        } catch (IOException e) {
+            String msg = "I/O error while reading record format.";
+            throw new JournalException(msg, e);
+        }
+        return format == FORMAT_COMPACT;
+    }
+
+    /**
+     * Detects the format of this record on first access. A compact record
+     * with a known length is read into memory, so that decompression cannot
+     * read beyond the end of the record.
+     *
+     * @throws IOException if an I/O error occurs or the format version
+     *                     is not supported
+     */
+    private void checkFormat() throws IOException {
+        if (format != FORMAT_UNKNOWN) {
+            return;
+        }
+        format = FORMAT_LEGACY;
+
+        int first = dataIn.read();
+        if (first == -1) {
+            return;
+        }
+        if (first != COMPACT_MARKER) {
+            InputStream head = new ByteArrayInputStream(new byte[] {(byte) first});
+            dataIn = new DataInputStream(new SequenceInputStream(head, dataIn));
+            return;
+        }
+
+        int version = dataIn.readUnsignedByte();
+        if (version > COMPACT_VERSION) {
+            throw new IOException("Unsupported record format version: " + version);
+        }
+        int flags = dataIn.readUnsignedByte();
+        InputStream in = dataIn;
+        if (length != 0) {
+            byte[] b = new byte[length - 3];
+            dataIn.readFully(b);
+            in = new ByteArrayInputStream(b);
+        }
+        if ((flags & FLAG_DEFLATE) != 0) {
+            inflater = new Inflater();
+            in = new InflaterInputStream(in, inflater);
         }
+        dataIn = new DataInputStream(in);
+        format = FORMAT_COMPACT;
     }
 
     /**
@@ -223,7 +337,7 @@ public class ReadRecord extends AbstractRecord {
     private void skip(long n) throws IOException {
         long skiplen = n;
         while (skiplen > 0) {
-            long skipped = dataIn.skip(skiplen);
+            long skipped = counter.skip(skiplen);
             if (skipped <= 0) {
                 break;
             }
@@ -275,6 +389,14 @@ public class ReadRecord extends AbstractRecord {
         throw unsupported();
     }
 
+    public long update(boolean awaitCommit) throws JournalException {
+        throw unsupported();
+    }
+
+    public void awaitCommit() throws JournalException {
+        throw unsupported();
+    }
+
     public void cancelUpdate() {
     }
 
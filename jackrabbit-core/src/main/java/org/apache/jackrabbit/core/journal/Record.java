@@ -283,6 +283,28 @@ public interface Record {
      */
     long update() throws JournalException;
 
+    /**
+     * Update the changes made to an appended record, like {@link #update()}.
+     * If <code>awaitCommit</code> is <code>false</code>, this method returns
+     * as soon as the journal has been unlocked, even if the journal commits
+     * the record together with the records of the next lock holder. The
+     * caller must then call {@link #awaitCommit()} itself.
+     *
+     * @param awaitCommit whether to wait until the record is committed
+     * @return The update size in bytes.
+     * @throws JournalException if this record has not been appended,
+     *                          or if another error occurs
+     */
+    long update(boolean awaitCommit) throws JournalException;
+
+    /**
+     * Waits until an appended record, updated with
+     * <code>update(false)</code>, is committed.
+     *
+     * @throws JournalException if the record could not be committed
+     */
+    void awaitCommit() throws JournalException;
+
     /**
      * Cancel the changes made to an appended record.
      */
@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sparse index mapping the time of changes to journal revisions, which
+ * allows to position a reader near a point in time without reading the
+ * journal from its beginning. The index is stored in a local file as a
+ * sequence of entries of 16 bytes, each holding a timestamp and the
+ * revision of a record that contains changes made at that time. Entries
+ * are appended in increasing timestamp and revision order, at most one per
+ * interval, and survive restarts of the repository.
+ */
+public class TimestampIndex {
+
+    /**
+     * Logger.
+     */
+    private static Logger log = LoggerFactory.getLogger(TimestampIndex.class);
+
+    /**
+     * Default minimum interval between two entries, in milliseconds.
+     */
+    public static final long DEFAULT_INTERVAL = 60 * 1000;
+
+    /**
+     * Size of an entry, in bytes.
+     */
+    private static final int ENTRY_SIZE = 16;
+
+    /**
+     * Index file.
+     */
+    private final File file;
+
+    /**
+     * Minimum interval between two entries, in milliseconds.
+     */
+    private final long interval;
+
+    /**
+     * Entries, indexed by timestamp. Guarded by <code>this</code>.
+     */
+    private final TreeMap<Long, Long> entries = new TreeMap<Long, Long>();
+
+    /**
+     * Timestamp of the last entry.
+     */
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    /**
+     * Revision of the last entry.
+     */
+    private long lastRevision = Long.MIN_VALUE;
+
+    /**
+     * Create a new instance of this class, loading the entries of an
+     * existing index file.
+     *
+     * @param file index file
+     * @param interval minimum interval between two entries, in milliseconds
+     * @throws JournalException if the index file cannot be read
+     */
+    public TimestampIndex(File file, long interval) throws JournalException {
+        this.file = file;
+        this.interval = interval;
+
+        if (file.exists()) {
+            load();
+        }
+    }
+
+    /**
+     * Add an entry for a record, unless the last entry is more recent than
+     * the given interval. Entries that would break the order of the index,
+     * e.g. records of cluster nodes with skewed clocks, are ignored. Failing
+     * to write the index file is logged, as the index is only used to speed
+     * up reading the journal.
+     *
+     * @param timestamp time of the changes contained in the record
+     * @param revision revision of the record
+     */
+    public synchronized void add(long timestamp, long revision) {
+        if (revision <= lastRevision || timestamp < lastTimestamp
+                || timestamp - lastTimestamp < interval && !entries.isEmpty()) {
+            return;
+        }
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(file, true));
+            out.writeLong(timestamp);
+            out.writeLong(revision);
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            log.warn("Unable to update timestamp index " + file + ": " + e.getMessage());
+            return;
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+        put(timestamp, revision);
+    }
+
+    /**
+     * Return the revision of the most recent entry with a timestamp before
+     * the given date. Readers may start reading the journal after that
+     * revision to find the changes made after the given date.
+     *
+     * @param date milliseconds since January 1 1970 UTC
+     * @return revision, or <code>-1</code> if no entry is older than the
+     *         given date
+     */
+    public synchronized long getRevision(long date) {
+        Map.Entry<Long, Long> entry = entries.lowerEntry(date);
+        if (entry == null) {
+            return -1;
+        }
+        return entry.getValue();
+    }
+
+    /**
+     * Return the number of entries.
+     *
+     * @return number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Load the entries of the index file. An incomplete last entry, left by
+     * a crash while appending, is truncated.
+     *
+     * @throws JournalException if an I/O error occurs
+     */
+    private void load() throws JournalException {
+        long length = file.length();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            for (long i = 0; i + ENTRY_SIZE <= length; i += ENTRY_SIZE) {
+                put(in.readLong(), in.readLong());
+            }
+        } catch (EOFException e) {
+            // file was truncated while reading
+        } catch (IOException e) {
+            String msg = "Unable to read timestamp index " + file;
+            throw new JournalException(msg, e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+
+        if (length % ENTRY_SIZE != 0) {
+            log.warn("Truncating incomplete entry of timestamp index " + file);
+            try {
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    raf.setLength(length - length % ENTRY_SIZE);
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                String msg = "Unable to truncate timestamp index " + file;
+                throw new JournalException(msg, e);
+            }
+        }
+    }
+
+    /**
+     * Add an entry to memory.
+     *
+     * @param timestamp timestamp
+     * @param revision revision
+     */
+    private void put(long timestamp, long revision) {
+        entries.put(timestamp, revision);
+        lastTimestamp = timestamp;
+        lastRevision = revision;
+    }
+}
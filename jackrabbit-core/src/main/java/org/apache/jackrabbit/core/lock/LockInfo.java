@@ -71,12 +71,12 @@ public abstract class LockInfo {
     /**
      * Flag indicating whether this lock is live. See also {@link #timeoutTime}.
      */
-    private boolean live;
+    private volatile boolean live;
 
     /**
      * Session currently holding lock
      */
-    private SessionImpl lockHolder;
+    private volatile SessionImpl lockHolder;
 
     /**
      * Create a new instance of this class.
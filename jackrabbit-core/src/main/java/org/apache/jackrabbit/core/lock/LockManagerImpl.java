@@ -16,13 +16,11 @@
  */
 package org.apache.jackrabbit.core.lock;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -38,7 +36,6 @@ import javax.jcr.observation.Event;
 import javax.jcr.observation.EventIterator;
 
 import org.apache.commons.collections.map.LinkedMap;
-import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.core.NodeImpl;
 import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.SessionListener;
@@ -48,7 +45,6 @@ import org.apache.jackrabbit.core.cluster.LockEventChannel;
 import org.apache.jackrabbit.core.cluster.LockEventListener;
 import org.apache.jackrabbit.core.fs.FileSystem;
 import org.apache.jackrabbit.core.fs.FileSystemException;
-import org.apache.jackrabbit.core.fs.FileSystemResource;
 import org.apache.jackrabbit.core.id.ItemId;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.PropertyId;
@@ -69,6 +65,13 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Provides the functionality needed for locking and unlocking nodes.
+ * <p>
+ * Locks are kept in a path map, which is modified under an XA aware lock,
+ * and in a concurrent index by path that is updated along with the path
+ * map. The index lets {@link #checkLock(Path, Session)}, the check done on
+ * every write, run without locking, and return immediately if no node is
+ * locked. Changes of open-scoped locks are persisted incrementally, see
+ * {@link LockStore}.
  */
 public class LockManagerImpl
         implements LockManager, SynchronousEventListener, LockEventListener {
@@ -79,14 +82,15 @@ public class LockManagerImpl
     private static final Logger log = LoggerFactory.getLogger(LockManagerImpl.class);
 
     /**
-     * Name of the lock file
+     * Path map containing all locks at the leaves.
      */
-    private static final String LOCKS_FILE = "locks";
+    private final PathMap<LockInfo> lockMap = new PathMap<LockInfo>();
 
     /**
-     * Path map containing all locks at the leaves.
+     * Index of the locks in {@link #lockMap} by path. Modified along with
+     * the path map, read without locking.
      */
-    private final PathMap<LockInfo> lockMap = new PathMap<LockInfo>();
+    private final Map<Path, LockInfo> lockIndex = new ConcurrentHashMap<Path, LockInfo>();
 
     /**
      * XA/Thread aware lock to path map.
@@ -109,9 +113,9 @@ public class LockManagerImpl
     private final SessionImpl sysSession;
 
     /**
-     * Locks file
+     * Persistent store of open-scoped locks
      */
-    private final FileSystemResource locksFile;
+    private final LockStore store;
 
     /**
      * Flag indicating whether automatic saving is disabled.
@@ -136,19 +140,17 @@ public class LockManagerImpl
             ScheduledExecutorService executor) throws RepositoryException {
 
         this.sysSession = session;
-        this.locksFile = new FileSystemResource(fs, FileSystem.SEPARATOR + LOCKS_FILE);
+        this.store = new LockStore(fs);
 
         session.getWorkspace().getObservationManager().
                 addEventListener(this, Event.NODE_ADDED | Event.NODE_REMOVED,
                         "/", true, null, null, true);
 
         try {
-            if (locksFile.exists()) {
-                load();
-            }
+            load();
         } catch (FileSystemException e) {
             throw new RepositoryException("I/O error while reading locks from '"
-                    + locksFile.getPath() + "'", e);
+                    + store.getPath() + "'", e);
         }
 
         timeoutHandler = executor.scheduleWithFixedDelay(
@@ -160,7 +162,12 @@ public class LockManagerImpl
      */
     public void close() {
         timeoutHandler.cancel(false);
-        save();
+        acquire();
+        try {
+            compact();
+        } finally {
+            release();
+        }
     }
 
     /**
@@ -201,25 +208,19 @@ public class LockManagerImpl
     }
 
     /**
-     * Read locks from locks file and populate path map
+     * Read locks from the lock store and populate path map
      */
     private void load() throws FileSystemException {
-        BufferedReader reader = null;
-
-        try {
-            reader = new BufferedReader(
-                    new InputStreamReader(locksFile.getInputStream()));
-            while (true) {
-                String s = reader.readLine();
-                if (s == null || s.equals("")) {
-                    break;
-                }
-                reapplyLock(s);
+        for (String line : store.load()) {
+            reapplyLock(line);
+        }
+        if (store.hasChanges()) {
+            acquire();
+            try {
+                compact();
+            } finally {
+                release();
             }
-        } catch (IOException e) {
-            throw new FileSystemException("error while reading locks file", e);
-        } finally {
-            IOUtils.closeQuietly(reader);
         }
     }
 
@@ -255,6 +256,7 @@ public class LockManagerImpl
                     timeoutHint);
             info.setLive(true);
             lockMap.put(path, info);
+            lockIndex.put(path, info);
         } catch (RepositoryException e) {
             log.warn("Unable to recreate lock '" + token + "': " + e.getMessage());
             log.debug("Root cause: ", e);
@@ -264,13 +266,30 @@ public class LockManagerImpl
     }
 
     /**
-     * Write locks to locks file
+     * Write the lock changes remembered in the lock store, compacting the
+     * store if enough changes have accumulated
      */
     private void save() {
         if (savingDisabled) {
             return;
         }
 
+        try {
+            if (store.flush()) {
+                compact();
+            }
+        } catch (FileSystemException fse) {
+            log.warn("I/O error while saving locks to '"
+                    + store.getPath() + "': " + fse.getMessage());
+            log.debug("Root cause: ", fse);
+        }
+    }
+
+    /**
+     * Write all open-scoped locks to the lock store, replacing the changes
+     * written so far
+     */
+    private void compact() {
         final ArrayList<LockInfo> list = new ArrayList<LockInfo>();
 
         lockMap.traverse(new PathMap.ElementVisitor<LockInfo>() {
@@ -282,33 +301,37 @@ public class LockManagerImpl
             }
         }, false);
 
-
-        BufferedWriter writer = null;
-
         try {
-            writer = new BufferedWriter(
-                    new OutputStreamWriter(locksFile.getOutputStream()));
-            for (LockInfo info : list) {
-                writer.write(info.getLockToken());
-
-                // Store the timeout hint, if one is specified
-                if (info.getTimeoutHint() != Long.MAX_VALUE) {
-                    writer.write(',');
-                    writer.write(Long.toString(info.getTimeoutHint()));
-                }
-
-                writer.newLine();
-            }
+            store.compact(list);
         } catch (FileSystemException fse) {
             log.warn("I/O error while saving locks to '"
-                    + locksFile.getPath() + "': " + fse.getMessage());
+                    + store.getPath() + "': " + fse.getMessage());
             log.debug("Root cause: ", fse);
-        } catch (IOException ioe) {
-            log.warn("I/O error while saving locks to '"
-                    + locksFile.getPath() + "': " + ioe.getMessage());
-            log.debug("Root cause: ", ioe);
-        } finally {
-            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    /**
+     * Return the lock that applies to a path in the lock index: either the
+     * lock of the node itself, or the deep lock of one of its parents.
+     *
+     * @param path normalized path
+     * @return lock info or <code>null</code> if the path is not locked
+     * @throws RepositoryException if an error occurs
+     */
+    private LockInfo getLockInfo(Path path) throws RepositoryException {
+        if (lockIndex.isEmpty()) {
+            return null;
+        }
+        Path ancestor = path;
+        for (;;) {
+            LockInfo info = lockIndex.get(ancestor);
+            if (info != null) {
+                return ancestor == path || info.isDeep() ? info : null;
+            }
+            if (ancestor.denotesRoot()) {
+                return null;
+            }
+            ancestor = ancestor.getAncestor(1);
         }
     }
 
@@ -378,8 +401,10 @@ public class LockManagerImpl
                 getSessionLockManager(session).lockTokenAdded(info.getLockToken());
             }
             lockMap.put(path, info);
+            lockIndex.put(path, info);
 
             if (!info.isSessionScoped()) {
+                store.added(info);
                 save();
                 successful = true;
             }
@@ -414,8 +439,8 @@ public class LockManagerImpl
         try {
             SessionImpl session = (SessionImpl) node.getSession();
             // check whether node is locked by this session
-            PathMap.Element<LockInfo> element =
-                lockMap.map(getPath(session, node.getId()), true);
+            Path path = getPath(session, node.getId());
+            PathMap.Element<LockInfo> element = lockMap.map(path, true);
             if (element == null) {
                 throw new LockException("Node not locked: " + node);
             }
@@ -429,8 +454,10 @@ public class LockManagerImpl
 
             element.set(null);
             info.setLive(false);
+            lockIndex.remove(path);
 
             if (!info.isSessionScoped()) {
+                store.removed(info);
                 save();
                 successful = true;
             }
@@ -478,7 +505,9 @@ public class LockManagerImpl
                 LockInfo info = element.get();
                 if (info.isLive() && !info.isSessionScoped()) {
                     try {
-                        lockMap.put(element.getPath(), info);
+                        Path path = element.getPath();
+                        lockMap.put(path, info);
+                        lockIndex.put(path, info);
                     } catch (MalformedPathException e) {
                         log.warn("Ignoring invalid lock path: " + info, e);
                     }
@@ -502,19 +531,7 @@ public class LockManagerImpl
             return null;
         }
 
-        acquire();
-        try {
-            PathMap.Element<LockInfo> element = lockMap.map(path, false);
-            LockInfo info = element.get();
-            if (info != null) {
-                if (element.hasPath(path) || info.isDeep()) {
-                    return info;
-                }
-            }
-            return null;
-        } finally {
-            release();
-        }
+        return getLockInfo(path);
     }
 
     //----------------------------------------------------------< LockManager >
@@ -622,26 +639,11 @@ public class LockManagerImpl
      * {@inheritDoc}
      */
     public boolean isLocked(NodeImpl node) throws RepositoryException {
-        acquire();
-
         try {
             SessionImpl session = (SessionImpl) node.getSession();
-            Path path = getPath(session, node.getId());
-
-            PathMap.Element<LockInfo> element = lockMap.map(path, false);
-            LockInfo info = element.get();
-            if (info == null) {
-                return false;
-            }
-            if (element.hasPath(path)) {
-                return true;
-            } else {
-                return info.isDeep();
-            }
+            return getLockInfo(getPath(session, node.getId())) != null;
         } catch (ItemNotFoundException e) {
             return false;
-        } finally {
-            release();
         }
     }
 
@@ -661,17 +663,9 @@ public class LockManagerImpl
     public void checkLock(Path path, Session session)
             throws LockException, RepositoryException {
 
-        acquire();
-        try {
-            PathMap.Element<LockInfo> element = lockMap.map(path, false);
-            LockInfo info = element.get();
-            if (info != null) {
-                if (element.hasPath(path) || info.isDeep()) {
-                    checkLock(info, session);
-                }
-            }
-        } finally {
-            release();
+        LockInfo info = getLockInfo(path);
+        if (info != null) {
+            checkLock(info, session);
         }
     }
 
@@ -1154,12 +1148,18 @@ public class LockManagerImpl
      */
     private void refresh(PathMap.Element<LockInfo> element) {
         final ArrayList<LockInfo> infos = new ArrayList<LockInfo>();
+        final Map<Path, LockInfo> oldPaths = new HashMap<Path, LockInfo>();
         boolean needsSave = false;
 
         // save away non-empty children
         element.traverse(new PathMap.ElementVisitor<LockInfo>() {
             public void elementVisited(PathMap.Element<LockInfo> element) {
                 infos.add(element.get());
+                try {
+                    oldPaths.put(element.getPath(), element.get());
+                } catch (MalformedPathException e) {
+                    log.warn("Ignoring invalid lock path: " + element.get(), e);
+                }
             }
         }, false);
 
@@ -1175,10 +1175,14 @@ public class LockManagerImpl
             	
                 NodeImpl node = (NodeImpl) sysSession.getItemManager().getItem(
                         info.getId());
-                lockMap.put(node.getPrimaryPath(), info);
+                Path path = node.getPrimaryPath();
+                lockMap.put(path, info);
+                lockIndex.put(path, info);
+                oldPaths.remove(path);
             } catch (RepositoryException e) {
                 info.setLive(false);
                 if (!info.isSessionScoped()) {
+                    store.removed(info);
                     needsSave = true;
                 }
             } finally {
@@ -1186,6 +1190,12 @@ public class LockManagerImpl
             }
         }
 
+        // remove the old paths only now, so that concurrent lock checks
+        // never miss a lock that has been moved
+        for (Map.Entry<Path, LockInfo> entry : oldPaths.entrySet()) {
+            lockIndex.remove(entry.getKey(), entry.getValue());
+        }
+
         // save if required
         if (needsSave) {
             save();
@@ -1355,7 +1365,9 @@ public class LockManagerImpl
                     nodeId, false, isDeep, lockOwner, Long.MAX_VALUE);
             info.setLive(true);
             lockMap.put(path, info);
+            lockIndex.put(path, info);
 
+            store.added(info);
             save();
         } finally {
             release();
@@ -1380,7 +1392,9 @@ public class LockManagerImpl
             }
             element.set(null);
             info.setLive(false);
+            lockIndex.remove(path);
 
+            store.removed(info);
             save();
 
         } finally {
@@ -0,0 +1,317 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.lock;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.fs.FileSystem;
+import org.apache.jackrabbit.core.fs.FileSystemException;
+import org.apache.jackrabbit.core.fs.FileSystemResource;
+
+/**
+ * Persists the open-scoped locks of a workspace. The <code>locks</code> file
+ * contains one line per lock, holding the lock token and an optional
+ * timeout hint. Lock changes are not written to that file directly: each
+ * batch of changes is written to a new, small file in the
+ * <code>locks.changes</code> folder, as lines starting with <code>+</code>
+ * for an added lock or <code>-</code> for a removed lock. When enough
+ * change files have accumulated, the <code>locks</code> file is rewritten
+ * and the change files are deleted. Replaying a change file on top of a
+ * <code>locks</code> file that already contains its changes yields the same
+ * locks, hence a crash during compaction loses no changes.
+ * <p>
+ * Instances of this class are not thread-safe, they are guarded by the
+ * lock of the owning {@link LockManagerImpl}.
+ */
+class LockStore {
+
+    /**
+     * Name of the lock file.
+     */
+    static final String LOCKS_FILE = "locks";
+
+    /**
+     * Name of the folder containing the change files.
+     */
+    static final String CHANGES_FOLDER = "locks.changes";
+
+    /**
+     * Number of change files that triggers a compaction.
+     */
+    static final int COMPACT_THRESHOLD = 100;
+
+    /**
+     * File system.
+     */
+    private final FileSystem fs;
+
+    /**
+     * Locks file.
+     */
+    private final FileSystemResource locksFile;
+
+    /**
+     * Changes not written yet.
+     */
+    private final List<String> pending = new ArrayList<String>();
+
+    /**
+     * Sequence number of the next change file.
+     */
+    private long sequence;
+
+    /**
+     * Number of change files.
+     */
+    private int changes;
+
+    /**
+     * Create a new instance of this class.
+     *
+     * @param fs file system for persisting locks
+     */
+    LockStore(FileSystem fs) {
+        this.fs = fs;
+        this.locksFile = new FileSystemResource(fs, FileSystem.SEPARATOR + LOCKS_FILE);
+    }
+
+    /**
+     * Return the path of the locks file, used in messages.
+     *
+     * @return path of the locks file
+     */
+    String getPath() {
+        return locksFile.getPath();
+    }
+
+    /**
+     * Read the locks file and apply the change files.
+     *
+     * @return lines of the locks, each holding the lock token and an
+     *         optional timeout hint
+     * @throws FileSystemException if an I/O error occurs
+     */
+    Collection<String> load() throws FileSystemException {
+        Map<String, String> locks = new LinkedHashMap<String, String>();
+        if (locksFile.exists()) {
+            for (String line : readLines(locksFile)) {
+                locks.put(getLockToken(line), line);
+            }
+        }
+        String[] names = listChanges();
+        for (String name : names) {
+            for (String line : readLines(getChangeFile(name))) {
+                String lock = line.substring(1);
+                if (line.charAt(0) == '+') {
+                    locks.put(getLockToken(lock), lock);
+                } else {
+                    locks.remove(lock);
+                }
+            }
+            sequence = Math.max(sequence, Long.parseLong(name) + 1);
+        }
+        changes = names.length;
+        return locks.values();
+    }
+
+    /**
+     * Return whether change files exist.
+     *
+     * @return <code>true</code> if change files exist
+     */
+    boolean hasChanges() {
+        return changes > 0;
+    }
+
+    /**
+     * Remember an added lock. The change is written on the next
+     * {@link #flush()}.
+     *
+     * @param info lock info
+     */
+    void added(LockInfo info) {
+        pending.add("+" + toLine(info));
+    }
+
+    /**
+     * Remember a removed lock. The change is written on the next
+     * {@link #flush()}.
+     *
+     * @param info lock info
+     */
+    void removed(LockInfo info) {
+        pending.add("-" + info.getLockToken());
+    }
+
+    /**
+     * Write the pending changes to a new change file.
+     *
+     * @return <code>true</code> if the locks file should be compacted
+     * @throws FileSystemException if an I/O error occurs
+     */
+    boolean flush() throws FileSystemException {
+        if (!pending.isEmpty()) {
+            if (!fs.exists(FileSystem.SEPARATOR + CHANGES_FOLDER)) {
+                fs.createFolder(FileSystem.SEPARATOR + CHANGES_FOLDER);
+            }
+            writeLines(getChangeFile(String.format("%019d", sequence)), pending);
+            sequence++;
+            changes++;
+            pending.clear();
+        }
+        return changes >= COMPACT_THRESHOLD;
+    }
+
+    /**
+     * Rewrite the locks file and delete the change files.
+     *
+     * @param infos all open-scoped locks
+     * @throws FileSystemException if an I/O error occurs
+     */
+    void compact(Collection<LockInfo> infos) throws FileSystemException {
+        List<String> lines = new ArrayList<String>(infos.size());
+        for (LockInfo info : infos) {
+            lines.add(toLine(info));
+        }
+        writeLines(locksFile, lines);
+        pending.clear();
+        for (String name : listChanges()) {
+            getChangeFile(name).delete();
+        }
+        sequence = 0;
+        changes = 0;
+    }
+
+    /**
+     * Return the names of the change files, in the order they were written.
+     *
+     * @return names of the change files
+     * @throws FileSystemException if an I/O error occurs
+     */
+    private String[] listChanges() throws FileSystemException {
+        String folder = FileSystem.SEPARATOR + CHANGES_FOLDER;
+        if (!fs.exists(folder)) {
+            return new String[0];
+        }
+        String[] names = fs.listFiles(folder);
+        Arrays.sort(names);
+        return names;
+    }
+
+    /**
+     * Return a change file.
+     *
+     * @param name name of the change file
+     * @return change file
+     */
+    private FileSystemResource getChangeFile(String name) {
+        return new FileSystemResource(fs, FileSystem.SEPARATOR + CHANGES_FOLDER
+                + FileSystem.SEPARATOR + name);
+    }
+
+    /**
+     * Return the line describing a lock.
+     *
+     * @param info lock info
+     * @return lock token, followed by the timeout hint if one is specified
+     */
+    private static String toLine(LockInfo info) {
+        if (info.getTimeoutHint() != Long.MAX_VALUE) {
+            return info.getLockToken() + ',' + info.getTimeoutHint();
+        }
+        return info.getLockToken();
+    }
+
+    /**
+     * Return the lock token of a line describing a lock.
+     *
+     * @param line line
+     * @return lock token
+     */
+    private static String getLockToken(String line) {
+        int comma = line.indexOf(',');
+        return comma == -1 ? line : line.substring(0, comma);
+    }
+
+    /**
+     * Read the non-empty lines of a file.
+     *
+     * @param resource file
+     * @return lines
+     * @throws FileSystemException if an I/O error occurs
+     */
+    private static List<String> readLines(FileSystemResource resource)
+            throws FileSystemException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(
+                    new InputStreamReader(resource.getInputStream()));
+            while (true) {
+                String s = reader.readLine();
+                if (s == null || s.equals("")) {
+                    break;
+                }
+                lines.add(s);
+            }
+        } catch (IOException e) {
+            throw new FileSystemException(
+                    "error while reading " + resource.getPath(), e);
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+        return lines;
+    }
+
+    /**
+     * Write lines to a file.
+     *
+     * @param resource file
+     * @param lines lines
+     * @throws FileSystemException if an I/O error occurs
+     */
+    private static void writeLines(FileSystemResource resource, List<String> lines)
+            throws FileSystemException {
+        BufferedWriter writer = null;
+        try {
+            writer = new BufferedWriter(
+                    new OutputStreamWriter(resource.getOutputStream()));
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+            writer.close();
+            writer = null;
+        } catch (IOException e) {
+            throw new FileSystemException(
+                    "error while writing " + resource.getPath(), e);
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+}
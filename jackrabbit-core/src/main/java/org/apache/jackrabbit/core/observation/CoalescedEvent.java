@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.observation;
+
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+
+/**
+ * The event of the root node of an added or removed subtree, delivered to
+ * a {@link CoalescingEventListener} instead of the events of the items of
+ * the subtree.
+ */
+public interface CoalescedEvent extends Event {
+
+    /**
+     * Returns the number of events coalesced into this event, before the
+     * filter and the access rights of the listener are applied.
+     *
+     * @return the number of coalesced events.
+     */
+    int getCoalescedSize();
+
+    /**
+     * Returns the events coalesced into this event, i.e. the events of the
+     * items below the root node, in the order they occurred. The filter and
+     * the access rights of the listener are applied while iterating.
+     *
+     * @return the coalesced events.
+     */
+    EventIterator getCoalescedEvents();
+}
@@ -0,0 +1,31 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.observation;
+
+import javax.jcr.observation.EventListener;
+
+/**
+ * Defines a marker interface for {@link javax.jcr.observation.EventListener}
+ * implementations that wish to receive a single event for each added or
+ * removed subtree, instead of an event for every item of the subtree. The
+ * event of the root node of such a subtree is a {@link CoalescedEvent},
+ * which gives access to the events of the other items of the subtree.
+ * This bounds the number of events a listener has to process when large
+ * subtrees are imported or removed.
+ */
+public interface CoalescingEventListener extends EventListener {
+}
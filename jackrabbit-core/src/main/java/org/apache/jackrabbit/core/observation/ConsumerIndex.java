@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.observation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.observation.Event;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.spi.Path;
+
+/**
+ * Index of the filters of event consumers, used to find the consumers that
+ * may receive the events of a change without checking every filter. The
+ * paths of the filters are stored in a tree with one level per path
+ * element, and filters that only allow events of some nodes are indexed by
+ * the identifiers of these nodes. The event types of a filter are checked
+ * as a bit mask. The index does not check node types, session related
+ * criteria and access rights, hence consumers still apply their complete
+ * filter to the events of the consumers found.
+ * <p>
+ * Instances of this class are immutable after construction, a new index is
+ * created when the consumers change.
+ */
+class ConsumerIndex {
+
+    /**
+     * Consumers by path of their filter.
+     */
+    private final PathNode root = new PathNode();
+
+    /**
+     * Consumers with an identifier restriction, by identifier.
+     */
+    private final Map<NodeId, List<EventConsumer>> byId =
+            new HashMap<NodeId, List<EventConsumer>>();
+
+    /**
+     * Consumers that allow persist events.
+     */
+    private final List<EventConsumer> persist = new ArrayList<EventConsumer>();
+
+    /**
+     * Event types allowed by any consumer.
+     */
+    private long eventTypes;
+
+    /**
+     * Creates an index of the given consumers.
+     *
+     * @param consumers the consumers
+     */
+    ConsumerIndex(Collection<EventConsumer> consumers) {
+        for (EventConsumer consumer : consumers) {
+            EventFilter filter = consumer.getFilter();
+            eventTypes |= filter.getEventTypes();
+            if ((filter.getEventTypes() & Event.PERSIST) != 0) {
+                persist.add(consumer);
+            }
+            NodeId[] ids = filter.getIds();
+            if (ids != null) {
+                for (NodeId id : ids) {
+                    List<EventConsumer> list = byId.get(id);
+                    if (list == null) {
+                        list = new ArrayList<EventConsumer>();
+                        byId.put(id, list);
+                    }
+                    list.add(consumer);
+                }
+            } else {
+                for (Path path : filter.getPaths()) {
+                    PathNode node = root;
+                    for (Path.Element element : path.getElements()) {
+                        node = node.getOrAddChild(element);
+                    }
+                    if (filter.isDeep()) {
+                        node.deep.add(consumer);
+                    } else {
+                        node.exact.add(consumer);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the event types allowed by any consumer.
+     *
+     * @return the event types, as a bit mask
+     */
+    long getEventTypes() {
+        return eventTypes;
+    }
+
+    /**
+     * Returns the consumers whose filter may allow at least one of the
+     * given events.
+     *
+     * @param events the events
+     * @return the candidate consumers, in no particular order
+     */
+    Set<EventConsumer> getCandidates(EventStateCollection events) {
+        Set<EventConsumer> candidates = new LinkedHashSet<EventConsumer>();
+        Path lastPath = null;
+        List<EventConsumer> lastMatches = null;
+        for (EventState state : events.getEvents()) {
+            long type = state.getType();
+            if (type == Event.PERSIST) {
+                candidates.addAll(persist);
+                continue;
+            }
+            Path path = state.getParentPath();
+            if (path == null) {
+                continue;
+            }
+            // changes of a save are mostly grouped by parent
+            if (!path.equals(lastPath)) {
+                lastPath = path;
+                lastMatches = getMatches(path);
+            }
+            for (EventConsumer consumer : lastMatches) {
+                addIfAllowed(candidates, consumer, type);
+            }
+            List<EventConsumer> list = byId.get(state.getParentId());
+            if (list != null) {
+                for (EventConsumer consumer : list) {
+                    if (includesPath(consumer.getFilter(), path)) {
+                        addIfAllowed(candidates, consumer, type);
+                    }
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Returns the consumers without identifier restriction whose filter
+     * includes the given path.
+     *
+     * @param path the parent path of an event
+     * @return consumers
+     */
+    private List<EventConsumer> getMatches(Path path) {
+        List<EventConsumer> matches = new ArrayList<EventConsumer>();
+        PathNode node = root;
+        Path.Element[] elements = path.getElements();
+        for (int i = 0; i < elements.length && node != null; i++) {
+            node = node.getChild(elements[i]);
+            if (node != null) {
+                matches.addAll(node.deep);
+                if (i == elements.length - 1) {
+                    matches.addAll(node.exact);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Adds a consumer to the candidates if its filter allows the given
+     * event type.
+     *
+     * @param candidates the candidates
+     * @param consumer a consumer
+     * @param type an event type
+     */
+    private static void addIfAllowed(Set<EventConsumer> candidates,
+                                     EventConsumer consumer, long type) {
+        if ((consumer.getFilter().getEventTypes() & type) != 0) {
+            candidates.add(consumer);
+        }
+    }
+
+    /**
+     * Returns whether a filter includes the given path, without throwing.
+     *
+     * @param filter a filter
+     * @param path a path
+     * @return <code>true</code> if the path is included, or cannot be
+     *         compared
+     */
+    private static boolean includesPath(EventFilter filter, Path path) {
+        try {
+            return filter.includesPath(path);
+        } catch (Exception e) {
+            // let the consumer decide
+            return true;
+        }
+    }
+
+    /**
+     * Node of the path tree.
+     */
+    private static final class PathNode {
+
+        /**
+         * Child nodes, or <code>null</code>.
+         */
+        private Map<Path.Element, PathNode> children;
+
+        /**
+         * Consumers interested in this path and its descendants.
+         */
+        private final List<EventConsumer> deep = new ArrayList<EventConsumer>();
+
+        /**
+         * Consumers interested in this path only.
+         */
+        private final List<EventConsumer> exact = new ArrayList<EventConsumer>();
+
+        PathNode getChild(Path.Element element) {
+            return children != null ? children.get(element) : null;
+        }
+
+        PathNode getOrAddChild(Path.Element element) {
+            if (children == null) {
+                children = new HashMap<Path.Element, PathNode>();
+            }
+            PathNode child = children.get(element);
+            if (child == null) {
+                child = new PathNode();
+                children.put(element, child);
+            }
+            return child;
+        }
+    }
+}
@@ -92,6 +92,19 @@ public class DelegatingObservationDispatcher extends EventDispatcher {
         // events will get prepared on dispatch
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    long getEventTypes() {
+        long types = 0;
+        synchronized (dispatchers) {
+            for (ObservationDispatcher dispatcher : dispatchers) {
+                types |= dispatcher.getEventTypes();
+            }
+        }
+        return types;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.observation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+
+import org.apache.jackrabbit.commons.iterator.EventIteratorAdapter;
+import org.apache.jackrabbit.commons.iterator.FilteredRangeIterator;
+import org.apache.jackrabbit.commons.predicate.Predicate;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.id.ItemId;
+import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.spi.PathFactory;
+import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces the events of added and removed subtrees for a
+ * {@link CoalescingEventListener}. The added (removed) node events whose
+ * parent node was not added (removed) as well are the roots of subtrees.
+ * The events of the items below the topmost visible root are attached to
+ * the {@link CoalescedEvent} of that root, and are only filtered when the
+ * listener iterates them. All other events are delivered as usual.
+ */
+class EventCoalescer {
+
+    /**
+     * Logger instance for this class
+     */
+    private static final Logger log = LoggerFactory.getLogger(EventCoalescer.class);
+
+    private static final PathFactory PATH_FACTORY = PathFactoryImpl.getInstance();
+
+    /**
+     * The consumer of the events.
+     */
+    private final EventConsumer consumer;
+
+    /**
+     * <code>ItemId</code>s of removed items that must not be seen.
+     */
+    private final Set<ItemId> denied;
+
+    /**
+     * The time when the events occurred.
+     */
+    private final long timestamp;
+
+    /**
+     * The user data associated with the events.
+     */
+    private final String userData;
+
+    /**
+     * Visibility of the events that are roots of subtrees.
+     */
+    private final Map<EventState, Boolean> visible =
+            new IdentityHashMap<EventState, Boolean>();
+
+    /**
+     * Creates a new coalescer.
+     *
+     * @param consumer the consumer of the events.
+     * @param denied <code>ItemId</code>s of removed items that must not be
+     *               seen.
+     * @param timestamp the time when the events occurred.
+     * @param userData the user data associated with the events.
+     */
+    EventCoalescer(EventConsumer consumer, Set<ItemId> denied,
+                   long timestamp, String userData) {
+        this.consumer = consumer;
+        this.denied = denied;
+        this.timestamp = timestamp;
+        this.userData = userData;
+    }
+
+    /**
+     * Coalesces events.
+     *
+     * @param states the events.
+     * @return the visible events to deliver to the listener.
+     * @throws RepositoryException if an error occurs while filtering.
+     */
+    List<Event> coalesce(Iterator<EventState> states) throws RepositoryException {
+        List<EventState> all = new ArrayList<EventState>();
+        Map<Path, EventState> added = new HashMap<Path, EventState>();
+        Map<Path, EventState> removed = new HashMap<Path, EventState>();
+        while (states.hasNext()) {
+            EventState state = states.next();
+            all.add(state);
+            if (state.getType() == Event.NODE_ADDED) {
+                added.put(getPath(state), state);
+            } else if (state.getType() == Event.NODE_REMOVED) {
+                removed.put(getPath(state), state);
+            }
+        }
+
+        // roots and other events, in order, with the events below the roots
+        Map<EventState, List<EventState>> events =
+                new LinkedHashMap<EventState, List<EventState>>();
+        for (EventState state : all) {
+            EventState root = null;
+            int type = state.getType();
+            if (type == Event.NODE_ADDED || type == Event.PROPERTY_ADDED) {
+                root = getRoot(state, added);
+            } else if (type == Event.NODE_REMOVED || type == Event.PROPERTY_REMOVED) {
+                root = getRoot(state, removed);
+            }
+            if (root != null) {
+                List<EventState> below = events.get(root);
+                if (below == null) {
+                    below = new ArrayList<EventState>();
+                    events.put(root, below);
+                }
+                below.add(state);
+            } else if (isVisible(state) && !events.containsKey(state)) {
+                events.put(state, null);
+            }
+        }
+
+        SessionImpl session = (SessionImpl) consumer.getSession();
+        List<Event> result = new ArrayList<Event>(events.size());
+        for (Map.Entry<EventState, List<EventState>> entry : events.entrySet()) {
+            if (entry.getValue() == null) {
+                result.add(new EventImpl(session, entry.getKey(), timestamp, userData));
+            } else {
+                result.add(new CoalescedEventImpl(session, entry.getKey(), entry.getValue()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the topmost visible root of a subtree that contains the item
+     * of an event.
+     *
+     * @param state an event.
+     * @param roots node events by path.
+     * @return the root, or <code>null</code> if the item is not below a
+     *         visible root.
+     * @throws RepositoryException if an error occurs while filtering.
+     */
+    private EventState getRoot(EventState state, Map<Path, EventState> roots)
+            throws RepositoryException {
+        EventState root = null;
+        Path path = state.getParentPath();
+        while (path != null) {
+            EventState candidate = roots.get(path);
+            if (candidate != null && isVisible(candidate)) {
+                root = candidate;
+            }
+            path = path.getDepth() > 0 ? path.getAncestor(1) : null;
+        }
+        return root;
+    }
+
+    /**
+     * Returns whether an event is visible to the listener, caching the
+     * result.
+     *
+     * @param state an event.
+     * @return <code>true</code> if the event is visible.
+     * @throws RepositoryException if an error occurs while filtering.
+     */
+    private boolean isVisible(EventState state) throws RepositoryException {
+        Boolean result = visible.get(state);
+        if (result == null) {
+            result = consumer.isVisible(state, denied);
+            visible.put(state, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the path of the node of a node event.
+     *
+     * @param state a node event.
+     * @return the path of the node.
+     * @throws RepositoryException if the path is invalid.
+     */
+    private static Path getPath(EventState state) throws RepositoryException {
+        return PATH_FACTORY.create(
+                state.getParentPath(), state.getChildRelPath(), false);
+    }
+
+    /**
+     * The event of the root of a subtree.
+     */
+    private class CoalescedEventImpl extends EventImpl implements CoalescedEvent {
+
+        private final List<EventState> coalesced;
+
+        CoalescedEventImpl(SessionImpl session, EventState root,
+                           List<EventState> coalesced) {
+            super(session, root, timestamp, userData);
+            this.coalesced = coalesced;
+        }
+
+        public int getCoalescedSize() {
+            return coalesced.size();
+        }
+
+        public EventIterator getCoalescedEvents() {
+            final SessionImpl session = (SessionImpl) consumer.getSession();
+            return new EventIteratorAdapter(new FilteredRangeIterator(
+                    coalesced.iterator(), new Predicate() {
+                public boolean evaluate(Object object) {
+                    try {
+                        return consumer.isVisible((EventState) object, denied);
+                    } catch (RepositoryException e) {
+                        log.error("Exception while applying event filter", e);
+                        return false;
+                    }
+                }
+            })) {
+                @Override
+                public Object next() {
+                    return new EventImpl(
+                            session, (EventState) super.next(), timestamp, userData);
+                }
+            };
+        }
+    }
+}
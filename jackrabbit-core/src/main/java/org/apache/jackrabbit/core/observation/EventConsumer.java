@@ -16,9 +16,11 @@
  */
 package org.apache.jackrabbit.core.observation;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
@@ -29,6 +31,7 @@ import javax.jcr.observation.Event;
 import javax.jcr.observation.EventIterator;
 import javax.jcr.observation.EventListener;
 
+import org.apache.jackrabbit.commons.iterator.EventIteratorAdapter;
 import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.id.ItemId;
 import org.apache.jackrabbit.core.security.authorization.Permission;
@@ -132,6 +135,15 @@ class EventConsumer {
         return listener;
     }
 
+    /**
+     * Returns the <code>EventFilter</code> of this <code>EventConsumer</code>.
+     *
+     * @return the <code>EventFilter</code> of this <code>EventConsumer</code>.
+     */
+    EventFilter getFilter() {
+        return filter;
+    }
+
     /**
      * Checks for what {@link EventState}s this <code>EventConsumer</code> has
      * enough access rights to see the event.
@@ -218,12 +230,31 @@ class EventConsumer {
      *               to dispatch.
      */
     void consumeEvents(EventStateCollection events) throws RepositoryException {
+        consumeEvents(events, Collections.<EventState>emptySet());
+    }
+
+    /**
+     * Dispatches the events to the <code>EventListener</code>, except the
+     * given events that were superseded by more recent events.
+     *
+     * @param events a collection of {@link EventState}s
+     *               to dispatch.
+     * @param superseded events not to dispatch.
+     */
+    void consumeEvents(EventStateCollection events, Set<EventState> superseded)
+            throws RepositoryException {
         // Set of ItemIds of denied ItemStates
         Set<ItemId> denied = accessDenied.remove(events);
         if (denied == null) {
             denied = new HashSet<ItemId>();
         }
 
+        if (listener instanceof CoalescingEventListener) {
+            // permissions are checked while coalescing
+            consumeCoalesced(events, superseded, denied);
+            return;
+        }
+
         // check permissions
         for (Iterator<EventState> it = events.iterator(); it.hasNext() && session.isLive();) {
             EventState state = it.next();
@@ -242,8 +273,62 @@ class EventConsumer {
         }
         // check if filtered iterator has at least one event
         EventIterator it = new FilteredEventIterator(
-                session, events.iterator(), events.getTimestamp(),
+                session, getStates(events, superseded), events.getTimestamp(),
                 events.getUserData(), filter, denied, false);
+        deliver(it);
+    }
+
+    /**
+     * Dispatches the events to a {@link CoalescingEventListener}, with the
+     * events of added and removed subtrees coalesced into the event of the
+     * root of the subtree.
+     *
+     * @param events the events to dispatch.
+     * @param superseded events not to dispatch.
+     * @param denied <code>ItemId</code>s of removed items that must not be
+     *               seen.
+     */
+    private void consumeCoalesced(EventStateCollection events,
+                                  Set<EventState> superseded,
+                                  Set<ItemId> denied) throws RepositoryException {
+        if (!session.isLive()) {
+            return;
+        }
+        EventCoalescer coalescer = new EventCoalescer(
+                this, denied, events.getTimestamp(), events.getUserData());
+        deliver(new EventIteratorAdapter(
+                coalescer.coalesce(getStates(events, superseded))));
+    }
+
+    /**
+     * Returns the events to dispatch.
+     *
+     * @param events the events.
+     * @param superseded events not to dispatch.
+     * @return the events to dispatch.
+     */
+    private static Iterator<EventState> getStates(EventStateCollection events,
+                                                  Set<EventState> superseded) {
+        Iterator<EventState> states = events.iterator();
+        if (!superseded.isEmpty()) {
+            List<EventState> remaining = new ArrayList<EventState>(events.size());
+            while (states.hasNext()) {
+                EventState state = states.next();
+                if (!superseded.contains(state)) {
+                    remaining.add(state);
+                }
+            }
+            states = remaining.iterator();
+        }
+        return states;
+    }
+
+    /**
+     * Calls the <code>EventListener</code>, unless there are no events.
+     *
+     * @param it the events.
+     */
+    private void deliver(EventIterator it) {
         if (it.hasNext()) {
             long time = System.currentTimeMillis();
             listener.onEvent(it);
@@ -257,6 +342,30 @@ class EventConsumer {
         }
     }
 
+    /**
+     * Returns whether the listener may receive an event, according to the
+     * filter and the access rights of the session.
+     *
+     * @param state an event.
+     * @param denied <code>ItemId</code>s of removed items that must not be
+     *               seen.
+     * @return <code>true</code> if the event may be delivered.
+     * @throws RepositoryException if an error occurs while checking.
+     */
+    boolean isVisible(EventState state, Set<ItemId> denied)
+            throws RepositoryException {
+        if (denied.contains(state.getTargetId()) || filter.blocks(state)) {
+            return false;
+        }
+        int type = state.getType();
+        if (type == Event.NODE_ADDED
+                || type == Event.PROPERTY_ADDED
+                || type == Event.PROPERTY_CHANGED) {
+            return canRead(state);
+        }
+        return true;
+    }
+
     /**
      * Returns <code>true</code> if this <code>EventConsumer</code> is equal to
      * some other object, <code>false</code> otherwise.
@@ -41,6 +41,14 @@ abstract class EventDispatcher {
      */
     abstract void prepareDeleted(EventStateCollection events, ChangeLog changes);
 
+    /**
+     * Returns the event types that registered listeners may receive. This
+     * allows to skip creating events no listener is interested in.
+     *
+     * @return the event types, as a bit mask.
+     */
+    abstract long getEventTypes();
+
     /**
      * Dispatches the {@link EventStateCollection events}.
      *
@@ -131,6 +131,43 @@ public class EventFilter {
         this.nodeTypes = nodeTypes;
     }
 
+    /**
+     * Returns the event types allowed by this filter.
+     *
+     * @return the event types, as a bit mask.
+     */
+    long getEventTypes() {
+        return eventTypes;
+    }
+
+    /**
+     * Returns the paths of the items whose events are allowed.
+     *
+     * @return the paths.
+     */
+    List<Path> getPaths() {
+        return paths;
+    }
+
+    /**
+     * Returns whether events of items below the paths are allowed.
+     *
+     * @return <code>true</code> if events below the paths are allowed.
+     */
+    boolean isDeep() {
+        return isDeep;
+    }
+
+    /**
+     * Returns the identifiers of the nodes whose events are allowed.
+     *
+     * @return the identifiers, or <code>null</code> if events are not
+     *         restricted to some nodes.
+     */
+    NodeId[] getIds() {
+        return ids;
+    }
+
     /**
      * Returns <code>true</code> if this <code>EventFilter</code> does not allow
      * the specified <code>EventState</code>; <code>false</code> otherwise.
@@ -197,16 +234,27 @@ public class EventFilter {
         }
 
         // finally check paths
-        Path eventPath = eventState.getParentPath();
-        boolean match = false;
+        return !includesPath(eventState.getParentPath());
+    }
+
+    /**
+     * Returns <code>true</code> if this <code>EventFilter</code> allows
+     * events of items with the specified parent path. This is a cheap check
+     * that allows to drop events before the more expensive checks of
+     * {@link #blocks(EventState)} are done.
+     *
+     * @param eventPath the parent path of an event.
+     * @return <code>true</code> if the path matches one of the paths of
+     *         this filter.
+     * @throws RepositoryException if an error occurs while checking.
+     */
+    boolean includesPath(Path eventPath) throws RepositoryException {
         for (Path path : paths) {
             if (eventPath.equals(path) || isDeep && eventPath.isDescendantOf(path)) {
-                match = true;
-                break;
+                return true;
             }
         }
-
-        return !match;
+        return false;
     }
 
     /**
@@ -16,6 +16,7 @@
  */
 package org.apache.jackrabbit.core.observation;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.LinkedList;
 import java.util.NoSuchElementException;
@@ -27,6 +28,7 @@ import java.util.Date;
 import java.util.Collections;
 import java.text.DateFormat;
 
+import javax.jcr.RepositoryException;
 import javax.jcr.observation.Event;
 import javax.jcr.observation.EventIterator;
 
@@ -34,10 +36,12 @@ import javax.jcr.observation.EventJournal;
 
 import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.cluster.PrivilegeRecord;
+import org.apache.jackrabbit.core.journal.AbstractJournal;
 import org.apache.jackrabbit.core.journal.Journal;
 import org.apache.jackrabbit.core.journal.RecordIterator;
 import org.apache.jackrabbit.core.journal.JournalException;
 import org.apache.jackrabbit.core.journal.Record;
+import org.apache.jackrabbit.core.journal.TimestampIndex;
 import org.apache.jackrabbit.core.cluster.ClusterRecordDeserializer;
 import org.apache.jackrabbit.core.cluster.ClusterRecord;
 import org.apache.jackrabbit.core.cluster.ClusterRecordProcessor;
@@ -51,6 +55,13 @@ import org.slf4j.LoggerFactory;
 
 /**
  * <code>EventJournalImpl</code> implements the JCR 2.0 {@link EventJournal}.
+ * <p>
+ * {@link #skipTo(long)} starts reading the journal at the revision found in
+ * the persistent {@link TimestampIndex} of the journal, or in an in-memory
+ * skip map if the journal has no such index, and reads only the header of
+ * the records it skips. Records of other workspaces are skipped after
+ * reading their workspace name, and events outside the paths of the event
+ * filter are dropped before access is checked.
  */
 public class EventJournalImpl implements EventJournal {
 
@@ -132,17 +143,32 @@ public class EventJournalImpl implements EventJournal {
     public void skipTo(long date) {
         long time = System.currentTimeMillis();
 
-        // get skip map for this journal
+        // look up the timestamp index and the skip map for this journal
+        long revision = -1;
+        TimestampIndex index = getTimestampIndex();
+        if (index != null) {
+            revision = index.getRevision(date);
+        }
         SortedMap<Long, Long> skipMap = getSkipMap();
         synchronized (skipMap) {
             SortedMap<Long, Long> head = skipMap.headMap(new Long(date));
             if (!head.isEmpty()) {
-                eventBundleBuffer.clear();
-                lastRevision = head.get(head.lastKey());
+                revision = Math.max(revision, head.get(head.lastKey()));
             }
         }
+        if (revision != -1) {
+            eventBundleBuffer.clear();
+            lastRevision = new Long(revision);
+        }
 
         try {
+            while (!eventBundleBuffer.isEmpty()
+                    && eventBundleBuffer.get(0).timestamp <= date) {
+                eventBundleBuffer.remove(0);
+            }
+            if (eventBundleBuffer.isEmpty()) {
+                skipRecords(date);
+            }
             while (hasNext()) {
                 EventBundle bundle = getCurrentBundle();
                 if (bundle.timestamp <= date) {
@@ -271,7 +297,7 @@ public class EventJournalImpl implements EventJournal {
          * {@inheritDoc}
          */
         public void process(ChangeLogRecord record) {
-            List<EventState> events = record.getEvents();
+            List<EventState> events = filterPaths(record.getEvents());
             if (!events.isEmpty()) {
                 EventBundle bundle = new EventBundle(
                         events, record.getTimestamp(), record.getUserData());
@@ -343,10 +369,12 @@ public class EventJournalImpl implements EventJournal {
                 while (processor.getNumEvents() < MIN_BUFFER_SIZE && records.hasNext()) {
                     Record record = records.nextRecord();
                     if (record.getProducerId().equals(producerId)) {
-                        ClusterRecord cr = deserializer.deserialize(record);
-                        if (!session.getWorkspace().getName().equals(cr.getWorkspace())) {
+                        // the rest of a skipped record is never read
+                        String workspace = record.readString();
+                        if (!session.getWorkspace().getName().equals(workspace)) {
                             continue;
                         }
+                        ClusterRecord cr = deserializer.deserialize(record, workspace);
                         cr.process(processor);
                         lastRevision = new Long(cr.getRevision());
                     }
@@ -374,6 +402,78 @@ public class EventJournalImpl implements EventJournal {
         }
     }
 
+    /**
+     * Skips the records with changes made up to the given date, reading only
+     * the header of each record.
+     *
+     * @param date milliseconds since January 1 1970 UTC.
+     */
+    private void skipRecords(long date) {
+        try {
+            ClusterRecordDeserializer deserializer = new ClusterRecordDeserializer();
+            RecordIterator records;
+            if (lastRevision != null) {
+                records = journal.getRecords(lastRevision.longValue());
+            } else {
+                records = journal.getRecords();
+            }
+            try {
+                while (records.hasNext()) {
+                    Record record = records.nextRecord();
+                    if (record.getProducerId().equals(producerId)) {
+                        record.readString();
+                        if (deserializer.readTimestamp(record) > date) {
+                            break;
+                        }
+                        lastRevision = new Long(record.getRevision());
+                    }
+                }
+            } finally {
+                records.close();
+            }
+        } catch (JournalException e) {
+            log.warn("Unable to read journal records", e);
+        }
+    }
+
+    /**
+     * Returns the events whose parent path is included in the paths of the
+     * event filter.
+     *
+     * @param events the events of a record.
+     * @return the events that may pass the event filter.
+     */
+    private List<EventState> filterPaths(List<EventState> events) {
+        List<EventState> included = new ArrayList<EventState>(events.size());
+        for (EventState event : events) {
+            try {
+                if (event.getType() == Event.PERSIST
+                        || filter.includesPath(event.getParentPath())) {
+                    included.add(event);
+                }
+            } catch (RepositoryException e) {
+                // let the event filter decide
+                included.add(event);
+            }
+        }
+        return included;
+    }
+
+    /**
+     * @return the timestamp index of the journal or <code>null</code> if
+     *         there is none.
+     */
+    private TimestampIndex getTimestampIndex() {
+        if (journal instanceof AbstractJournal) {
+            try {
+                return ((AbstractJournal) journal).getTimestampIndex();
+            } catch (JournalException e) {
+                log.warn("Unable to access timestamp index", e);
+            }
+        }
+        return null;
+    }
+
     /**
      * @return the revision skip map for this journal.
      */
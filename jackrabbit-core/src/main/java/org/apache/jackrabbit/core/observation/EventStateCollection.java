@@ -19,8 +19,8 @@ package org.apache.jackrabbit.core.observation;
 import org.apache.jackrabbit.core.HierarchyManager;
 import org.apache.jackrabbit.core.id.ItemId;
 import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.id.PropertyId;
 import org.apache.jackrabbit.core.SessionImpl;
-import org.apache.jackrabbit.core.nodetype.NodeTypeImpl;
 import org.apache.jackrabbit.core.state.ChangeLog;
 import org.apache.jackrabbit.core.state.ItemState;
 import org.apache.jackrabbit.core.state.ItemStateException;
@@ -37,12 +37,15 @@ import org.slf4j.LoggerFactory;
 
 import javax.jcr.NamespaceException;
 import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
 import javax.jcr.observation.ObservationManager;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Collections;
 
@@ -68,6 +71,17 @@ public final class EventStateCollection {
      */
     private static Logger log = LoggerFactory.getLogger(EventStateCollection.class);
 
+    /**
+     * All event types.
+     */
+    private static final long ALL_TYPES = ~0L;
+
+    /**
+     * Event types of node events.
+     */
+    private static final long NODE_TYPES =
+            Event.NODE_ADDED | Event.NODE_REMOVED | Event.NODE_MOVED;
+
     /**
      * List of events
      */
@@ -99,6 +113,16 @@ public final class EventStateCollection {
      */
     private String userData;
 
+    /**
+     * Event types whose events are created by {@link #createEventStates}.
+     */
+    private long eventTypes = ALL_TYPES;
+
+    /**
+     * Resolved paths of nodes, only used while creating events.
+     */
+    private Map<NodeId, Path> paths;
+
     /**
      * Creates a new empty <code>EventStateCollection</code>.
      * <p>
@@ -145,10 +169,45 @@ public final class EventStateCollection {
      *                            states for the item state changes.
      */
     public void createEventStates(NodeId rootNodeId, ChangeLog changes, ItemStateManager stateMgr) throws ItemStateException {
-        // create a hierarchy manager, that is based on the ChangeLog and
-        // the ItemStateProvider
-        ChangeLogBasedHierarchyMgr hmgr =
-            new ChangeLogBasedHierarchyMgr(rootNodeId, stateMgr, changes);
+        createEventStates(rootNodeId, changes, stateMgr, false);
+    }
+
+    /**
+     * Creates {@link EventState} instances from <code>ItemState</code>
+     * <code>changes</code>. If <code>filter</code> is <code>true</code>,
+     * only events of the types that registered listeners may receive are
+     * created, and the paths of the other changes are not resolved. This
+     * must not be used if the events are needed for other purposes, e.g.
+     * to be sent to other cluster nodes.
+     *
+     * @param rootNodeId   the id of the root node.
+     * @param changes      the changes on <code>ItemState</code>s.
+     * @param stateMgr     an <code>ItemStateManager</code> to provide <code>ItemState</code>
+     *                     of items that are not contained in the <code>changes</code> collection.
+     * @param filter       whether to skip events no listener may receive.
+     * @throws ItemStateException if an error occurs while creating events
+     *                            states for the item state changes.
+     */
+    public void createEventStates(NodeId rootNodeId, ChangeLog changes,
+                                  ItemStateManager stateMgr, boolean filter)
+            throws ItemStateException {
+        eventTypes = filter ? dispatcher.getEventTypes() : ALL_TYPES;
+        if (eventTypes == 0) {
+            return;
+        }
+        paths = new HashMap<NodeId, Path>();
+        try {
+            createEventStates(new ChangeLogBasedHierarchyMgr(
+                    rootNodeId, stateMgr, changes), changes, stateMgr);
+        } finally {
+            paths = null;
+        }
+    }
+
+    private void createEventStates(ChangeLogBasedHierarchyMgr hmgr,
+                                   ChangeLog changes,
+                                   ItemStateManager stateMgr)
+            throws ItemStateException {
 
         /**
          * Important:
@@ -186,6 +245,9 @@ public final class EventStateCollection {
                 // entry.
                 // in case 8) parent of removed shareable node has removed child
                 // node entry.
+                if (!isCreated(NODE_TYPES)) {
+                    continue;
+                }
                 NodeState n = (NodeState) state;
 
                 if (n.hasOverlayedState()) {
@@ -206,11 +268,11 @@ public final class EventStateCollection {
                             oldParent = (NodeState) stateMgr.getItemState(oldParentId);
                         }
                         if (oldParent != null) {
-                            NodeTypeImpl oldParentNodeType = getNodeType(oldParent, session);
-                            events.add(EventState.childNodeRemoved(oldParentId,
+                            Name oldParentNodeType = getNodeTypeName(oldParent);
+                            add(EventState.childNodeRemoved(oldParentId,
                                     getParent(oldPath), n.getNodeId(),
                                     oldPath.getLastElement(),
-                                    oldParentNodeType.getQName(),
+                                    oldParentNodeType,
                                     oldParent.getMixinTypeNames(), session));
                         } else {
                             // JCR-2298: In some cases the old parent node
@@ -225,18 +287,18 @@ public final class EventStateCollection {
                         }
 
                         NodeState newParent = (NodeState) changes.get(newParentId);
-                        NodeTypeImpl newParentNodeType = getNodeType(newParent, session);
+                        Name newParentNodeType = getNodeTypeName(newParent);
                         Set<Name> mixins = newParent.getMixinTypeNames();
                         Path newPath = getPath(n.getNodeId(), hmgr);
-                        events.add(EventState.childNodeAdded(newParentId,
+                        add(EventState.childNodeAdded(newParentId,
                                 getParent(newPath), n.getNodeId(),
                                 newPath.getLastElement(),
-                                newParentNodeType.getQName(),
+                                newParentNodeType,
                                 mixins, session));
 
-                        events.add(EventState.nodeMovedWithInfo(
+                        add(EventState.nodeMovedWithInfo(
                                 newParentId, newPath, n.getNodeId(), oldPath,
-                                newParentNodeType.getQName(), mixins,
+                                newParentNodeType, mixins,
                                 session, false));
                     } else {
                         // a moved node always has a modified parent node
@@ -263,7 +325,7 @@ public final class EventStateCollection {
                                 }
                             }
                             if (moved != null) {
-                                NodeTypeImpl nodeType = getNodeType(parent, session);
+                                Name nodeType = getNodeTypeName(parent);
                                 Set<Name> mixins = parent.getMixinTypeNames();
                                 Path newPath = getPath(state.getId(), hmgr);
                                 Path parentPath = getParent(newPath);
@@ -281,19 +343,19 @@ public final class EventStateCollection {
                                     log.error(msg);
                                     throw new ItemStateException(msg, e);
                                 }
-                                events.add(EventState.childNodeRemoved(
+                                add(EventState.childNodeRemoved(
                                         parent.getNodeId(), parentPath,
                                         n.getNodeId(), oldPath.getLastElement(),
-                                        nodeType.getQName(), mixins, session));
+                                        nodeType, mixins, session));
 
-                                events.add(EventState.childNodeAdded(
+                                add(EventState.childNodeAdded(
                                         parent.getNodeId(), parentPath,
                                         n.getNodeId(), newPath.getLastElement(),
-                                        nodeType.getQName(), mixins, session));
+                                        nodeType, mixins, session));
 
-                                events.add(EventState.nodeMovedWithInfo(
+                                add(EventState.nodeMovedWithInfo(
                                         parent.getNodeId(), newPath, n.getNodeId(),
-                                        oldPath, nodeType.getQName(), mixins,
+                                        oldPath, nodeType, mixins,
                                         session, false));
                             }
                         }
@@ -302,7 +364,7 @@ public final class EventStateCollection {
 
                 // check if child nodes of modified node state have been reordered
                 List<ChildNodeEntry> reordered = n.getReorderedChildNodeEntries();
-                NodeTypeImpl nodeType = getNodeType(n, session);
+                Name nodeType = getNodeTypeName(n);
                 Set<Name> mixins = n.getMixinTypeNames();
                 if (reordered.size() > 0) {
                     // create a node removed and a node added event for every
@@ -318,13 +380,13 @@ public final class EventStateCollection {
                         }
                         Path removedElem = getPathElement(entry);
 
-                        events.add(EventState.childNodeRemoved(n.getNodeId(),
+                        add(EventState.childNodeRemoved(n.getNodeId(),
                                 parentPath, child.getId(), removedElem,
-                                nodeType.getQName(), mixins, session));
+                                nodeType, mixins, session));
 
-                        events.add(EventState.childNodeAdded(n.getNodeId(),
+                        add(EventState.childNodeAdded(n.getNodeId(),
                                 parentPath, child.getId(), addedElem,
-                                nodeType.getQName(), mixins, session));
+                                nodeType, mixins, session));
 
                         List<ChildNodeEntry> cne = n.getChildNodeEntries();
                         // index of the child node entry before which this
@@ -335,9 +397,9 @@ public final class EventStateCollection {
                             beforeElem = getPathElement(cne.get(idx));
                         }
 
-                        events.add(EventState.nodeReordered(n.getNodeId(),
+                        add(EventState.nodeReordered(n.getNodeId(),
                                 parentPath, child.getId(), addedElem,
-                                removedElem, beforeElem, nodeType.getQName(), mixins,
+                                removedElem, beforeElem, nodeType, mixins,
                                 session, false));
                     }
                 }
@@ -346,13 +408,16 @@ public final class EventStateCollection {
                 createShareableNodeEvents(n, changes, hmgr, stateMgr);
             } else {
                 // property changed
+                if (!isCreated(Event.PROPERTY_CHANGED)) {
+                    continue;
+                }
                 Path path = getPath(state.getId(), hmgr);
                 NodeState parent = (NodeState) stateMgr.getItemState(state.getParentId());
-                NodeTypeImpl nodeType = getNodeType(parent, session);
+                Name nodeType = getNodeTypeName(parent);
                 Set<Name> mixins = parent.getMixinTypeNames();
-                events.add(EventState.propertyChanged(state.getParentId(),
+                add(EventState.propertyChanged(state.getParentId(),
                         getParent(path), path.getLastElement(),
-                        nodeType.getQName(), mixins, session));
+                        nodeType, mixins, session));
             }
         }
 
@@ -360,16 +425,19 @@ public final class EventStateCollection {
         for (ItemState state : changes.deletedStates()) {
             if (state.isNode()) {
                 // node deleted
+                if (!isCreated(NODE_TYPES)) {
+                    continue;
+                }
                 NodeState n = (NodeState) state;
                 NodeState parent = (NodeState) stateMgr.getItemState(n.getParentId());
-                NodeTypeImpl nodeType = getNodeType(parent, session);
+                Name nodeType = getNodeTypeName(parent);
                 Set<Name> mixins = parent.getMixinTypeNames();
                 Path path = getZombiePath(state.getId(), hmgr);
-                events.add(EventState.childNodeRemoved(n.getParentId(),
+                add(EventState.childNodeRemoved(n.getParentId(),
                         getParent(path),
                         n.getNodeId(),
                         path.getLastElement(),
-                        nodeType.getQName(),
+                        nodeType,
                         mixins,
                         session));
 
@@ -378,16 +446,19 @@ public final class EventStateCollection {
             } else {
                 // property removed
                 // only create an event if node still exists
+                if (!isCreated(Event.PROPERTY_REMOVED)) {
+                    continue;
+                }
                 try {
                     NodeState n = (NodeState) changes.get(state.getParentId());
                     // node state exists -> only property removed
-                    NodeTypeImpl nodeType = getNodeType(n, session);
+                    Name nodeType = getNodeTypeName(n);
                     Set<Name> mixins = n.getMixinTypeNames();
                     Path path = getZombiePath(state.getId(), hmgr);
-                    events.add(EventState.propertyRemoved(state.getParentId(),
+                    add(EventState.propertyRemoved(state.getParentId(),
                             getParent(path),
                             path.getLastElement(),
-                            nodeType.getQName(),
+                            nodeType,
                             mixins,
                             session));
                 } catch (NoSuchItemStateException e) {
@@ -400,6 +471,9 @@ public final class EventStateCollection {
         for (ItemState state : changes.addedStates()) {
             if (state.isNode()) {
                 // node created
+                if (!isCreated(NODE_TYPES)) {
+                    continue;
+                }
                 NodeState n = (NodeState) state;
                 NodeId parentId = n.getParentId();
                 // the parent of an added item is always modified or new
@@ -409,14 +483,14 @@ public final class EventStateCollection {
                     log.error(msg);
                     throw new ItemStateException(msg);
                 }
-                NodeTypeImpl nodeType = getNodeType(parent, session);
+                Name nodeType = getNodeTypeName(parent);
                 Set<Name> mixins = parent.getMixinTypeNames();
                 Path path = getPath(n.getNodeId(), hmgr);
-                events.add(EventState.childNodeAdded(parentId,
+                add(EventState.childNodeAdded(parentId,
                         getParent(path),
                         n.getNodeId(),
                         path.getLastElement(),
-                        nodeType.getQName(),
+                        nodeType,
                         mixins,
                         session));
 
@@ -424,19 +498,22 @@ public final class EventStateCollection {
                 createShareableNodeEvents(n, changes, hmgr, stateMgr);
             } else {
                 // property created / set
+                if (!isCreated(Event.PROPERTY_ADDED)) {
+                    continue;
+                }
                 NodeState n = (NodeState) changes.get(state.getParentId());
                 if (n == null) {
                     String msg = "Node " + state.getParentId() + " must be changed as well.";
                     log.error(msg);
                     throw new ItemStateException(msg);
                 }
-                NodeTypeImpl nodeType = getNodeType(n, session);
+                Name nodeType = getNodeTypeName(n);
                 Set<Name> mixins = n.getMixinTypeNames();
                 Path path = getPath(state.getId(), hmgr);
-                events.add(EventState.propertyAdded(state.getParentId(),
+                add(EventState.propertyAdded(state.getParentId(),
                         getParent(path),
                         path.getLastElement(),
-                        nodeType.getQName(),
+                        nodeType,
                         mixins,
                         session));
             }
@@ -554,6 +631,27 @@ public final class EventStateCollection {
 
     //----------------------------< internal >----------------------------------
 
+    /**
+     * Returns whether events of one of the given types are created.
+     *
+     * @param types event types, as a bit mask.
+     * @return <code>true</code> if events of one of the types are created.
+     */
+    private boolean isCreated(long types) {
+        return (eventTypes & types) != 0;
+    }
+
+    /**
+     * Adds a created event, if events of its type are created.
+     *
+     * @param state the event.
+     */
+    private void add(EventState state) {
+        if (isCreated(state.getType())) {
+            events.add(state);
+        }
+    }
+
     private void createShareableNodeEvents(NodeState n,
                                            ChangeLog changes,
                                            ChangeLogBasedHierarchyMgr hmgr,
@@ -574,7 +672,7 @@ public final class EventStateCollection {
                     // entry on parent node state.
                     parent = (NodeState) stateMgr.getItemState(parentId);
                 }
-                Name ntName = getNodeType(parent, session).getQName();
+                Name ntName = getNodeTypeName(parent);
                 EventState es = EventState.childNodeAdded(parentId,
                         getPath(parentId, hmgr),
                         n.getNodeId(),
@@ -583,7 +681,7 @@ public final class EventStateCollection {
                         parent.getMixinTypeNames(),
                         session);
                 es.setShareableNode(true);
-                events.add(es);
+                add(es);
             }
             for (NodeId parentId : n.getRemovedShares()) {
                 // if this shareable node is removed, only create events for
@@ -605,7 +703,7 @@ public final class EventStateCollection {
                     // node entry on parent node state.
                     parent = (NodeState) stateMgr.getItemState(parentId);
                 }
-                Name ntName = getNodeType(parent, session).getQName();
+                Name ntName = getNodeTypeName(parent);
                 EventState es = EventState.childNodeRemoved(parentId,
                         getZombiePath(parentId, hmgr),
                         n.getNodeId(),
@@ -614,36 +712,27 @@ public final class EventStateCollection {
                         parent.getMixinTypeNames(),
                         session);
                 es.setShareableNode(true);
-                events.add(es);
+                add(es);
             }
         }
     }
 
     /**
-     * Resolves the node type name in <code>node</code> into a {@link javax.jcr.nodetype.NodeType}
-     * object using the {@link javax.jcr.nodetype.NodeTypeManager} of <code>session</code>.
+     * Returns the node type name of <code>node</code>. The node type is not
+     * resolved here, but only when a filter needs it, see
+     * {@link EventState#getNodeTypes}.
      *
-     * @param node    the node.
-     * @param session the session.
-     * @return the {@link javax.jcr.nodetype.NodeType} of <code>node</code>.
-     * @throws ItemStateException if the nodetype cannot be resolved.
+     * @param node the node.
+     * @return the node type name of <code>node</code>.
+     * @throws ItemStateException if the node state is not available.
      */
-    private NodeTypeImpl getNodeType(NodeState node, SessionImpl session)
-            throws ItemStateException {
-        try {
-            return session.getNodeTypeManager().getNodeType(node.getNodeTypeName());
-        } catch (Exception e) {
-            // also catch eventual runtime exceptions here
-            // should never happen actually
-            String msg;
-            if (node == null) {
-                msg = "Node state is null";
-            } else {
-                msg = "Item " + node.getNodeId() + " has unknown node type: " + node.getNodeTypeName();
-            }
+    private Name getNodeTypeName(NodeState node) throws ItemStateException {
+        if (node == null) {
+            String msg = "Node state is null";
             log.error(msg);
-            throw new ItemStateException(msg, e);
+            throw new ItemStateException(msg);
         }
+        return node.getNodeTypeName();
     }
 
     /**
@@ -675,7 +764,24 @@ public final class EventStateCollection {
     private Path getPath(ItemId itemId, HierarchyManager hmgr)
             throws ItemStateException {
         try {
-            return prefixPath(hmgr.getPath(itemId));
+            if (paths == null) {
+                return prefixPath(hmgr.getPath(itemId));
+            }
+            // the paths of the nodes are resolved once, most changes
+            // of a save have a parent in common
+            if (itemId.denotesNode()) {
+                Path path = paths.get(itemId);
+                if (path == null) {
+                    path = prefixPath(hmgr.getPath(itemId));
+                    paths.put((NodeId) itemId, path);
+                }
+                return path;
+            } else {
+                PropertyId propId = (PropertyId) itemId;
+                return PathFactoryImpl.getInstance().create(
+                        getPath(propId.getParentId(), hmgr),
+                        propId.getName(), false);
+            }
         } catch (RepositoryException e) {
             // should never happen actually
             String msg = "Unable to resolve path for item: " + itemId;
@@ -0,0 +1,441 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.observation;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.observation.Event;
+
+import org.apache.jackrabbit.api.stats.RepositoryStatistics.Type;
+import org.apache.jackrabbit.stats.RepositoryStatisticsImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Queue of the events pending for an asynchronous {@link EventConsumer}.
+ * The events are delivered by the threads of a pool shared by all queues of
+ * a workspace, but at most one thread delivers the events of a queue at any
+ * time, hence a listener receives its events in order and is never called
+ * concurrently. A queue is scheduled again after each delivered collection
+ * of events, so a busy listener does not keep a thread from serving the
+ * other listeners.
+ * <p>
+ * A queue holding more than the configured maximum number of events is
+ * handled according to its {@link OverflowPolicy}. The following counters
+ * are updated in the repository statistics, where <code>name</code> is the
+ * class name of the listener:
+ * <ul>
+ * <li><code>OBSERVATION_QUEUE_DEPTH:name</code> - number of pending events</li>
+ * <li><code>OBSERVATION_LAG:name</code> - milliseconds between dispatching
+ *     and delivering the last collection of events</li>
+ * <li><code>OBSERVATION_PROCESSING_TIME:name</code> - nanoseconds spent in
+ *     the listener</li>
+ * <li><code>OBSERVATION_DROPPED:name</code> - number of dropped events</li>
+ * </ul>
+ */
+class ListenerQueue implements Runnable {
+
+    /**
+     * What to do when the events pending for a listener exceed the maximum.
+     */
+    enum OverflowPolicy {
+
+        /**
+         * Keep all events, and delay writing sessions for a bounded time
+         * until the listener catches up.
+         */
+        BLOCK,
+
+        /**
+         * Drop pending property change events that are superseded by a
+         * newer change of the same property, and delay writing sessions
+         * for a bounded time while this is not sufficient.
+         */
+        COALESCE,
+
+        /**
+         * Drop the new events, and log a warning with the number of
+         * events the listener missed once it catches up.
+         */
+        DROP
+    }
+
+    /**
+     * Logger instance for this class
+     */
+    private static final Logger log = LoggerFactory.getLogger(ListenerQueue.class);
+
+    /**
+     * Class name of the listener, used in messages and statistics.
+     */
+    private final String name;
+
+    /**
+     * Executor of the dispatcher.
+     */
+    private final Executor executor;
+
+    /**
+     * Maximum number of pending events.
+     */
+    private final int maxQueuedEvents;
+
+    /**
+     * Overflow policy.
+     */
+    private final OverflowPolicy policy;
+
+    /**
+     * Number of overloaded queues of the dispatcher.
+     */
+    private final AtomicInteger overloaded;
+
+    private final AtomicLong queueDepth;
+
+    private final AtomicLong lag;
+
+    private final AtomicLong processingTime;
+
+    private final AtomicLong droppedEvents;
+
+    private final AtomicLong eventCounter;
+
+    private final AtomicLong eventDuration;
+
+    /**
+     * Pending event collections.
+     */
+    private final LinkedList<Entry> entries = new LinkedList<Entry>();
+
+    /**
+     * The most recent pending entry that changes a property, by property.
+     * Only maintained with the {@link OverflowPolicy#COALESCE} policy.
+     */
+    private final Map<String, Entry> changes = new HashMap<String, Entry>();
+
+    /**
+     * Number of pending events.
+     */
+    private int size;
+
+    /**
+     * Number of events dropped since the last delivery.
+     */
+    private long dropped;
+
+    /**
+     * Whether this queue is scheduled for delivery.
+     */
+    private boolean scheduled;
+
+    /**
+     * Creates a new queue.
+     *
+     * @param consumer the consumer, used to name the queue
+     * @param executor executor delivering the events
+     * @param maxQueuedEvents maximum number of pending events
+     * @param policy overflow policy
+     * @param overloaded counter of overloaded queues
+     * @param statistics repository statistics, or <code>null</code>
+     */
+    ListenerQueue(EventConsumer consumer, Executor executor,
+                  int maxQueuedEvents, OverflowPolicy policy,
+                  AtomicInteger overloaded, RepositoryStatisticsImpl statistics) {
+        this.name = consumer.getEventListener().getClass().getName();
+        this.executor = executor;
+        this.maxQueuedEvents = maxQueuedEvents;
+        this.policy = policy;
+        this.overloaded = overloaded;
+        if (statistics != null) {
+            queueDepth = statistics.getCounter("OBSERVATION_QUEUE_DEPTH:" + name, false);
+            lag = statistics.getCounter("OBSERVATION_LAG:" + name, false);
+            processingTime = statistics.getCounter("OBSERVATION_PROCESSING_TIME:" + name, true);
+            droppedEvents = statistics.getCounter("OBSERVATION_DROPPED:" + name, true);
+            eventCounter = statistics.getCounter(Type.OBSERVATION_EVENT_COUNTER);
+            eventDuration = statistics.getCounter(Type.OBSERVATION_EVENT_DURATION);
+        } else {
+            queueDepth = new AtomicLong();
+            lag = new AtomicLong();
+            processingTime = new AtomicLong();
+            droppedEvents = new AtomicLong();
+            eventCounter = new AtomicLong();
+            eventDuration = new AtomicLong();
+        }
+    }
+
+    /**
+     * Appends events to this queue, and schedules the queue for delivery.
+     *
+     * @param consumer the consumer to deliver the events to
+     * @param events the events
+     */
+    void add(EventConsumer consumer, EventStateCollection events) {
+        int n = events.size();
+        synchronized (this) {
+            if (policy == OverflowPolicy.DROP
+                    && size > 0 && size + n > maxQueuedEvents) {
+                if (dropped == 0) {
+                    log.warn("More than " + maxQueuedEvents + " events pending for "
+                            + name + ", dropping events");
+                }
+                dropped += n;
+                droppedEvents.addAndGet(n);
+                return;
+            }
+            Entry entry = new Entry(consumer, events);
+            if (policy == OverflowPolicy.COALESCE) {
+                coalesce(entry);
+            }
+            entries.add(entry);
+            resize(n);
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        try {
+            executor.execute(this);
+        } catch (RejectedExecutionException e) {
+            log.debug("Dispatcher disposed, events are not delivered to {}", name);
+            synchronized (this) {
+                resize(-size);
+                entries.clear();
+                changes.clear();
+                scheduled = false;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of pending events.
+     *
+     * @return the number of pending events
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Delivers the next pending events, and schedules this queue again if
+     * more events are pending.
+     */
+    public void run() {
+        Entry entry = poll();
+        while (entry != null) {
+            deliver(entry);
+            if (!isPending()) {
+                return;
+            }
+            try {
+                executor.execute(this);
+                return;
+            } catch (RejectedExecutionException e) {
+                // the dispatcher is being disposed,
+                // deliver the remaining events with this thread
+            }
+            entry = poll();
+        }
+    }
+
+    /**
+     * Delivers events to the consumer, and updates the statistics.
+     *
+     * @param entry the events to deliver
+     */
+    private void deliver(Entry entry) {
+        lag.set(System.currentTimeMillis() - entry.time);
+        long start = System.nanoTime();
+        try {
+            entry.consumer.consumeEvents(entry.events, entry.getSuperseded());
+        } catch (Throwable t) {
+            log.warn("EventConsumer " + name + " threw exception", t);
+            // move on to the next events
+        }
+        long time = System.nanoTime() - start;
+        processingTime.addAndGet(time);
+        eventCounter.addAndGet(entry.events.size());
+        eventDuration.addAndGet(time);
+    }
+
+    /**
+     * Removes the next pending entry. If no entry is pending, this queue is
+     * no longer scheduled.
+     *
+     * @return the next entry, or <code>null</code> if none is pending
+     */
+    private synchronized Entry poll() {
+        Entry entry = entries.poll();
+        if (entry == null) {
+            scheduled = false;
+            return null;
+        }
+        resize(-entry.size());
+        if (policy == OverflowPolicy.COALESCE) {
+            for (EventState state : entry.events.getEvents()) {
+                if (state.getType() == Event.PROPERTY_CHANGED) {
+                    changes.remove(getKey(state), entry);
+                }
+            }
+        }
+        if (dropped > 0) {
+            log.warn(name + " missed " + dropped + " events");
+            dropped = 0;
+        }
+        return entry;
+    }
+
+    /**
+     * Returns whether events are pending. If not, this queue is no longer
+     * scheduled.
+     *
+     * @return <code>true</code> if events are pending
+     */
+    private synchronized boolean isPending() {
+        if (entries.isEmpty()) {
+            scheduled = false;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Registers the property changes of a new entry. If the queue is full,
+     * pending changes of the same properties are superseded.
+     *
+     * @param entry the new entry
+     */
+    private void coalesce(Entry entry) {
+        boolean full = size + entry.events.size() > maxQueuedEvents;
+        for (EventState state : entry.events.getEvents()) {
+            if (state.getType() == Event.PROPERTY_CHANGED) {
+                String key = getKey(state);
+                Entry previous = changes.put(key, entry);
+                if (full && previous != null && previous != entry
+                        && previous.supersede(key)) {
+                    resize(-1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Changes the number of pending events, and updates the number of
+     * overloaded queues.
+     *
+     * @param delta number of added or removed events
+     */
+    private void resize(int delta) {
+        boolean wasOverloaded = size > maxQueuedEvents;
+        size += delta;
+        queueDepth.addAndGet(delta);
+        boolean isOverloaded = size > maxQueuedEvents;
+        if (isOverloaded != wasOverloaded) {
+            overloaded.addAndGet(isOverloaded ? 1 : -1);
+        }
+    }
+
+    /**
+     * Returns the key identifying the property of an event.
+     *
+     * @param state a property event
+     * @return the key
+     */
+    private static String getKey(EventState state) {
+        return state.getParentId() + "/" + state.getChildRelPath();
+    }
+
+    /**
+     * Events pending for a consumer.
+     */
+    private static final class Entry {
+
+        /**
+         * The consumer at the time the events were dispatched.
+         */
+        private final EventConsumer consumer;
+
+        private final EventStateCollection events;
+
+        /**
+         * Time the events were dispatched.
+         */
+        private final long time = System.currentTimeMillis();
+
+        /**
+         * Keys of the properties whose change events are superseded, or
+         * <code>null</code>.
+         */
+        private Set<String> superseded;
+
+        Entry(EventConsumer consumer, EventStateCollection events) {
+            this.consumer = consumer;
+            this.events = events;
+        }
+
+        /**
+         * Marks the change of a property as superseded.
+         *
+         * @param key key of the property
+         * @return <code>true</code> if the change was not superseded yet
+         */
+        boolean supersede(String key) {
+            if (superseded == null) {
+                superseded = new HashSet<String>();
+            }
+            return superseded.add(key);
+        }
+
+        /**
+         * Returns the number of events that are not superseded.
+         *
+         * @return the number of events to deliver
+         */
+        int size() {
+            return events.size() - (superseded != null ? superseded.size() : 0);
+        }
+
+        /**
+         * Returns the superseded events.
+         *
+         * @return the superseded events, compared by identity
+         */
+        Set<EventState> getSuperseded() {
+            if (superseded == null) {
+                return Collections.emptySet();
+            }
+            Set<EventState> states = Collections.newSetFromMap(
+                    new IdentityHashMap<EventState, Boolean>());
+            for (EventState state : events.getEvents()) {
+                if (state.getType() == Event.PROPERTY_CHANGED
+                        && superseded.contains(getKey(state))) {
+                    states.add(state);
+                }
+            }
+            return states;
+        }
+    }
+}
@@ -16,24 +16,41 @@
  */
 package org.apache.jackrabbit.core.observation;
 
-import org.apache.commons.collections.Buffer;
-import org.apache.commons.collections.BufferUtils;
-import org.apache.commons.collections.buffer.UnboundedFifoBuffer;
+import org.apache.jackrabbit.core.observation.ListenerQueue.OverflowPolicy;
 import org.apache.jackrabbit.core.state.ChangeLog;
+import org.apache.jackrabbit.stats.RepositoryStatisticsImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Dispatcher for dispatching events to listeners within a single workspace.
+ * <p>
+ * Synchronous listeners are notified by the thread that dispatches the
+ * events. Each asynchronous listener has its own {@link ListenerQueue},
+ * which is delivered by a pool of notification threads. The size of the
+ * pool is set with the system property
+ * <code>jackrabbit.observation.threads</code>, and the
+ * {@link OverflowPolicy policy} applied to listeners that fall behind with
+ * the system property <code>jackrabbit.observation.overflowPolicy</code>
+ * (<code>block</code>, <code>coalesce</code> or <code>drop</code>). Writing
+ * threads are delayed for at most
+ * <code>jackrabbit.observation.maxDelay</code> milliseconds per save while
+ * a listener is overloaded.
  */
-public final class ObservationDispatcher extends EventDispatcher
-        implements Runnable {
+public final class ObservationDispatcher extends EventDispatcher {
 
     /**
      * Logger instance for this class
@@ -42,24 +59,57 @@ public final class ObservationDispatcher extends EventDispatcher
             = LoggerFactory.getLogger(ObservationDispatcher.class);
 
     /**
-     * Dummy DispatchAction indicating the notification thread to end
+     * The maximum number of queued asynchronous events per listener. To avoid
+     * out of memory problems, the default value is 200'000. To change the
+     * default, set the system property jackrabbit.maxQueuedEvents to the
+     * required value. If more events are in the queue of a listener, the
+     * {@link #OVERFLOW_POLICY overflow policy} applies. Writing threads are
+     * delayed, unless the current thread is a notification thread (in which
+     * case only a warning is logged - usually observation listeners shouldn't
+     * cause new events).
      */
-    private static final DispatchAction DISPOSE_MARKER = new DispatchAction(null, null);
+    private static final int MAX_QUEUED_EVENTS = Integer.parseInt(System.getProperty("jackrabbit.maxQueuedEvents", "200000"));
 
     /**
-     * The maximum number of queued asynchronous events. To avoid of of memory
-     * problems, the default value is 200'000. To change the default, set the
-     * system property jackrabbit.maxQueuedEvents to the required value. If more
-     * events are in the queue, the current thread waits, unless the current thread is
-     * the observation dispatcher itself (in which case only a warning is logged
-     * - usually observation listeners shouldn't cause new events).
+     * The maximum number of notification threads. The default is 4. Idle
+     * threads end after a minute.
      */
-    private static final int MAX_QUEUED_EVENTS = Integer.parseInt(System.getProperty("jackrabbit.maxQueuedEvents", "200000"));
+    private static final int THREADS = Integer.getInteger("jackrabbit.observation.threads", 4);
+
+    /**
+     * The policy for listeners with more than {@link #MAX_QUEUED_EVENTS}
+     * pending events. The default is to block writing threads.
+     */
+    private static final OverflowPolicy OVERFLOW_POLICY = OverflowPolicy.valueOf(
+            System.getProperty("jackrabbit.observation.overflowPolicy", "block").toUpperCase());
+
+    /**
+     * The maximum time in milliseconds a writing thread is delayed while a
+     * listener is overloaded. The default is 100.
+     */
+    private static final long MAX_DELAY = Long.getLong("jackrabbit.observation.maxDelay", 100);
+
+    /**
+     * The maximum number of queued asynchronous events per listener.
+     */
+    private final int maxQueuedEvents;
 
     /**
-     * Currently active <code>EventConsumer</code>s for notification.
+     * The policy for listeners with more than {@link #maxQueuedEvents}
+     * pending events.
      */
-    private Set<EventConsumer> activeConsumers = new HashSet<EventConsumer>();
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * The maximum time in milliseconds a writing thread is delayed.
+     */
+    private final long maxDelay;
+
+    /**
+     * Currently active asynchronous <code>EventConsumer</code>s for
+     * notification, with their queues.
+     */
+    private Map<EventConsumer, ListenerQueue> activeConsumers = new HashMap<EventConsumer, ListenerQueue>();
 
     /**
      * Currently active synchronous <code>EventConsumer</code>s for notification.
@@ -67,56 +117,120 @@ public final class ObservationDispatcher extends EventDispatcher
     private Set<EventConsumer> synchronousConsumers = new HashSet<EventConsumer>();
 
     /**
-     * Set of <code>EventConsumer</code>s for read only Set access
+     * Map of <code>EventConsumer</code>s for read only access
      */
-    private Set<EventConsumer> readOnlyConsumers;
+    private Map<EventConsumer, ListenerQueue> readOnlyConsumers;
 
     /**
      * Set of synchronous <code>EventConsumer</code>s for read only Set access.
      */
     private Set<EventConsumer> synchronousReadOnlyConsumers;
 
+    /**
+     * Index of the filters of all <code>EventConsumer</code>s, created lazily
+     */
+    private ConsumerIndex consumerIndex;
+
     /**
      * synchronization monitor for listener changes
      */
     private Object consumerChange = new Object();
 
     /**
-     * Contains the pending events that will be delivered to event listeners
+     * Number of listener queues holding more than the maximum number of
+     * events.
+     */
+    private final AtomicInteger overloaded = new AtomicInteger();
+
+    /**
+     * The notification threads
      */
-    private Buffer eventQueue
-            = BufferUtils.blockingBuffer(new UnboundedFifoBuffer());
+    private final Set<Thread> notificationThreads =
+            Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
 
-    private AtomicInteger eventQueueSize = new AtomicInteger();
+    /**
+     * The pool of notification threads
+     */
+    private final ExecutorService executor;
 
     /**
-     * The background notification thread
+     * Repository statistics, or <code>null</code>
      */
-    private Thread notificationThread;
+    private final RepositoryStatisticsImpl statistics;
 
     private long lastError;
 
     /**
      * Creates a new <code>ObservationDispatcher</code> instance
-     * and starts the notification thread daemon.
+     * without statistics.
      */
     public ObservationDispatcher() {
-        notificationThread = new Thread(this, "ObservationManager");
-        notificationThread.setDaemon(true);
-        notificationThread.start();
+        this(null);
+    }
+
+    /**
+     * Creates a new <code>ObservationDispatcher</code> instance
+     * and starts the pool of notification threads.
+     *
+     * @param statistics repository statistics to update with the queue
+     *                   depth, lag and processing time of listeners,
+     *                   or <code>null</code>
+     */
+    public ObservationDispatcher(RepositoryStatisticsImpl statistics) {
+        this(statistics, MAX_QUEUED_EVENTS, OVERFLOW_POLICY, MAX_DELAY);
+    }
+
+    /**
+     * Creates a new <code>ObservationDispatcher</code> instance
+     * with the given limits and starts the pool of notification threads.
+     *
+     * @param statistics repository statistics, or <code>null</code>
+     * @param maxQueuedEvents maximum number of queued events per listener
+     * @param overflowPolicy policy for listeners with more queued events
+     * @param maxDelay maximum time in milliseconds a writing thread is
+     *                 delayed while a listener is overloaded
+     */
+    ObservationDispatcher(RepositoryStatisticsImpl statistics,
+                          int maxQueuedEvents, OverflowPolicy overflowPolicy,
+                          long maxDelay) {
+        this.statistics = statistics;
+        this.maxQueuedEvents = maxQueuedEvents;
+        this.overflowPolicy = overflowPolicy;
+        this.maxDelay = maxDelay;
+        final AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            r.run();
+                        } finally {
+                            notificationThreads.remove(Thread.currentThread());
+                        }
+                    }
+                }, "ObservationManager-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                notificationThreads.add(thread);
+                return thread;
+            }
+        };
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS,
+                60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), factory);
+        pool.allowCoreThreadTimeOut(true);
+        executor = pool;
     }
 
     /**
-     * Disposes this <code>ObservationManager</code>. This will
-     * effectively stop the background notification thread.
+     * Disposes this <code>ObservationManager</code>. This will deliver
+     * the pending events and stop the notification threads.
      */
     public void dispose() {
-        // dispatch dummy event to mark end of notification
-        eventQueue.add(DISPOSE_MARKER);
+        executor.shutdown();
         try {
-            notificationThread.join();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
         } catch (InterruptedException e) {
-            // FIXME log exception ?
+            log.warn("Interrupted while waiting for event notification to end", e);
         }
         log.info("Notification of EventListeners stopped.");
     }
@@ -127,12 +241,7 @@ public final class ObservationDispatcher extends EventDispatcher
      * @return <code>Set</code> of <code>EventConsumer</code>s.
      */
     Set<EventConsumer> getAsynchronousConsumers() {
-        synchronized (consumerChange) {
-            if (readOnlyConsumers == null) {
-                readOnlyConsumers = Collections.unmodifiableSet(new HashSet<EventConsumer>(activeConsumers));
-            }
-            return readOnlyConsumers;
-        }
+        return getListenerQueues().keySet();
     }
 
     Set<EventConsumer> getSynchronousConsumers() {
@@ -145,32 +254,47 @@ public final class ObservationDispatcher extends EventDispatcher
     }
 
     /**
-     * Implements the run method of the background notification
-     * thread.
+     * Returns an unmodifiable <code>Map</code> of the asynchronous
+     * <code>EventConsumer</code>s and their queues.
+     *
+     * @return the asynchronous <code>EventConsumer</code>s and their queues.
      */
-    public void run() {
-        DispatchAction action;
-        while ((action = (DispatchAction) eventQueue.remove()) != DISPOSE_MARKER) {
-
-            eventQueueSize.getAndAdd(-action.getEventStates().size());
-            log.debug("got EventStateCollection");
-            log.debug("event delivery to " + action.getEventConsumers().size() + " consumers started...");
-            for (Iterator<EventConsumer> it = action.getEventConsumers().iterator(); it.hasNext();) {
-                EventConsumer c = it.next();
-                try {
-                    c.consumeEvents(action.getEventStates());
-                } catch (Throwable t) {
-                    log.warn("EventConsumer " +
-                            c.getEventListener().getClass().getName() +
-                            " threw exception", t);
-                    // move on to the next consumer
-                }
+    Map<EventConsumer, ListenerQueue> getListenerQueues() {
+        synchronized (consumerChange) {
+            if (readOnlyConsumers == null) {
+                readOnlyConsumers = Collections.unmodifiableMap(new HashMap<EventConsumer, ListenerQueue>(activeConsumers));
             }
-            log.debug("event delivery finished.");
+            return readOnlyConsumers;
+        }
+    }
 
+    /**
+     * Returns the index of the filters of all <code>EventConsumer</code>s.
+     *
+     * @return the index of the filters.
+     */
+    ConsumerIndex getConsumerIndex() {
+        synchronized (consumerChange) {
+            if (consumerIndex == null) {
+                Set<EventConsumer> consumers = new HashSet<EventConsumer>();
+                consumers.addAll(synchronousConsumers);
+                consumers.addAll(activeConsumers.keySet());
+                consumerIndex = new ConsumerIndex(consumers);
+            }
+            return consumerIndex;
         }
     }
 
+    /**
+     * Returns whether the current thread is a notification thread of this
+     * dispatcher.
+     *
+     * @return <code>true</code> if the current thread delivers events
+     */
+    private boolean isNotificationThread() {
+        return notificationThreads.contains(Thread.currentThread());
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -178,10 +302,7 @@ public final class ObservationDispatcher extends EventDispatcher
      * prepare the events for dispatching.
      */
     void prepareEvents(EventStateCollection events) {
-        Set<EventConsumer> consumers = new HashSet<EventConsumer>();
-        consumers.addAll(getSynchronousConsumers());
-        consumers.addAll(getAsynchronousConsumers());
-        for (EventConsumer c : consumers) {
+        for (EventConsumer c : getConsumerIndex().getCandidates(events)) {
             c.prepareEvents(events);
         }
     }
@@ -190,14 +311,18 @@ public final class ObservationDispatcher extends EventDispatcher
      * {@inheritDoc}
      */
     void prepareDeleted(EventStateCollection events, ChangeLog changes) {
-        Set<EventConsumer> consumers = new HashSet<EventConsumer>();
-        consumers.addAll(getSynchronousConsumers());
-        consumers.addAll(getAsynchronousConsumers());
-        for (EventConsumer c : consumers) {
+        for (EventConsumer c : getConsumerIndex().getCandidates(events)) {
             c.prepareDeleted(events, changes.deletedStates());
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    long getEventTypes() {
+        return getConsumerIndex().getEventTypes();
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -206,8 +331,8 @@ public final class ObservationDispatcher extends EventDispatcher
      */
     void dispatchEvents(EventStateCollection events) {
         // JCR-3426: log warning when changes are done
-        // with the notification thread
-        if (Thread.currentThread() == notificationThread) {
+        // with a notification thread
+        if (isNotificationThread()) {
             log.warn("Save call with event notification thread detected. This " +
                     "may lead to a growing event queue. Enable debug log to " +
                     "see the stack trace with the class calling save().");
@@ -215,56 +340,73 @@ public final class ObservationDispatcher extends EventDispatcher
                 log.debug("Stack trace:", new Exception());
             }
         }
-        // notify synchronous listeners
+        // only notify listeners whose filter may allow some of the events
+        Set<EventConsumer> candidates = getConsumerIndex().getCandidates(events);
         Set<EventConsumer> synchronous = getSynchronousConsumers();
+        Map<EventConsumer, ListenerQueue> queues = getListenerQueues();
         if (log.isDebugEnabled()) {
-            log.debug("notifying " + synchronous.size() + " synchronous listeners.");
+            log.debug("notifying " + candidates.size() + " of "
+                    + (synchronous.size() + queues.size()) + " listeners.");
         }
-        for (EventConsumer c : synchronous) {
-            try {
-                c.consumeEvents(events);
-            } catch (Throwable t) {
-                log.error("Synchronous EventConsumer threw exception.", t);
-                // move on to next consumer
+        // notify synchronous listeners
+        for (EventConsumer c : candidates) {
+            if (synchronous.contains(c)) {
+                try {
+                    c.consumeEvents(events);
+                } catch (Throwable t) {
+                    log.error("Synchronous EventConsumer threw exception.", t);
+                    // move on to next consumer
+                }
+            }
+        }
+        for (EventConsumer c : candidates) {
+            ListenerQueue queue = queues.get(c);
+            if (queue != null) {
+                queue.add(c, events);
             }
         }
-        eventQueue.add(new DispatchAction(events, getAsynchronousConsumers()));
-        eventQueueSize.addAndGet(events.size());
     }
 
     /**
-     * Checks if the observation event queue contains more than the
+     * Checks if the queue of an observation listener contains more than the
      * configured {@link #MAX_QUEUED_EVENTS maximum number of events},
-     * and delays the current thread in such cases. No delay is added
-     * if the current thread is the observation thread, for example if
-     * an observation listener writes to the repository.
+     * and delays the current thread in such cases. The current thread waits
+     * until the listeners caught up, but at most for the
+     * {@link #MAX_DELAY maximum delay}. No delay is added if the current
+     * thread is a notification thread, for example if an observation listener
+     * writes to the repository.
      * <p>
      * This method should only be called outside the scope of internal
      * repository access locks.
      */
     public void delayIfEventQueueOverloaded() {
-        if (eventQueueSize.get() > MAX_QUEUED_EVENTS) {
+        long end = System.currentTimeMillis() + maxDelay;
+        while (overloaded.get() > 0) {
             boolean logWarning = false;
             long now = System.currentTimeMillis();
+            if (now >= end) {
+                return;
+            }
             // log a warning at most every 5 seconds (to avoid filling the log file)
             if (lastError == 0 || now > lastError + 5000) {
                 logWarning = true;
-                log.warn("More than " + MAX_QUEUED_EVENTS + " events in the queue", new Exception("Stack Trace"));
+                log.warn("More than " + maxQueuedEvents + " events in the queue", new Exception("Stack Trace"));
                 lastError = now;
             }
-            if (Thread.currentThread() == notificationThread) {
+            if (isNotificationThread()) {
                 if (logWarning) {
                     log.warn("Recursive notification?");
                 }
-            } else {
-                if (logWarning) {
-                    log.warn("Waiting");
-                }
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    log.warn("Interrupted while rate-limiting writes", e);
-                }
+                return;
+            }
+            if (logWarning) {
+                log.warn("Waiting");
+            }
+            try {
+                Thread.sleep(Math.min(100, end - now));
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while rate-limiting writes", e);
+                return;
             }
         }
     }
@@ -282,13 +424,20 @@ public final class ObservationDispatcher extends EventDispatcher
                 synchronousConsumers.add(consumer);
                 // reset read only consumer set
                 synchronousReadOnlyConsumers = null;
+                consumerIndex = null;
             } else {
-                // remove existing if any
-                activeConsumers.remove(consumer);
+                // remove existing if any, keeping its queue
+                ListenerQueue queue = activeConsumers.remove(consumer);
+                if (queue == null) {
+                    queue = new ListenerQueue(consumer, executor,
+                            maxQueuedEvents, overflowPolicy,
+                            overloaded, statistics);
+                }
                 // re-add it
-                activeConsumers.add(consumer);
+                activeConsumers.put(consumer, queue);
                 // reset read only consumer set
                 readOnlyConsumers = null;
+                consumerIndex = null;
             }
         }
     }
@@ -303,10 +452,12 @@ public final class ObservationDispatcher extends EventDispatcher
                 synchronousConsumers.remove(consumer);
                 // reset read only listener set
                 synchronousReadOnlyConsumers = null;
+                consumerIndex = null;
             } else {
                 activeConsumers.remove(consumer);
                 // reset read only listener set
                 readOnlyConsumers = null;
+                consumerIndex = null;
             }
         }
     }
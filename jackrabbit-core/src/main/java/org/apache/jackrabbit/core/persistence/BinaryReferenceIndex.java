@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence;
+
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.data.DataIdentifier;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.state.ItemStateException;
+
+/**
+ * A persistence manager that can maintain an index of the data store records
+ * referenced by the binary properties of each node. The index is updated
+ * together with the node states, so that applications like data store
+ * garbage collection and consistency checks can read the references without
+ * loading the node states.
+ */
+public interface BinaryReferenceIndex {
+
+    /**
+     * Whether the index is maintained. If not, the references can not be
+     * read.
+     *
+     * @return true if the index is enabled
+     */
+    boolean isBinaryReferenceIndexEnabled();
+
+    /**
+     * Returns the marker of the index if the index is complete. The index is
+     * not complete while it is built, or after it was disabled. The marker
+     * changes each time the index is built, so that an application can check
+     * before and after reading the index that it was not disabled or built
+     * again in the meantime, for example by another cluster node.
+     *
+     * @return the marker, or null if the index is not complete
+     * @throws ItemStateException if the marker can not be read
+     */
+    String getBinaryReferenceIndexMarker() throws ItemStateException;
+
+    /**
+     * Get the data store records referenced by the binary properties of the
+     * nodes. Nodes without such references are not included.
+     * A typical application will call this method multiple times, where
+     * 'after' is the last node id read previously. The maxCount parameter
+     * defines the maximum number of nodes returned, 0 meaning no limit. The
+     * order of the node ids is the same as for
+     * {@link IterablePersistenceManager#getAllNodeIds(NodeId, int)}.
+     *
+     * @param after the lower limit, or null for no limit.
+     * @param maxCount the maximum number of nodes to return, or 0 for no limit.
+     * @return the referenced data identifiers, by node id.
+     * @throws ItemStateException if an error while loading occurs.
+     * @throws RepositoryException if a repository exception occurs.
+     */
+    Map<NodeId, Set<DataIdentifier>> getAllBinaryReferences(NodeId after, int maxCount)
+            throws ItemStateException, RepositoryException;
+
+}
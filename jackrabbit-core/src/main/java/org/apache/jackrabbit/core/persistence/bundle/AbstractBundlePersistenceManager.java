@@ -20,6 +20,7 @@ import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_MIXINTYPE
 import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_PRIMARYTYPE;
 import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_UUID;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -35,6 +36,7 @@ import org.apache.jackrabbit.core.cache.Cache;
 import org.apache.jackrabbit.core.cache.CacheAccessListener;
 import org.apache.jackrabbit.core.cache.ConcurrentCache;
 import org.apache.jackrabbit.core.cluster.UpdateEventChannel;
+import org.apache.jackrabbit.core.data.DataIdentifier;
 import org.apache.jackrabbit.core.fs.FileSystem;
 import org.apache.jackrabbit.core.fs.FileSystemResource;
 import org.apache.jackrabbit.core.id.ItemId;
@@ -439,6 +441,34 @@ public abstract class AbstractBundlePersistenceManager implements
      */
     protected abstract BLOBStore getBlobStore();
 
+    /**
+     * Whether the data store records referenced by each node are stored
+     * in an index, see {@link #storeBinaryReferences(NodeId, Set)}. Returns
+     * <code>false</code>, subclasses that maintain such an index override
+     * this method.
+     *
+     * @return true if the binary reference index is maintained
+     */
+    protected boolean isBinaryReferenceIndexEnabled() {
+        return false;
+    }
+
+    /**
+     * Stores the data store records referenced by the binary properties of a
+     * node in the binary reference index. This method is called when the
+     * binary properties of a node are changed, or the node is deleted, if
+     * {@link #isBinaryReferenceIndexEnabled()} returns <code>true</code>.
+     * Does nothing by default.
+     *
+     * @param id the node id
+     * @param ids the referenced records, empty if the node has no references
+     *            or was deleted
+     * @throws ItemStateException if an error while storing occurs.
+     */
+    protected void storeBinaryReferences(NodeId id, Set<DataIdentifier> ids)
+            throws ItemStateException {
+    }
+
     //-------------------------------------------------< PersistenceManager >---
 
     /**
@@ -607,6 +637,11 @@ public abstract class AbstractBundlePersistenceManager implements
      */
     private void storeInternal(ChangeLog changeLog)
             throws ItemStateException {
+        // nodes whose binary references changed, if they are indexed
+        Set<NodeId> binaries = null;
+        if (isBinaryReferenceIndexEnabled()) {
+            binaries = new HashSet<NodeId>();
+        }
         // delete bundles
         HashSet<ItemId> deleted = new HashSet<ItemId>();
         for (ItemState state : changeLog.deletedStates()) {
@@ -615,6 +650,10 @@ public abstract class AbstractBundlePersistenceManager implements
                 if (bundle == null) {
                     throw new NoSuchItemStateException(state.getId().toString());
                 }
+                if (binaries != null && !bundle.getDataIdentifiers().isEmpty()) {
+                    storeBinaryReferences(bundle.getId(),
+                            Collections.<DataIdentifier>emptySet());
+                }
                 deleteBundle(bundle);
                 deleted.add(state.getId());
             }
@@ -656,6 +695,9 @@ public abstract class AbstractBundlePersistenceManager implements
                     }
                     modified.put(nodeId, bundle);
                 }
+                if (binaries != null && isBinary(bundle, (PropertyState) state)) {
+                    binaries.add(nodeId);
+                }
                 bundle.addProperty((PropertyState) state, getBlobStore());
             }
         }
@@ -681,6 +723,9 @@ public abstract class AbstractBundlePersistenceManager implements
                         }
                         modified.put(nodeId, bundle);
                     }
+                    if (binaries != null && isBinary(bundle, (PropertyState) state)) {
+                        binaries.add(nodeId);
+                    }
                     bundle.removeProperty(id.getName(), getBlobStore());
                 }
             }
@@ -705,6 +750,9 @@ public abstract class AbstractBundlePersistenceManager implements
                     }
                     modified.put(nodeId, bundle);
                 }
+                if (binaries != null && isBinary(bundle, (PropertyState) state)) {
+                    binaries.add(nodeId);
+                }
                 bundle.addProperty((PropertyState) state, getBlobStore());
             }
         }
@@ -717,6 +765,13 @@ public abstract class AbstractBundlePersistenceManager implements
         }
         changeLog.setUpdateSize(updateSize);
 
+        // update the binary reference index
+        if (binaries != null) {
+            for (NodeId nodeId : binaries) {
+                storeBinaryReferences(nodeId, modified.get(nodeId).getDataIdentifiers());
+            }
+        }
+
         // store the refs
         for (NodeReferences refs : changeLog.modifiedRefs()) {
             if (refs.hasReferences()) {
@@ -727,6 +782,22 @@ public abstract class AbstractBundlePersistenceManager implements
         }
     }
 
+    /**
+     * Checks whether a property state or the stored property it replaces
+     * is a binary property.
+     *
+     * @param bundle the bundle containing the property
+     * @param state the property state
+     * @return true if the property is or was a binary property
+     */
+    private static boolean isBinary(NodePropBundle bundle, PropertyState state) {
+        if (state.getType() == PropertyType.BINARY) {
+            return true;
+        }
+        PropertyEntry entry = bundle.getPropertyEntry(state.getName());
+        return entry != null && entry.getType() == PropertyType.BINARY;
+    }
+
     /**
      * Gets the bundle for the given node id. Read/write synchronization
      * happens higher up at the SISM level, so we don't need to worry about
@@ -173,6 +173,7 @@ public class ConsistencyCheckerImpl {
             } finally {
                 if (successful) {
                     eventChannel.updateCommitted(update, "checker@");
+                    eventChannel.updateReleased(update);
                 } else {
                     eventChannel.updateCancelled(update);
                 }
@@ -16,29 +16,39 @@
  */
 package org.apache.jackrabbit.core.persistence.pool;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 import javax.jcr.RepositoryException;
 import javax.sql.DataSource;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.data.DataIdentifier;
 import org.apache.jackrabbit.core.fs.FileSystem;
 import org.apache.jackrabbit.core.fs.FileSystemResource;
 import org.apache.jackrabbit.core.fs.local.LocalFileSystem;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.PropertyId;
+import org.apache.jackrabbit.core.persistence.BinaryReferenceIndex;
 import org.apache.jackrabbit.core.persistence.PMContext;
 import org.apache.jackrabbit.core.persistence.bundle.AbstractBundlePersistenceManager;
 import org.apache.jackrabbit.core.persistence.util.BLOBStore;
@@ -81,10 +91,12 @@ import org.slf4j.LoggerFactory;
  * <li>&lt;param name="{@link #setErrorHandling(String) errorHandling}" value=""/&gt;
  * <li>&lt;param name="{@link #setBlockOnConnectionLoss(String) blockOnConnectionLoss}" value="false"/&gt;
  * <li>&lt;param name="{@link #setSchemaCheckEnabled(boolean) schemaCheckEnabled}" value="true"/&gt;
+ * <li>&lt;param name="{@link #setBinaryReferenceIndex(String) binaryReferenceIndex}" value="false"/&gt;
  * </ul>
  */
 public class BundleDbPersistenceManager
-        extends AbstractBundlePersistenceManager implements DatabaseAware {
+        extends AbstractBundlePersistenceManager
+        implements DatabaseAware, BinaryReferenceIndex {
 
     /** the default logger */
     private static Logger log = LoggerFactory.getLogger(BundleDbPersistenceManager.class);
@@ -137,6 +149,18 @@ public class BundleDbPersistenceManager
     /** indicates whether to block if the database connection is lost */
     protected boolean blockOnConnectionLoss;
 
+    /** flag indicating if the binary reference index is maintained */
+    protected boolean binaryReferenceIndex;
+
+    /**
+     * Key of the row in the binary reference table that marks the index as
+     * complete. This node id is never used for a node.
+     */
+    private static final NodeId BINARY_REFERENCES_COMPLETE = new NodeId(0, 0);
+
+    /** number of bundles read at once when building the binary reference index */
+    private static final int BINARY_REFERENCES_BATCH_SIZE = 1024;
+
     // SQL statements for bundle management
     protected String bundleInsertSQL;
     protected String bundleUpdateSQL;
@@ -153,6 +177,14 @@ public class BundleDbPersistenceManager
     protected String nodeReferenceSelectSQL;
     protected String nodeReferenceDeleteSQL;
 
+    // SQL statements for the binary reference index
+    protected String binaryReferenceInsertSQL;
+    protected String binaryReferenceDeleteSQL;
+    protected String binaryReferenceDeleteAllSQL;
+    protected String binaryReferenceSelectSQL;
+    protected String binaryReferenceSelectAllSQL;
+    protected String binaryReferenceSelectAllFromSQL;
+
     /** file system where BLOB data is stored */
     protected CloseableBLOBStore blobStore;
 
@@ -391,6 +423,37 @@ public class BundleDbPersistenceManager
         this.consistencyFix = Boolean.valueOf(consistencyFix).booleanValue();
     }
 
+    /**
+     * Checks if the binary reference index is maintained.
+     * @return <code>true</code> if the binary reference index is maintained.
+     */
+    public String getBinaryReferenceIndex() {
+        return Boolean.toString(binaryReferenceIndex);
+    }
+
+    /**
+     * Defines if the data store records referenced by the binary properties
+     * of each node are stored in a separate table, so that the data store
+     * garbage collector can read them without loading the bundles. If the
+     * index is enabled for an existing workspace, it is built from the
+     * bundles on initialization. In a cluster, all cluster nodes need to use
+     * the same setting, and the cluster node that builds the index must be
+     * started alone.
+     *
+     * @param binaryReferenceIndex the binary reference index flag.
+     */
+    public void setBinaryReferenceIndex(String binaryReferenceIndex) {
+        this.binaryReferenceIndex = Boolean.valueOf(binaryReferenceIndex).booleanValue();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isBinaryReferenceIndexEnabled() {
+        return binaryReferenceIndex;
+    }
+
     /**
      * Returns the minimum blob size in bytes.
      * @return the minimum blob size in bytes.
@@ -544,6 +607,11 @@ public class BundleDbPersistenceManager
         // check if schema objects exist and create them if necessary
         if (isSchemaCheckEnabled()) {
             createCheckSchemaOperation().run();
+            // the binary reference table was added later, create it for
+            // existing workspaces
+            if (binaryReferenceIndex) {
+                checkBinaryReferenceSchema();
+            }
         }
 
         // create correct blob store
@@ -557,6 +625,8 @@ public class BundleDbPersistenceManager
 
         initialized = true;
 
+        initBinaryReferenceIndex();
+
         if (consistencyCheck) {
             // check all bundles
             checkConsistency(null, true, consistencyFix);
@@ -604,6 +674,51 @@ public class BundleDbPersistenceManager
             CheckSchemaOperation.SCHEMA_OBJECT_PREFIX_VARIABLE, schemaObjectPrefix);
     }
 
+    /**
+     * Creates the binary reference table if it does not exist yet, using the
+     * statements of the DDL file that refer to it.
+     *
+     * @throws Exception if an error occurs
+     */
+    private void checkBinaryReferenceSchema() throws Exception {
+        StringBuilder ddl = new StringBuilder();
+        InputStream in =
+            AbstractBundlePersistenceManager.class.getResourceAsStream(
+                    databaseType + ".ddl");
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+            String sql = reader.readLine();
+            while (sql != null) {
+                // Skip comments and empty lines, and select only the
+                // statements for the BINREFS table
+                if (!sql.startsWith("#") && sql.length() > 0
+                        && sql.indexOf("BINREFS") != -1) {
+                    ddl.append(sql).append('\n');
+                }
+                sql = reader.readLine();
+            }
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        createCheckBinaryReferenceSchemaOperation(
+                new ByteArrayInputStream(ddl.toString().getBytes())).run();
+    }
+
+    /**
+     * This method is called from {@link #init(PMContext)} if the binary
+     * reference index is enabled, and returns the {@link CheckSchemaOperation}
+     * that creates the binary reference table. Subclasses that add variable
+     * replacements in {@link #createCheckSchemaOperation()} need to add them
+     * here as well.
+     *
+     * @param ddl the statements to create the binary reference table
+     * @return a new {@link CheckSchemaOperation} instance
+     */
+    protected CheckSchemaOperation createCheckBinaryReferenceSchemaOperation(InputStream ddl) {
+        return new CheckSchemaOperation(conHelper, ddl, schemaObjectPrefix + "BINREFS").addVariableReplacement(
+            CheckSchemaOperation.SCHEMA_OBJECT_PREFIX_VARIABLE, schemaObjectPrefix);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -828,6 +943,24 @@ public class BundleDbPersistenceManager
      */
     @Override
     public synchronized Map<NodeId, NodeInfo> getAllNodeInfos(NodeId bigger, int maxCount) throws ItemStateException {
+        List<NodePropBundle> bundles = getAllBundles(bigger, maxCount);
+        Map<NodeId, NodeInfo> result = new LinkedHashMap<NodeId, NodeInfo>(bundles.size());
+        for (NodePropBundle bundle : bundles) {
+            NodeInfo nodeInfo = new NodeInfo(bundle);
+            result.put(nodeInfo.getId(), nodeInfo);
+        }
+        return result;
+    }
+
+    /**
+     * Reads the bundles in the order of their node ids.
+     *
+     * @param bigger the lower limit, or null for no limit.
+     * @param maxCount the maximum number of bundles to return, or 0 for no limit.
+     * @return the bundles
+     * @throws ItemStateException if an error while loading occurs.
+     */
+    private List<NodePropBundle> getAllBundles(NodeId bigger, int maxCount) throws ItemStateException {
         ResultSet rs = null;
         try {
             String sql = bundleSelectAllBundlesSQL;
@@ -846,7 +979,7 @@ public class BundleDbPersistenceManager
                 maxCount += 10;
             }
             rs = conHelper.exec(sql, keys, false, maxCount);
-            Map<NodeId, NodeInfo> result = new LinkedHashMap<NodeId, NodeInfo>(maxCount);
+            List<NodePropBundle> result = new ArrayList<NodePropBundle>();
             while ((maxCount == 0 || result.size() < maxCount) && rs.next()) {
                 NodeId current;
                 if (getStorageModel() == SM_BINARY_KEYS) {
@@ -862,9 +995,7 @@ public class BundleDbPersistenceManager
                         continue;
                     }
                 }
-                NodePropBundle bundle = readBundle(current, rs, getStorageModel() == SM_LONGLONG_KEYS ? 3 : 2);
-                NodeInfo nodeInfo = new NodeInfo(bundle);
-                result.put(nodeInfo.getId(), nodeInfo);
+                result.add(readBundle(current, rs, getStorageModel() == SM_LONGLONG_KEYS ? 3 : 2));
             }
             return result;
         } catch (SQLException e) {
@@ -1096,6 +1227,264 @@ public class BundleDbPersistenceManager
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected synchronized void storeBinaryReferences(NodeId id, Set<DataIdentifier> ids)
+            throws ItemStateException {
+        try {
+            conHelper.update(binaryReferenceDeleteSQL, getKey(id));
+            if (!ids.isEmpty()) {
+                Object[] params = createParams(id, serialize(ids), true);
+                conHelper.update(binaryReferenceInsertSQL, params);
+            }
+        } catch (Exception e) {
+            String msg = "failed to write binary references: " + id;
+            log.error(msg, e);
+            throw new ItemStateException(msg, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized Map<NodeId, Set<DataIdentifier>> getAllBinaryReferences(
+            NodeId bigger, int maxCount) throws ItemStateException {
+        if (!binaryReferenceIndex) {
+            throw new IllegalStateException("binary reference index not enabled");
+        }
+        ResultSet rs = null;
+        try {
+            String sql = binaryReferenceSelectAllSQL;
+            NodeId lowId = null;
+            Object[] keys = new Object[0];
+            if (bigger != null) {
+                sql = binaryReferenceSelectAllFromSQL;
+                lowId = bigger;
+                keys = getKey(bigger);
+            }
+            int fetchCount = maxCount;
+            if (maxCount > 0) {
+                // the marker row is skipped
+                fetchCount++;
+                if (getStorageModel() == SM_LONGLONG_KEYS) {
+                    // get some more rows, in case the first row is smaller
+                    // see also getAllNodeIds
+                    fetchCount += 10;
+                }
+            }
+            rs = conHelper.exec(sql, keys, false, fetchCount);
+            Map<NodeId, Set<DataIdentifier>> result =
+                new LinkedHashMap<NodeId, Set<DataIdentifier>>();
+            while ((maxCount == 0 || result.size() < maxCount) && rs.next()) {
+                NodeId current;
+                if (getStorageModel() == SM_BINARY_KEYS) {
+                    current = new NodeId(rs.getBytes(1));
+                } else {
+                    long high = rs.getLong(1);
+                    long low = rs.getLong(2);
+                    current = new NodeId(high, low);
+                }
+                if (current.equals(BINARY_REFERENCES_COMPLETE)) {
+                    continue;
+                }
+                if (getStorageModel() == SM_LONGLONG_KEYS && lowId != null) {
+                    // skip the keys that are smaller or equal (see above, maxCount += 10)
+                    if (current.compareTo(lowId) <= 0) {
+                        continue;
+                    }
+                }
+                result.put(current, readBinaryReferences(
+                        current, rs, getStorageModel() == SM_LONGLONG_KEYS ? 3 : 2));
+            }
+            return result;
+        } catch (SQLException e) {
+            String msg = "getAllBinaryReferences failed.";
+            log.error(msg, e);
+            throw new ItemStateException(msg, e);
+        } finally {
+            DbUtility.close(rs);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The marker row holds a token that is chosen when the index is built.
+     */
+    public synchronized String getBinaryReferenceIndexMarker()
+            throws ItemStateException {
+        if (!binaryReferenceIndex) {
+            return null;
+        }
+        ResultSet rs = null;
+        try {
+            rs = conHelper.exec(binaryReferenceSelectSQL,
+                    getKey(BINARY_REFERENCES_COMPLETE), false, 0);
+            if (!rs.next()) {
+                return null;
+            }
+            StringBuilder marker = new StringBuilder();
+            for (DataIdentifier id : readBinaryReferences(
+                    BINARY_REFERENCES_COMPLETE, rs, 1)) {
+                marker.append(id);
+            }
+            return marker.toString();
+        } catch (SQLException e) {
+            String msg = "failed to read the binary reference index marker";
+            log.error(msg, e);
+            throw new ItemStateException(msg, e);
+        } finally {
+            DbUtility.close(rs);
+        }
+    }
+
+    /**
+     * Builds the binary reference index from the bundles if it is enabled
+     * and not complete, or marks it as incomplete if it is disabled, as it
+     * is then no longer updated.
+     * <p>
+     * The index is built without a transaction, while other cluster nodes
+     * may store bundles. A bundle stored concurrently is either read after
+     * it was stored, or its row replaces or conflicts with the row inserted
+     * here, in which case the newer row is kept. A node destroyed
+     * concurrently may leave its row behind, which only keeps its records
+     * until the index is built again. The index must however not be built
+     * by two cluster nodes at the same time, as one could delete the rows
+     * inserted by the other after it marked the index as complete. When
+     * the index is enabled in a cluster, one cluster node needs to be
+     * started alone. Each build marks the index with a new token, so that a
+     * garbage collection that overlaps with the end of a build notices it,
+     * see {@link #getBinaryReferenceIndexMarker()}.
+     *
+     * @throws Exception if an error occurs
+     */
+    private void initBinaryReferenceIndex() throws Exception {
+        if (!binaryReferenceIndex) {
+            if (conHelper.tableExists(schemaObjectPrefix + "BINREFS")) {
+                conHelper.update(binaryReferenceDeleteSQL,
+                        getKey(BINARY_REFERENCES_COMPLETE));
+            }
+            return;
+        }
+        if (getBinaryReferenceIndexMarker() != null) {
+            return;
+        }
+
+        log.info(name + ": building the binary reference index...");
+        conHelper.update(binaryReferenceDeleteAllSQL);
+        int count = 0;
+        List<NodePropBundle> bundles =
+            getAllBundles(null, BINARY_REFERENCES_BATCH_SIZE);
+        while (!bundles.isEmpty()) {
+            for (NodePropBundle bundle : bundles) {
+                Set<DataIdentifier> ids = bundle.getDataIdentifiers();
+                if (!ids.isEmpty()) {
+                    insertBinaryReferences(bundle.getId(), ids);
+                    count++;
+                }
+            }
+            NodeId last = bundles.get(bundles.size() - 1).getId();
+            bundles = getAllBundles(last, BINARY_REFERENCES_BATCH_SIZE);
+        }
+        Set<DataIdentifier> marker = Collections.singleton(
+                new DataIdentifier(UUID.randomUUID().toString()));
+        // replace the marker of a build that ended concurrently
+        conHelper.update(binaryReferenceDeleteSQL,
+                getKey(BINARY_REFERENCES_COMPLETE));
+        conHelper.update(binaryReferenceInsertSQL,
+                createParams(BINARY_REFERENCES_COMPLETE, serialize(marker), true));
+        log.info(name + ": binary reference index built, "
+                + count + " nodes with binaries");
+    }
+
+    /**
+     * Inserts the binary references of a node read while building the
+     * index. If another cluster node stored the node after it was read,
+     * the insert conflicts with the newer row, which is kept.
+     *
+     * @param id node identifier
+     * @param ids the data identifiers referenced by the node
+     * @throws Exception if an error occurs
+     */
+    private void insertBinaryReferences(NodeId id, Set<DataIdentifier> ids)
+            throws Exception {
+        try {
+            conHelper.update(binaryReferenceInsertSQL,
+                    createParams(id, serialize(ids), true));
+        } catch (SQLException e) {
+            ResultSet rs = null;
+            try {
+                rs = conHelper.exec(binaryReferenceSelectSQL, getKey(id), false, 0);
+                if (rs.next()) {
+                    log.debug(name + ": binary references of " + id
+                            + " stored concurrently", e);
+                    return;
+                }
+            } finally {
+                DbUtility.close(rs);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Serializes a set of data identifiers.
+     *
+     * @param ids the data identifiers
+     * @return the serialized form
+     * @throws IOException if an error occurs
+     */
+    private static byte[] serialize(Set<DataIdentifier> ids) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(ids.size());
+        for (DataIdentifier id : ids) {
+            out.writeUTF(id.toString());
+        }
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Reads the data identifiers from the BLOB in the given column of the
+     * current row of the given result set.
+     *
+     * @param id node identifier
+     * @param rs result set
+     * @param column BLOB column
+     * @return the data identifiers
+     * @throws SQLException if the data identifiers can not be read
+     */
+    private static Set<DataIdentifier> readBinaryReferences(
+            NodeId id, ResultSet rs, int column) throws SQLException {
+        try {
+            InputStream in;
+            if (rs.getMetaData().getColumnType(column) == Types.BLOB) {
+                in = rs.getBlob(column).getBinaryStream();
+            } else {
+                in = rs.getBinaryStream(column);
+            }
+            try {
+                DataInputStream data = new DataInputStream(in);
+                int count = data.readInt();
+                Set<DataIdentifier> ids = new LinkedHashSet<DataIdentifier>(count);
+                for (int i = 0; i < count; i++) {
+                    ids.add(new DataIdentifier(data.readUTF()));
+                }
+                return ids;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            SQLException exception =
+                new SQLException("Failed to read binary references " + id);
+            exception.initCause(e);
+            throw exception;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -1119,6 +1508,12 @@ public class BundleDbPersistenceManager
             nodeReferenceSelectSQL = "select REFS_DATA from " + schemaObjectPrefix + "REFS where NODE_ID = ?";
             nodeReferenceDeleteSQL = "delete from " + schemaObjectPrefix + "REFS where NODE_ID = ?";
 
+            binaryReferenceInsertSQL = "insert into " + schemaObjectPrefix + "BINREFS (BINREFS_DATA, NODE_ID) values (?, ?)";
+            binaryReferenceSelectSQL = "select BINREFS_DATA from " + schemaObjectPrefix + "BINREFS where NODE_ID = ?";
+            binaryReferenceDeleteSQL = "delete from " + schemaObjectPrefix + "BINREFS where NODE_ID = ?";
+            binaryReferenceSelectAllSQL = "select NODE_ID, BINREFS_DATA from " + schemaObjectPrefix + "BINREFS ORDER BY NODE_ID";
+            binaryReferenceSelectAllFromSQL = "select NODE_ID, BINREFS_DATA from " + schemaObjectPrefix + "BINREFS WHERE NODE_ID > ? ORDER BY NODE_ID";
+
             bundleSelectAllIdsSQL = "select NODE_ID from " + schemaObjectPrefix + "BUNDLE ORDER BY NODE_ID";
             bundleSelectAllIdsFromSQL = "select NODE_ID from " + schemaObjectPrefix + "BUNDLE WHERE NODE_ID > ? ORDER BY NODE_ID";
             bundleSelectAllBundlesSQL = "select NODE_ID, BUNDLE_DATA from " + schemaObjectPrefix + "BUNDLE ORDER BY NODE_ID";
@@ -1138,6 +1533,19 @@ public class BundleDbPersistenceManager
             nodeReferenceSelectSQL = "select REFS_DATA from " + schemaObjectPrefix + "REFS where NODE_ID_HI = ? and NODE_ID_LO = ?";
             nodeReferenceDeleteSQL = "delete from " + schemaObjectPrefix + "REFS where NODE_ID_HI = ? and NODE_ID_LO = ?";
 
+            binaryReferenceInsertSQL =
+                "insert into " + schemaObjectPrefix + "BINREFS"
+                + " (BINREFS_DATA, NODE_ID_HI, NODE_ID_LO) values (?, ?, ?)";
+            binaryReferenceSelectSQL = "select BINREFS_DATA from " + schemaObjectPrefix + "BINREFS where NODE_ID_HI = ? and NODE_ID_LO = ?";
+            binaryReferenceDeleteSQL = "delete from " + schemaObjectPrefix + "BINREFS where NODE_ID_HI = ? and NODE_ID_LO = ?";
+            binaryReferenceSelectAllSQL = "select NODE_ID_HI, NODE_ID_LO, BINREFS_DATA from " + schemaObjectPrefix
+                + "BINREFS ORDER BY NODE_ID_HI, NODE_ID_LO";
+            // need to use HI and LO parameters, see bundleSelectAllIdsFromSQL
+            binaryReferenceSelectAllFromSQL =
+                "select NODE_ID_HI, NODE_ID_LO, BINREFS_DATA from " + schemaObjectPrefix + "BINREFS"
+                + " WHERE (NODE_ID_HI >= ?) AND (? IS NOT NULL)"
+                + " ORDER BY NODE_ID_HI, NODE_ID_LO";
+
             bundleSelectAllIdsSQL = "select NODE_ID_HI, NODE_ID_LO from " + schemaObjectPrefix 
                 + "BUNDLE ORDER BY NODE_ID_HI, NODE_ID_LO";
             // need to use HI and LO parameters
@@ -1157,7 +1565,7 @@ public class BundleDbPersistenceManager
                             + " ORDER BY NODE_ID_HI, NODE_ID_LO";
 
         }
-
+        binaryReferenceDeleteAllSQL = "delete from " + schemaObjectPrefix + "BINREFS";
     }
 
     /**
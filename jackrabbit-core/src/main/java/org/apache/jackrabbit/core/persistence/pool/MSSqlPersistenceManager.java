@@ -16,6 +16,8 @@
  */
 package org.apache.jackrabbit.core.persistence.pool;
 
+import java.io.InputStream;
+
 import org.apache.jackrabbit.core.util.db.CheckSchemaOperation;
 
 /**
@@ -55,6 +57,15 @@ public class MSSqlPersistenceManager extends BundleDbPersistenceManager {
             CheckSchemaOperation.TABLE_SPACE_VARIABLE, tableSpace);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected CheckSchemaOperation createCheckBinaryReferenceSchemaOperation(InputStream ddl) {
+        return super.createCheckBinaryReferenceSchemaOperation(ddl).addVariableReplacement(
+            CheckSchemaOperation.TABLE_SPACE_VARIABLE, tableSpace);
+    }
+
     /**
      * Returns the configured MS SQL table space.
      * 
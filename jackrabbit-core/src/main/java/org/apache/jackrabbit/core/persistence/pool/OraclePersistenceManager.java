@@ -16,6 +16,7 @@
  */
 package org.apache.jackrabbit.core.persistence.pool;
 
+import java.io.InputStream;
 import java.sql.SQLException;
 
 import javax.sql.DataSource;
@@ -177,4 +178,14 @@ public class OraclePersistenceManager extends BundleDbPersistenceManager {
             .addVariableReplacement(TABLESPACE_VARIABLE, tablespace)
             .addVariableReplacement(INDEX_TABLESPACE_VARIABLE, indexTablespace);
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected CheckSchemaOperation createCheckBinaryReferenceSchemaOperation(InputStream ddl) {
+        return super.createCheckBinaryReferenceSchemaOperation(ddl)
+            .addVariableReplacement(TABLESPACE_VARIABLE, tablespace)
+            .addVariableReplacement(INDEX_TABLESPACE_VARIABLE, indexTablespace);
+    }
 }
@@ -18,14 +18,17 @@ package org.apache.jackrabbit.core.persistence.util;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
 import javax.jcr.PropertyType;
 
+import org.apache.jackrabbit.core.data.DataIdentifier;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.PropertyId;
 import org.apache.jackrabbit.core.persistence.PersistenceManager;
@@ -359,6 +362,33 @@ public class NodePropBundle {
         return properties.get(name);
     }
 
+    /**
+     * Returns the identifiers of the data store records referenced by the
+     * binary properties of this bundle.
+     *
+     * @return the data identifiers, empty if there are none
+     */
+    public Set<DataIdentifier> getDataIdentifiers() {
+        Set<DataIdentifier> ids = null;
+        for (PropertyEntry entry : properties.values()) {
+            if (entry.getType() == PropertyType.BINARY) {
+                for (InternalValue value : entry.getValues()) {
+                    DataIdentifier id = value.getDataIdentifier();
+                    if (id != null) {
+                        if (ids == null) {
+                            ids = new LinkedHashSet<DataIdentifier>();
+                        }
+                        ids.add(id);
+                    }
+                }
+            }
+        }
+        if (ids == null) {
+            return Collections.emptySet();
+        }
+        return ids;
+    }
+
     /**
      * Removes all property entries
      *
@@ -98,6 +98,12 @@ abstract class AbstractIndex {
      */
     private DocNumberCache cache;
 
+    /**
+     * If <code>true</code> node ids are resolved with a persistent
+     * {@link IdDocLookup} instead of the document number cache.
+     */
+    private boolean useIdLookup = false;
+
     /** The shared IndexReader for all read-only IndexReaders */
     private SharedIndexReader sharedReader;
 
@@ -311,7 +317,7 @@ abstract class AbstractIndex {
             // create new shared reader
             IndexReader reader = IndexReader.open(getDirectory(), termInfosIndexDivisor);
             CachingIndexReader cr = new CachingIndexReader(
-                    reader, cache, initCache);
+                    reader, cache, initCache, useIdLookup);
             sharedReader = new SharedIndexReader(cr);
         }
         readOnlyReader = new ReadOnlyIndexReader(sharedReader, 
@@ -555,6 +561,18 @@ abstract class AbstractIndex {
         this.termInfosIndexDivisor = termInfosIndexDivisor;
     }
 
+    /**
+     * Sets whether node ids are resolved with a persistent lookup table
+     * instead of the document number cache. The lookup table is written to
+     * the index directory, hence this should only be enabled for indexes
+     * that do not change after they have been created.
+     *
+     * @param useIdLookup <code>true</code> to use a persistent lookup table.
+     */
+    void setUseIdLookup(boolean useIdLookup) {
+        this.useIdLookup = useIdLookup;
+    }
+
     //------------------------------< internal >--------------------------------
 
     /**
@@ -102,6 +102,12 @@ class CachingIndexReader extends FilterIndexReader {
      */
     private final DocNumberCache cache;
 
+    /**
+     * Lookup table from node id to document number or <code>null</code> if
+     * node ids are resolved through the {@link #cache}.
+     */
+    private final IdDocLookup idLookup;
+
     /**
      * Maps document number to node id.
      */
@@ -121,15 +127,20 @@ class CachingIndexReader extends FilterIndexReader {
      *                  available to this reader.
      * @param initCache if the parent caches should be initialized
      *                  when this index reader is constructed.
+     * @param useIdLookup if node ids should be resolved with a persistent
+     *                  {@link IdDocLookup} instead of the document number
+     *                  cache.
      * @throws IOException if an error occurs while reading from the index.
      */
     @SuppressWarnings("unchecked")
     CachingIndexReader(IndexReader delegatee,
                        DocNumberCache cache,
-                       boolean initCache)
+                       boolean initCache,
+                       boolean useIdLookup)
             throws IOException {
         super(delegatee);
         this.cache = cache;
+        this.idLookup = useIdLookup ? IdDocLookup.open(delegatee) : null;
         this.inSegmentParents = new int[delegatee.maxDoc()];
         Arrays.fill(this.inSegmentParents, -1);
         this.shareableNodes = initShareableNodes(delegatee);
@@ -307,8 +318,18 @@ class CachingIndexReader extends FilterIndexReader {
      */
     public TermDocs termDocs(Term term) throws IOException {
         if (term != null && term.field() == FieldNames.UUID) {
-            // check cache if we have one
-            if (cache != null) {
+            // check lookup table if we have one
+            if (idLookup != null) {
+                int doc = idLookup.getDoc(term.text());
+                if (doc == -1) {
+                    return EmptyTermDocs.INSTANCE;
+                } else if (!isDeleted(doc)) {
+                    return new SingleTermDocs(doc);
+                }
+                // deleted, fall through and let the index decide
+                // whether there is another document for this id
+            } else if (cache != null) {
+                // check cache if we have one
                 DocNumberCache.Entry e = cache.get(term.text());
                 if (e != null) {
                     // check if valid
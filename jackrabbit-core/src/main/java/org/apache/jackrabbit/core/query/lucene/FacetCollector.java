@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+
+/**
+ * <code>FacetCollector</code> counts the distinct values of a set of
+ * properties over the documents of a query result. The values are read from
+ * the {@link SharedFieldCache} of each index segment, hence no node needs to
+ * be loaded from the item state layer to compute the counts.
+ * <p>
+ * A collector is bound to an index reader with {@link #setReader(IndexReader)}
+ * before score nodes are passed to {@link #collect(ScoreNode)}. The caller is
+ * responsible for checking access rights on the score nodes it passes in.
+ */
+public class FacetCollector {
+
+    /**
+     * The JCR names of the facet properties as requested by the client.
+     */
+    private final String[] propertyNames;
+
+    /**
+     * The term prefixes of the facet properties in the shared field.
+     */
+    private final String[] prefixes;
+
+    /**
+     * The name of the shared field that contains the property values.
+     */
+    private final String field;
+
+    /**
+     * The counts per value for each of the facet properties.
+     */
+    private final List<Map<Comparable<?>, Integer>> counts =
+            new ArrayList<Map<Comparable<?>, Integer>>();
+
+    /**
+     * The index reader the document numbers refer to.
+     */
+    private IndexReader reader;
+
+    /**
+     * The sub readers of {@link #reader}.
+     */
+    private final List<IndexReader> readers = new ArrayList<IndexReader>();
+
+    /**
+     * The document number starts for the {@link #readers}.
+     */
+    private int[] starts;
+
+    /**
+     * The value indexes per sub reader (first dimension) and facet property
+     * (second dimension).
+     */
+    private SharedFieldCache.ValueIndex[][] indexes;
+
+    /**
+     * Creates a new facet collector.
+     *
+     * @param propertyNames the JCR names of the facet properties.
+     * @param indexNames    the names of the facet properties translated into
+     *                      the index internal namespace mapping.
+     * @param field         the name of the shared field that contains the
+     *                      property values.
+     */
+    public FacetCollector(String[] propertyNames,
+                          String[] indexNames,
+                          String field) {
+        if (propertyNames.length != indexNames.length) {
+            throw new IllegalArgumentException(
+                    "propertyNames and indexNames must have the same length");
+        }
+        this.propertyNames = propertyNames;
+        this.prefixes = new String[indexNames.length];
+        for (int i = 0; i < indexNames.length; i++) {
+            prefixes[i] = FieldNames.createNamedValue(indexNames[i], "");
+            counts.add(new HashMap<Comparable<?>, Integer>());
+        }
+        this.field = field;
+    }
+
+    /**
+     * Sets the index reader the score nodes passed to {@link #collect(ScoreNode)}
+     * refer to and loads the value indexes of its segments.
+     *
+     * @param reader the index reader.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    public void setReader(IndexReader reader) throws IOException {
+        this.reader = reader;
+        readers.clear();
+        getIndexReaders(readers, reader);
+
+        int maxDoc = 0;
+        starts = new int[readers.size() + 1];
+        indexes = new SharedFieldCache.ValueIndex[readers.size()][];
+        for (int i = 0; i < readers.size(); i++) {
+            IndexReader r = readers.get(i);
+            starts[i] = maxDoc;
+            maxDoc += r.maxDoc();
+            indexes[i] = new SharedFieldCache.ValueIndex[prefixes.length];
+            for (int j = 0; j < prefixes.length; j++) {
+                indexes[i][j] = SharedFieldCache.INSTANCE.getValueIndex(
+                        r, field, prefixes[j]);
+            }
+        }
+        starts[readers.size()] = maxDoc;
+    }
+
+    /**
+     * Adds the values of the node <code>sn</code> to the facet counts.
+     *
+     * @param sn the score node.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    public void collect(ScoreNode sn) throws IOException {
+        if (reader == null) {
+            throw new IllegalStateException("no reader set");
+        }
+        int doc = sn.getDoc(reader);
+        int idx = readerIndex(doc);
+        for (int i = 0; i < prefixes.length; i++) {
+            Comparable<?> value = indexes[idx][i].getValue(doc - starts[idx]);
+            if (value instanceof SharedFieldCache.ComparableArray) {
+                // a value held more than once by the node is counted once
+                Set<Comparable<?>> distinct = new HashSet<Comparable<?>>();
+                for (Comparable<?> v : ((SharedFieldCache.ComparableArray) value).getValues()) {
+                    if (distinct.add(v)) {
+                        increment(i, v);
+                    }
+                }
+            } else {
+                increment(i, value);
+            }
+        }
+    }
+
+    /**
+     * Returns the facet counts collected so far. The returned map contains an
+     * entry for each facet property in the order the properties were
+     * requested, which maps the values of the property to the number of
+     * result nodes with that value, each node being counted at most once per
+     * value. The values are returned as read from the
+     * index, that is, <code>DATE</code> values are represented as
+     * milliseconds since the epoch.
+     *
+     * @return the facet counts.
+     */
+    public Map<String, Map<Comparable<?>, Integer>> getFacets() {
+        Map<String, Map<Comparable<?>, Integer>> facets =
+                new LinkedHashMap<String, Map<Comparable<?>, Integer>>();
+        for (int i = 0; i < propertyNames.length; i++) {
+            facets.put(propertyNames[i], counts.get(i));
+        }
+        return facets;
+    }
+
+    //--------------------------------< internal >------------------------------
+
+    /**
+     * Increments the count of <code>value</code> for the facet property at
+     * <code>index</code>.
+     *
+     * @param index the index of the facet property.
+     * @param value the value or <code>null</code> if the document does not
+     *              have a value for the property.
+     */
+    private void increment(int index, Comparable<?> value) {
+        if (value == null) {
+            return;
+        }
+        Map<Comparable<?>, Integer> c = counts.get(index);
+        Integer count = c.get(value);
+        c.put(value, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Checks if <code>reader</code> is of type {@link MultiIndexReader} and if
+     * so calls itself recursively for each reader within the
+     * <code>MultiIndexReader</code> or otherwise adds the reader to the list.
+     *
+     * @param readers  list of index readers.
+     * @param reader   reader to decompose
+     */
+    private static void getIndexReaders(List<IndexReader> readers,
+                                        IndexReader reader) {
+        if (reader instanceof MultiIndexReader) {
+            for (IndexReader r : ((MultiIndexReader) reader).getIndexReaders()) {
+                getIndexReaders(readers, r);
+            }
+        } else {
+            readers.add(reader);
+        }
+    }
+
+    /**
+     * Returns the reader index for document <code>n</code>.
+     *
+     * @param n document number.
+     * @return the reader index.
+     */
+    private int readerIndex(int n) {
+        int lo = 0;
+        int hi = readers.size() - 1;
+
+        while (hi >= lo) {
+            int mid = (lo + hi) >> 1;
+            int midValue = starts[mid];
+            if (n < midValue) {
+                hi = mid - 1;
+            } else if (n > midValue) {
+                lo = mid + 1;
+            } else {
+                while (mid + 1 < readers.size() && starts[mid + 1] == midValue) {
+                    mid++;
+                }
+                return mid;
+            }
+        }
+        return hi;
+    }
+}
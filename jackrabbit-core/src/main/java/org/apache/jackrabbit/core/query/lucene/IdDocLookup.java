@@ -0,0 +1,338 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.ReaderUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>IdDocLookup</code> is an immutable lookup table from node id to
+ * document number for a single index. The ids are kept as sorted pairs of
+ * 64-bit values and resolved with a binary search, which does not allocate
+ * any objects.
+ * <p>
+ * The table is persisted in the index directory when it is first built and
+ * loaded from there when the index is opened again. The persisted table
+ * carries the names of the lucene segments it was built from and is rebuilt
+ * when they do not match the current index anymore.
+ */
+final class IdDocLookup {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(IdDocLookup.class);
+
+    /**
+     * The table is persisted using this filename.
+     */
+    static final String FILE_NAME = "cache.idToDoc";
+
+    /**
+     * The version of the file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The most significant bits of the ids in ascending unsigned order.
+     */
+    private final long[] msbs;
+
+    /**
+     * The least significant bits of the ids. Ordered together with
+     * {@link #msbs}.
+     */
+    private final long[] lsbs;
+
+    /**
+     * The document numbers of the ids.
+     */
+    private final int[] docs;
+
+    private IdDocLookup(long[] msbs, long[] lsbs, int[] docs) {
+        this.msbs = msbs;
+        this.lsbs = lsbs;
+        this.docs = docs;
+    }
+
+    /**
+     * Returns the lookup table for the given <code>reader</code>. The table is
+     * loaded from the directory of the reader if present and up-to-date,
+     * otherwise it is built from the index and persisted.
+     *
+     * @param reader the index reader of a single index.
+     * @return the lookup table.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    static IdDocLookup open(IndexReader reader) throws IOException {
+        long time = System.currentTimeMillis();
+        String signature = getSignature(reader);
+        IdDocLookup lookup = null;
+        if (signature != null) {
+            lookup = load(reader.directory(), signature, reader.maxDoc());
+        }
+        if (lookup == null) {
+            lookup = build(reader);
+            if (signature != null) {
+                lookup.save(reader.directory(), signature, reader.maxDoc());
+            }
+            log.debug("built id lookup for {} documents in {} ms",
+                    lookup.size(), System.currentTimeMillis() - time);
+        } else {
+            log.debug("loaded id lookup for {} documents in {} ms",
+                    lookup.size(), System.currentTimeMillis() - time);
+        }
+        return lookup;
+    }
+
+    /**
+     * Returns the document number for the node with the given
+     * <code>uuid</code>.
+     *
+     * @param uuid the string representation of a node id.
+     * @return the document number or <code>-1</code> if the node is not
+     *         present in this index or <code>uuid</code> is malformed.
+     */
+    int getDoc(String uuid) {
+        if (uuid.length() != 36) {
+            return -1;
+        }
+        long msb = 0;
+        long lsb = 0;
+        int digits = 0;
+        for (int i = 0; i < 36; i++) {
+            char c = uuid.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return -1;
+                }
+                continue;
+            }
+            int v = Character.digit(c, 16);
+            if (v == -1) {
+                return -1;
+            }
+            if (digits++ < 16) {
+                msb = (msb << 4) | v;
+            } else {
+                lsb = (lsb << 4) | v;
+            }
+        }
+
+        int lo = 0;
+        int hi = msbs.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = Long.compareUnsigned(msbs[mid], msb);
+            if (cmp == 0) {
+                cmp = Long.compareUnsigned(lsbs[mid], lsb);
+            }
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return docs[mid];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of ids in this lookup table.
+     */
+    int size() {
+        return docs.length;
+    }
+
+    //----------------------------< internal >----------------------------------
+
+    /**
+     * Builds the lookup table from the {@link FieldNames#UUID} terms of the
+     * given reader. The terms are enumerated in ascending order, which is
+     * also the unsigned numerical order of the ids.
+     *
+     * @param reader the index reader.
+     * @return the lookup table.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    private static IdDocLookup build(IndexReader reader) throws IOException {
+        int max = reader.numDocs();
+        long[] msbs = new long[max];
+        long[] lsbs = new long[max];
+        int[] docs = new int[max];
+        int count = 0;
+        TermDocs tDocs = reader.termDocs();
+        try {
+            TermEnum terms = reader.terms(TermFactory.createUUIDTerm(""));
+            try {
+                do {
+                    Term t = terms.term();
+                    if (t == null || t.field() != FieldNames.UUID) {
+                        break;
+                    }
+                    tDocs.seek(terms);
+                    if (tDocs.next()) {
+                        if (count == max) {
+                            // more ids than documents, cannot happen
+                            // unless the index is inconsistent
+                            throw new IOException("Unexpected number of ids in index");
+                        }
+                        UUID uuid = UUID.fromString(t.text());
+                        msbs[count] = uuid.getMostSignificantBits();
+                        lsbs[count] = uuid.getLeastSignificantBits();
+                        docs[count] = tDocs.doc();
+                        count++;
+                    }
+                } while (terms.next());
+            } finally {
+                terms.close();
+            }
+        } finally {
+            tDocs.close();
+        }
+        if (count < max) {
+            msbs = Arrays.copyOf(msbs, count);
+            lsbs = Arrays.copyOf(lsbs, count);
+            docs = Arrays.copyOf(docs, count);
+        }
+        return new IdDocLookup(msbs, lsbs, docs);
+    }
+
+    /**
+     * Loads the lookup table from the given directory.
+     *
+     * @param dir       the index directory.
+     * @param signature the expected segment signature.
+     * @param maxDoc    the expected maximum document number.
+     * @return the lookup table or <code>null</code> if there is no persisted
+     *         table or it does not match the index anymore.
+     * @throws IOException if the corrupt file cannot be deleted.
+     */
+    private static IdDocLookup load(Directory dir, String signature, int maxDoc)
+            throws IOException {
+        IndexInput in = null;
+        try {
+            in = dir.openInput(FILE_NAME);
+            if (in.readInt() != VERSION
+                    || !signature.equals(in.readString())
+                    || in.readInt() != maxDoc) {
+                log.debug("persisted id lookup is outdated");
+                return null;
+            }
+            int count = in.readInt();
+            long[] msbs = new long[count];
+            long[] lsbs = new long[count];
+            int[] docs = new int[count];
+            for (int i = 0; i < count; i++) {
+                msbs[i] = in.readLong();
+                lsbs[i] = in.readLong();
+                docs[i] = in.readInt();
+            }
+            return new IdDocLookup(msbs, lsbs, docs);
+        } catch (FileNotFoundException e) {
+            // not yet persisted
+        } catch (IOException e) {
+            log.warn("Persisted id lookup is corrupt, will try to remove "
+                    + "offending file " + FILE_NAME, e);
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+            dir.deleteFile(FILE_NAME);
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Persists this lookup table to the given directory. Errors are logged
+     * and otherwise ignored, the table is rebuilt on the next open.
+     *
+     * @param dir       the index directory.
+     * @param signature the segment signature of the index.
+     * @param maxDoc    the maximum document number of the index.
+     * @throws IOException if the output cannot be closed.
+     */
+    private void save(Directory dir, String signature, int maxDoc)
+            throws IOException {
+        IndexOutput out = null;
+        try {
+            out = dir.createOutput(FILE_NAME);
+            out.writeInt(VERSION);
+            out.writeString(signature);
+            out.writeInt(maxDoc);
+            out.writeInt(docs.length);
+            for (int i = 0; i < docs.length; i++) {
+                out.writeLong(msbs[i]);
+                out.writeLong(lsbs[i]);
+                out.writeInt(docs[i]);
+            }
+        } catch (Exception e) {
+            log.error("Error saving " + FILE_NAME + ": " + e.getMessage(), e);
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Returns a signature of the lucene segments of <code>reader</code>.
+     * Merges within the index change the segment names and therefore the
+     * document numbers, while deletions keep both unchanged.
+     *
+     * @param reader the index reader.
+     * @return the segment signature or <code>null</code> if the reader is
+     *         not composed of segment readers.
+     */
+    private static String getSignature(IndexReader reader) {
+        List<IndexReader> subReaders = new ArrayList<IndexReader>();
+        ReaderUtil.gatherSubReaders(subReaders, reader);
+        StringBuilder sb = new StringBuilder();
+        for (IndexReader r : subReaders) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            if (!(r instanceof SegmentReader)) {
+                return null;
+            }
+            sb.append(((SegmentReader) r).getSegmentName());
+            sb.append(':').append(r.maxDoc());
+        }
+        return sb.toString();
+    }
+}
@@ -57,11 +57,12 @@ public class MultiColumnQueryResult extends QueryResultImpl {
     /**
      * {@inheritDoc}
      */
-    protected MultiColumnQueryHits executeQuery(long resultFetchHint)
+    protected MultiColumnQueryHits executeQuery(
+            long resultFetchHint, FacetCollector facetCollector)
             throws IOException {
         return index.executeQuery(
                 sessionContext.getSessionImpl(),
-                query, orderings, resultFetchHint);
+                query, orderings, resultFetchHint, facetCollector);
     }
 
     /**
@@ -16,6 +16,7 @@
  */
 package org.apache.jackrabbit.core.query.lucene;
 
+import java.io.File;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.util.ArrayList;
@@ -51,6 +52,9 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -289,6 +293,7 @@ public class MultiIndex {
                     handler.getMaxHistoryAge());
             index.setUseCompoundFile(handler.getUseCompoundFile());
             index.setTermInfosIndexDivisor(handler.getTermInfosIndexDivisor());
+            index.setUseIdLookup(handler.isPersistentIdLookup());
             indexes.add(index);
             merger.indexAdded(index.getName(), index.getNumDocuments());
         }
@@ -608,6 +613,7 @@ public class MultiIndex {
         }
         index.setUseCompoundFile(handler.getUseCompoundFile());
         index.setTermInfosIndexDivisor(handler.getTermInfosIndexDivisor());
+        index.setUseIdLookup(handler.isPersistentIdLookup());
 
         // add to list of open indexes and return it
         indexes.add(index);
@@ -1314,6 +1320,83 @@ public class MultiIndex {
         }
     }
 
+    /**
+     * Flushes this <code>MultiIndex</code> and copies the current generation
+     * of the index to the file system directory <code>target</code>. Updates
+     * are blocked while the index is copied. An index opened on the copy
+     * contains exactly the documents of the flushed generation.
+     *
+     * @param target the directory to copy the index to.
+     * @return the copied generation of the index names.
+     * @throws IOException if the index cannot be flushed or copied.
+     */
+    long copyTo(File target) throws IOException {
+        synchronized (updateMonitor) {
+            updateInProgress = true;
+        }
+        try {
+            synchronized (this) {
+                flush();
+                Directory dest = FSDirectory.open(target);
+                try {
+                    copyFile(indexDir, dest, indexNames.getFileName());
+                } finally {
+                    dest.close();
+                }
+                for (Iterator<IndexInfo> it = indexNames.iterator(); it.hasNext(); ) {
+                    String name = it.next().getName();
+                    dest = FSDirectory.open(new File(target, name));
+                    try {
+                        Directory src = directoryManager.getDirectory(name);
+                        for (String file : src.listAll()) {
+                            copyFile(src, dest, file);
+                        }
+                    } finally {
+                        dest.close();
+                    }
+                }
+                return indexNames.getGeneration();
+            }
+        } finally {
+            synchronized (updateMonitor) {
+                updateInProgress = false;
+                updateMonitor.notifyAll();
+                releaseMultiReader();
+            }
+        }
+    }
+
+    /**
+     * Copies the file <code>name</code> from <code>src</code> to
+     * <code>dest</code>.
+     *
+     * @param src  the source directory.
+     * @param dest the destination directory.
+     * @param name the name of the file.
+     * @throws IOException if an error occurs while copying.
+     */
+    private static void copyFile(Directory src, Directory dest, String name)
+            throws IOException {
+        byte[] buffer = new byte[8192];
+        IndexInput in = src.openInput(name);
+        try {
+            IndexOutput out = dest.createOutput(name);
+            try {
+                long remaining = in.length();
+                while (remaining > 0) {
+                    int len = (int) Math.min(buffer.length, remaining);
+                    in.readBytes(buffer, 0, len);
+                    out.writeBytes(buffer, len);
+                    remaining -= len;
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
     void safeFlush() throws IOException{
         synchronized (updateMonitor) {
             updateInProgress = true;
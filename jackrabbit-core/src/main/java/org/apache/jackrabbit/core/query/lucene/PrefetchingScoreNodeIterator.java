@@ -0,0 +1,301 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.state.ItemState;
+import org.apache.jackrabbit.core.state.LocalItemStateManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>PrefetchingScoreNodeIterator</code> wraps a {@link ScoreNodeIterator}
+ * and reads ahead batches of score nodes. The item states of the nodes in a
+ * batch are loaded in the background through
+ * {@link LocalItemStateManager#prefetch}, while the client still consumes the
+ * previous batch. When the client later resolves a node through the item
+ * manager the state is usually already present in the shared item state
+ * cache and no persistence round trip is needed.
+ * <p>
+ * The prefetched states are kept reachable until all score nodes of their
+ * batch have been consumed by the client. A batch that is still pending when
+ * the client consumes or skips its score nodes is cancelled, and so are the
+ * batches of an iterator that is exhausted. The tasks only weakly reference
+ * the iterator, pending batches of an abandoned iterator load nothing.
+ */
+class PrefetchingScoreNodeIterator implements ScoreNodeIterator {
+
+    /** Logger instance for this class */
+    private static final Logger log =
+            LoggerFactory.getLogger(PrefetchingScoreNodeIterator.class);
+
+    /**
+     * The underlying score nodes.
+     */
+    private final ScoreNodeIterator scoreNodes;
+
+    /**
+     * The item state manager used to load the item states.
+     */
+    private final LocalItemStateManager stateMgr;
+
+    /**
+     * The executor which runs the prefetch tasks.
+     */
+    private final Executor executor;
+
+    /**
+     * The number of score nodes per batch.
+     */
+    private final int batchSize;
+
+    /**
+     * The score nodes read ahead from {@link #scoreNodes} but not yet
+     * returned to the client.
+     */
+    private final LinkedList<ScoreNode[]> buffer = new LinkedList<ScoreNode[]>();
+
+    /**
+     * The batches that have score nodes in {@link #buffer}. The first batch
+     * contains the next score node.
+     */
+    private final LinkedList<Batch> batches = new LinkedList<Batch>();
+
+    /**
+     * Creates a new prefetching iterator.
+     *
+     * @param scoreNodes the underlying score nodes.
+     * @param stateMgr   the item state manager of the session's workspace.
+     * @param executor   the executor which runs the prefetch tasks.
+     * @param batchSize  the number of score nodes to read ahead per batch.
+     */
+    PrefetchingScoreNodeIterator(ScoreNodeIterator scoreNodes,
+                                 LocalItemStateManager stateMgr,
+                                 Executor executor,
+                                 int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.scoreNodes = scoreNodes;
+        this.stateMgr = stateMgr;
+        this.executor = executor;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ScoreNode[] nextScoreNodes() {
+        fill();
+        if (buffer.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        consumed(1);
+        return buffer.removeFirst();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object next() {
+        return nextScoreNodes();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        fill();
+        if (buffer.isEmpty()) {
+            cancelAll();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void skip(long skipNum) {
+        if (skipNum < 0) {
+            throw new IllegalArgumentException("skipNum must not be negative");
+        }
+        int fromBuffer = (int) Math.min(skipNum, buffer.size());
+        for (int i = 0; i < fromBuffer; i++) {
+            buffer.removeFirst();
+        }
+        consumed(fromBuffer);
+        if (skipNum > fromBuffer) {
+            scoreNodes.skip(skipNum - fromBuffer);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getSize() {
+        return scoreNodes.getSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getPosition() {
+        return scoreNodes.getPosition() - buffer.size();
+    }
+
+    /**
+     * @throws UnsupportedOperationException always.
+     */
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    //--------------------------------< internal >------------------------------
+
+    /**
+     * Reads ahead the next batches from the underlying iterator until at
+     * least one batch is buffered beyond the next score node, and starts
+     * loading the item states of each new batch in the background.
+     */
+    private void fill() {
+        while (buffer.size() <= batchSize && scoreNodes.hasNext()) {
+            List<NodeId> ids = new ArrayList<NodeId>();
+            int count = 0;
+            while (count < batchSize && scoreNodes.hasNext()) {
+                ScoreNode[] sn = scoreNodes.nextScoreNodes();
+                for (ScoreNode node : sn) {
+                    if (node != null) {
+                        ids.add(node.getNodeId());
+                    }
+                }
+                buffer.add(sn);
+                count++;
+            }
+            FutureTask<List<ItemState>> task = new FutureTask<List<ItemState>>(
+                    new PrefetchTask(this, stateMgr, ids));
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                log.debug("Unable to prefetch query result nodes: " + e);
+                task = null;
+            }
+            batches.add(new Batch(task, count));
+        }
+    }
+
+    /**
+     * Releases the batches whose score nodes have all been returned to the
+     * client.
+     *
+     * @param num the number of score nodes returned to the client.
+     */
+    private void consumed(int num) {
+        while (num > 0 && !batches.isEmpty()) {
+            Batch b = batches.getFirst();
+            int n = Math.min(num, b.remaining);
+            b.remaining -= n;
+            num -= n;
+            if (b.remaining == 0) {
+                batches.removeFirst();
+                b.cancel();
+            }
+        }
+    }
+
+    /**
+     * Cancels the pending batches and releases all batches.
+     */
+    private void cancelAll() {
+        for (Batch b : batches) {
+            b.cancel();
+        }
+        batches.clear();
+    }
+
+    /**
+     * Loads the item states of a batch, unless the iterator that created the
+     * batch is no longer referenced.
+     */
+    private static final class PrefetchTask
+            implements Callable<List<ItemState>> {
+
+        private final WeakReference<PrefetchingScoreNodeIterator> owner;
+
+        private final LocalItemStateManager stateMgr;
+
+        private final List<NodeId> ids;
+
+        PrefetchTask(PrefetchingScoreNodeIterator owner,
+                     LocalItemStateManager stateMgr,
+                     List<NodeId> ids) {
+            this.owner = new WeakReference<PrefetchingScoreNodeIterator>(owner);
+            this.stateMgr = stateMgr;
+            this.ids = ids;
+        }
+
+        public List<ItemState> call() {
+            if (owner.get() == null) {
+                return Collections.emptyList();
+            }
+            return stateMgr.prefetch(ids);
+        }
+    }
+
+    /**
+     * A batch of score nodes with the task that loads their item states.
+     */
+    private static final class Batch {
+
+        /**
+         * The prefetch task. Holding on to the task keeps the loaded item
+         * states reachable. <code>null</code> if the task was rejected.
+         */
+        private final FutureTask<List<ItemState>> task;
+
+        /**
+         * The number of score nodes of this batch not yet returned to the
+         * client.
+         */
+        private int remaining;
+
+        Batch(FutureTask<List<ItemState>> task, int remaining) {
+            this.task = task;
+            this.remaining = remaining;
+        }
+
+        /**
+         * Cancels the prefetch task if it has not started yet.
+         */
+        void cancel() {
+            if (task != null) {
+                task.cancel(false);
+            }
+        }
+    }
+}
@@ -210,15 +210,70 @@ public abstract class QueryResultImpl implements JackrabbitQueryResult {
                 excerptProvider, spellSuggestion);
     }
 
+    /**
+     * Computes the facet counts for the given properties over all nodes that
+     * match the query. Facets are computed from the values stored in the
+     * search index and ignore limit and offset of the query, but only nodes
+     * the session is allowed to read are counted. If the query has multiple
+     * selectors, facets are computed on the nodes of the first selector.
+     *
+     * @param propertyNames the JCR names of the facet properties.
+     * @return a map of property name to a map of value to the number of
+     *         result nodes with that value. See
+     *         {@link FacetCollector#getFacets()}.
+     * @throws RepositoryException if an error occurs while executing the
+     *                             query or checking access rights.
+     */
+    public Map<String, Map<Comparable<?>, Integer>> getFacets(
+            String... propertyNames) throws RepositoryException {
+        NamespaceMappings nsMappings = index.getNamespaceMappings();
+        String[] indexNames = new String[propertyNames.length];
+        for (int i = 0; i < propertyNames.length; i++) {
+            indexNames[i] = nsMappings.translateName(
+                    sessionContext.getQName(propertyNames[i]));
+        }
+        FacetCollector collector = new FacetCollector(
+                propertyNames, indexNames, FieldNames.PROPERTIES);
+
+        MultiColumnQueryHits result = null;
+        try {
+            long time = System.currentTimeMillis();
+            result = executeQuery(Integer.MAX_VALUE, collector);
+            ScoreNode[] sn;
+            while ((sn = result.nextScoreNodes()) != null) {
+                if (sn[0] != null && isAccessGranted(sn)) {
+                    collector.collect(sn[0]);
+                }
+            }
+            log.debug("facets computed in {} ms",
+                    System.currentTimeMillis() - time);
+        } catch (IOException e) {
+            throw new RepositoryException(e);
+        } finally {
+            if (result != null) {
+                try {
+                    result.close();
+                } catch (IOException e) {
+                    log.warn("Unable to close query result: " + e);
+                }
+            }
+        }
+        return collector.getFacets();
+    }
+
     /**
      * Executes the query for this result and returns hits. The caller must
      * close the query hits when he is done using it.
      *
      * @param resultFetchHint a hint on how many results should be fetched.
+     * @param facetCollector  the facet collector to bind to the index reader
+     *                        of the returned hits or <code>null</code> if no
+     *                        facets are requested.
      * @return hits for this query result.
      * @throws IOException if an error occurs while executing the query.
      */
-    protected abstract MultiColumnQueryHits executeQuery(long resultFetchHint)
+    protected abstract MultiColumnQueryHits executeQuery(
+            long resultFetchHint, FacetCollector facetCollector)
             throws IOException;
 
     /**
@@ -233,17 +288,27 @@ public abstract class QueryResultImpl implements JackrabbitQueryResult {
     //--------------------------------< internal >------------------------------
 
     /**
-     * Creates a {@link ScoreNodeIterator} over the query result.
+     * Creates a {@link ScoreNodeIterator} over the query result. If the search
+     * index is configured with a result prefetch size, the item states of
+     * upcoming result nodes are loaded ahead in the background.
      *
      * @return a {@link ScoreNodeIterator} over the query result.
      */
     private ScoreNodeIterator getScoreNodes() {
+        ScoreNodeIterator scoreNodes;
         if (docOrder) {
-            return new DocOrderScoreNodeIterator(
+            scoreNodes = new DocOrderScoreNodeIterator(
                     sessionContext.getItemManager(), resultNodes, 0);
         } else {
-            return new LazyScoreNodeIteratorImpl();
+            scoreNodes = new LazyScoreNodeIteratorImpl();
+        }
+        int prefetchSize = index.getResultPrefetchSize();
+        if (prefetchSize > 0) {
+            scoreNodes = new PrefetchingScoreNodeIterator(scoreNodes,
+                    sessionContext.getWorkspace().getItemStateManager(),
+                    index.getContext().getExecutor(), prefetchSize);
         }
+        return scoreNodes;
     }
 
     /**
@@ -286,7 +351,7 @@ public abstract class QueryResultImpl implements JackrabbitQueryResult {
         try {
             long time = System.currentTimeMillis();
             long r1 = IOCounters.getReads();
-            result = executeQuery(maxResultSize);
+            result = executeQuery(maxResultSize, null);
             long r2 = IOCounters.getReads();
             log.debug("query executed in {} ms ({})",
                     System.currentTimeMillis() - time, r2 - r1);
@@ -379,6 +379,15 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private int resultFetchSize = Integer.MAX_VALUE;
 
+    /**
+     * The number of result nodes whose item states are loaded ahead in the
+     * background while a client iterates over a query result. A value of
+     * zero disables prefetching.
+     * <p>
+     * Default value is: <code>0</code>.
+     */
+    private int resultPrefetchSize = 0;
+
     /**
      * If set to <code>true</code> the fulltext field is stored and and a term
      * vector is created with offset information.
@@ -493,6 +502,15 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private int termInfosIndexDivisor = DEFAULT_TERM_INFOS_INDEX_DIVISOR;
 
+    /**
+     * If set to <code>true</code> each persistent index segment writes a
+     * lookup table from node id to document number, which is used instead of
+     * the size limited document number cache to resolve node ids.
+     * <p>
+     * Default value is: <code>false</code>.
+     */
+    private boolean persistentIdLookup = false;
+
     /**
      * The field comparator source for indexed properties.
      */
@@ -824,6 +842,25 @@ public class SearchIndex extends AbstractQueryHandler {
         }
     }
 
+    /**
+     * Waits until all pending text extraction tasks have been processed and
+     * copies the flushed index to <code>target</code>. The copy can be used
+     * as the index directory of another repository instance that shares the
+     * same persistence, e.g. a new cluster node.
+     *
+     * @param target the directory to copy the index to.
+     * @return the generation of the copied index.
+     * @throws RepositoryException if the index cannot be flushed or copied.
+     */
+    public long copyIndex(File target) throws RepositoryException {
+        try {
+            index.waitUntilIndexingQueueIsEmpty();
+            return index.copyTo(target);
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to copy the index to " + target, e);
+        }
+    }
+
     /**
      * Closes this <code>QueryHandler</code> and frees resources attached
      * to this handler.
@@ -867,11 +904,51 @@ public class SearchIndex extends AbstractQueryHandler {
                                              boolean[] orderSpecs,
                                              String[] orderFuncs, long resultFetchHint)
             throws IOException {
+        return executeQuery(session, queryImpl, query, orderProps, orderSpecs,
+                orderFuncs, resultFetchHint, null);
+    }
+
+    /**
+     * Executes the query on the search index and binds the
+     * <code>facetCollector</code> to the index reader the returned hits refer
+     * to. The facet collector is only valid until the hits are closed.
+     *
+     * @param session         the session that executes the query.
+     * @param queryImpl       the query impl.
+     * @param query           the lucene query.
+     * @param orderProps      name of the properties for sort order.
+     * @param orderSpecs      the order specs for the sort order properties.
+     *                        <code>true</code> indicates ascending order,
+     *                        <code>false</code> indicates descending.
+     * @param orderFuncs      functions for the properties for sort order.
+     * @param resultFetchHint a hint on how many results should be fetched.
+     * @param facetCollector  the facet collector or <code>null</code> if no
+     *                        facets are requested.
+     * @return the query hits.
+     * @throws IOException if an error occurs while searching the index.
+     */
+    public MultiColumnQueryHits executeQuery(SessionImpl session,
+                                             AbstractQueryImpl queryImpl,
+                                             Query query,
+                                             Path[] orderProps,
+                                             boolean[] orderSpecs,
+                                             String[] orderFuncs,
+                                             long resultFetchHint,
+                                             FacetCollector facetCollector)
+            throws IOException {
         checkOpen();
 
         Sort sort = new Sort(createSortFields(orderProps, orderSpecs, orderFuncs));
 
         final IndexReader reader = getIndexReader(queryImpl.needsSystemTree());
+        if (facetCollector != null) {
+            try {
+                facetCollector.setReader(reader);
+            } catch (IOException e) {
+                Util.closeOrRelease(reader);
+                throw e;
+            }
+        }
         JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
                 session, reader, getContext().getItemStateManager());
         searcher.setSimilarity(getSimilarity());
@@ -903,9 +980,40 @@ public class SearchIndex extends AbstractQueryHandler {
                                              Ordering[] orderings,
                                              long resultFetchHint)
             throws IOException {
+        return executeQuery(session, query, orderings, resultFetchHint, null);
+    }
+
+    /**
+     * Executes the query on the search index and binds the
+     * <code>facetCollector</code> to the index reader the returned hits refer
+     * to. The facet collector is only valid until the hits are closed.
+     *
+     * @param session         the session that executes the query.
+     * @param query           the query.
+     * @param orderings       the order specs for the sort order.
+     * @param resultFetchHint a hint on how many results should be fetched.
+     * @param facetCollector  the facet collector or <code>null</code> if no
+     *                        facets are requested.
+     * @return the query hits.
+     * @throws IOException if an error occurs while searching the index.
+     */
+    public MultiColumnQueryHits executeQuery(SessionImpl session,
+                                             MultiColumnQuery query,
+                                             Ordering[] orderings,
+                                             long resultFetchHint,
+                                             FacetCollector facetCollector)
+            throws IOException {
         checkOpen();
 
         final IndexReader reader = getIndexReader();
+        if (facetCollector != null) {
+            try {
+                facetCollector.setReader(reader);
+            } catch (IOException e) {
+                Util.closeOrRelease(reader);
+                throw e;
+            }
+        }
         JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
                 session, reader, getContext().getItemStateManager());
         searcher.setSimilarity(getSimilarity());
@@ -2136,6 +2244,25 @@ public class SearchIndex extends AbstractQueryHandler {
         return resultFetchSize;
     }
 
+    /**
+     * Tells the query handler how many result nodes should be loaded ahead
+     * in the background while a client iterates over a query result.
+     *
+     * @param size the number of result nodes to prefetch, or zero to disable
+     *             prefetching.
+     */
+    public void setResultPrefetchSize(int size) {
+        resultPrefetchSize = Math.max(0, size);
+    }
+
+    /**
+     * @return the number of result nodes that are loaded ahead in the
+     *         background while a client iterates over a query result.
+     */
+    public int getResultPrefetchSize() {
+        return resultPrefetchSize;
+    }
+
     /**
      * The number of background threads for the extractor pool.
      *
@@ -2501,6 +2628,25 @@ public class SearchIndex extends AbstractQueryHandler {
         this.termInfosIndexDivisor = termInfosIndexDivisor;
     }
 
+    /**
+     * @return <code>true</code> if node ids are resolved with a persistent
+     *         lookup table per index segment.
+     */
+    public boolean isPersistentIdLookup() {
+        return persistentIdLookup;
+    }
+
+    /**
+     * Sets whether node ids are resolved with a persistent lookup table per
+     * index segment instead of the document number cache.
+     *
+     * @param persistentIdLookup <code>true</code> to use persistent lookup
+     *                           tables.
+     */
+    public void setPersistentIdLookup(boolean persistentIdLookup) {
+        this.persistentIdLookup = persistentIdLookup;
+    }
+
     /**
      * @return <code>true</code> if the hierarchy cache should be initialized
      *         immediately on startup.
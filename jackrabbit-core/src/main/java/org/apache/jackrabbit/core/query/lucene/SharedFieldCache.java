@@ -136,6 +136,16 @@ public class SharedFieldCache {
             return offset;
         }
 
+        /**
+         * Returns the values of this array. Positions without a value are
+         * <code>null</code>.
+         *
+         * @return the values.
+         */
+        Comparable<?>[] getValues() {
+            return c;
+        }
+
         public ComparableArray insert(Comparable<?> item, int index) {
             // optimize for most common scenario
             if (c.length == 0) {
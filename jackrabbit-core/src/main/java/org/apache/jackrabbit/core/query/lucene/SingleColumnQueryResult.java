@@ -69,11 +69,13 @@ public class SingleColumnQueryResult extends QueryResultImpl {
     /**
      * {@inheritDoc}
      */
-    protected MultiColumnQueryHits executeQuery(long resultFetchHint)
+    protected MultiColumnQueryHits executeQuery(
+            long resultFetchHint, FacetCollector facetCollector)
             throws IOException {
         return index.executeQuery(
                 sessionContext.getSessionImpl(), queryImpl, query,
-                orderProps, orderSpecs, orderFuncs, resultFetchHint);
+                orderProps, orderSpecs, orderFuncs, resultFetchHint,
+                facetCollector);
     }
 
     /**
@@ -32,6 +32,8 @@ public class DummyUpdateEventChannel implements UpdateEventChannel {
 
     public void updateCommitted(Update update, String path) {}
 
+    public void updateReleased(Update update) {}
+
     public void updateCancelled(Update update) {}
 
     public void setListener(UpdateEventListener listener) {}
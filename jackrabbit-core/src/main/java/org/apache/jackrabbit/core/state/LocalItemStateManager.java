@@ -16,6 +16,10 @@
  */
 package org.apache.jackrabbit.core.state;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 import javax.jcr.InvalidItemStateException;
 import javax.jcr.ReferentialIntegrityException;
 import javax.jcr.RepositoryException;
@@ -181,6 +185,32 @@ public class LocalItemStateManager
         }
     }
 
+    /**
+     * Loads the shared states of the given items into the shared item state
+     * cache ahead of their use. Items that do not exist or cannot be loaded
+     * are ignored, a later call to {@link #getItemState(ItemId)} will report
+     * the error. The returned states must be kept reachable by the caller
+     * until the items are accessed, otherwise the shared cache may already
+     * have evicted them.
+     * <p>
+     * This method does not lock this item state manager and may therefore be
+     * called from a background thread.
+     *
+     * @param ids the ids of the items to load.
+     * @return the shared states of the items that could be loaded.
+     */
+    public List<ItemState> prefetch(Collection<? extends ItemId> ids) {
+        List<ItemState> states = new ArrayList<ItemState>(ids.size());
+        for (ItemId id : ids) {
+            try {
+                states.add(sharedStateMgr.getItemState(id));
+            } catch (ItemStateException e) {
+                // ignore, will be reported when the item is accessed
+            }
+        }
+        return states;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -747,8 +747,10 @@ public class SharedItemStateManager
 
                 checkAddedChildNodes();
 
-                /* create event states */
-                events.createEventStates(rootNodeId, local, SharedItemStateManager.this);
+                /* create event states, only those listeners may receive
+                 * unless the events are also sent to other cluster nodes */
+                events.createEventStates(rootNodeId, local, SharedItemStateManager.this,
+                        eventChannel instanceof DummyUpdateEventChannel);
 
                 // let listener know about change
                 try {
@@ -853,21 +855,27 @@ public class SharedItemStateManager
                 eventChannel.updateCommitted(this, path);
                 setAttribute(ATTRIBUTE_UPDATE_SIZE, null);
 
-                if (writeLock != null) {
-                    // exception occurred before downgrading lock
-                    writeLock.release();
-                    writeLock = null;
-                } else if (readLock != null) {
-                    try {
-                        if (succeeded) {
-                            /* dispatch the events */
-                            events.dispatch();
+                try {
+                    if (writeLock != null) {
+                        // exception occurred before downgrading lock
+                        writeLock.release();
+                        writeLock = null;
+                    } else if (readLock != null) {
+                        try {
+                            if (succeeded) {
+                                /* dispatch the events */
+                                events.dispatch();
+                            }
+                        } finally {
+                            readLock.release();
                         }
-                    } finally {
-                        readLock.release();
                     }
+                } finally {
+                    // A journal commit shared with the next update is
+                    // awaited only now, as the next update of this
+                    // workspace needs the lock released above to join it.
+                    eventChannel.updateReleased(this);
                 }
-
             }
         }
 
@@ -641,6 +641,20 @@ public class InternalValue extends AbstractQValue {
         return val instanceof BLOBInDataStore;
     }
 
+    /**
+     * Get the identifier of the binary in the data store, without
+     * accessing the data store.
+     *
+     * @return the data identifier, or null if the value is not stored
+     *         in the data store
+     */
+    public DataIdentifier getDataIdentifier() {
+        if (val instanceof BLOBInDataStore) {
+            return ((BLOBInDataStore) val).getDataIdentifier();
+        }
+        return null;
+    }
+
     //-------------------------------------------------------------< QValue >---
     /**
      * @see org.apache.jackrabbit.spi.QValue#getLength()
@@ -299,6 +299,15 @@ public class ClusterRecordTest extends JUnitTest {
         assertEquals(listener.getClusterEvents().get(0), event);
     }
 
+    /**
+     * Configures the journal of a cluster node before it is initialized.
+     * Subclasses may override this method to test other record formats.
+     *
+     * @param journal memory journal
+     */
+    protected void configureJournal(MemoryJournal journal) {
+    }
+
     /**
      * Create a cluster node, with a memory journal referencing a list of records.
      *
@@ -308,6 +317,7 @@ public class ClusterRecordTest extends JUnitTest {
     private ClusterNode createClusterNode(
             String id, ArrayList<MemoryRecord> records) throws Exception {
         final MemoryJournal journal = new MemoryJournal();
+        configureJournal(journal);
         JournalFactory jf = new JournalFactory() {
             public Journal getJournal(NamespaceResolver resolver)
                     throws RepositoryException {
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.io.File;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.config.ClusterConfig;
+import org.apache.jackrabbit.core.journal.Journal;
+import org.apache.jackrabbit.core.journal.JournalFactory;
+import org.apache.jackrabbit.core.journal.MemoryJournal;
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Test cases for bootstrapping cluster nodes from a snapshot.
+ */
+public class ClusterSnapshotTest extends JUnitTest {
+
+    /** Test directory. */
+    private final File dir = new File("target/cluster-snapshot");
+
+    /** Snapshot directory. */
+    private final File snapshotDir = new File(dir, "snapshot");
+
+    /** Repository home. */
+    private final File home = new File(dir, "home");
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        FileUtils.deleteDirectory(dir);
+        snapshotDir.mkdirs();
+        home.mkdirs();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        System.clearProperty(ClusterNode.SYSTEM_PROPERTY_SNAPSHOT);
+        FileUtils.deleteDirectory(dir);
+        super.tearDown();
+    }
+
+    /**
+     * Verifies that a snapshot description is written and read correctly.
+     */
+    public void testWriteRead() throws Exception {
+        ClusterSnapshot snapshot = new ClusterSnapshot(42, "node1", 1000);
+        snapshot.addIndex("workspaces/default/index", 7);
+        snapshot.addIndex("repository/index", 3);
+        snapshot.write(snapshotDir);
+
+        ClusterSnapshot read = ClusterSnapshot.read(snapshotDir);
+        assertEquals(42, read.getRevision());
+        assertEquals("node1", read.getClusterNodeId());
+        assertEquals(1000, read.getCreated());
+        assertEquals(snapshot.getIndexes(), read.getIndexes());
+    }
+
+    /**
+     * Verifies that a relative path outside the repository home is rejected.
+     */
+    public void testRelativePath() throws Exception {
+        assertEquals("workspaces/default/index", ClusterSnapshot.getRelativePath(
+                home, new File(home, "workspaces/default/index")));
+        try {
+            ClusterSnapshot.getRelativePath(home, snapshotDir);
+            fail("path outside the repository home must be rejected");
+        } catch (Exception e) {
+            // expected
+        }
+    }
+
+    /**
+     * Verifies that a new cluster node restores the indexes and revision of
+     * a snapshot.
+     */
+    public void testRestore() throws Exception {
+        createSnapshot(42);
+        System.setProperty(ClusterNode.SYSTEM_PROPERTY_SNAPSHOT, snapshotDir.getPath());
+
+        ClusterNode node = createClusterNode("node2", 0);
+        try {
+            assertEquals(42, node.getRevision());
+            assertEquals("data", FileUtils.readFileToString(
+                    new File(home, "workspaces/default/index/_0/segments.gen")));
+            assertFalse(new File(home, "workspaces/default/index/stale").exists());
+        } finally {
+            node.stop();
+        }
+    }
+
+    /**
+     * Verifies that a cluster node that already synchronized ignores a
+     * snapshot.
+     */
+    public void testRestoreIgnoredIfInitialized() throws Exception {
+        createSnapshot(42);
+        System.setProperty(ClusterNode.SYSTEM_PROPERTY_SNAPSHOT, snapshotDir.getPath());
+
+        ClusterNode node = createClusterNode("node2", 50);
+        try {
+            assertEquals(50, node.getRevision());
+            assertTrue(new File(home, "workspaces/default/index/stale").exists());
+        } finally {
+            node.stop();
+        }
+    }
+
+    /**
+     * Create a snapshot with a single index, and a stale file in the index
+     * directory of the repository home.
+     *
+     * @param revision revision of the snapshot
+     * @throws Exception if an error occurs
+     */
+    private void createSnapshot(long revision) throws Exception {
+        FileUtils.writeStringToFile(new File(snapshotDir,
+                "workspaces/default/index/_0/segments.gen"), "data");
+        FileUtils.writeStringToFile(new File(home,
+                "workspaces/default/index/stale"), "stale");
+        ClusterSnapshot snapshot = new ClusterSnapshot(revision, "node1", 1000);
+        snapshot.addIndex("workspaces/default/index", 1);
+        snapshot.write(snapshotDir);
+    }
+
+    /**
+     * Create a cluster node.
+     *
+     * @param id cluster node id
+     * @param revision initial local revision
+     * @return cluster node
+     * @throws Exception if an error occurs
+     */
+    private ClusterNode createClusterNode(String id, long revision) throws Exception {
+        final MemoryJournal journal = new MemoryJournal();
+        JournalFactory jf = new JournalFactory() {
+            public Journal getJournal(NamespaceResolver resolver)
+                    throws RepositoryException {
+                return journal;
+            }
+        };
+        ClusterConfig cc = new ClusterConfig(id, 60000, jf);
+        SimpleClusterContext context = new SimpleClusterContext(cc, home);
+
+        journal.setRepositoryHome(context.getRepositoryHome());
+        journal.init(id, context.getNamespaceResolver());
+        journal.getInstanceRevision().set(revision);
+
+        ClusterNode clusterNode = new ClusterNode();
+        clusterNode.init(context);
+        return clusterNode;
+    }
+}
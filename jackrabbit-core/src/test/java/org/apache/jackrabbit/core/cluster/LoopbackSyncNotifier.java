@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <code>LoopbackSyncNotifier</code> delivers notifications to all notifiers
+ * with the same name inside the current JVM.
+ */
+public class LoopbackSyncNotifier implements SyncNotifier {
+
+    /**
+     * Notifiers indexed by name.
+     */
+    private static final Map<String, List<LoopbackSyncNotifier>> NOTIFIERS =
+        new HashMap<String, List<LoopbackSyncNotifier>>();
+
+    /**
+     * Name of the notifier group, bean property.
+     */
+    private String name = "default";
+
+    private String clusterNodeId;
+
+    private Listener listener;
+
+    public void init(String clusterNodeId, Listener listener) {
+        this.clusterNodeId = clusterNodeId;
+        this.listener = listener;
+        synchronized (NOTIFIERS) {
+            List<LoopbackSyncNotifier> group = NOTIFIERS.get(name);
+            if (group == null) {
+                group = new ArrayList<LoopbackSyncNotifier>();
+                NOTIFIERS.put(name, group);
+            }
+            group.add(this);
+        }
+    }
+
+    public void revisionAppended(long revision) {
+        List<LoopbackSyncNotifier> group;
+        synchronized (NOTIFIERS) {
+            group = new ArrayList<LoopbackSyncNotifier>(NOTIFIERS.get(name));
+        }
+        for (LoopbackSyncNotifier n : group) {
+            if (n != this) {
+                n.listener.revisionAppended(clusterNodeId, revision);
+            }
+        }
+    }
+
+    public void close() {
+        synchronized (NOTIFIERS) {
+            List<LoopbackSyncNotifier> group = NOTIFIERS.get(name);
+            if (group != null) {
+                group.remove(this);
+                if (group.isEmpty()) {
+                    NOTIFIERS.remove(name);
+                }
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.cluster.SimpleEventListener.LockEvent;
+import org.apache.jackrabbit.core.cluster.SimpleEventListener.UpdateEvent;
+import org.apache.jackrabbit.core.config.ClusterConfig;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.journal.Journal;
+import org.apache.jackrabbit.core.journal.JournalFactory;
+import org.apache.jackrabbit.core.journal.MemoryJournal;
+import org.apache.jackrabbit.core.journal.MemoryJournal.MemoryRecord;
+import org.apache.jackrabbit.core.state.ChangeLog;
+import org.apache.jackrabbit.core.state.NodeState;
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Test cases for the parallel application of external updates while a
+ * cluster node catches up with the journal.
+ */
+public class ParallelUpdateTest extends JUnitTest {
+
+    /** Workspace names. */
+    private static final String[] WORKSPACES = {"default", "other", "third"};
+
+    /** Sync delay long enough to never poll during a test. */
+    private static final long SYNC_DELAY = 60000;
+
+    /** Update event factory. */
+    private final UpdateEventFactory factory = UpdateEventFactory.getInstance();
+
+    /** Records shared among multiple memory journals. */
+    private final ArrayList<MemoryRecord> records = new ArrayList<MemoryRecord>();
+
+    /** Master node. */
+    private ClusterNode master;
+
+    /** Slave node. */
+    private ClusterNode slave;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        master = createClusterNode("master");
+        master.start();
+
+        slave = createClusterNode("slave");
+        slave.setCatchUpThreshold(5);
+        slave.setCatchUpThreads(2);
+
+        super.setUp();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        if (slave != null) {
+            slave.stop();
+        }
+        if (master != null) {
+            master.stop();
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Verifies that all updates of a backlog are delivered in order per
+     * workspace, and that other records are processed as well.
+     */
+    public void testCatchUp() throws Exception {
+        List<List<Object>> expected = new ArrayList<List<Object>>();
+        for (int i = 0; i < WORKSPACES.length; i++) {
+            expected.add(new ArrayList<Object>());
+        }
+        LockEvent lock = new LockEvent(NodeId.randomId(), true, "admin");
+        for (int i = 0; i < 100; i++) {
+            int w = i % WORKSPACES.length;
+            UpdateEvent update = factory.createUpdateOperation();
+            UpdateEventChannel channel = master.createUpdateChannel(WORKSPACES[w]);
+            channel.updateCreated(update);
+            channel.updatePrepared(update);
+            channel.updateCommitted(update, null);
+            expected.get(w).addAll(update.getEvents());
+            if (i == 50) {
+                master.createLockChannel(WORKSPACES[0]).create(lock.getNodeId(),
+                        lock.isDeep(), lock.getUserId()).ended(true);
+            }
+        }
+
+        SimpleEventListener[] listeners = new SimpleEventListener[WORKSPACES.length];
+        for (int i = 0; i < WORKSPACES.length; i++) {
+            listeners[i] = new SimpleEventListener();
+            slave.createUpdateChannel(WORKSPACES[i]).setListener(listeners[i]);
+        }
+        SimpleEventListener lockListener = new SimpleEventListener();
+        slave.createLockChannel(WORKSPACES[0]).setListener(lockListener);
+        slave.sync();
+
+        for (int i = 0; i < WORKSPACES.length; i++) {
+            List<Object> events = new ArrayList<Object>();
+            for (Object update : listeners[i].getClusterEvents()) {
+                events.addAll(((UpdateEvent) update).getEvents());
+            }
+            assertEquals(expected.get(i), events);
+        }
+        assertEquals(1, lockListener.getClusterEvents().size());
+        assertEquals(lock, lockListener.getClusterEvents().get(0));
+        assertEquals(master.getRevision(), slave.getRevision());
+    }
+
+    /**
+     * Verifies that every update is delivered with its own timestamp.
+     */
+    public void testTimestamps() throws Exception {
+        List<List<Long>> expected = new ArrayList<List<Long>>();
+        for (int i = 0; i < WORKSPACES.length; i++) {
+            expected.add(new ArrayList<Long>());
+        }
+        for (int i = 0; i < 30; i++) {
+            int w = i % WORKSPACES.length;
+            commit(WORKSPACES[w], 1000L * (i / 6));
+            expected.get(w).add(1000L * (i / 6));
+        }
+
+        SimpleEventListener[] listeners = new SimpleEventListener[WORKSPACES.length];
+        for (int i = 0; i < WORKSPACES.length; i++) {
+            listeners[i] = new SimpleEventListener();
+            slave.createUpdateChannel(WORKSPACES[i]).setListener(listeners[i]);
+        }
+        slave.sync();
+
+        for (int i = 0; i < WORKSPACES.length; i++) {
+            List<Long> timestamps = new ArrayList<Long>();
+            for (Object update : listeners[i].getClusterEvents()) {
+                UpdateEvent event = (UpdateEvent) update;
+                for (int j = 0; j < event.getEvents().size(); j += 4) {
+                    timestamps.add(event.getTimestamp());
+                }
+            }
+            assertEquals(expected.get(i), timestamps);
+        }
+    }
+
+    /**
+     * Verifies that an update failing in catch-up mode stops the revision
+     * right before it, so that the updates applied before are not applied
+     * again by the next sync.
+     */
+    public void testFailedUpdate() throws Exception {
+        final long failedTimestamp = 20;
+        for (int i = 0; i < 30; i++) {
+            commit(WORKSPACES[i % WORKSPACES.length], i);
+        }
+
+        SimpleEventListener[] listeners = new SimpleEventListener[WORKSPACES.length];
+        for (int i = 0; i < WORKSPACES.length; i++) {
+            listeners[i] = new SimpleEventListener() {
+                @Override
+                public void externalUpdate(ChangeLog changes, List events,
+                        long timestamp, String userData)
+                        throws RepositoryException {
+                    if (timestamp == failedTimestamp) {
+                        throw new IllegalArgumentException("failed update");
+                    }
+                    super.externalUpdate(changes, events, timestamp, userData);
+                }
+            };
+            slave.createUpdateChannel(WORKSPACES[i]).setListener(listeners[i]);
+        }
+        slave.sync();
+
+        // the update with timestamp 20 has revision 21
+        assertEquals(20, slave.getRevision());
+    }
+
+    /**
+     * Commits an update of a workspace on the master.
+     *
+     * @param workspace workspace name
+     * @param timestamp timestamp of the update
+     * @throws Exception if an error occurs
+     */
+    private void commit(String workspace, long timestamp) throws Exception {
+        UpdateEvent created = factory.createUpdateOperation();
+        UpdateEvent update = new UpdateEvent(created.getChanges(),
+                created.getEvents(), timestamp, created.getUserData());
+        UpdateEventChannel channel = master.createUpdateChannel(workspace);
+        channel.updateCreated(update);
+        channel.updatePrepared(update);
+        channel.updateCommitted(update, null);
+        channel.updateReleased(update);
+    }
+
+    /**
+     * Verifies that a coalesced change log reloads every modified state and
+     * evicts every deleted state.
+     */
+    public void testCoalesce() throws Exception {
+        NodeState a = factory.createNodeState();
+        NodeState b = factory.createNodeState();
+        NodeState c = factory.createNodeState();
+
+        ChangeLog first = new ChangeLog();
+        first.added(a);
+        first.modified(b);
+        first.added(c);
+        ChangeLog second = new ChangeLog();
+        second.modified(a);
+        second.deleted(b);
+
+        List<ChangeLog> batch = new ArrayList<ChangeLog>();
+        batch.add(first);
+        batch.add(second);
+        ChangeLog changes = ParallelUpdateApplier.coalesce(batch);
+
+        assertTrue(changes.isModified(a.getId()));
+        assertTrue(changes.deleted(b.getId()));
+        assertFalse(changes.isModified(b.getId()));
+        assertTrue(changes.isAdded(c.getId()));
+    }
+
+    /**
+     * Verifies that a state deleted and added again by later records of a
+     * coalesced batch is reloaded rather than evicted, and that a state
+     * deleted by the last record touching it is evicted.
+     */
+    public void testCoalesceReAdded() throws Exception {
+        NodeState a = factory.createNodeState();
+        NodeState b = factory.createNodeState();
+
+        ChangeLog first = new ChangeLog();
+        first.deleted(a);
+        first.added(b);
+        ChangeLog second = new ChangeLog();
+        second.added(a);
+        ChangeLog third = new ChangeLog();
+        third.deleted(b);
+
+        List<ChangeLog> batch = new ArrayList<ChangeLog>();
+        batch.add(first);
+        batch.add(second);
+        batch.add(third);
+        ChangeLog changes = ParallelUpdateApplier.coalesce(batch);
+
+        assertTrue(changes.isModified(a.getId()));
+        assertFalse(changes.deleted(a.getId()));
+        assertTrue(changes.deleted(b.getId()));
+        assertFalse(changes.isAdded(b.getId()));
+    }
+
+    /**
+     * Create a cluster node.
+     *
+     * @param id cluster node id
+     * @return cluster node
+     * @throws Exception if an error occurs
+     */
+    private ClusterNode createClusterNode(String id) throws Exception {
+        final MemoryJournal journal = new MemoryJournal();
+        JournalFactory jf = new JournalFactory() {
+            public Journal getJournal(NamespaceResolver resolver)
+                    throws RepositoryException {
+                return journal;
+            }
+        };
+        ClusterConfig cc = new ClusterConfig(id, SYNC_DELAY, jf);
+        SimpleClusterContext context = new SimpleClusterContext(cc);
+
+        journal.setRepositoryHome(context.getRepositoryHome());
+        journal.init(id, context.getNamespaceResolver());
+        journal.setRecords(records);
+
+        ClusterNode clusterNode = new ClusterNode();
+        clusterNode.init(context);
+        return clusterNode;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.util.ArrayList;
+import java.util.Properties;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.cluster.SimpleEventListener.LockEvent;
+import org.apache.jackrabbit.core.config.BeanConfig;
+import org.apache.jackrabbit.core.config.ClusterConfig;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.journal.Journal;
+import org.apache.jackrabbit.core.journal.JournalFactory;
+import org.apache.jackrabbit.core.journal.MemoryJournal;
+import org.apache.jackrabbit.core.journal.MemoryJournal.MemoryRecord;
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Test cases for push based cluster synchronization.
+ */
+public class SyncNotifierTest extends JUnitTest {
+
+    /** Defaut workspace name. */
+    private static final String DEFAULT_WORKSPACE = "default";
+
+    /** Sync delay long enough to never poll during a test. */
+    private static final long SYNC_DELAY = 60000;
+
+    /** Master node. */
+    private ClusterNode master;
+
+    /** Slave node. */
+    private ClusterNode slave;
+
+    /** Records shared among multiple memory journals. */
+    private final ArrayList<MemoryRecord> records = new ArrayList<MemoryRecord>();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        master = createClusterNode("master", getName());
+        master.start();
+
+        slave = createClusterNode("slave", getName());
+        slave.start();
+
+        super.setUp();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        if (slave != null) {
+            slave.stop();
+        }
+        if (master != null) {
+            master.stop();
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Verify that a notification wakes up the synchronization thread of the
+     * other cluster node before its sync delay expired.
+     */
+    public void testNotificationWakesUpSync() throws Exception {
+        LockEventChannel channel = master.createLockChannel(DEFAULT_WORKSPACE);
+        SimpleEventListener listener = new SimpleEventListener();
+        slave.createLockChannel(DEFAULT_WORKSPACE).setListener(listener);
+
+        LockEvent event = new LockEvent(NodeId.randomId(), true, "admin");
+        channel.create(event.getNodeId(), event.isDeep(), event.getUserId()).ended(true);
+
+        waitForRevision(master.getRevision());
+        assertEquals(1, listener.clusterEvents.size());
+        assertEquals(event, listener.clusterEvents.get(0));
+    }
+
+    /**
+     * Verify that a notification which arrives before the revision is
+     * visible in the journal is retried.
+     */
+    public void testNotificationBeforeAppend() throws Exception {
+        // replace the master with one that does not notify the slave
+        master.stop();
+        master = createClusterNode("master", "other");
+        master.start();
+
+        LockEventChannel channel = master.createLockChannel(DEFAULT_WORKSPACE);
+        SimpleEventListener listener = new SimpleEventListener();
+        slave.createLockChannel(DEFAULT_WORKSPACE).setListener(listener);
+
+        // announce a revision that is appended only afterwards
+        slave.requestSync(master.getRevision() + 1);
+        Thread.sleep(100);
+        channel.create(NodeId.randomId(), true, "admin").ended(true);
+
+        waitForRevision(master.getRevision());
+        assertEquals(1, listener.clusterEvents.size());
+    }
+
+    /**
+     * Waits up to five seconds until the slave reached <code>revision</code>.
+     */
+    private void waitForRevision(long revision) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (slave.getRevision() < revision && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(revision, slave.getRevision());
+    }
+
+    /**
+     * Create a cluster node, with a memory journal referencing the shared
+     * list of records and a loopback sync notifier.
+     *
+     * @param id cluster node id
+     * @param group name of the loopback notifier group
+     */
+    private ClusterNode createClusterNode(String id, String group) throws Exception {
+        final MemoryJournal journal = new MemoryJournal();
+        JournalFactory jf = new JournalFactory() {
+            public Journal getJournal(NamespaceResolver resolver)
+                    throws RepositoryException {
+                return journal;
+            }
+        };
+        Properties params = new Properties();
+        params.setProperty("name", group);
+        BeanConfig notifier = new BeanConfig(LoopbackSyncNotifier.class.getName(), params);
+        ClusterConfig cc = new ClusterConfig(id, SYNC_DELAY, 1000, jf, notifier);
+        SimpleClusterContext context = new SimpleClusterContext(cc);
+
+        journal.setRepositoryHome(context.getRepositoryHome());
+        journal.init(id, context.getNamespaceResolver());
+        journal.setRecords(records);
+
+        ClusterNode clusterNode = new ClusterNode();
+        clusterNode.init(context);
+        return clusterNode;
+    }
+}
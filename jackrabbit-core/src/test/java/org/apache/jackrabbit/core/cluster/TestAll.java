@@ -38,10 +38,15 @@ public class TestAll extends TestCase {
         TestSuite suite = new TestSuite();
 
         suite.addTestSuite(ClusterRecordTest.class);
+        suite.addTestSuite(CompactClusterRecordTest.class);
+        suite.addTestSuite(CompressedClusterRecordTest.class);
+        suite.addTestSuite(ClusterSnapshotTest.class);
         suite.addTestSuite(ClusterSyncTest.class);
         suite.addTestSuite(DbClusterTest.class);
         suite.addTestSuite(DbClusterTestJCR3162.class);
         suite.addTestSuite(FailUpdateOnJournalExceptionTest.class);
+        suite.addTestSuite(ParallelUpdateTest.class);
+        suite.addTestSuite(SyncNotifierTest.class);
 
         return suite;
     }
@@ -236,6 +236,8 @@ public class RepositoryConfigTest extends TestCase {
             ClusterConfig clusterConfig = config.getClusterConfig();
             assertEquals(id, clusterConfig.getId());
             assertEquals(syncDelay, clusterConfig.getSyncDelay());
+            assertEquals(ClusterNode.DEFAULT_CATCH_UP_THRESHOLD,
+                    clusterConfig.getCatchUpThreshold());
         } finally {
             System.clearProperty(ClusterNode.SYSTEM_PROPERTY_NODE_ID);
             System.clearProperty("cluster.syncDelay");
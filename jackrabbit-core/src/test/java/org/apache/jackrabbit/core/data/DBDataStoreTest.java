@@ -164,6 +164,27 @@ public class DBDataStoreTest extends JUnitTest {
     }
     */
 
+    public void testReadInRanges() throws Exception {
+        store.setReadChunkSize(100);
+        DataRecord record = store.getRecord(identifier);
+        InputStream in = record.getStream();
+        try {
+            assertTrue(in.markSupported());
+            in.mark(data.length);
+            for (int j = 0; j < data.length; j++) {
+                assertEquals((data[j]) & 0xff, in.read());
+            }
+            assertEquals(-1, in.read());
+
+            in.reset();
+            assertEquals(data.length - 1, in.skip(data.length - 1));
+            assertEquals(data[data.length - 1] & 0xff, in.read());
+            assertEquals(-1, in.read());
+        } finally {
+            in.close();
+        }
+    }
+
     public void testConcurrentRead() throws Exception {
         InputStream[] streams = new InputStream[10];
 
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.ValueFactory;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.api.JackrabbitRepository;
+import org.apache.jackrabbit.core.RepositoryFactoryImpl;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.data.db.DbDataStore;
+import org.apache.jackrabbit.core.gc.GarbageCollector;
+
+/**
+ * Test the garbage collection that collects the binary references in the
+ * persistence manager scan, instead of updating the modified date of the
+ * referenced records. Both the file data store and the database data store
+ * support this.
+ */
+public class GCCollectReferencesTest extends TestCase {
+
+    private static final String FILE_DATA_STORE =
+        "<DataStore class=\"org.apache.jackrabbit.core.data.FileDataStore\"/>";
+
+    private static final String DB_DATA_STORE =
+        "<DataStore class=\"org.apache.jackrabbit.core.data.db.DbDataStore\">\n"
+        + "        <param name=\"url\" value=\"jdbc:derby:${rep.home}/datastore/db;create=true\"/>\n"
+        + "        <param name=\"driver\" value=\"org.apache.derby.jdbc.EmbeddedDriver\"/>\n"
+        + "        <param name=\"databaseType\" value=\"derby\"/>\n"
+        + "    </DataStore>";
+
+    private String testDirectory;
+
+    private JackrabbitRepository repository;
+
+    private Session session;
+
+    public void setUp() throws IOException {
+        testDirectory = "target/" + getClass().getSimpleName() + "/" + getName();
+        FileUtils.deleteDirectory(new File(testDirectory));
+    }
+
+    public void tearDown() throws IOException {
+        if (session != null) {
+            session.logout();
+            session = null;
+        }
+        if (repository != null) {
+            repository.shutdown();
+            repository = null;
+        }
+        FileUtils.deleteDirectory(new File(testDirectory));
+        testDirectory = null;
+    }
+
+    public void testFileDataStore() throws Exception {
+        doTest(FILE_DATA_STORE, FileDataStore.class);
+    }
+
+    public void testDbDataStore() throws Exception {
+        doTest(DB_DATA_STORE, DbDataStore.class);
+    }
+
+    private void doTest(String dataStoreConfig, Class<?> dataStoreClass)
+            throws Exception {
+        createRepository(dataStoreConfig);
+        session = repository.login(
+                new SimpleCredentials("admin", "admin".toCharArray()));
+        Node root = session.getRootNode();
+        ValueFactory vf = session.getValueFactory();
+
+        root.addNode("referenced").setProperty("data",
+                vf.createBinary(new RandomInputStream(1, 1000)));
+        session.save();
+        Set<DataIdentifier> referenced = getIdentifiers(session);
+        root.addNode("unreferenced").setProperty("data",
+                vf.createBinary(new RandomInputStream(2, 1000)));
+        session.save();
+        Set<DataIdentifier> unreferenced = getIdentifiers(session);
+        unreferenced.removeAll(referenced);
+        assertEquals(1, unreferenced.size());
+        root.getNode("unreferenced").remove();
+        session.save();
+
+        GarbageCollector gc =
+            ((SessionImpl) session).createDataStoreGarbageCollector();
+        try {
+            assertTrue(dataStoreClass.isInstance(gc.getDataStore()));
+            assertTrue(gc.getDataStore() instanceof MarkAndSweepAware);
+            gc.setCollectReferences(true);
+            gc.getDataStore().clearInUse();
+            // make sure the records are old (access time resolution is 2 seconds)
+            Thread.sleep(2200);
+            gc.mark();
+            assertEquals(1, gc.sweep());
+        } finally {
+            gc.close();
+        }
+
+        assertEquals(referenced, getIdentifiers(session));
+        DataStore store = gc.getDataStore();
+        assertNull(store.getRecordIfStored(unreferenced.iterator().next()));
+        assertNotNull(store.getRecordIfStored(referenced.iterator().next()));
+        InputStream in = root.getNode("referenced").getProperty("data")
+                .getBinary().getStream();
+        try {
+            assertTrue(IOUtils.contentEquals(
+                    new RandomInputStream(1, 1000), in));
+        } finally {
+            in.close();
+        }
+    }
+
+    private void createRepository(String dataStoreConfig) throws Exception {
+        InputStream in = RepositoryFactoryImpl.class.getResourceAsStream(
+                "repository.xml");
+        String xml;
+        try {
+            xml = IOUtils.toString(in, "UTF-8");
+        } finally {
+            in.close();
+        }
+        assertTrue(xml.contains(FILE_DATA_STORE));
+        File conf = new File(testDirectory, "repository.xml");
+        FileUtils.writeStringToFile(conf,
+                xml.replace(FILE_DATA_STORE, dataStoreConfig), "UTF-8");
+
+        Properties prop = new Properties();
+        prop.setProperty("org.apache.jackrabbit.repository.home", testDirectory);
+        prop.setProperty("org.apache.jackrabbit.repository.conf", conf.getPath());
+        repository = (JackrabbitRepository)
+            new RepositoryFactoryImpl().getRepository(prop);
+    }
+
+    private static Set<DataIdentifier> getIdentifiers(Session session)
+            throws Exception {
+        GarbageCollector gc =
+            ((SessionImpl) session).createDataStoreGarbageCollector();
+        try {
+            Set<DataIdentifier> identifiers = new HashSet<DataIdentifier>();
+            Iterator<DataIdentifier> it = gc.getDataStore().getAllIdentifiers();
+            while (it.hasNext()) {
+                identifiers.add(it.next());
+            }
+            return identifiers;
+        } finally {
+            gc.close();
+        }
+    }
+}
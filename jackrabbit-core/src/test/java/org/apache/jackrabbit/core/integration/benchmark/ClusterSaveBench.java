@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.integration.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.RepositoryImpl;
+import org.apache.jackrabbit.core.cluster.ClusterNode;
+import org.apache.jackrabbit.core.config.RepositoryConfig;
+
+/**
+ * Measures the number of saves per second of a cluster with 1 to 8 nodes that
+ * share a local H2 database, with and without journal group commit.
+ * <p>
+ * Usage: <code>ClusterSaveBench [maxNodes [threadsPerNode [seconds]]]</code>
+ */
+public class ClusterSaveBench {
+
+    private static final File DIR = new File("target/clusterSaveBench");
+
+    private static final String CONFIG =
+        "src/test/resources/org/apache/jackrabbit/core/cluster/repository-h2.xml";
+
+    private static final int[] GROUP_COMMIT_DELAYS = {0, 5};
+
+    int threadsPerNode;
+
+    int seconds;
+
+    public static void main(String[] args) throws Exception {
+        int maxNodes = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        ClusterSaveBench bench = new ClusterSaveBench();
+        bench.threadsPerNode = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        bench.seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        for (int delay : GROUP_COMMIT_DELAYS) {
+            for (int nodes = 1; nodes <= maxNodes; nodes *= 2) {
+                bench.test(nodes, delay);
+            }
+        }
+    }
+
+    void test(int nodes, int groupCommitDelay) throws Exception {
+        FileUtils.deleteQuietly(DIR);
+        String xml = FileUtils.readFileToString(new File(CONFIG));
+        xml = xml.replace("</Journal>",
+                "    <param name=\"groupCommitDelay\" value=\""
+                + groupCommitDelay + "\"/>\n        </Journal>");
+
+        List<RepositoryImpl> repositories = new ArrayList<RepositoryImpl>();
+        List<Session> sessions = new ArrayList<Session>();
+        try {
+            for (int i = 0; i < nodes; i++) {
+                File home = new File(DIR, "node" + i);
+                FileUtils.writeStringToFile(new File(home, "repository.xml"), xml);
+                System.setProperty(ClusterNode.SYSTEM_PROPERTY_NODE_ID, "node" + i);
+                repositories.add(RepositoryImpl.create(RepositoryConfig.create(home)));
+            }
+            System.clearProperty(ClusterNode.SYSTEM_PROPERTY_NODE_ID);
+
+            final AtomicInteger saves = new AtomicInteger();
+            final long end = System.currentTimeMillis() + seconds * 1000L;
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int i = 0; i < nodes; i++) {
+                Session setup = login(repositories.get(i), sessions);
+                Node root = setup.getRootNode().addNode("node" + i);
+                setup.save();
+                for (int j = 0; j < threadsPerNode; j++) {
+                    final Session session = login(repositories.get(i), sessions);
+                    final String path = root.getPath();
+                    final String name = "thread" + j;
+                    threads.add(new Thread(new Runnable() {
+                        public void run() {
+                            try {
+                                Node parent = session.getNode(path).addNode(name);
+                                session.save();
+                                for (int k = 0; System.currentTimeMillis() < end; k++) {
+                                    parent.addNode("n" + k).setProperty("p", k);
+                                    session.save();
+                                    saves.incrementAndGet();
+                                }
+                            } catch (Exception e) {
+                                e.printStackTrace();
+                            }
+                        }
+                    }));
+                }
+            }
+            long start = System.currentTimeMillis();
+            for (Thread t : threads) {
+                t.start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            long time = System.currentTimeMillis() - start;
+            System.out.println("nodes: " + nodes
+                    + "; threads per node: " + threadsPerNode
+                    + "; groupCommitDelay: " + groupCommitDelay + " ms"
+                    + "; saves/s: " + (saves.get() * 1000L / Math.max(time, 1)));
+        } finally {
+            for (Session s : sessions) {
+                s.logout();
+            }
+            for (RepositoryImpl r : repositories) {
+                r.shutdown();
+            }
+        }
+    }
+
+    private static Session login(RepositoryImpl repository, List<Session> sessions)
+            throws Exception {
+        Session session = repository.login(
+                new SimpleCredentials("admin", "admin".toCharArray()));
+        sessions.add(session);
+        return session;
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.integration.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.cluster.SimpleClusterContext;
+import org.apache.jackrabbit.core.config.ClusterConfig;
+import org.apache.jackrabbit.core.journal.FileJournal;
+import org.apache.jackrabbit.core.journal.Record;
+import org.apache.jackrabbit.core.journal.RecordIterator;
+import org.apache.jackrabbit.core.journal.RecordProducer;
+
+/**
+ * Measures the append throughput of a file journal with rotating files and
+ * with segments, while concurrent readers repeatedly scan the tail of the
+ * journal like syncing cluster nodes do.
+ * <p>
+ * Usage: <code>FileJournalBench [records [readers [recordSize]]]</code>
+ */
+public class FileJournalBench {
+
+    private static final File DIR = new File("target/fileJournalBench");
+
+    int records;
+
+    int readers;
+
+    int recordSize;
+
+    public static void main(String[] args) throws Exception {
+        FileJournalBench bench = new FileJournalBench();
+        bench.records = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        bench.readers = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        bench.recordSize = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        for (int i = 0; i < 2; i++) {
+            // the first round warms up
+            bench.test(false);
+            bench.test(true);
+        }
+    }
+
+    void test(boolean segmented) throws Exception {
+        FileUtils.deleteQuietly(DIR);
+        final FileJournal journal = new FileJournal();
+        journal.setDirectory(new File(DIR, "journal").getPath());
+        journal.setRevision(new File(DIR, "revision.log").getPath());
+        journal.setSegmented(segmented);
+        SimpleClusterContext context =
+            new SimpleClusterContext(new ClusterConfig("bench", 0, null));
+        journal.init("bench", context.getNamespaceResolver());
+
+        final long[] revisions = new long[records];
+        final AtomicInteger appended = new AtomicInteger();
+        final AtomicLong read = new AtomicLong();
+        final AtomicBoolean done = new AtomicBoolean();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < readers; i++) {
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        while (!done.get()) {
+                            // scan the most recent records
+                            int n = appended.get() - 100;
+                            RecordIterator it = journal.getRecords(
+                                    n > 0 ? revisions[n - 1] : 0);
+                            try {
+                                while (it.hasNext()) {
+                                    it.nextRecord().readFully(new byte[recordSize]);
+                                    read.incrementAndGet();
+                                }
+                            } finally {
+                                it.close();
+                            }
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+
+        byte[] data = new byte[recordSize];
+        RecordProducer producer = journal.getProducer("bench");
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < records; i++) {
+            Record record = producer.append();
+            record.write(data);
+            record.update();
+            revisions[i] = record.getRevision();
+            appended.set(i + 1);
+        }
+        long time = System.currentTimeMillis() - start;
+        done.set(true);
+        for (Thread t : threads) {
+            t.join();
+        }
+        journal.close();
+
+        System.out.println("segmented: " + segmented
+                + "; records: " + records
+                + "; readers: " + readers
+                + "; appends/s: " + (records * 1000L / Math.max(time, 1))
+                + "; records read/s: " + (read.get() * 1000L / Math.max(time, 1)));
+    }
+
+}
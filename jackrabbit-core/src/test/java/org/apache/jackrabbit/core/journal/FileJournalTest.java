@@ -17,6 +17,8 @@
 package org.apache.jackrabbit.core.journal;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.jcr.RepositoryException;
 
@@ -173,4 +175,120 @@ public class FileJournalTest extends JUnitTest {
 
         clusterNode.stop();
     }
+
+    /**
+     * Append records to a segmented journal that starts many segments, and
+     * verify that records are found from any start revision.
+     *
+     * @throws Exception
+     */
+    public void testSegmented() throws Exception {
+        FileJournal journal = createJournal(true);
+        List<Long> revisions = appendRecords(journal, 0, 50);
+
+        File[] segments = journalDirectory.listFiles();
+        assertTrue("expected several segments", segments.length > 5);
+        assertFalse(new File(journalDirectory, "journal.log").exists());
+
+        for (int i = 0; i < revisions.size(); i += 7) {
+            assertRecords(journal.getRecords(revisions.get(i)), i + 1, revisions);
+        }
+        assertRecords(journal.getRecords(), 0, revisions);
+    }
+
+    /**
+     * Verify that rotated journal files are converted into segments.
+     *
+     * @throws Exception
+     */
+    public void testConvertToSegments() throws Exception {
+        FileJournal journal = createJournal(false);
+        List<Long> revisions = appendRecords(journal, 0, 20);
+        assertTrue(new File(journalDirectory, "journal.log").exists());
+        journal.close();
+
+        journal = createJournal(true);
+        assertFalse(new File(journalDirectory, "journal.log").exists());
+        revisions.addAll(appendRecords(journal, 20, 10));
+        assertRecords(journal.getRecords(0), 0, revisions);
+        assertRecords(journal.getRecords(revisions.get(24)), 25, revisions);
+    }
+
+    /**
+     * Verify that records read only partially do not affect the records
+     * read after them.
+     *
+     * @throws Exception
+     */
+    public void testPartialRead() throws Exception {
+        FileJournal journal = createJournal(false);
+        List<Long> revisions = appendRecords(journal, 0, 10);
+
+        RecordIterator iterator = journal.getRecords();
+        try {
+            for (int i = 0; i < revisions.size(); i++) {
+                Record record = iterator.nextRecord();
+                assertEquals(i, record.readInt());
+                if (i % 2 == 0) {
+                    assertEquals("record " + i, record.readString());
+                }
+            }
+            assertFalse(iterator.hasNext());
+        } finally {
+            iterator.close();
+        }
+    }
+
+    /**
+     * Create a file journal that starts a new file every few records.
+     */
+    private FileJournal createJournal(boolean segmented) throws Exception {
+        FileJournal journal = new FileJournal();
+        journal.setDirectory(journalDirectory.getPath());
+        journal.setMaximumSize(100);
+        journal.setSegmented(segmented);
+        journal.setRepositoryHome(repositoryHome);
+        ClusterConfig cc = new ClusterConfig(CLUSTER_NODE_ID, SYNC_DELAY, null);
+        SimpleClusterContext context = new SimpleClusterContext(cc, repositoryHome);
+        journal.init(CLUSTER_NODE_ID, context.getNamespaceResolver());
+        return journal;
+    }
+
+    /**
+     * Append records containing consecutive numbers.
+     *
+     * @return the revisions of the appended records
+     */
+    private static List<Long> appendRecords(Journal journal, int start, int count)
+            throws Exception {
+        List<Long> revisions = new ArrayList<Long>();
+        RecordProducer producer = journal.getProducer("test");
+        for (int i = start; i < start + count; i++) {
+            Record record = producer.append();
+            record.writeInt(i);
+            record.writeString("record " + i);
+            record.update();
+            revisions.add(record.getRevision());
+        }
+        return revisions;
+    }
+
+    /**
+     * Verify that an iterator returns the records starting at a given index.
+     */
+    private static void assertRecords(RecordIterator iterator, int index,
+                                      List<Long> revisions) throws Exception {
+        try {
+            for (int i = index; i < revisions.size(); i++) {
+                assertTrue(iterator.hasNext());
+                Record record = iterator.nextRecord();
+                assertEquals(revisions.get(i).longValue(), record.getRevision());
+                assertEquals(i, record.readInt());
+                assertEquals("record " + i, record.readString());
+            }
+            assertFalse(iterator.hasNext());
+        } finally {
+            iterator.close();
+        }
+    }
 }
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Test cases for the timestamp index of a journal.
+ */
+public class TimestampIndexTest extends JUnitTest {
+
+    /** Index file. */
+    private File file;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("timestamps", ".idx");
+        file.delete();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Verifies that at most one entry per interval is added, and that the
+     * revision of the most recent older entry is returned.
+     */
+    public void testLookup() throws Exception {
+        TimestampIndex index = new TimestampIndex(file, 100);
+        assertEquals(-1, index.getRevision(1000));
+
+        index.add(1000, 10);
+        index.add(1050, 15);
+        index.add(1100, 20);
+        index.add(1150, 18);
+        index.add(1300, 30);
+        assertEquals(3, index.size());
+
+        assertEquals(-1, index.getRevision(1000));
+        assertEquals(10, index.getRevision(1001));
+        assertEquals(10, index.getRevision(1100));
+        assertEquals(20, index.getRevision(1200));
+        assertEquals(30, index.getRevision(Long.MAX_VALUE));
+    }
+
+    /**
+     * Verifies that entries survive reopening the index, and that an
+     * incomplete entry is truncated.
+     */
+    public void testReload() throws Exception {
+        TimestampIndex index = new TimestampIndex(file, 100);
+        index.add(1000, 10);
+        index.add(2000, 20);
+
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(new byte[5]);
+        } finally {
+            out.close();
+        }
+
+        index = new TimestampIndex(file, 100);
+        assertEquals(2, index.size());
+        assertEquals(32, file.length());
+        assertEquals(20, index.getRevision(3000));
+
+        index.add(1500, 30);
+        index.add(3000, 20);
+        index.add(4000, 40);
+        assertEquals(3, new TimestampIndex(file, 100).size());
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.lock;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.jackrabbit.core.fs.FileSystem;
+import org.apache.jackrabbit.core.fs.mem.MemoryFileSystem;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Test cases for the incremental persistence of open-scoped locks.
+ */
+public class LockStoreTest extends JUnitTest {
+
+    /** File system holding the locks. */
+    private FileSystem fs;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        fs = new MemoryFileSystem();
+        fs.init();
+    }
+
+    /**
+     * Verifies that lock changes are written as change files without
+     * rewriting the locks file, and are applied when loading.
+     */
+    public void testChanges() throws Exception {
+        LockInfo a = createLockInfo(Long.MAX_VALUE);
+        LockInfo b = createLockInfo(60);
+        LockStore store = new LockStore(fs);
+        store.load();
+        store.added(a);
+        assertFalse(store.flush());
+        store.added(b);
+        store.removed(a);
+        assertFalse(store.flush());
+
+        assertFalse(fs.exists("/" + LockStore.LOCKS_FILE));
+        assertEquals(2, fs.listFiles("/" + LockStore.CHANGES_FOLDER).length);
+
+        store = new LockStore(fs);
+        assertEquals(Collections.singletonList(b.getLockToken() + ",60"),
+                new ArrayList<String>(store.load()));
+        assertTrue(store.hasChanges());
+    }
+
+    /**
+     * Verifies that compacting rewrites the locks file and removes the
+     * change files, and that enough changes trigger a compaction.
+     */
+    public void testCompact() throws Exception {
+        LockStore store = new LockStore(fs);
+        store.load();
+        List<LockInfo> infos = new ArrayList<LockInfo>();
+        for (int i = 0; i < LockStore.COMPACT_THRESHOLD; i++) {
+            LockInfo info = createLockInfo(Long.MAX_VALUE);
+            infos.add(info);
+            store.added(info);
+            assertEquals(i == LockStore.COMPACT_THRESHOLD - 1, store.flush());
+        }
+        store.compact(infos);
+        assertEquals(0, fs.listFiles("/" + LockStore.CHANGES_FOLDER).length);
+
+        store = new LockStore(fs);
+        assertEquals(LockStore.COMPACT_THRESHOLD, store.load().size());
+        assertFalse(store.hasChanges());
+    }
+
+    /**
+     * Verifies that a locks file written by previous versions is read, and
+     * that replaying changes already contained in it has no effect.
+     */
+    public void testReplay() throws Exception {
+        LockInfo a = createLockInfo(Long.MAX_VALUE);
+        LockInfo b = createLockInfo(Long.MAX_VALUE);
+        OutputStream out = fs.getOutputStream("/" + LockStore.LOCKS_FILE);
+        try {
+            out.write((a.getLockToken() + "\n" + b.getLockToken() + "\n").getBytes());
+        } finally {
+            out.close();
+        }
+
+        LockStore store = new LockStore(fs);
+        assertEquals(Arrays.asList(a.getLockToken(), b.getLockToken()),
+                new ArrayList<String>(store.load()));
+        store.removed(a);
+        store.added(a);
+        store.removed(b);
+        store.flush();
+
+        store = new LockStore(fs);
+        assertEquals(Collections.singletonList(a.getLockToken()),
+                new ArrayList<String>(store.load()));
+    }
+
+    /**
+     * Create an open-scoped lock info for a random node.
+     *
+     * @param timeoutHint timeout hint
+     * @return lock info
+     */
+    private static LockInfo createLockInfo(long timeoutHint) {
+        return new LockInfo(NodeId.randomId(), false, false, "admin", timeoutHint) {
+        };
+    }
+}
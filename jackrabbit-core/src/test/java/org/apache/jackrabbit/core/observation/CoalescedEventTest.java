@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.observation;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+
+import org.apache.jackrabbit.test.api.observation.AbstractObservationTest;
+import org.apache.jackrabbit.test.api.observation.EventResult;
+
+/**
+ * <code>CoalescedEventTest</code> checks that a
+ * {@link CoalescingEventListener} receives one event per added or removed
+ * subtree, with the events of the descendants attached to it.
+ */
+public class CoalescedEventTest extends AbstractObservationTest {
+
+    public void testAddSubtree() throws Exception {
+        CoalescingResult result = new CoalescingResult();
+        addEventListener(result, Event.NODE_ADDED | Event.PROPERTY_ADDED);
+        try {
+            Node n = testRootNode.addNode(nodeName1, testNodeType);
+            n.addNode(nodeName2, testNodeType).addNode(nodeName3, testNodeType);
+            n.setProperty(propertyName1, "a");
+            testRootNode.getSession().save();
+
+            Event[] events = result.getEvents(DEFAULT_WAIT_TIMEOUT);
+            assertEquals(1, events.length);
+            assertEquals(Event.NODE_ADDED, events[0].getType());
+            assertEquals(testRoot + "/" + nodeName1, events[0].getPath());
+            assertTrue(events[0] instanceof CoalescedEvent);
+
+            CoalescedEvent event = (CoalescedEvent) events[0];
+            Set<String> paths = getPaths(event.getCoalescedEvents());
+            assertTrue(paths.contains(testRoot + "/" + nodeName1 + "/" + nodeName2));
+            assertTrue(paths.contains(testRoot + "/" + nodeName1 + "/"
+                    + nodeName2 + "/" + nodeName3));
+            assertTrue(paths.contains(testRoot + "/" + nodeName1 + "/" + propertyName1));
+            assertEquals(event.getCoalescedSize(), paths.size());
+        } finally {
+            removeEventListener(result);
+        }
+    }
+
+    public void testRemoveSubtree() throws Exception {
+        Node n = testRootNode.addNode(nodeName1, testNodeType);
+        n.addNode(nodeName2, testNodeType).addNode(nodeName3, testNodeType);
+        testRootNode.addNode(nodeName2, testNodeType);
+        testRootNode.getSession().save();
+
+        CoalescingResult result = new CoalescingResult();
+        addEventListener(result, Event.NODE_REMOVED);
+        try {
+            n.remove();
+            testRootNode.getNode(nodeName2).remove();
+            testRootNode.getSession().save();
+
+            Event[] events = result.getEvents(DEFAULT_WAIT_TIMEOUT);
+            checkNodeRemoved(events, new String[]{nodeName1, nodeName2}, null);
+            for (Event event : events) {
+                if (event.getPath().equals(testRoot + "/" + nodeName1)) {
+                    Set<String> paths = getPaths(
+                            ((CoalescedEvent) event).getCoalescedEvents());
+                    assertEquals(2, paths.size());
+                    assertTrue(paths.contains(testRoot + "/" + nodeName1 + "/"
+                            + nodeName2 + "/" + nodeName3));
+                } else {
+                    assertFalse(event instanceof CoalescedEvent);
+                }
+            }
+        } finally {
+            removeEventListener(result);
+        }
+    }
+
+    private static Set<String> getPaths(EventIterator events) throws Exception {
+        Set<String> paths = new HashSet<String>();
+        while (events.hasNext()) {
+            paths.add(events.nextEvent().getPath());
+        }
+        return paths;
+    }
+
+    private class CoalescingResult extends EventResult
+            implements CoalescingEventListener {
+
+        CoalescingResult() {
+            super(log);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.observation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.observation.ListenerQueue.OverflowPolicy;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.spi.PathFactory;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
+import org.apache.jackrabbit.test.api.observation.AbstractObservationTest;
+import org.apache.jackrabbit.test.api.observation.EventResult;
+
+/**
+ * <code>ConcurrentDispatchTest</code> checks that asynchronous listeners
+ * are notified independently of each other, that each listener receives
+ * its events in order, and that the overflow policies apply to listeners
+ * that fall behind.
+ */
+public class ConcurrentDispatchTest extends AbstractObservationTest {
+
+    /**
+     * Parent node of the property events created by the overflow tests.
+     */
+    private final NodeId parentId = NodeId.randomId();
+
+    public void testSlowListener() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        EventListener slow = new EventListener() {
+            public void onEvent(EventIterator events) {
+                try {
+                    release.await(DEFAULT_WAIT_TIMEOUT * 2, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        };
+        EventResult result = new EventResult(log);
+        addEventListener(slow, Event.NODE_ADDED);
+        addEventListener(result, Event.NODE_ADDED);
+        try {
+            testRootNode.addNode(nodeName1, testNodeType);
+            testRootNode.getSession().save();
+            Event[] events = result.getEvents(DEFAULT_WAIT_TIMEOUT);
+            checkNodeAdded(events, new String[]{nodeName1}, null);
+        } finally {
+            release.countDown();
+            removeEventListener(slow);
+            removeEventListener(result);
+        }
+    }
+
+    public void testOrder() throws Exception {
+        final List<String> paths = new ArrayList<String>();
+        final CountDownLatch done = new CountDownLatch(20);
+        EventListener listener = new EventListener() {
+            public void onEvent(EventIterator events) {
+                while (events.hasNext()) {
+                    try {
+                        synchronized (paths) {
+                            paths.add(events.nextEvent().getPath());
+                        }
+                    } catch (RepositoryException e) {
+                        // ignore
+                    }
+                    done.countDown();
+                }
+            }
+        };
+        addEventListener(listener, Event.NODE_ADDED);
+        try {
+            for (int i = 0; i < 20; i++) {
+                testRootNode.addNode("node" + i, testNodeType);
+                testRootNode.getSession().save();
+            }
+            assertTrue(done.await(DEFAULT_WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        } finally {
+            removeEventListener(listener);
+        }
+        synchronized (paths) {
+            for (int i = 0; i < 20; i++) {
+                assertEquals(testRoot + "/node" + i, paths.get(i));
+            }
+        }
+    }
+
+    public void testCoalescePolicy() throws Exception {
+        RecordingConsumer consumer = createConsumer();
+        ManualExecutor executor = new ManualExecutor();
+        AtomicInteger overloaded = new AtomicInteger();
+        ListenerQueue queue = new ListenerQueue(consumer, executor,
+                2, OverflowPolicy.COALESCE, overloaded, null);
+
+        EventState first = createPropertyChanged("prop");
+        EventState second = createPropertyChanged("prop");
+        EventState third = createPropertyChanged("prop");
+        queue.add(consumer, createEvents(first));
+        queue.add(consumer, createEvents(second));
+        // the queue is full, the second change is superseded by the third
+        queue.add(consumer, createEvents(third));
+        assertEquals(2, queue.size());
+        assertEquals(0, overloaded.get());
+
+        executor.runAll();
+        assertEquals(0, queue.size());
+        assertEquals(2, consumer.delivered.size());
+        assertSame(first, consumer.delivered.get(0));
+        assertSame(third, consumer.delivered.get(1));
+    }
+
+    public void testDropPolicy() throws Exception {
+        RecordingConsumer consumer = createConsumer();
+        ManualExecutor executor = new ManualExecutor();
+        AtomicInteger overloaded = new AtomicInteger();
+        ListenerQueue queue = new ListenerQueue(consumer, executor,
+                2, OverflowPolicy.DROP, overloaded, null);
+
+        EventState first = createPropertyChanged("a");
+        EventState second = createPropertyChanged("b");
+        queue.add(consumer, createEvents(first));
+        queue.add(consumer, createEvents(second));
+        // the queue is full, the new events are dropped
+        queue.add(consumer, createEvents(createPropertyChanged("c")));
+        assertEquals(2, queue.size());
+        assertEquals(0, overloaded.get());
+
+        executor.runAll();
+        assertEquals(2, consumer.delivered.size());
+        assertSame(first, consumer.delivered.get(0));
+        assertSame(second, consumer.delivered.get(1));
+
+        // events are accepted again once the listener caught up
+        EventState fourth = createPropertyChanged("d");
+        queue.add(consumer, createEvents(fourth));
+        executor.runAll();
+        assertEquals(3, consumer.delivered.size());
+        assertSame(fourth, consumer.delivered.get(2));
+    }
+
+    public void testQueueOverflow() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        RecordingConsumer consumer = createConsumer(release);
+        ObservationDispatcher dispatcher = new ObservationDispatcher(
+                null, 1, OverflowPolicy.BLOCK, 200);
+        try {
+            dispatcher.addConsumer(consumer);
+            ListenerQueue queue = dispatcher.getListenerQueues().get(consumer);
+            for (int i = 0; i < 3; i++) {
+                queue.add(consumer, createEvents(createPropertyChanged("p" + i)));
+            }
+            assertTrue(queue.size() > 1);
+
+            // the writing thread is delayed, but not until the listener
+            // caught up
+            long start = System.currentTimeMillis();
+            dispatcher.delayIfEventQueueOverloaded();
+            long time = System.currentTimeMillis() - start;
+            assertTrue("delayed for " + time + " ms", time >= 150);
+            assertTrue("delayed for " + time + " ms", time < DEFAULT_WAIT_TIMEOUT);
+            assertTrue(queue.size() > 1);
+
+            release.countDown();
+            dispatcher.dispose();
+            assertEquals(0, queue.size());
+            assertEquals(3, consumer.delivered.size());
+
+            // no delay once the listener caught up
+            start = System.currentTimeMillis();
+            dispatcher.delayIfEventQueueOverloaded();
+            assertTrue(System.currentTimeMillis() - start < 150);
+        } finally {
+            release.countDown();
+            dispatcher.dispose();
+        }
+    }
+
+    private RecordingConsumer createConsumer() {
+        return createConsumer(null);
+    }
+
+    private RecordingConsumer createConsumer(CountDownLatch release) {
+        SessionImpl session = (SessionImpl) superuser;
+        EventListener listener = new EventListener() {
+            public void onEvent(EventIterator events) {
+            }
+        };
+        EventFilter filter = new EventFilter(session, Event.PROPERTY_CHANGED,
+                Collections.<Path>emptyList(), true, null, null,
+                false, false, false);
+        return new RecordingConsumer(session, listener, filter, release);
+    }
+
+    private EventState createPropertyChanged(String name) {
+        PathFactory factory = PathFactoryImpl.getInstance();
+        Name propertyName = NameFactoryImpl.getInstance().create("", name);
+        return EventState.propertyChanged(parentId,
+                factory.getRootPath(), factory.create(propertyName),
+                NameConstants.NT_UNSTRUCTURED, Collections.<Name>emptySet(),
+                superuser);
+    }
+
+    private EventStateCollection createEvents(EventState state) {
+        EventStateCollection events =
+                new EventStateCollection(null, (SessionImpl) superuser, null);
+        events.addAll(Collections.singletonList(state));
+        return events;
+    }
+
+    /**
+     * Executor running the scheduled tasks only when asked to.
+     */
+    private static class ManualExecutor implements Executor {
+
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    /**
+     * Consumer recording the delivered events that were not superseded.
+     */
+    private static class RecordingConsumer extends EventConsumer {
+
+        private final List<EventState> delivered =
+                Collections.synchronizedList(new ArrayList<EventState>());
+
+        private final CountDownLatch release;
+
+        RecordingConsumer(SessionImpl session, EventListener listener,
+                          EventFilter filter, CountDownLatch release) {
+            super(session, listener, filter);
+            this.release = release;
+        }
+
+        @Override
+        void consumeEvents(EventStateCollection events, Set<EventState> superseded) {
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+            for (EventState state : events.getEvents()) {
+                if (!superseded.contains(state)) {
+                    delivered.add(state);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.observation;
+
+import javax.jcr.Node;
+import javax.jcr.observation.Event;
+
+import org.apache.jackrabbit.test.api.observation.AbstractObservationTest;
+import org.apache.jackrabbit.test.api.observation.EventResult;
+
+/**
+ * <code>ConsumerIndexTest</code> checks that listeners registered with
+ * different paths, event types and identifiers receive exactly the events
+ * allowed by their filters.
+ */
+public class ConsumerIndexTest extends AbstractObservationTest {
+
+    private static final int COUNT = 20;
+
+    public void testPaths() throws Exception {
+        Node[] nodes = new Node[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            nodes[i] = testRootNode.addNode("node" + i, testNodeType);
+        }
+        testRootNode.getSession().save();
+
+        EventResult[] deep = new EventResult[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            deep[i] = new EventResult(log);
+            obsMgr.addEventListener(deep[i], Event.NODE_ADDED,
+                    nodes[i].getPath(), true, null, null, false);
+        }
+        EventResult shallow = new EventResult(log);
+        obsMgr.addEventListener(shallow, Event.NODE_ADDED,
+                testRoot, false, null, null, false);
+        EventResult removed = new EventResult(log);
+        obsMgr.addEventListener(removed, Event.NODE_REMOVED,
+                testRoot, true, null, null, false);
+        try {
+            nodes[3].addNode(nodeName1, testNodeType).addNode(nodeName2, testNodeType);
+            testRootNode.getSession().save();
+
+            Event[] events = deep[3].getEvents(DEFAULT_WAIT_TIMEOUT);
+            checkNodeAdded(events, new String[]{
+                    "node3/" + nodeName1, "node3/" + nodeName1 + "/" + nodeName2},
+                    null);
+            for (int i = 0; i < COUNT; i++) {
+                if (i != 3) {
+                    assertEquals(0, deep[i].getEvents(0).length);
+                }
+            }
+            assertEquals(0, shallow.getEvents(0).length);
+            assertEquals(0, removed.getEvents(0).length);
+
+            testRootNode.addNode(nodeName3, testNodeType);
+            testRootNode.getSession().save();
+            checkNodeAdded(shallow.getEvents(DEFAULT_WAIT_TIMEOUT),
+                    new String[]{nodeName3}, null);
+        } finally {
+            for (EventResult result : deep) {
+                removeEventListener(result);
+            }
+            removeEventListener(shallow);
+            removeEventListener(removed);
+        }
+    }
+
+    public void testEventTypes() throws Exception {
+        Node n = testRootNode.addNode(nodeName1, testNodeType);
+        n.setProperty(propertyName1, "a");
+        testRootNode.getSession().save();
+
+        EventResult result = new EventResult(log);
+        obsMgr.addEventListener(result, Event.PROPERTY_CHANGED, testRoot, true,
+                null, null, false);
+        try {
+            n.addNode(nodeName2, testNodeType).setProperty(propertyName1, "b");
+            n.setProperty(propertyName1, "c");
+            testRootNode.getSession().save();
+            checkPropertyChanged(result.getEvents(DEFAULT_WAIT_TIMEOUT),
+                    new String[]{nodeName1 + "/" + propertyName1});
+        } finally {
+            removeEventListener(result);
+        }
+    }
+
+    public void testIdentifiers() throws Exception {
+        Node n1 = testRootNode.addNode(nodeName1, testNodeType);
+        n1.addMixin(mixReferenceable);
+        Node n2 = testRootNode.addNode(nodeName2, testNodeType);
+        n2.addMixin(mixReferenceable);
+        testRootNode.getSession().save();
+
+        EventResult result = new EventResult(log);
+        obsMgr.addEventListener(result, Event.NODE_ADDED, testRoot, true,
+                new String[]{n2.getIdentifier()}, null, false);
+        try {
+            n1.addNode(nodeName3, testNodeType);
+            n2.addNode(nodeName3, testNodeType);
+            testRootNode.getSession().save();
+            checkNodeAdded(result.getEvents(DEFAULT_WAIT_TIMEOUT),
+                    new String[]{nodeName2 + "/" + nodeName3}, null);
+        } finally {
+            removeEventListener(result);
+        }
+    }
+}
@@ -42,6 +42,9 @@ public class TestAll extends TestCase {
         suite.addTestSuite(MoveInPlaceTest.class);
         suite.addTestSuite(ShareableNodesTest.class);
         suite.addTestSuite(WarningOnSaveWithNotificationThreadTest.class);
+        suite.addTestSuite(ConcurrentDispatchTest.class);
+        suite.addTestSuite(ConsumerIndexTest.class);
+        suite.addTestSuite(CoalescedEventTest.class);
 
         return suite;
     }
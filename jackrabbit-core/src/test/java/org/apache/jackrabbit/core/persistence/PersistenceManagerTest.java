@@ -16,8 +16,13 @@
  */
 package org.apache.jackrabbit.core.persistence;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 
 import javax.jcr.PropertyType;
 
@@ -26,6 +31,8 @@ import junit.framework.TestCase;
 import org.apache.commons.io.FileUtils;
 import org.apache.jackrabbit.core.NamespaceRegistryImpl;
 import org.apache.jackrabbit.core.RepositoryImpl;
+import org.apache.jackrabbit.core.data.DataIdentifier;
+import org.apache.jackrabbit.core.data.FileDataStore;
 import org.apache.jackrabbit.core.fs.mem.MemoryFileSystem;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.PropertyId;
@@ -118,6 +125,121 @@ public class PersistenceManagerTest extends TestCase {
         assertPersistenceManager(manager);
     }
 
+    public void testBinaryReferenceIndex() throws Exception {
+        FileDataStore store = new FileDataStore();
+        store.setPath(new File(directory, "datastore").getPath());
+        store.init(directory.getPath());
+        byte[] data = new byte[1000];
+        new Random(1).nextBytes(data);
+        InternalValue binary =
+            InternalValue.create(new ByteArrayInputStream(data), store);
+        DataIdentifier id = binary.getDataIdentifier();
+        assertNotNull(id);
+
+        NodeState node = new NodeState(
+                NODE_ID, TEST, RepositoryImpl.ROOT_NODE_ID,
+                ItemState.STATUS_NEW, true);
+        node.addPropertyName(NameConstants.JCR_PRIMARYTYPE);
+        node.addPropertyName(TEST);
+        PropertyState property =
+            new PropertyState(PROPERTY_ID, ItemState.STATUS_NEW, true);
+        property.setType(PropertyType.BINARY);
+        property.setValues(new InternalValue[] { binary });
+
+        // the binary is stored before the index is enabled
+        org.apache.jackrabbit.core.persistence.pool.DerbyPersistenceManager manager =
+            createDerbyPoolPersistenceManager(store, "false");
+        try {
+            assertNull(manager.getBinaryReferenceIndexMarker());
+            ChangeLog create = new ChangeLog();
+            create.added(node);
+            create.added(property);
+            manager.store(create);
+        } finally {
+            manager.close();
+        }
+
+        // the index is built on initialization
+        String marker;
+        manager = createDerbyPoolPersistenceManager(store, "true");
+        try {
+            marker = manager.getBinaryReferenceIndexMarker();
+            assertNotNull(marker);
+            Map<NodeId, Set<DataIdentifier>> references =
+                manager.getAllBinaryReferences(null, 0);
+            assertEquals(Collections.singletonMap(NODE_ID,
+                    Collections.singleton(id)), references);
+            assertTrue(manager.getAllBinaryReferences(NODE_ID, 0).isEmpty());
+
+            node.setStatus(ItemState.STATUS_EXISTING);
+            node.removePropertyName(TEST);
+            ChangeLog update = new ChangeLog();
+            update.deleted(property);
+            update.modified(node);
+            manager.store(update);
+            assertTrue(manager.getAllBinaryReferences(null, 0).isEmpty());
+
+            node.addPropertyName(TEST);
+            property.setStatus(ItemState.STATUS_NEW);
+            update = new ChangeLog();
+            update.added(property);
+            update.modified(node);
+            manager.store(update);
+            assertEquals(Collections.singleton(id),
+                    manager.getAllBinaryReferences(null, 1).get(NODE_ID));
+
+            ChangeLog delete = new ChangeLog();
+            delete.deleted(node);
+            manager.store(delete);
+            assertTrue(manager.getAllBinaryReferences(null, 0).isEmpty());
+        } finally {
+            manager.close();
+        }
+
+        // a complete index is kept, and gets a new marker when it is built
+        // again after it was disabled
+        try {
+            manager = createDerbyPoolPersistenceManager(store, "true");
+            try {
+                assertEquals(marker, manager.getBinaryReferenceIndexMarker());
+            } finally {
+                manager.close();
+            }
+            manager = createDerbyPoolPersistenceManager(store, "false");
+            manager.close();
+            manager = createDerbyPoolPersistenceManager(store, "true");
+            try {
+                String rebuilt = manager.getBinaryReferenceIndexMarker();
+                assertNotNull(rebuilt);
+                assertFalse(marker.equals(rebuilt));
+            } finally {
+                manager.close();
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    private org.apache.jackrabbit.core.persistence.pool.DerbyPersistenceManager
+            createDerbyPoolPersistenceManager(FileDataStore store, String index)
+            throws Exception {
+        org.apache.jackrabbit.core.persistence.pool.DerbyPersistenceManager manager =
+            new org.apache.jackrabbit.core.persistence.pool.DerbyPersistenceManager();
+        manager.setDriver("org.apache.derby.jdbc.EmbeddedDriver");
+        manager.setUrl("jdbc:derby:" + database.getPath() + ";create=true");
+        manager.setConnectionFactory(new ConnectionFactory());
+        manager.setBinaryReferenceIndex(index);
+        manager.init(new PMContext(
+                directory,
+                new MemoryFileSystem(),
+                RepositoryImpl.ROOT_NODE_ID,
+                new NamespaceRegistryImpl(new MemoryFileSystem()),
+                null,
+                store,
+                new RepositoryStatisticsImpl()));
+        return manager;
+    }
+
     private void assertPersistenceManager(PersistenceManager manager)
             throws Exception {
         manager.init(new PMContext(
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query;
+
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryResult;
+
+import org.apache.jackrabbit.core.query.lucene.QueryResultImpl;
+
+/**
+ * Tests facet counts computed by {@link QueryResultImpl#getFacets(String...)}.
+ */
+public class FacetTest extends AbstractQueryTest {
+
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        Node n1 = testRootNode.addNode("node1");
+        n1.setProperty("color", "red");
+        n1.setProperty("size", 1);
+        Node n2 = testRootNode.addNode("node2");
+        n2.setProperty("color", "red");
+        n2.setProperty("size", 2);
+        Node n3 = testRootNode.addNode("node3");
+        n3.setProperty("color", new String[]{"blue", "green"});
+        n3.setProperty("size", 2);
+        Node n4 = testRootNode.addNode("node4");
+        n4.setProperty("color", new String[]{"green", "green"});
+        testRootNode.addNode("node5");
+        testRootNode.getSession().save();
+    }
+
+    public void testFacets() throws RepositoryException {
+        Map<String, Map<Comparable<?>, Integer>> facets = getFacets(
+                "/jcr:root" + testRoot + "/*", "color", "size");
+        assertEquals(2, facets.size());
+
+        Map<Comparable<?>, Integer> color = facets.get("color");
+        assertEquals(3, color.size());
+        assertEquals(Integer.valueOf(2), color.get("red"));
+        assertEquals(Integer.valueOf(1), color.get("blue"));
+        assertEquals(Integer.valueOf(2), color.get("green"));
+
+        Map<Comparable<?>, Integer> size = facets.get("size");
+        assertEquals(2, size.size());
+        assertEquals(Integer.valueOf(1), size.get(1L));
+        assertEquals(Integer.valueOf(2), size.get(2L));
+    }
+
+    public void testFacetsIgnoreLimit() throws RepositoryException {
+        Query q = qm.createQuery("/jcr:root" + testRoot + "/*", Query.XPATH);
+        q.setLimit(1);
+        Map<String, Map<Comparable<?>, Integer>> facets =
+                ((QueryResultImpl) q.execute()).getFacets("color");
+        assertEquals(Integer.valueOf(2), facets.get("color").get("red"));
+    }
+
+    public void testFacetsWithConstraint() throws RepositoryException {
+        Map<String, Map<Comparable<?>, Integer>> facets = getFacets(
+                "/jcr:root" + testRoot + "/*[@size = 2]", "color");
+        Map<Comparable<?>, Integer> color = facets.get("color");
+        assertEquals(3, color.size());
+        assertEquals(Integer.valueOf(1), color.get("red"));
+    }
+
+    private Map<String, Map<Comparable<?>, Integer>> getFacets(
+            String xpath, String... propertyNames) throws RepositoryException {
+        QueryResult result = qm.createQuery(xpath, Query.XPATH).execute();
+        return ((QueryResultImpl) result).getFacets(propertyNames);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * <code>IdDocLookupTest</code> tests the persistent node id to document
+ * number lookup table.
+ */
+public class IdDocLookupTest extends TestCase {
+
+    private final RAMDirectory dir = new RAMDirectory();
+
+    private final List<NodeId> ids = new ArrayList<NodeId>();
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(
+                Version.LUCENE_36, new StandardAnalyzer(Version.LUCENE_36)));
+        try {
+            for (int i = 0; i < 100; i++) {
+                NodeId id = NodeId.randomId();
+                ids.add(id);
+                Document doc = new Document();
+                doc.add(new Field(FieldNames.UUID, false, id.toString(),
+                        Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS,
+                        Field.TermVector.NO));
+                writer.addDocument(doc);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    public void testLookup() throws Exception {
+        IndexReader reader = IndexReader.open(dir);
+        try {
+            assertLookup(IdDocLookup.open(reader));
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testPersisted() throws Exception {
+        IndexReader reader = IndexReader.open(dir);
+        try {
+            IdDocLookup.open(reader);
+        } finally {
+            reader.close();
+        }
+        assertTrue(dir.fileExists(IdDocLookup.FILE_NAME));
+
+        reader = IndexReader.open(dir);
+        try {
+            assertLookup(IdDocLookup.open(reader));
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testMalformed() throws Exception {
+        IndexReader reader = IndexReader.open(dir);
+        try {
+            IdDocLookup lookup = IdDocLookup.open(reader);
+            assertEquals(-1, lookup.getDoc(""));
+            assertEquals(-1, lookup.getDoc("not-a-node-id"));
+            assertEquals(-1, lookup.getDoc(NodeId.randomId().toString()));
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void assertLookup(IdDocLookup lookup) {
+        assertEquals(ids.size(), lookup.size());
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(i, lookup.getDoc(ids.get(i).toString()));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.query.QueryResult;
+import javax.jcr.query.RowIterator;
+
+import org.apache.jackrabbit.core.query.AbstractIndexingTest;
+
+/**
+ * <code>PrefetchingScoreNodeIteratorTest</code> checks query results of a
+ * workspace whose search index prefetches the item states of the result
+ * nodes.
+ */
+public class PrefetchingScoreNodeIteratorTest extends AbstractIndexingTest {
+
+    private static final int COUNT = 110;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        for (int i = 0; i < COUNT; i++) {
+            testRootNode.addNode("node" + i).setProperty("prop", i);
+        }
+        session.save();
+    }
+
+    protected String getWorkspaceName() {
+        return "prefetch-test";
+    }
+
+    public void testPrefetchEnabled() {
+        assertEquals(20, getSearchIndex().getResultPrefetchSize());
+    }
+
+    public void testNodes() throws RepositoryException {
+        QueryResult result = executeQuery(testPath + "/*[@prop] order by @prop");
+        NodeIterator nodes = result.getNodes();
+        assertEquals(COUNT, nodes.getSize());
+        for (int i = 0; i < COUNT; i++) {
+            assertTrue(nodes.hasNext());
+            assertEquals(i, nodes.getPosition());
+            assertEquals("node" + i, nodes.nextNode().getName());
+        }
+        assertFalse(nodes.hasNext());
+    }
+
+    public void testRows() throws RepositoryException {
+        QueryResult result = executeQuery(testPath + "/*[@prop]");
+        Set<String> paths = new HashSet<String>();
+        for (RowIterator rows = result.getRows(); rows.hasNext(); ) {
+            paths.add(rows.nextRow().getPath());
+        }
+        assertEquals(COUNT, paths.size());
+    }
+
+    public void testSkip() throws RepositoryException {
+        QueryResult result = executeQuery(testPath + "/*[@prop] order by @prop");
+        NodeIterator nodes = result.getNodes();
+        assertEquals("node0", nodes.nextNode().getName());
+        // within the read ahead batches
+        nodes.skip(5);
+        assertEquals("node6", nodes.nextNode().getName());
+        // beyond the read ahead batches
+        nodes.skip(60);
+        assertEquals(67, nodes.getPosition());
+        assertEquals("node67", nodes.nextNode().getName());
+        nodes.skip(COUNT - 68);
+        assertFalse(nodes.hasNext());
+    }
+
+    public void testAbandonedIterator() throws RepositoryException {
+        String stmt = testPath + "/*[@prop] order by @prop";
+        for (int i = 0; i < 10; i++) {
+            NodeIterator nodes = executeQuery(stmt).getNodes();
+            assertEquals("node0", nodes.nextNode().getName());
+        }
+        System.gc();
+        NodeIterator nodes = executeQuery(stmt).getNodes();
+        long count = 0;
+        while (nodes.hasNext()) {
+            nodes.nextNode();
+            count++;
+        }
+        assertEquals(COUNT, count);
+    }
+}
@@ -53,6 +53,8 @@ public class TestAll extends TestCase {
         suite.addTestSuite(ArrayHitsTest.class);
         suite.addTestSuite(IndexFormatVersionTest.class);
         suite.addTestSuite(SynonymProviderTest.class);
+        suite.addTestSuite(IdDocLookupTest.class);
+        suite.addTestSuite(PrefetchingScoreNodeIteratorTest.class);
 
         return suite;
     }
@@ -22,8 +22,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
@@ -37,19 +40,25 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.jcr.RepositoryException;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.core.data.util.NamedThreadFactory;
+import org.apache.jackrabbit.util.TransientFileFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -80,6 +89,8 @@ import org.slf4j.LoggerFactory;
  *     &lt;param name="{@link #setTouchAsync(boolean) touchAsync}" value="false"/&gt;
  *     &lt;param name="{@link #setProactiveCaching(boolean) proactiveCaching}" value="true"/&gt;
  *     &lt;param name="{@link #setRecLengthCacheSize(int) recLengthCacheSize}" value="200"/&gt;
+ *     &lt;param name="{@link #setPartSize(long) partSize}" value="16777216"/&gt;
+ *     &lt;param name="{@link #setPartThreads(int) partThreads}" value="4"/&gt;
  * &lt;/DataStore&gt;
  * </pre>
  */
@@ -248,6 +259,27 @@ public abstract class CachingDataStore extends AbstractDataStore implements
      */
     private int recLengthCacheSize = 200;
 
+    /**
+     * If the {@link Backend} is a {@link MultipartBackend}, records of at
+     * least this size are uploaded and downloaded in parts of this size,
+     * concurrently in {@link #partThreads} threads. Set to 0 to disable.
+     * By default it is 16 MB. A size below the
+     * {@link MultipartBackend#getMinPartSize() minimum part size} of the
+     * backend is raised to that minimum.
+     */
+    private long partSize = 16L * 1024 * 1024;
+
+    /**
+     * Number of threads transferring parts of records.
+     */
+    private int partThreads = 4;
+
+    /**
+     * {@link ExecutorService} to transfer parts of records, or
+     * <code>null</code> if records are not transferred in parts.
+     */
+    private ExecutorService partExecService;
+
     /**
      * Initialized the data store. If the path is not set, &lt;repository
      * home&gt;/repository/datastore is used. This directory is automatically
@@ -357,6 +389,20 @@ public abstract class CachingDataStore extends AbstractDataStore implements
             }
             downloadExecService = Executors.newFixedThreadPool(5,
                 new NamedThreadFactory("backend-file-download-worker"));
+            if (backend instanceof MultipartBackend && partSize > 0) {
+                long minPartSize = ((MultipartBackend) backend).getMinPartSize();
+                if (partSize < minPartSize) {
+                    LOG.warn("partSize [{}] is below the minimum part size [{}]"
+                        + " of the backend, using the minimum.", partSize,
+                        minPartSize);
+                    partSize = minPartSize;
+                }
+            }
+            if (backend instanceof MultipartBackend && partSize > 0
+                && partThreads > 0) {
+                partExecService = Executors.newFixedThreadPool(partThreads,
+                    new NamedThreadFactory("backend-part-transfer-worker"));
+            }
             cache = new LocalCache(path, tmpDir.getAbsolutePath(), cacheSize,
                 cachePurgeTrigFactor, cachePurgeResizeFactor, asyncWriteCache);
             /*
@@ -434,9 +480,9 @@ public abstract class CachingDataStore extends AbstractDataStore implements
                 (System.currentTimeMillis() - currTime));
             if (result != null) {
                 if (result.canAsyncUpload()) {
-                    backend.writeAsync(identifier, result.getFile(), this);
+                    writeAsync(identifier, result.getFile());
                 } else {
-                    backend.write(identifier, result.getFile());
+                    write(identifier, result.getFile());
                 }
             }
             // this will also make sure that
@@ -615,6 +661,16 @@ public abstract class CachingDataStore extends AbstractDataStore implements
             if (cached != null) {
                 return cached;
             }
+            if (partExecService != null) {
+                Long length = recLenCache.get(identifier);
+                if (length == null) {
+                    length = backend.getLength(identifier);
+                    recLenCache.put(identifier, length);
+                }
+                if (length >= partSize) {
+                    return readInParts(identifier, length);
+                }
+            }
             in = backend.read(identifier);
             return cache.store(fileName, in);
         } catch (IOException e) {
@@ -907,6 +963,108 @@ public abstract class CachingDataStore extends AbstractDataStore implements
         }
     }
 
+    /**
+     * Write a record to {@link Backend}, in concurrent parts if it is large.
+     */
+    private void write(DataIdentifier identifier, File file)
+            throws DataStoreException {
+        if (partExecService != null && file.length() >= partSize) {
+            PartsUpload upload = new PartsUpload(identifier, file, false);
+            if (upload.start()) {
+                upload.await();
+            }
+        } else {
+            backend.write(identifier, file);
+        }
+    }
+
+    /**
+     * Write a record to {@link Backend} asynchronously, in concurrent parts if
+     * it is large. This data store is notified of the result.
+     */
+    private void writeAsync(DataIdentifier identifier, File file)
+            throws DataStoreException {
+        if (partExecService != null && file.length() >= partSize) {
+            if (!new PartsUpload(identifier, file, true).start()) {
+                onSuccess(new AsyncUploadResult(identifier, file));
+            }
+        } else {
+            backend.writeAsync(identifier, file, this);
+        }
+    }
+
+    /**
+     * Download a record from {@link Backend} in concurrent parts to a
+     * temporary file, and store it to {@link LocalCache}.
+     * 
+     * @param identifier identifier of the record.
+     * @param length length of the record.
+     * @return stream of the cached record.
+     */
+    private InputStream readInParts(final DataIdentifier identifier,
+            long length) throws DataStoreException, IOException {
+        long start = System.currentTimeMillis();
+        final MultipartBackend multipart = (MultipartBackend) backend;
+        final File transFile = TransientFileFactory.getInstance().createTransientFile(
+            "s3-", "tmp", tmpDir);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (long offset = 0; offset < length; offset += partSize) {
+            final long partOffset = offset;
+            final long partLength = Math.min(partSize, length - offset);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    InputStream in = multipart.read(identifier, partOffset,
+                        partLength);
+                    RandomAccessFile out = null;
+                    try {
+                        out = new RandomAccessFile(transFile, "rw");
+                        FileChannel channel = out.getChannel();
+                        byte[] buffer = new byte[64 * 1024];
+                        long position = partOffset;
+                        int n;
+                        while ((n = in.read(buffer)) != -1) {
+                            ByteBuffer buf = ByteBuffer.wrap(buffer, 0, n);
+                            while (buf.hasRemaining()) {
+                                position += channel.write(buf, position);
+                            }
+                        }
+                        if (position != partOffset + partLength) {
+                            throw new IOException("Incomplete part at offset "
+                                + partOffset + " of " + identifier);
+                        }
+                    } finally {
+                        IOUtils.closeQuietly(out);
+                        IOUtils.closeQuietly(in);
+                    }
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Void> future : partExecService.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            transFile.delete();
+            throw new DataStoreException("Download interrupted: " + identifier, e);
+        } catch (ExecutionException e) {
+            transFile.delete();
+            throw new DataStoreException("Could not download " + identifier,
+                e.getCause());
+        }
+        File f = cache.store(getFileName(identifier), transFile);
+        if (f == null) {
+            f = transFile;
+        } else if (!f.equals(transFile)) {
+            transFile.delete();
+        }
+        LOG.debug("[{}] of length [{}] downloaded in [{}] parts in [{}]ms",
+            new Object[] { identifier, length, tasks.size(),
+                (System.currentTimeMillis() - start) });
+        return new LazyFileInputStream(f);
+    }
+
     /**
      * Returns a unique temporary file to be used for creating a new data
      * record.
@@ -995,7 +1153,7 @@ public abstract class CachingDataStore extends AbstractDataStore implements
             DataIdentifier identifier = new DataIdentifier(f.getName());
             usesIdentifier(identifier);
             if (!backend.exists(identifier)) {
-                backend.write(identifier, f);
+                write(identifier, f);
             }
             if (updateAsyncUploadCache) {
                 String fileName = getFileName(identifier);
@@ -1060,6 +1218,9 @@ public abstract class CachingDataStore extends AbstractDataStore implements
         cache.close();
         backend.close();
         downloadExecService.shutdown();
+        if (partExecService != null) {
+            partExecService.shutdown();
+        }
     }
 
     /**
@@ -1222,10 +1383,142 @@ public abstract class CachingDataStore extends AbstractDataStore implements
         this.recLengthCacheSize = recLengthCacheSize;
     }
 
+    public long getPartSize() {
+        return partSize;
+    }
+
+    public void setPartSize(long partSize) {
+        this.partSize = partSize;
+    }
+
+    public int getPartThreads() {
+        return partThreads;
+    }
+
+    public void setPartThreads(int partThreads) {
+        this.partThreads = partThreads;
+    }
+
     public Backend getBackend() {
         return backend;
     }
 
+    /**
+     * Returns the local cache, for example to read its statistics.
+     */
+    public LocalCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Uploads the parts of a record concurrently. The part that completes
+     * last completes the record, or aborts it if any part failed.
+     */
+    private class PartsUpload {
+
+        private final DataIdentifier identifier;
+
+        private final File file;
+
+        private final boolean async;
+
+        private final MultipartBackend multipart = (MultipartBackend) backend;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private final AtomicReference<DataStoreException> failure =
+            new AtomicReference<DataStoreException>();
+
+        private AtomicInteger pending;
+
+        private String uploadId;
+
+        PartsUpload(DataIdentifier identifier, File file, boolean async) {
+            this.identifier = identifier;
+            this.file = file;
+            this.async = async;
+        }
+
+        /**
+         * Starts the upload.
+         * 
+         * @return <code>false</code> if the record already exists in
+         *         {@link Backend}
+         */
+        boolean start() throws DataStoreException {
+            long length = file.length();
+            uploadId = multipart.initiateWrite(identifier, length);
+            if (uploadId == null) {
+                return false;
+            }
+            final int partCount = (int) ((length + partSize - 1) / partSize);
+            pending = new AtomicInteger(partCount);
+            for (int i = 0; i < partCount; i++) {
+                final int partNumber = i + 1;
+                final long offset = i * partSize;
+                final long partLength = Math.min(partSize, length - offset);
+                partExecService.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (failure.get() == null) {
+                                multipart.writePart(identifier, uploadId,
+                                    partNumber, file, offset, partLength);
+                            }
+                        } catch (DataStoreException e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            if (pending.decrementAndGet() == 0) {
+                                complete(partCount);
+                            }
+                        }
+                    }
+                });
+            }
+            return true;
+        }
+
+        /**
+         * Waits until the upload is completed.
+         */
+        void await() throws DataStoreException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                throw new DataStoreException("Upload interrupted: "
+                    + identifier, e);
+            }
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+        }
+
+        private void complete(int partCount) {
+            if (failure.get() == null) {
+                try {
+                    multipart.completeWrite(identifier, uploadId, partCount);
+                } catch (DataStoreException e) {
+                    failure.set(e);
+                }
+            } else {
+                multipart.abortWrite(identifier, uploadId);
+            }
+            LOG.debug("upload of [{}] in [{}] parts completed, failure [{}]",
+                new Object[] { identifier, partCount, failure.get() });
+            done.countDown();
+            if (async) {
+                AsyncUploadResult result = new AsyncUploadResult(identifier,
+                    file);
+                if (failure.get() == null) {
+                    onSuccess(result);
+                } else {
+                    result.setException(failure.get());
+                    onFailure(result);
+                }
+            }
+        }
+    }
+
     /**
      * This class initiates files upload in multiple threads to backend.
      */
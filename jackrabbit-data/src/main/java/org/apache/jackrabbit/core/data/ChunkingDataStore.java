@@ -0,0 +1,591 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A data store that splits binaries into chunks and stores each chunk as a
+ * record of an underlying chunk store. Chunk boundaries are derived from the
+ * content (content-defined chunking with a gear rolling hash), so that a
+ * change in one place of a binary only changes the chunks around that place,
+ * and the chunks of the other versions of the binary are shared.
+ * <p>
+ * A record of this data store is a manifest listing the identifiers and
+ * lengths of its chunks, stored as a record of the chunk store. The
+ * identifier of a record is the identifier of its manifest, hence equal
+ * binaries are stored once. Chunks are read lazily while the stream of a
+ * record is consumed.
+ * <p>
+ * Garbage collection works on the chunk store: while the modified date is
+ * updated on access, accessing a record also updates the modified date of
+ * its chunks. The number of records returned by
+ * {@link #deleteAllOlderThan(long)} includes the deleted chunks.
+ * <p>
+ * Like the data stores of a {@link MultiDataStore}, the chunk store is
+ * initialized by the repository configuration parser. The configuration:
+ * 
+ * <pre>
+ * &lt;DataStore class="org.apache.jackrabbit.core.data.ChunkingDataStore"&gt;
+ *     &lt;param name="{@link #setMinChunkSize(int) minChunkSize}" value="65536"/&gt;
+ *     &lt;param name="{@link #setAverageChunkSize(int) averageChunkSize}" value="262144"/&gt;
+ *     &lt;param name="{@link #setMaxChunkSize(int) maxChunkSize}" value="1048576"/&gt;
+ *     &lt;param name="chunkStore" value="org.apache.jackrabbit.core.data.FileDataStore"&gt;
+ *        &lt;param .../&gt;
+ *     &lt;/param&gt;
+ * &lt;/DataStore&gt;
+ * </pre>
+ */
+public class ChunkingDataStore extends AbstractDataStore implements
+        MultiDataStoreAware {
+
+    /**
+     * Logger instance
+     */
+    private static Logger log = LoggerFactory.getLogger(ChunkingDataStore.class);
+
+    /**
+     * First line of a manifest.
+     */
+    static final String MANIFEST_HEADER = "jackrabbit-chunk-manifest-1";
+
+    /**
+     * Random values of the bytes for the gear hash. The seed is fixed, the
+     * chunk boundaries must never change.
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6a09e667f3bcc908L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private DataStore chunkStore;
+
+    /**
+     * Minimum size of a chunk, except for the last chunk of a binary.
+     */
+    private int minChunkSize = 64 * 1024;
+
+    /**
+     * Expected average size of a chunk.
+     */
+    private int averageChunkSize = 256 * 1024;
+
+    /**
+     * Maximum size of a chunk.
+     */
+    private int maxChunkSize = 1024 * 1024;
+
+    /**
+     * Mask of the hash bits that must be zero at a chunk boundary.
+     */
+    private long boundaryMask;
+
+    /**
+     * The minimum modified date. If a record is accessed, the modified date
+     * of its chunks is updated if it is older than this value.
+     */
+    private volatile long minModifiedDate;
+
+    /**
+     * Setter for the chunk store.
+     * 
+     * @param dataStore
+     *            the store chunks and manifests are stored in
+     */
+    public void setChunkDataStore(DataStore dataStore) {
+        this.chunkStore = dataStore;
+    }
+
+    public DataStore getChunkDataStore() {
+        return chunkStore;
+    }
+
+    public int getMinChunkSize() {
+        return minChunkSize;
+    }
+
+    public void setMinChunkSize(int minChunkSize) {
+        this.minChunkSize = minChunkSize;
+    }
+
+    public int getAverageChunkSize() {
+        return averageChunkSize;
+    }
+
+    public void setAverageChunkSize(int averageChunkSize) {
+        this.averageChunkSize = averageChunkSize;
+    }
+
+    public int getMaxChunkSize() {
+        return maxChunkSize;
+    }
+
+    public void setMaxChunkSize(int maxChunkSize) {
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void init(String homeDir) throws RepositoryException {
+        if (chunkStore == null) {
+            throw new DataStoreException(
+                    "A ChunkingDataStore must have configured a chunk store");
+        }
+        if (minChunkSize <= 0 || minChunkSize >= averageChunkSize
+                || averageChunkSize > maxChunkSize) {
+            throw new DataStoreException("Invalid chunk sizes: min "
+                    + minChunkSize + ", average " + averageChunkSize
+                    + ", max " + maxChunkSize);
+        }
+        // a boundary is found after (average - min) bytes on average
+        int bits = 64 - Long.numberOfLeadingZeros(averageChunkSize - minChunkSize - 1);
+        boundaryMask = bits == 0 ? 0 : -1L << (64 - bits);
+    }
+
+    /**
+     * Splits the stream into chunks, adds the chunks and the manifest to the
+     * chunk store, and returns the record of the manifest.
+     */
+    public DataRecord addRecord(InputStream stream) throws DataStoreException {
+        long start = System.currentTimeMillis();
+        Chunker chunker = new Chunker(stream);
+        List<DataIdentifier> ids = new ArrayList<DataIdentifier>();
+        List<Long> lengths = new ArrayList<Long>();
+        StringBuilder manifest = new StringBuilder(MANIFEST_HEADER).append('\n');
+        try {
+            int n;
+            while ((n = chunker.next()) > 0) {
+                DataRecord chunk = chunkStore.addRecord(
+                        new ByteArrayInputStream(chunker.buffer, 0, n));
+                ids.add(chunk.getIdentifier());
+                lengths.add((long) n);
+                manifest.append(chunk.getIdentifier()).append(' ')
+                        .append(n).append('\n');
+            }
+        } catch (IOException e) {
+            throw new DataStoreException("Could not add record", e);
+        }
+        DataRecord record = chunkStore.addRecord(new ByteArrayInputStream(
+                manifest.toString().getBytes(StandardCharsets.UTF_8)));
+        Manifest m = new Manifest(ids, lengths);
+        log.debug("Added {} of length {} in {} chunks in {} ms", new Object[] {
+                record.getIdentifier(), m.length, ids.size(),
+                System.currentTimeMillis() - start });
+        return new ChunkedRecord(record, m);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public DataRecord getRecordIfStored(DataIdentifier identifier)
+            throws DataStoreException {
+        DataRecord record = chunkStore.getRecordIfStored(identifier);
+        if (record == null) {
+            return null;
+        }
+        ChunkedRecord chunked = new ChunkedRecord(record, null);
+        if (minModifiedDate != 0) {
+            // update the modified date of the chunks
+            for (DataIdentifier id : new HashSet<DataIdentifier>(
+                    chunked.getManifest().ids)) {
+                if (chunkStore.getRecordIfStored(id) == null) {
+                    log.warn("Chunk " + id + " of record " + identifier
+                            + " not found");
+                }
+            }
+        }
+        return chunked;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateModifiedDateOnAccess(long before) {
+        minModifiedDate = before;
+        chunkStore.updateModifiedDateOnAccess(before);
+    }
+
+    /**
+     * Deletes the manifests and chunks of the chunk store that have a
+     * modified date older than the specified date.
+     * 
+     * @return the number of deleted manifests and chunks
+     */
+    public int deleteAllOlderThan(long min) throws DataStoreException {
+        return chunkStore.deleteAllOlderThan(min);
+    }
+
+    /**
+     * Returns the identifiers of the manifests of the chunk store. The first
+     * bytes of each record are read to tell manifests from chunks.
+     */
+    public Iterator<DataIdentifier> getAllIdentifiers()
+            throws DataStoreException {
+        byte[] header = (MANIFEST_HEADER + '\n').getBytes(StandardCharsets.UTF_8);
+        List<DataIdentifier> list = new ArrayList<DataIdentifier>();
+        Iterator<DataIdentifier> it = chunkStore.getAllIdentifiers();
+        while (it.hasNext()) {
+            DataIdentifier identifier = it.next();
+            DataRecord record = chunkStore.getRecordIfStored(identifier);
+            if (record == null || record.getLength() < header.length) {
+                continue;
+            }
+            InputStream in = record.getStream();
+            try {
+                byte[] buffer = new byte[header.length];
+                if (IOUtils.read(in, buffer) == header.length
+                        && Arrays.equals(header, buffer)) {
+                    list.add(identifier);
+                }
+            } catch (IOException e) {
+                throw new DataStoreException("Could not read record "
+                        + identifier, e);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+        return list.iterator();
+    }
+
+    /**
+     * Deletes the manifest of a record. The chunks are deleted by the
+     * garbage collection, as they may be used by other records.
+     */
+    public void deleteRecord(DataIdentifier identifier)
+            throws DataStoreException {
+        if (!(chunkStore instanceof MultiDataStoreAware)) {
+            throw new DataStoreException(
+                    "The chunk store does not support deleting records");
+        }
+        ((MultiDataStoreAware) chunkStore).deleteRecord(identifier);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getMinRecordLength() {
+        return chunkStore.getMinRecordLength();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws DataStoreException {
+        chunkStore.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clearInUse() {
+        chunkStore.clearInUse();
+    }
+
+    /**
+     * Uses the reference key of the chunk store, if it has one.
+     */
+    @Override
+    protected byte[] getOrCreateReferenceKey() throws DataStoreException {
+        if (chunkStore instanceof AbstractDataStore) {
+            return ((AbstractDataStore) chunkStore).getOrCreateReferenceKey();
+        }
+        return super.getOrCreateReferenceKey();
+    }
+
+    /**
+     * Reads a manifest.
+     * 
+     * @param record the record of the manifest
+     * @return the manifest
+     * @throws DataStoreException if the record is not a manifest
+     */
+    private static Manifest readManifest(DataRecord record)
+            throws DataStoreException {
+        List<DataIdentifier> ids = new ArrayList<DataIdentifier>();
+        List<Long> lengths = new ArrayList<Long>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                record.getStream(), StandardCharsets.UTF_8));
+        try {
+            if (!MANIFEST_HEADER.equals(reader.readLine())) {
+                throw new DataStoreException("Record "
+                        + record.getIdentifier() + " is not a chunk manifest");
+            }
+            for (String line = reader.readLine(); line != null
+                    && line.length() > 0; line = reader.readLine()) {
+                int space = line.indexOf(' ');
+                ids.add(new DataIdentifier(line.substring(0, space)));
+                lengths.add(Long.parseLong(line.substring(space + 1)));
+            }
+        } catch (IOException e) {
+            throw new DataStoreException("Could not read manifest "
+                    + record.getIdentifier(), e);
+        } catch (RuntimeException e) {
+            throw new DataStoreException("Invalid manifest "
+                    + record.getIdentifier(), e);
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+        return new Manifest(ids, lengths);
+    }
+
+    /**
+     * Splits a stream into chunks.
+     */
+    private class Chunker {
+
+        private final InputStream in;
+
+        /**
+         * The current chunk, followed by bytes read ahead.
+         */
+        private final byte[] buffer = new byte[maxChunkSize];
+
+        /**
+         * Number of bytes in the buffer.
+         */
+        private int filled;
+
+        /**
+         * Length of the current chunk.
+         */
+        private int chunk;
+
+        Chunker(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads the next chunk into the start of the buffer.
+         * 
+         * @return the length of the chunk, or 0 at the end of the stream
+         * @throws IOException if reading fails
+         */
+        int next() throws IOException {
+            // move the bytes read ahead to the start
+            System.arraycopy(buffer, chunk, buffer, 0, filled - chunk);
+            filled -= chunk;
+            filled += IOUtils.read(in, buffer, filled, buffer.length - filled);
+            long hash = 0;
+            chunk = filled;
+            for (int i = 0; i < filled; i++) {
+                hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+                if (i + 1 >= minChunkSize && (hash & boundaryMask) == 0) {
+                    chunk = i + 1;
+                    break;
+                }
+            }
+            return chunk;
+        }
+    }
+
+    /**
+     * Identifiers and lengths of the chunks of a record.
+     */
+    private static final class Manifest {
+
+        private final List<DataIdentifier> ids;
+
+        /**
+         * Offset of each chunk, followed by the length of the record.
+         */
+        private final long[] offsets;
+
+        private final long length;
+
+        Manifest(List<DataIdentifier> ids, List<Long> lengths) {
+            this.ids = ids;
+            offsets = new long[ids.size() + 1];
+            for (int i = 0; i < lengths.size(); i++) {
+                offsets[i + 1] = offsets[i] + lengths.get(i);
+            }
+            length = offsets[ids.size()];
+        }
+    }
+
+    /**
+     * A record of this data store, backed by the record of its manifest.
+     */
+    private class ChunkedRecord extends AbstractDataRecord {
+
+        private final DataRecord record;
+
+        private Manifest manifest;
+
+        ChunkedRecord(DataRecord record, Manifest manifest) {
+            super(ChunkingDataStore.this, record.getIdentifier());
+            this.record = record;
+            this.manifest = manifest;
+        }
+
+        synchronized Manifest getManifest() throws DataStoreException {
+            if (manifest == null) {
+                manifest = readManifest(record);
+            }
+            return manifest;
+        }
+
+        public long getLength() throws DataStoreException {
+            return getManifest().length;
+        }
+
+        public InputStream getStream() throws DataStoreException {
+            return new ChunkedInputStream(getManifest());
+        }
+
+        public long getLastModified() {
+            return record.getLastModified();
+        }
+    }
+
+    /**
+     * Stream of a record, opening each chunk when it is reached. Skipping
+     * does not read the skipped chunks.
+     */
+    private class ChunkedInputStream extends InputStream {
+
+        private final Manifest manifest;
+
+        /**
+         * Index of the current chunk.
+         */
+        private int index;
+
+        /**
+         * Position in the record.
+         */
+        private long position;
+
+        /**
+         * Stream of the current chunk, or <code>null</code>.
+         */
+        private InputStream current;
+
+        ChunkedInputStream(Manifest manifest) {
+            this.manifest = manifest;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position < manifest.length) {
+                if (current == null) {
+                    current = openChunk();
+                }
+                int n = current.read(b, off, (int) Math.min(len,
+                        manifest.offsets[index + 1] - position));
+                if (n > 0) {
+                    position += n;
+                    if (position == manifest.offsets[index + 1]) {
+                        nextChunk();
+                    }
+                    return n;
+                }
+                throw new IOException("Unexpected end of chunk "
+                        + manifest.ids.get(index));
+            }
+            return -1;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0 || position >= manifest.length) {
+                // at the end, there is no current chunk
+                return 0;
+            }
+            long target = Math.min(position + n, manifest.length);
+            long skipped = target - position;
+            if (target >= manifest.offsets[index + 1]) {
+                // skip whole chunks without reading them
+                IOUtils.closeQuietly(current);
+                current = null;
+                while (index < manifest.ids.size()
+                        && manifest.offsets[index + 1] <= target) {
+                    index++;
+                }
+                position = manifest.offsets[index];
+            }
+            if (target > position) {
+                if (current == null) {
+                    current = openChunk();
+                }
+                IOUtils.skipFully(current, target - position);
+                position = target;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return current == null ? 0 : current.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOUtils.closeQuietly(current);
+            current = null;
+            index = manifest.ids.size();
+            position = manifest.length;
+        }
+
+        private InputStream openChunk() throws IOException {
+            DataIdentifier id = manifest.ids.get(index);
+            try {
+                InputStream in = chunkStore.getRecord(id).getStream();
+                IOUtils.skipFully(in, position - manifest.offsets[index]);
+                return in;
+            } catch (DataStoreException e) {
+                throw new IOException("Could not read chunk " + id, e);
+            }
+        }
+
+        private void nextChunk() {
+            IOUtils.closeQuietly(current);
+            current = null;
+            index++;
+        }
+    }
+}
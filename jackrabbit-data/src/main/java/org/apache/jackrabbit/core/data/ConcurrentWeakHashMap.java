@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A map with weak keys that supports concurrent access, used to track the
+ * data identifiers in use. Like a {@link java.util.WeakHashMap}, an entry
+ * is removed once its key is no longer strongly reachable, and keys are
+ * compared with <code>equals</code>. Unlike a synchronized
+ * <code>WeakHashMap</code>, threads using different keys do not contend.
+ * <p>
+ * The entry set is a snapshot of the live entries, it does not support
+ * modifications.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+class ConcurrentWeakHashMap<K, V> extends AbstractMap<K, V> {
+
+    private final ConcurrentHashMap<WeakKey<K>, V> map =
+            new ConcurrentHashMap<WeakKey<K>, V>();
+
+    /**
+     * Queue of the keys that are no longer reachable.
+     */
+    private final ReferenceQueue<K> queue = new ReferenceQueue<K>();
+
+    @Override
+    public V put(K key, V value) {
+        expunge();
+        return map.put(new WeakKey<K>(key, queue), value);
+    }
+
+    @Override
+    public V get(Object key) {
+        expunge();
+        return map.get(lookup(key));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        expunge();
+        return map.containsKey(lookup(key));
+    }
+
+    @Override
+    public V remove(Object key) {
+        expunge();
+        return map.remove(lookup(key));
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+        expunge();
+    }
+
+    @Override
+    public int size() {
+        expunge();
+        return map.size();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        expunge();
+        Set<Map.Entry<K, V>> entries = new HashSet<Map.Entry<K, V>>();
+        for (Map.Entry<WeakKey<K>, V> entry : map.entrySet()) {
+            K key = entry.getKey().get();
+            if (key != null) {
+                entries.add(new SimpleImmutableEntry<K, V>(key, entry.getValue()));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Removes the entries of the keys that are no longer reachable.
+     */
+    private void expunge() {
+        Object ref;
+        while ((ref = queue.poll()) != null) {
+            map.remove(ref);
+        }
+    }
+
+    /**
+     * Returns a key to look up an entry. The key is strongly reachable
+     * from the caller while the lookup key is in use, hence the lookup key
+     * is not registered with the queue.
+     *
+     * @param key the key
+     * @return the lookup key
+     */
+    @SuppressWarnings("unchecked")
+    private static <K> WeakKey<K> lookup(Object key) {
+        return new WeakKey<K>((K) key, null);
+    }
+
+    /**
+     * Weak reference to a key, comparing the referenced keys.
+     */
+    private static final class WeakKey<K> extends WeakReference<K> {
+
+        private final int hash;
+
+        WeakKey(K key, ReferenceQueue<K> queue) {
+            super(key, queue);
+            this.hash = key.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof WeakKey)) {
+                return false;
+            }
+            Object key = get();
+            return key != null && key.equals(((WeakKey<?>) obj).get());
+        }
+    }
+}
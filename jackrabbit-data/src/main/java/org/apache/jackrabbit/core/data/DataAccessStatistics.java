@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+/**
+ * Approximate recent access counts of data records (a count-min sketch).
+ * The counts are kept in a fixed number of counters, whatever the number
+ * of records: an estimate may be too high, but is never too low, apart from
+ * lost concurrent updates. Recording an access only updates four counters
+ * and does not allocate memory, so it can be done on every read.
+ * <p>
+ * Once the number of recorded accesses reaches ten times the number of
+ * counters, all counts are halved, hence the counts reflect the recent
+ * accesses and records that are no longer read cool down.
+ * <p>
+ * This class is thread-safe. Concurrent updates are not synchronized and
+ * may be lost, which is acceptable for estimates.
+ */
+public final class DataAccessStatistics {
+
+    private static final int DEPTH = 4;
+
+    private final int[] counters;
+
+    private final int mask;
+
+    private final int resetThreshold;
+
+    private int accesses;
+
+    /**
+     * Creates the statistics.
+     *
+     * @param size the number of counters, rounded up to a power of two,
+     *          at least 64
+     */
+    public DataAccessStatistics(int size) {
+        int width = Integer.highestOneBit(Math.max(64, size) - 1) << 1;
+        counters = new int[width];
+        mask = width / DEPTH - 1;
+        resetThreshold = width * 10;
+    }
+
+    /**
+     * Records an access to a record.
+     *
+     * @param identifier the identifier of the record
+     */
+    public void recordAccess(DataIdentifier identifier) {
+        int hash = spread(identifier.hashCode());
+        for (int i = 0; i < DEPTH; i++) {
+            int index = getIndex(hash, i);
+            if (counters[index] < Integer.MAX_VALUE) {
+                counters[index]++;
+            }
+        }
+        if (++accesses >= resetThreshold) {
+            halve();
+        }
+    }
+
+    /**
+     * Returns the estimated number of recent accesses to a record.
+     *
+     * @param identifier the identifier of the record
+     * @return the estimated number of accesses
+     */
+    public int getAccessCount(DataIdentifier identifier) {
+        int hash = spread(identifier.hashCode());
+        int count = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            count = Math.min(count, counters[getIndex(hash, i)]);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the memory used by the counters.
+     *
+     * @return the number of bytes
+     */
+    public long getMemoryUsage() {
+        return counters.length * 4L;
+    }
+
+    private synchronized void halve() {
+        if (accesses < resetThreshold) {
+            // halved by another thread
+            return;
+        }
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] >>>= 1;
+        }
+        accesses = 0;
+    }
+
+    private int getIndex(int hash, int row) {
+        int h = hash * (0x9E3779B9 + 2 * row) + row;
+        return row * (mask + 1) + ((h ^ (h >>> 16)) & mask);
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+}
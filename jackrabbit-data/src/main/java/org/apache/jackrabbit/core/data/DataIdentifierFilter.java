@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A compact set of data identifiers that may report identifiers it does
+ * not contain, but never misses one it contains (a Bloom filter). The
+ * garbage collector uses it to remember the referenced records: a false
+ * positive only keeps an unreferenced record until the next collection,
+ * which uses a different random seed.
+ * <p>
+ * The filter grows as identifiers are added: when a layer is full, a new
+ * layer twice as large and with half the false positive rate is added, so
+ * the overall false positive rate stays close to the configured rate.
+ * Depending on how full the last layer is, twelve to twenty-five bits are
+ * used per identifier at a rate of one percent.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class DataIdentifierFilter {
+
+    private final double falsePositiveRate;
+
+    private final long seed;
+
+    private final List<Layer> layers = new ArrayList<Layer>();
+
+    private long count;
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param initialCapacity the number of identifiers of the first layer
+     * @param falsePositiveRate the false positive rate, between 0 and 1
+     */
+    public DataIdentifierFilter(int initialCapacity, double falsePositiveRate) {
+        if (initialCapacity <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("capacity " + initialCapacity
+                    + ", false positive rate " + falsePositiveRate);
+        }
+        this.falsePositiveRate = falsePositiveRate;
+        this.seed = new Random().nextLong();
+        layers.add(new Layer(initialCapacity, falsePositiveRate / 2));
+    }
+
+    /**
+     * Adds an identifier.
+     *
+     * @param identifier the identifier
+     */
+    public synchronized void add(DataIdentifier identifier) {
+        long hash = hash(identifier.toString());
+        if (contains(hash)) {
+            return;
+        }
+        Layer layer = layers.get(layers.size() - 1);
+        if (layer.isFull()) {
+            int n = layers.size();
+            layer = new Layer(layer.capacity * 2L,
+                    falsePositiveRate / (2L << n));
+            layers.add(layer);
+        }
+        layer.add(hash);
+        count++;
+    }
+
+    /**
+     * Returns whether the identifier may have been added. If the identifier
+     * was added, this method returns <code>true</code>.
+     *
+     * @param identifier the identifier
+     * @return <code>false</code> if the identifier was not added
+     */
+    public synchronized boolean mightContain(DataIdentifier identifier) {
+        return contains(hash(identifier.toString()));
+    }
+
+    /**
+     * Returns the number of distinct identifiers added, not counting
+     * identifiers that were reported as already contained.
+     *
+     * @return the number of identifiers
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the memory used by the filter.
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getMemoryUsage() {
+        long size = 0;
+        for (Layer layer : layers) {
+            size += layer.bits.length * 8L;
+        }
+        return size;
+    }
+
+    private boolean contains(long hash) {
+        for (Layer layer : layers) {
+            if (layer.contains(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes a 64 bit hash of a string, mixing in the seed of this filter.
+     */
+    private long hash(String s) {
+        long h = seed ^ (s.length() * 0x9e3779b97f4a7c15L);
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        // finalizer of MurmurHash3
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * A Bloom filter of fixed capacity.
+     */
+    private static final class Layer {
+
+        private final long capacity;
+
+        private final long[] bits;
+
+        private final long bitCount;
+
+        private final int hashCount;
+
+        private long size;
+
+        Layer(long capacity, double falsePositiveRate) {
+            this.capacity = capacity;
+            double ln2 = Math.log(2);
+            long m = (long) Math.ceil(
+                    -capacity * Math.log(falsePositiveRate) / (ln2 * ln2));
+            int words = (int) Math.min(Integer.MAX_VALUE - 8, (m + 63) / 64);
+            bits = new long[Math.max(1, words)];
+            bitCount = bits.length * 64L;
+            hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * ln2));
+        }
+
+        boolean isFull() {
+            return size >= capacity;
+        }
+
+        void add(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashCount; i++) {
+                long index = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitCount;
+                bits[(int) (index >>> 6)] |= 1L << index;
+            }
+            size++;
+        }
+
+        boolean contains(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashCount; i++) {
+                long index = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitCount;
+                if ((bits[(int) (index >>> 6)] & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
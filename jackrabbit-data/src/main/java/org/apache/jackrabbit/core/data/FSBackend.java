@@ -25,6 +25,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -35,10 +36,11 @@ import java.util.Set;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class FSBackend extends AbstractBackend {
+public class FSBackend extends AbstractBackend implements MultipartBackend {
 
     private Properties properties;
 
@@ -193,6 +195,124 @@ public class FSBackend extends AbstractBackend {
         });
     }
 
+    @Override
+    public InputStream read(DataIdentifier identifier, long offset,
+                    long length) throws DataStoreException {
+        File file = getFile(identifier);
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            in.getChannel().position(offset);
+            InputStream range = new BoundedInputStream(in, length);
+            in = null;
+            return range;
+        } catch (IOException e) {
+            throw new DataStoreException("Error opening input stream of "
+                + file.getAbsolutePath(), e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Parts of any size can be written.
+     */
+    @Override
+    public long getMinPartSize() {
+        return 1;
+    }
+
+    /**
+     * Parts are written to a temporary file in the top-level directory, which
+     * is ignored by {@link #getAllIdentifiers()} and garbage collection. The
+     * name of that file is the upload id.
+     */
+    @Override
+    public String initiateWrite(DataIdentifier identifier, long length)
+                    throws DataStoreException {
+        if (exists(identifier, true)) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            File temp = File.createTempFile("upload", null, fsPathDir);
+            raf = new RandomAccessFile(temp, "rw");
+            raf.setLength(length);
+            return temp.getName();
+        } catch (IOException e) {
+            throw new DataStoreException("Not able to write file ["
+                + identifier + "]", e);
+        } finally {
+            IOUtils.closeQuietly(raf);
+        }
+    }
+
+    @Override
+    public void writePart(DataIdentifier identifier, String uploadId,
+                    int partNumber, File file, long offset, long length)
+                    throws DataStoreException {
+        FileInputStream in = null;
+        RandomAccessFile out = null;
+        try {
+            in = new FileInputStream(file);
+            out = new RandomAccessFile(new File(fsPathDir, uploadId), "rw");
+            FileChannel src = in.getChannel();
+            FileChannel dest = out.getChannel();
+            long done = 0;
+            while (done < length) {
+                long n = dest.transferFrom(src.position(offset + done),
+                    offset + done, length - done);
+                if (n <= 0) {
+                    throw new IOException("Unexpected end of file "
+                        + file.getAbsolutePath());
+                }
+                done += n;
+            }
+        } catch (IOException e) {
+            throw new DataStoreException("Not able to write part "
+                + partNumber + " of file [" + identifier + "]", e);
+        } finally {
+            IOUtils.closeQuietly(in);
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    @Override
+    public void completeWrite(DataIdentifier identifier, String uploadId,
+                    int partCount) throws DataStoreException {
+        File temp = new File(fsPathDir, uploadId);
+        File dest = getFile(identifier);
+        synchronized (this) {
+            if (dest.exists()) {
+                long now = System.currentTimeMillis();
+                if (getLastModified(dest) < now + ACCESS_TIME_RESOLUTION) {
+                    setLastModified(dest, now + ACCESS_TIME_RESOLUTION);
+                }
+                temp.delete();
+                return;
+            }
+            File parent = dest.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new DataStoreException("Could not create directory: "
+                    + parent.getAbsolutePath());
+            }
+            if (!temp.renameTo(dest)) {
+                throw new DataStoreException("failed to move ["
+                    + temp.getAbsolutePath() + "] to ["
+                    + dest.getAbsolutePath() + "]");
+            }
+        }
+    }
+
+    @Override
+    public void abortWrite(DataIdentifier identifier, String uploadId) {
+        File temp = new File(fsPathDir, uploadId);
+        if (temp.exists() && !temp.delete()) {
+            LOG.warn("Could not delete [{}] of aborted upload of [{}]",
+                temp.getAbsolutePath(), identifier);
+        }
+    }
+
     @Override
     public Iterator<DataIdentifier> getAllIdentifiers()
                     throws DataStoreException {
@@ -22,7 +22,8 @@ import java.io.InputStream;
 
 
 /**
- * Data record that is based on a normal file.
+ * Data record that is based on a normal file. A file with the
+ * {@link GzipFile#SUFFIX} suffix holds the compressed binary stream.
  */
 public class FileDataRecord extends AbstractDataRecord {
 
@@ -31,6 +32,11 @@ public class FileDataRecord extends AbstractDataRecord {
      */
     private final File file;
 
+    /**
+     * Whether the file is compressed.
+     */
+    private final boolean compressed;
+
     /**
      * Creates a data record based on the given identifier and file.
      *
@@ -42,13 +48,21 @@ public class FileDataRecord extends AbstractDataRecord {
         super(store, identifier);
         assert file.isFile();
         this.file = file;
+        this.compressed = file.getName().endsWith(GzipFile.SUFFIX);
     }
 
     /**
      * {@inheritDoc}
      */
-    public long getLength() {
-        return file.length();
+    public long getLength() throws DataStoreException {
+        if (!compressed) {
+            return file.length();
+        }
+        try {
+            return GzipFile.readLength(file);
+        } catch (IOException e) {
+            throw new DataStoreException("Error reading the length of " + file.getAbsolutePath(), e);
+        }
     }
 
     /**
@@ -56,6 +70,9 @@ public class FileDataRecord extends AbstractDataRecord {
      */
     public InputStream getStream() throws DataStoreException {
         try {
+            if (compressed) {
+                return new GzipFileInputStream(file);
+            }
             return new LazyFileInputStream(file);
         } catch (IOException e) {
             throw new DataStoreException("Error opening input stream of " + file.getAbsolutePath(), e);
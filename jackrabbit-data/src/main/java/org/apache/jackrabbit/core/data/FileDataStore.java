@@ -16,23 +16,23 @@
  */
 package org.apache.jackrabbit.core.data;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
 import java.lang.ref.WeakReference;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -48,20 +48,35 @@ import org.slf4j.LoggerFactory;
  * &lt;DataStore class="org.apache.jackrabbit.core.data.FileDataStore"&gt;
  *     &lt;param name="{@link #setPath(String) path}" value="/data/datastore"/&gt;
  *     &lt;param name="{@link #setMinRecordLength(int) minRecordLength}" value="1024"/&gt;
+ *     &lt;param name="{@link #setCompressionThreshold(int) compressionThreshold}" value="16384"/&gt;
  * &lt;/DataStore&gt;
  * </pre>
  * <p>
  * If the directory is not set, the directory &lt;repository home&gt;/repository/datastore is used.
  * <p>
+ * If a compression threshold is set, records of at least this length whose
+ * first bytes compress well are stored compressed, in a gzip file named
+ * after the identifier with the suffix <code>.gz</code>. The identifier is
+ * still the digest of the uncompressed binary stream, and the stream of the
+ * record is decompressed while it is read. The stream gives access to the
+ * gzip file through {@link org.apache.jackrabbit.util.GzipContentProvider},
+ * so that the compressed data can be sent as is to HTTP clients.
+ * <p>
  * A three level directory structure is used to avoid placing too many
  * files in a single directory. The chosen structure is designed to scale
  * up to billions of distinct records.
  * <p>
  * This implementation relies on the underlying file system to support
  * atomic O(1) move operations with {@link File#renameTo(File)}.
+ * <p>
+ * Records are added, touched and deleted under a lock that depends on the
+ * data identifier, so that concurrent operations on different records
+ * rarely contend. Directories are created and deleted without locking;
+ * moving a new record in place is retried if its directory was deleted
+ * concurrently.
  */
 public class FileDataStore extends AbstractDataStore
-        implements MultiDataStoreAware {
+        implements MultiDataStoreAware, MarkAndSweepAware {
 
     /**
      * Logger instance
@@ -84,6 +99,21 @@ public class FileDataStore extends AbstractDataStore
      */
     private static final String TMP = "tmp";
 
+    /**
+     * The number of locks used to guard the records.
+     */
+    private static final int LOCK_STRIPES = 256;
+
+    /**
+     * The number of attempts to move a new record in place.
+     */
+    private static final int RENAME_ATTEMPTS = 10;
+
+    /**
+     * The number of bytes tested to decide whether a record is compressed.
+     */
+    private static final int COMPRESSION_SAMPLE_LENGTH = 16 * 1024;
+
     /**
      * The minimum modified date. If a file is accessed (read or write) with a modified date
      * older than this value, the modified date is updated to the current time.
@@ -107,11 +137,28 @@ public class FileDataStore extends AbstractDataStore
      */
     private int minRecordLength = DEFAULT_MIN_RECORD_LENGTH;
 
+    /**
+     * The minimum length of a record that is stored compressed, or -1 if
+     * records are not compressed.
+     */
+    private int compressionThreshold = -1;
+
     /**
      * All data identifiers that are currently in use are in this set until they are garbage collected.
      */
     protected Map<DataIdentifier, WeakReference<DataIdentifier>> inUse =
-        Collections.synchronizedMap(new WeakHashMap<DataIdentifier, WeakReference<DataIdentifier>>());
+        new ConcurrentWeakHashMap<DataIdentifier, WeakReference<DataIdentifier>>();
+
+    /**
+     * The locks guarding the records, selected by data identifier.
+     */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public FileDataStore() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
 
     /**
      * Initialized the data store.
@@ -135,13 +182,13 @@ public class FileDataStore extends AbstractDataStore
      * @return the data record or null
      */
     public DataRecord getRecordIfStored(DataIdentifier identifier) throws DataStoreException {
-        File file = getFile(identifier);
-        if (!file.exists()) {
+        File file = getExistingFile(identifier);
+        if (file == null) {
             return null;
         }
         if (minModifiedDate != 0) {
             // only check when running garbage collection
-            synchronized (this) {
+            synchronized (getLock(identifier)) {
                 if (getLastModified(file) < minModifiedDate) {
                     setLastModified(file, System.currentTimeMillis() + ACCESS_TIME_RESOLUTION);
                 }
@@ -162,6 +209,12 @@ public class FileDataStore extends AbstractDataStore
      * record with the same {@link #DIGEST} digest (and length) is found then it is
      * returned. Otherwise the temporary file is moved in place to become
      * the new data record that gets returned.
+     * <p>
+     * If the first bytes of the stream compress well, and the stream is at
+     * least as long as the compression threshold, the temporary file holds
+     * the compressed stream. Only a small sample is read ahead into memory;
+     * a compressed stream that turns out to be shorter than the threshold
+     * is decompressed to a plain temporary file.
      *
      * @param input binary stream
      * @return data record that contains the given stream
@@ -177,41 +230,69 @@ public class FileDataStore extends AbstractDataStore
             // stream length and the message digest of the stream
             long length = 0;
             MessageDigest digest = MessageDigest.getInstance(DIGEST);
-            OutputStream output = new DigestOutputStream(
-                    new FileOutputStream(temporary), digest);
-            try {
-                length = IOUtils.copyLarge(input, output);
-            } finally {
-                output.close();
+            boolean compress = false;
+            if (compressionThreshold >= 0) {
+                byte[] sample = new byte[COMPRESSION_SAMPLE_LENGTH];
+                int n = IOUtils.read(input, sample);
+                // a stream that ends within the sample is known to be short
+                compress = (n == sample.length || n >= compressionThreshold)
+                        && GzipFile.isCompressible(sample, n);
+                input = new SequenceInputStream(
+                        new ByteArrayInputStream(sample, 0, n), input);
+            }
+            if (compress) {
+                length = GzipFile.write(input, temporary, digest);
+                if (length < compressionThreshold) {
+                    // too short after all, keep a plain copy instead
+                    File plain = newTemporaryFile();
+                    DataIdentifier plainId = new DataIdentifier(plain.getName());
+                    usesIdentifier(plainId);
+                    try {
+                        FileUtils.copyInputStreamToFile(
+                                new GzipFileInputStream(temporary), plain);
+                    } catch (IOException e) {
+                        plain.delete();
+                        throw e;
+                    }
+                    temporary.delete();
+                    temporary = plain;
+                    inUse.remove(tempId);
+                    tempId = plainId;
+                    compress = false;
+                }
+            } else {
+                OutputStream output = new DigestOutputStream(
+                        new FileOutputStream(temporary), digest);
+                try {
+                    length = IOUtils.copyLarge(input, output);
+                } finally {
+                    output.close();
+                }
             }
             DataIdentifier identifier =
                     new DataIdentifier(encodeHexString(digest.digest()));
             File file;
 
-            synchronized (this) {
-                // Check if the same record already exists, or
-                // move the temporary file in place if needed
+            synchronized (getLock(identifier)) {
+                // Check if the same record already exists, compressed or
+                // not, or move the temporary file in place if needed
                 usesIdentifier(identifier);
-                file = getFile(identifier);
-                if (!file.exists()) {
-                    File parent = file.getParentFile();
-                    parent.mkdirs();
-                    if (temporary.renameTo(file)) {
-                        // no longer need to delete the temporary file
-                        temporary = null;
-                    } else {
-                        throw new IOException(
-                                "Can not rename " + temporary.getAbsolutePath()
-                                + " to " + file.getAbsolutePath()
-                                + " (media read only?)");
+                file = getExistingFile(identifier);
+                if (file == null) {
+                    file = getFile(identifier);
+                    if (compress) {
+                        file = getCompressedFile(file);
                     }
+                    moveInPlace(temporary, file);
+                    // no longer need to delete the temporary file
+                    temporary = null;
                 } else {
                     long now = System.currentTimeMillis();
                     if (getLastModified(file) < now + ACCESS_TIME_RESOLUTION) {
                         setLastModified(file, now + ACCESS_TIME_RESOLUTION);
                     }
                 }
-                if (file.length() != length) {
+                if (getLength(file) != length) {
                     // Sanity checks on the record file. These should never fail,
                     // but better safe than sorry...
                     if (!file.isFile()) {
@@ -235,6 +316,42 @@ public class FileDataStore extends AbstractDataStore
         }
     }
 
+    /**
+     * Moves a new record in place. The parent directories are created if
+     * needed; as empty directories are deleted concurrently by the garbage
+     * collector, the move is retried if the parent directory disappeared.
+     *
+     * @param temporary the temporary file
+     * @param file the record file
+     * @throws IOException if the file can not be moved
+     */
+    private static void moveInPlace(File temporary, File file) throws IOException {
+        File parent = file.getParentFile();
+        for (int i = 0; i < RENAME_ATTEMPTS; i++) {
+            parent.mkdirs();
+            if (temporary.renameTo(file)) {
+                return;
+            }
+            if (parent.isDirectory()) {
+                break;
+            }
+        }
+        throw new IOException(
+                "Can not rename " + temporary.getAbsolutePath()
+                + " to " + file.getAbsolutePath()
+                + " (media read only?)");
+    }
+
+    /**
+     * Returns the lock guarding the given record.
+     *
+     * @param identifier data identifier
+     * @return the lock
+     */
+    private Object getLock(DataIdentifier identifier) {
+        return locks[(identifier.hashCode() & Integer.MAX_VALUE) % locks.length];
+    }
+
     /**
      * Returns the identified file. This method implements the pattern
      * used to avoid problems with too many files in a single directory.
@@ -254,6 +371,59 @@ public class FileDataStore extends AbstractDataStore
         return new File(file, string);
     }
 
+    /**
+     * Returns the file of the identified record, compressed or not.
+     *
+     * @param identifier data identifier
+     * @return the file, or <code>null</code> if the record does not exist
+     */
+    private File getExistingFile(DataIdentifier identifier) {
+        File file = getFile(identifier);
+        if (file.exists()) {
+            return file;
+        }
+        file = getCompressedFile(file);
+        return file.exists() ? file : null;
+    }
+
+    /**
+     * Returns the file holding a record in compressed form.
+     *
+     * @param file the uncompressed record file
+     * @return the compressed record file
+     */
+    private static File getCompressedFile(File file) {
+        return new File(file.getParentFile(), file.getName() + GzipFile.SUFFIX);
+    }
+
+    /**
+     * Returns the data identifier of a record file.
+     *
+     * @param file a record file
+     * @return the data identifier
+     */
+    private static DataIdentifier getIdentifier(File file) {
+        String name = file.getName();
+        if (name.endsWith(GzipFile.SUFFIX)) {
+            name = name.substring(0, name.length() - GzipFile.SUFFIX.length());
+        }
+        return new DataIdentifier(name);
+    }
+
+    /**
+     * Returns the uncompressed length of a record file.
+     *
+     * @param file a record file
+     * @return the length of the binary stream
+     * @throws IOException if the length of a compressed record can not be read
+     */
+    private static long getLength(File file) throws IOException {
+        if (file.getName().endsWith(GzipFile.SUFFIX)) {
+            return GzipFile.readLength(file);
+        }
+        return file.length();
+    }
+
     /**
      * Returns a unique temporary file to be used for creating a new
      * data record.
@@ -272,9 +442,9 @@ public class FileDataStore extends AbstractDataStore
 
     public void deleteRecord(DataIdentifier identifier)
 			throws DataStoreException {
-        File file = getFile(identifier);
-        synchronized (this) {
-            if (file.exists()) {
+        synchronized (getLock(identifier)) {
+            File file = getExistingFile(identifier);
+            if (file != null) {
                 if (file.delete()) {
                     deleteEmptyParentDirs(file);
                 } else {
@@ -309,19 +479,29 @@ public class FileDataStore extends AbstractDataStore
     }
 
     public int deleteAllOlderThan(long min) {
+        return deleteAllUnreferencedOlderThan(min, null);
+    }
+
+    public int deleteAllUnreferencedOlderThan(
+            long min, DataIdentifierFilter referenced) {
         int count = 0;
         for (File file : directory.listFiles()) {
             if (file.isDirectory()) { // skip top-level files
-                count += deleteOlderRecursive(file, min);
+                count += deleteOlderRecursive(file, min, referenced);
             }
         }
         return count;
     }
 
-    private int deleteOlderRecursive(File file, long min) {
+    private int deleteOlderRecursive(
+            File file, long min, DataIdentifierFilter referenced) {
         int count = 0;
         if (file.isFile() && file.exists() && file.canWrite()) {
-            synchronized (this) {
+            DataIdentifier id = getIdentifier(file);
+            if (referenced != null && referenced.mightContain(id)) {
+                return 0;
+            }
+            synchronized (getLock(id)) {
                 long lastModified;
                 try {
                     lastModified = getLastModified(file);
@@ -331,7 +511,6 @@ public class FileDataStore extends AbstractDataStore
                     lastModified = min;
                 }
                 if (lastModified < min) {
-                    DataIdentifier id = new DataIdentifier(file.getName());
                     if (!inUse.containsKey(id)) {
                         if (log.isInfoEnabled()) {
                             log.info("Deleting old file " + file.getAbsolutePath() +
@@ -349,17 +528,17 @@ public class FileDataStore extends AbstractDataStore
             File[] list = file.listFiles();
             if (list != null) {
                 for (File f: list) {
-                    count += deleteOlderRecursive(f, min);
+                    count += deleteOlderRecursive(f, min, referenced);
                 }
             }
 
             // JCR-1396: FileDataStore Garbage Collector and empty directories
             // Automatic removal of empty directories (but not the root!)
-            synchronized (this) {
-                list = file.listFiles();
-                if (list != null && list.length == 0) {
-                    file.delete();
-                }
+            // A record moved in place concurrently makes the deletion fail,
+            // or retries if the directory is gone
+            list = file.listFiles();
+            if (list != null && list.length == 0) {
+                file.delete();
             }
         }
         return count;
@@ -388,8 +567,7 @@ public class FileDataStore extends AbstractDataStore
 
         ArrayList<DataIdentifier> identifiers = new ArrayList<DataIdentifier>();
         for (File f: files) {
-            String name = f.getName();
-            identifiers.add(new DataIdentifier(name));
+            identifiers.add(getIdentifier(f));
         }
         log.debug("Found " + identifiers.size() + " identifiers.");
         return identifiers.iterator();
@@ -430,6 +608,21 @@ public class FileDataStore extends AbstractDataStore
         this.minRecordLength = minRecordLength;
     }
 
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Set the minimum length of a record that is stored compressed, if its
+     * content compresses well. The default is -1, records are not
+     * compressed.
+     *
+     * @param compressionThreshold the length, or -1
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
     public void close() {
         // nothing to do
     }
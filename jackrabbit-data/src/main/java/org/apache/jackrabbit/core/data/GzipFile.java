@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Reads and writes the files of compressed data records. The files are
+ * in the gzip format (RFC 1952), so that they can be sent as is to clients
+ * that accept this content coding. The length of the uncompressed data is
+ * kept in an extra field of the gzip header, so that it is known without
+ * decompressing the file.
+ */
+final class GzipFile {
+
+    /**
+     * The suffix of the name of a compressed record file.
+     */
+    static final String SUFFIX = ".gz";
+
+    /**
+     * The gzip header: magic number, deflate method, FEXTRA flag, no
+     * modification time, unknown operating system, followed by the extra
+     * field "JL" holding the uncompressed length.
+     */
+    private static final byte[] HEADER = {
+        0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff,
+        12, 0, 'J', 'L', 8, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+
+    /**
+     * The position of the uncompressed length in the header.
+     */
+    private static final int LENGTH_OFFSET = 16;
+
+    private GzipFile() {
+    }
+
+    /**
+     * Compresses a stream to a file, and updates the digest with the
+     * uncompressed data.
+     *
+     * @param in the stream to compress
+     * @param file the file to write
+     * @param digest the digest to update
+     * @return the length of the uncompressed data
+     * @throws IOException if reading or writing fails
+     */
+    static long write(InputStream in, File file, MessageDigest digest)
+            throws IOException {
+        long length;
+        CRC32 crc = new CRC32();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(HEADER);
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                DeflaterOutputStream deflate =
+                        new DeflaterOutputStream(out, deflater, 8192);
+                length = IOUtils.copyLarge(in, new DigestOutputStream(
+                        new CheckedOutputStream(deflate, crc), digest));
+                // finish without closing the file
+                deflate.finish();
+            } finally {
+                deflater.end();
+            }
+            writeLittleEndian(out, crc.getValue(), 4);
+            writeLittleEndian(out, length, 4);
+        } finally {
+            out.close();
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(LENGTH_OFFSET);
+            byte[] buffer = new byte[8];
+            for (int i = 0; i < buffer.length; i++) {
+                buffer[i] = (byte) (length >>> (8 * i));
+            }
+            raf.write(buffer);
+        } finally {
+            raf.close();
+        }
+        return length;
+    }
+
+    /**
+     * Reads the length of the uncompressed data from the header of a file.
+     *
+     * @param file the file
+     * @return the length of the uncompressed data
+     * @throws IOException if the file can not be read, or was not written
+     *             by this class
+     */
+    static long readLength(File file) throws IOException {
+        byte[] header = new byte[HEADER.length];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(header);
+        } catch (EOFException e) {
+            throw new IOException("Not a compressed record: " + file, e);
+        } finally {
+            in.close();
+        }
+        for (int i = 0; i < LENGTH_OFFSET; i++) {
+            if (header[i] != HEADER[i]) {
+                throw new IOException("Not a compressed record: " + file);
+            }
+        }
+        long length = 0;
+        for (int i = HEADER.length - 1; i >= LENGTH_OFFSET; i--) {
+            length = (length << 8) | (header[i] & 0xff);
+        }
+        return length;
+    }
+
+    /**
+     * Returns whether the data of a sample compresses well enough to
+     * store the data compressed.
+     *
+     * @param sample the sample
+     * @param length the length of the sample
+     * @return <code>true</code> if the sample shrinks by a quarter or more
+     */
+    static boolean isCompressible(byte[] sample, int length) {
+        if (length == 0) {
+            return false;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+            byte[] buffer = new byte[4096];
+            long limit = length * 3L / 4;
+            while (!deflater.finished()) {
+                deflater.deflate(buffer);
+                if (deflater.getBytesWritten() > limit) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeLittleEndian(OutputStream out, long value, int bytes)
+            throws IOException {
+        for (int i = 0; i < bytes; i++) {
+            out.write((int) (value >>> (8 * i)));
+        }
+    }
+}
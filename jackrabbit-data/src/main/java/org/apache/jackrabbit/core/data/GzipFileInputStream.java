@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.input.AutoCloseInputStream;
+import org.apache.jackrabbit.util.GzipContentProvider;
+
+/**
+ * This input stream decompresses a file written by {@link GzipFile}. Like
+ * {@link LazyFileInputStream}, it delays opening the file until the first
+ * byte is read, and closes the file as soon as the end of input has been
+ * reached or when the stream is explicitly closed.
+ */
+class GzipFileInputStream extends AutoCloseInputStream
+        implements GzipContentProvider {
+
+    /**
+     * The compressed file.
+     */
+    private final File file;
+
+    /**
+     * True if the input stream was opened, or closed without reading.
+     */
+    private boolean opened;
+
+    /**
+     * Creates a new stream decompressing the given file. The file is not
+     * opened until the first byte is read from the stream.
+     *
+     * @param file the compressed file
+     * @throws FileNotFoundException if the file is unreadable
+     */
+    GzipFileInputStream(File file) throws FileNotFoundException {
+        super(null);
+        if (!file.canRead()) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        this.file = file;
+    }
+
+    private void open() throws IOException {
+        if (!opened) {
+            opened = true;
+            in = new GZIPInputStream(new FileInputStream(file), 8192);
+        }
+    }
+
+    public long getGzipLength() {
+        return file.length();
+    }
+
+    /**
+     * Returns a new stream reading the compressed file, which gives access
+     * to the channel of the file.
+     */
+    public InputStream getGzipStream() throws IOException {
+        return new LazyFileInputStream(file);
+    }
+
+    public int read() throws IOException {
+        open();
+        return super.read();
+    }
+
+    public int read(byte[] b) throws IOException {
+        open();
+        return super.read(b, 0, b.length);
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        open();
+        return super.read(b, off, len);
+    }
+
+    public long skip(long n) throws IOException {
+        open();
+        return super.skip(n);
+    }
+
+    public int available() throws IOException {
+        open();
+        return super.available();
+    }
+
+    public boolean markSupported() {
+        return false;
+    }
+
+    public void close() throws IOException {
+        // make sure the file is not opened afterwards
+        opened = true;
+        if (in != null) {
+            super.close();
+        }
+    }
+}
@@ -21,15 +21,18 @@ import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 
 import org.apache.commons.io.input.AutoCloseInputStream;
+import org.apache.jackrabbit.util.FileChannelProvider;
 
 /**
  * This input stream delays opening the file until the first byte is read, and
  * closes and discards the underlying stream as soon as the end of input has
  * been reached or when the stream is explicitly closed.
  */
-public class LazyFileInputStream extends AutoCloseInputStream {
+public class LazyFileInputStream extends AutoCloseInputStream
+        implements FileChannelProvider {
 
     /**
      * The file descriptor to use.
@@ -106,6 +109,23 @@ public class LazyFileInputStream extends AutoCloseInputStream {
         }
     }
 
+    /**
+     * Returns the channel of the file, opening the file if required. As
+     * reading from the channel does not reach the end of this stream, the
+     * stream must be closed explicitly.
+     *
+     * @return the file channel
+     * @throws IOException if the file can not be opened or the stream is
+     *                     closed
+     */
+    public FileChannel getChannel() throws IOException {
+        open();
+        if (!(in instanceof FileInputStream)) {
+            throw new IOException("Stream already closed.");
+        }
+        return ((FileInputStream) in).getChannel();
+    }
+
     public int read() throws IOException {
         open();
         return super.read();
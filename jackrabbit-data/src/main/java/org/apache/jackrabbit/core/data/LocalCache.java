@@ -14,7 +14,6 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package org.apache.jackrabbit.core.data;
 
 import java.io.BufferedOutputStream;
@@ -24,24 +23,43 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.data.util.NamedThreadFactory;
 import org.apache.jackrabbit.util.TransientFileFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * This class implements a LRU cache used by {@link CachingDataStore}. If cache
- * size exceeds limit, this cache goes in purge mode. In purge mode any
- * operation to cache is no-op. After purge cache size would be less than
- * cachePurgeResizeFactor * maximum size.
+ * This class implements a size-aware, scan-resistant cache used by
+ * {@link CachingDataStore}. Files enter a probation segment and are promoted
+ * to a protected segment when they are read again; the protected segment
+ * holds at most {@link #PROTECTED_FACTOR} of the maximum size. Eviction
+ * removes the least recently used files of the probation segment first.
+ * <p>
+ * If storing a file exceeds cachePurgeTrigFactor * maximum size, files are
+ * evicted until the size is less than cachePurgeResizeFactor * maximum size.
+ * A file downloaded from the backend is only admitted if it is accessed at
+ * least as often as the files it would evict, as estimated by a frequency
+ * sketch of recent lookups. Hence reading many binaries once, for example by
+ * a backup, does not evict the frequently used files. Evicted files are
+ * deleted asynchronously, and files pending asynchronous upload are never
+ * evicted.
  */
 public class LocalCache {
 
@@ -50,15 +68,21 @@ public class LocalCache {
      */
     static final Logger LOG = LoggerFactory.getLogger(LocalCache.class);
 
+    /**
+     * Share of the maximum size available to the protected segment.
+     */
+    static final double PROTECTED_FACTOR = 0.8;
+
     /**
      * The file names of the files that need to be deleted.
      */
-    final Set<String> toBeDeleted = new HashSet<String>();
+    final Set<String> toBeDeleted = Collections.newSetFromMap(
+        new ConcurrentHashMap<String, Boolean>());
 
     /**
-     * The filename Vs file size LRU cache.
+     * The filename Vs file size cache.
      */
-    LRUCache cache;
+    final SegmentedCache cache;
 
     /**
      * The directory where the files are created.
@@ -70,31 +94,57 @@ public class LocalCache {
      */
     private final File tmp;
 
+    private final AsyncUploadCache asyncUploadCache;
+
+    /**
+     * Estimated access frequency of files, including files not in the cache.
+     */
+    private final FrequencySketch sketch;
+
+    /**
+     * Files evicted from the cache that are not deleted yet.
+     */
+    private final Set<String> evicted = Collections.newSetFromMap(
+        new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Executor deleting evicted files.
+     */
+    private final ThreadPoolExecutor deleteExecutor;
+
     /**
-     * If true cache is in purgeMode and not available. All operation would be
-     * no-op.
+     * Number of scheduled deletion jobs.
      */
-    private volatile boolean purgeMode;
-    
-    private AsyncUploadCache asyncUploadCache;
-    
-    private AtomicLong cacheMissCounter = new AtomicLong();
-    
-    private AtomicLong cacheMissDuration = new AtomicLong();
-    
+    private final AtomicInteger pendingDeletes = new AtomicInteger();
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong hitBytes = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong loadedBytes = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private final AtomicLong evictedBytes = new AtomicLong();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private final AtomicLong statsLogTime = new AtomicLong(
+        System.currentTimeMillis());
 
     /**
-     * Build LRU cache of files located at 'path'. It uses lastModified property
-     * of file to build LRU cache. If cache size exceeds limit size, this cache
-     * goes in purge mode. In purge mode any operation to cache is no-op.
+     * Build cache of files located at 'path'. If cache size exceeds
+     * cachePurgeTrigFactor * maximum size, files are evicted.
      * 
      * @param path file system path
      * @param tmpPath temporary directory used by cache.
      * @param maxSizeInBytes maximum size of cache.
-     * @param cachePurgeTrigFactor factor which triggers cache to purge mode.
-     * That is if current size exceed (cachePurgeTrigFactor * maxSizeInBytes), the
-     * cache will go in auto-purge mode.
-     * @param cachePurgeResizeFactor after cache purge size of cache will be
+     * @param cachePurgeTrigFactor factor which triggers eviction. That is if
+     * current size exceed (cachePurgeTrigFactor * maxSizeInBytes), files are
+     * evicted.
+     * @param cachePurgeResizeFactor after eviction size of cache will be
      * just less (cachePurgeResizeFactor * maxSizeInBytes).
      * @param asyncUploadCache {@link AsyncUploadCache}
      */
@@ -108,14 +158,19 @@ public class LocalCache {
             new Object[] { cachePurgeTrigFactor, cachePurgeResizeFactor,
                 (cachePurgeTrigFactor * maxSizeInBytes), 
                 (cachePurgeResizeFactor * maxSizeInBytes) });
-        cache = new LRUCache(maxSizeInBytes, cachePurgeTrigFactor, cachePurgeResizeFactor);
+        cache = new SegmentedCache(maxSizeInBytes, cachePurgeTrigFactor, cachePurgeResizeFactor);
+        sketch = new FrequencySketch(maxSizeElements(maxSizeInBytes));
         this.asyncUploadCache = asyncUploadCache;
+        deleteExecutor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new NamedThreadFactory("localcache-delete-worker"));
+        deleteExecutor.allowCoreThreadTimeOut(true);
         new Thread(new CacheBuildJob()).start();
     }
 
     /**
-     * Store an item in the cache and return the input stream. If cache is in
-     * purgeMode or file doesn't exists, inputstream from a
+     * Store an item in the cache and return the input stream. If the file is
+     * not admitted to the cache, inputstream from a
      * {@link TransientFileFactory#createTransientFile(String, String, File)} is
      * returned. Otherwise inputStream from cached file is returned. This method
      * doesn't close the incoming inputstream.
@@ -128,10 +183,10 @@ public class LocalCache {
             throws IOException {
         fileName = fileName.replace("\\", "/");
         File f = getFile(fileName);
-        long length = 0;
-        if (!f.exists() || isInPurgeMode()) {
+        if (!f.exists() || evicted.contains(fileName)) {
             OutputStream out = null;
             File transFile = null;
+            long length = 0;
             try {
                 TransientFileFactory tff = TransientFileFactory.getInstance();
                 transFile = tff.createTransientFile("s3-", "tmp", tmp);
@@ -140,19 +195,12 @@ public class LocalCache {
             } finally {
                 IOUtils.closeQuietly(out);
             }
+            loadedBytes.addAndGet(length);
             // rename the file to local fs cache
-            if (canAdmitFile(length)
-                && (f.getParentFile().exists() || f.getParentFile().mkdirs())
-                && transFile.renameTo(f) && f.exists()) {
-                if (transFile.exists() && transFile.delete()) {
-                    LOG.info("tmp file [{}] not deleted successfully",
-                        transFile.getAbsolutePath());
-                }
-                transFile = null;
+            if (moveToCache(fileName, transFile, f, true)) {
                 LOG.debug(
                     "file [{}] doesn't exists. adding to local cache using inputstream.",
                     fileName);
-                cache.put(fileName, f.length());
             } else {
                 LOG.debug(
                     "file [{}] doesn't exists. returning transient file [{}].",
@@ -167,7 +215,7 @@ public class LocalCache {
             LOG.debug(
                 "file [{}]  exists. adding to local cache using inputstream.",
                 fileName);
-            cache.put(fileName, f.length());
+            cache.add(fileName, f.length());
         }
         tryPurge();
         return new LazyFileInputStream(f);
@@ -194,7 +242,9 @@ public class LocalCache {
      * This method add file to {@link LocalCache} and tries that file can be
      * added to {@link AsyncUploadCache}. If file is added to
      * {@link AsyncUploadCache} successfully, it sets
-     * {@link AsyncUploadCacheResult#setAsyncUpload(boolean)} to true.
+     * {@link AsyncUploadCacheResult#setAsyncUpload(boolean)} to true. New
+     * records (tryForAsyncUpload is true) are admitted whenever space can be
+     * made, other files only if they are accessed often enough.
      *
      * @param fileName name of the file.
      * @param src source file.
@@ -212,25 +262,21 @@ public class LocalCache {
             boolean tryForAsyncUpload) throws IOException {
         fileName = fileName.replace("\\", "/");
         File dest = getFile(fileName);
-        File parent = dest.getParentFile();
         AsyncUploadCacheResult result = new AsyncUploadCacheResult();
         result.setFile(src);
         result.setAsyncUpload(false);
-        boolean destExists = false;
-        if ((destExists = dest.exists())
-            || (src.exists() && !dest.exists() && !src.equals(dest)
-                && canAdmitFile(src.length())
-                && (parent.exists() || parent.mkdirs()) && (src.renameTo(dest)))) {
+        boolean destExists = dest.exists() && !evicted.contains(fileName);
+        if (destExists || (src.exists() && !src.equals(dest)
+                && moveToCache(fileName, src, dest, !tryForAsyncUpload))) {
             if (destExists) {
                 dest.setLastModified(System.currentTimeMillis());
+                cache.add(fileName, dest.length());
             }
             LOG.debug("file [{}] moved to [{}] ", src.getAbsolutePath(), dest.getAbsolutePath());
             LOG.debug(
                 "file [{}]  exists= [{}] added to local cache, isLastModified [{}]",
                 new Object[] { dest.getAbsolutePath(), dest.exists(),
                     destExists });
-            
-            cache.put(fileName, dest.length());
             result.setFile(dest);
             if (tryForAsyncUpload) {
                 result.setAsyncUpload(asyncUploadCache.add(fileName).canAsyncUpload());
@@ -242,6 +288,7 @@ public class LocalCache {
         tryPurge();
         return result;
     }
+
     /**
      * Return the inputstream from from cache, or null if not in the cache.
      * 
@@ -256,43 +303,51 @@ public class LocalCache {
     public File getFileIfStored(String fileName) throws IOException {
         fileName = fileName.replace("\\", "/");
         File f = getFile(fileName);
-        long diff = (System.currentTimeMillis() - cacheMissDuration.get()) / 1000;
-        // logged at 5 minute interval minimum
-        if (diff > 5 * 60) {
-            LOG.info("local cache misses [{}] in [{}] sec", new Object[] {
-                cacheMissCounter.getAndSet(0), diff });
-            cacheMissDuration.set(System.currentTimeMillis());
-        }
-        
-        // return file in purge mode = true and file present in asyncUploadCache
-        // as asyncUploadCache's files will be not be deleted in cache purge.
-        if (!f.exists() || (isInPurgeMode() && !asyncUploadCache.hasEntry(fileName, false))) {
-            LOG.debug(
-                "getFileIfStored returned: purgeMode=[{}], file=[{}] exists=[{}]",
-                new Object[] { isInPurgeMode(), f.getAbsolutePath(), f.exists() });
-            cacheMissCounter.incrementAndGet();
+        logStatistics();
+        sketch.increment(fileName);
+        if (evicted.contains(fileName) || !f.exists()) {
+            LOG.debug("getFileIfStored returned: file=[{}] exists=[{}]",
+                f.getAbsolutePath(), f.exists());
+            missCount.incrementAndGet();
             return null;
+        }
+        Long length = cache.getLength(fileName);
+        if (length == null) {
+            // not yet added by the cache build job
+            length = f.length();
+            cache.add(fileName, length);
         } else {
-            // touch entry in LRU caches
-            f.setLastModified(System.currentTimeMillis());
-            cache.get(fileName);
-            return f;
+            cache.touch(fileName);
         }
+        f.setLastModified(System.currentTimeMillis());
+        hitCount.incrementAndGet();
+        hitBytes.addAndGet(length);
+        return f;
     }
 
     /**
      * Delete file from cache. Size of cache is reduced by file length. The
-     * method is no-op if file doesn't exist in cache.
+     * method is no-op if file doesn't exist in cache or is pending upload.
      * 
      * @param fileName file name that need to be removed from cache.
      */
     public void delete(String fileName) {
-        if (isInPurgeMode()) {
-            LOG.debug("purgeMode true :delete returned");
+        fileName = fileName.replace("\\", "/");
+        try {
+            // not removing file from local cache, if there is in progress
+            // async upload on it.
+            if (asyncUploadCache.hasEntry(fileName, false)) {
+                LOG.info(
+                    "AsyncUploadCache upload contains file [{}]. Not removing it from LocalCache.",
+                    fileName);
+                return;
+            }
+        } catch (IOException e) {
+            LOG.debug("error: ", e);
             return;
         }
-        fileName = fileName.replace("\\", "/");
         cache.remove(fileName);
+        tryDelete(fileName);
     }
 
     /**
@@ -300,9 +355,12 @@ public class LocalCache {
      * @param fileName name of the file.
      */
     public Long getFileLength(String fileName) {
+        fileName = fileName.replace("\\", "/");
         Long length = null;
         try {
-            length = cache.get(fileName);
+            if (!evicted.contains(fileName)) {
+                length = cache.getLength(fileName);
+            }
             if( length == null ) {
                 File f = getFileIfStored(fileName);
                 if (f != null) {
@@ -322,51 +380,282 @@ public class LocalCache {
      */
     public void close() {
         LOG.debug("close");
+        deleteExecutor.shutdown();
+        try {
+            deleteExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         deleteOldFiles();
     }
 
     /**
-     * Check if cache can admit file of given length.
-     * @param length of the file.
-     * @return true if yes else return false.
+     * Number of lookups of files found in the cache.
      */
-    private boolean canAdmitFile(final long length) {
-      //order is important here
-        boolean value = !isInPurgeMode() && (cache.canAdmitFile(length));
-        if (!value) {
-            LOG.debug("cannot admit file of length=[{}] and currentSizeInBytes=[{}] ",
-                length, cache.currentSizeInBytes);
-        }
-        return value;
+    public long getHitCount() {
+        return hitCount.get();
     }
 
     /**
-     * Return true if cache is in purge mode else return false.
+     * Number of bytes of the files found in the cache.
      */
-    synchronized boolean isInPurgeMode() {
-        return purgeMode;
+    public long getHitBytes() {
+        return hitBytes.get();
     }
 
     /**
-     * Set purge mode. If set to true all cache operation will be no-op. If set
-     * to false, all operations to cache are available.
-     * 
-     * @param purgeMode purge mode
+     * Number of lookups of files not found in the cache.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Number of bytes stored from streams, that is downloaded from the
+     * backend.
+     */
+    public long getLoadedBytes() {
+        return loadedBytes.get();
+    }
+
+    /**
+     * Number of evicted files.
      */
-    synchronized void setPurgeMode(final boolean purgeMode) {
-        this.purgeMode = purgeMode;
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Number of bytes of the evicted files.
+     */
+    public long getEvictedBytes() {
+        return evictedBytes.get();
+    }
+
+    /**
+     * Number of files not admitted to the cache.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Current size of the cache in bytes.
+     */
+    public long getCurrentSizeInBytes() {
+        return cache.currentSizeInBytes;
+    }
+
+    /**
+     * Return true while evicted files are being deleted.
+     */
+    boolean isDeletingEvicted() {
+        return pendingDeletes.get() > 0;
     }
 
     File getFile(final String fileName) {
         return new File(directory, fileName);
     }
 
+    /**
+     * Add a file to the cache, evicting other files if needed, and move the
+     * file in place.
+     * 
+     * @param fileName name of the file.
+     * @param src file to move.
+     * @param dest file in the cache.
+     * @param checkFrequency if true the file is only admitted if it is
+     *            accessed at least as often as the files it evicts.
+     * @return true if the file was moved to the cache.
+     */
+    private boolean moveToCache(String fileName, File src, File dest,
+            boolean checkFrequency) {
+        File parent = dest.getParentFile();
+        if (evicted.contains(fileName)
+            || !(parent.exists() || parent.mkdirs())
+            || !admit(fileName, src.length(), checkFrequency)) {
+            return false;
+        }
+        if (src.renameTo(dest)) {
+            return true;
+        }
+        cache.remove(fileName);
+        return false;
+    }
+
+    /**
+     * Reserve space for a file. If the cache would exceed the purge trigger
+     * size, least recently used files are evicted until the size is less
+     * than the purge resize size.
+     * 
+     * @param fileName name of the file.
+     * @param length length of the file.
+     * @param checkFrequency if true the file is only admitted if it is
+     *            accessed at least as often as the files it evicts.
+     * @return true if the file was added to the cache.
+     */
+    private boolean admit(String fileName, long length, boolean checkFrequency) {
+        long size;
+        synchronized (cache) {
+            size = cache.currentSizeInBytes + length;
+            if (size <= cache.cachePurgeTrigSize) {
+                return cache.add(fileName, length);
+            }
+        }
+        List<String> victims = selectVictims(size - cache.cachePurgeResize);
+        synchronized (cache) {
+            // the cache may have changed while the victims were selected
+            size = cache.currentSizeInBytes + length;
+            long freed = 0;
+            for (String victim : victims) {
+                Long victimLength = cache.getLength(victim);
+                if (victimLength != null) {
+                    freed += victimLength;
+                }
+            }
+            if (size - freed >= cache.maxSizeInBytes) {
+                LOG.debug("cannot admit file of length=[{}] and currentSizeInBytes=[{}] ",
+                    length, cache.currentSizeInBytes);
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+            if (checkFrequency) {
+                int frequency = sketch.frequency(fileName);
+                for (String victim : victims) {
+                    if (sketch.frequency(victim) > frequency) {
+                        LOG.debug("file [{}] not admitted, accessed less than [{}]",
+                            fileName, victim);
+                        rejectedCount.incrementAndGet();
+                        return false;
+                    }
+                }
+            }
+            victims = evict(victims);
+            cache.add(fileName, length);
+        }
+        scheduleDelete(victims);
+        return true;
+    }
+
+    /**
+     * This method tries purging of local cache. It checks if local cache
+     * has exceeded the defined limit then it evicts files, which are deleted
+     * in a separate thread.
+     */
+    void tryPurge() {
+        long bytes;
+        synchronized (cache) {
+            if (cache.currentSizeInBytes <= cache.cachePurgeTrigSize) {
+                return;
+            }
+            LOG.info(
+                "cache.entries = [{}], currentSizeInBytes=[{}]  exceeds cachePurgeTrigSize=[{}]",
+                new Object[] { cache.size(), cache.currentSizeInBytes,
+                    cache.cachePurgeTrigSize });
+            bytes = cache.currentSizeInBytes - cache.cachePurgeResize;
+        }
+        List<String> victims = selectVictims(bytes);
+        synchronized (cache) {
+            victims = evict(victims);
+        }
+        scheduleDelete(victims);
+    }
+
+    /**
+     * Select the files to evict to free the given number of bytes, skipping
+     * files pending upload. Candidates are collected under the cache lock,
+     * but the async upload cache is only consulted after releasing it.
+     * 
+     * @param bytes number of bytes to free.
+     * @return the selected files.
+     */
+    private List<String> selectVictims(long bytes) {
+        Set<String> uploading = new HashSet<String>();
+        while (true) {
+            List<String> victims = new ArrayList<String>();
+            cache.selectVictims(bytes, uploading, victims);
+            boolean skipped = false;
+            for (Iterator<String> it = victims.iterator(); it.hasNext();) {
+                String victim = it.next();
+                if (isUploading(victim)) {
+                    uploading.add(victim);
+                    it.remove();
+                    skipped = true;
+                }
+            }
+            if (!skipped) {
+                return victims;
+            }
+        }
+    }
+
+    /**
+     * Return true if the file is pending upload, or if that cannot be told.
+     */
+    private boolean isUploading(String fileName) {
+        try {
+            return asyncUploadCache.hasEntry(fileName, false);
+        } catch (IOException e) {
+            LOG.debug("error: ", e);
+            return true;
+        }
+    }
+
+    /**
+     * Remove files from the cache. The caller must hold the cache lock.
+     * 
+     * @return the files removed, which may be fewer than requested if
+     *         files were removed concurrently.
+     */
+    private List<String> evict(List<String> victims) {
+        List<String> removed = new ArrayList<String>(victims.size());
+        for (String victim : victims) {
+            Long length = cache.remove(victim);
+            if (length != null) {
+                evicted.add(victim);
+                evictionCount.incrementAndGet();
+                evictedBytes.addAndGet(length);
+                removed.add(victim);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Delete evicted files in the background.
+     */
+    private void scheduleDelete(final List<String> victims) {
+        if (victims.isEmpty()) {
+            return;
+        }
+        pendingDeletes.incrementAndGet();
+        Runnable job = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (String fileName : victims) {
+                        tryDelete(fileName);
+                        evicted.remove(fileName);
+                    }
+                } finally {
+                    pendingDeletes.decrementAndGet();
+                }
+            }
+        };
+        try {
+            deleteExecutor.execute(job);
+        } catch (RejectedExecutionException e) {
+            // closed
+            job.run();
+        }
+    }
+
     private void deleteOldFiles() {
         int initialSize = toBeDeleted.size();
         int count = 0;
         for (String fileName : new ArrayList<String>(toBeDeleted)) {
             fileName = fileName.replace("\\", "/");
-            if( cache.remove(fileName) != null) {
+            if (tryDelete(fileName)) {
                 count++;
             }
         }
@@ -403,6 +692,23 @@ public class LocalCache {
         return true;
     }
 
+    /**
+     * Log the cache statistics, at 5 minute interval minimum.
+     */
+    private void logStatistics() {
+        long last = statsLogTime.get();
+        long now = System.currentTimeMillis();
+        if (now - last > 5 * 60 * 1000 && statsLogTime.compareAndSet(last, now)) {
+            LOG.info(
+                "local cache hits [{}] ([{}] bytes), misses [{}] ([{}] bytes loaded), "
+                    + "evictions [{}] ([{}] bytes), rejected [{}], size [{}] bytes",
+                new Object[] { hitCount.get(), hitBytes.get(), missCount.get(),
+                    loadedBytes.get(), evictionCount.get(),
+                    evictedBytes.get(), rejectedCount.get(),
+                    cache.currentSizeInBytes });
+        }
+    }
+
     static int maxSizeElements(final long bytes) {
         // after a CQ installation, the average item in
         // the data store is about 52 KB
@@ -411,195 +717,209 @@ public class LocalCache {
         count = Math.min(64 * 1024, count);
         return count;
     }
-    
-    /**
-     * This method tries purging of local cache. It checks if local cache
-     * has exceeded the defined limit then it triggers purge cache job in a
-     * seperate thread.
-     */
-    synchronized void tryPurge() {
-        if (!isInPurgeMode()
-            && cache.currentSizeInBytes > cache.cachePurgeTrigSize) {
-            setPurgeMode(true);
-            LOG.info(
-                "cache.entries = [{}], currentSizeInBytes=[{}]  exceeds cachePurgeTrigSize=[{}]",
-                new Object[] { cache.size(), cache.currentSizeInBytes,
-                    cache.cachePurgeTrigSize });
-            new Thread(new PurgeJob()).start();
-        } else {
-            LOG.debug(
-                "currentSizeInBytes=[{}],cachePurgeTrigSize=[{}], isInPurgeMode =[{}]",
-                new Object[] { cache.currentSizeInBytes,
-                    cache.cachePurgeTrigSize, isInPurgeMode() });
-        }
-    }
 
     /**
-     * A LRU based extension {@link LinkedHashMap}. The key is file name and
-     * value is length of file.
+     * Segmented LRU of the cached files. The key is file name and value is
+     * length of file. Lengths are looked up without locking; all other
+     * methods synchronize on this object.
      */
-    private class LRUCache extends LinkedHashMap<String, Long> {
-        private static final long serialVersionUID = 1L;
+    class SegmentedCache {
+
+        private final Map<String, Long> lengths = new ConcurrentHashMap<String, Long>();
+
+        /**
+         * Files read once since they were added, least recently used first.
+         */
+        private final LinkedHashMap<String, Long> probation;
+
+        /**
+         * Files read more than once, least recently used first.
+         */
+        private final LinkedHashMap<String, Long> protectedFiles;
 
         volatile long currentSizeInBytes;
 
+        private long protectedSizeInBytes;
+
         final long maxSizeInBytes;
 
         final long cachePurgeResize;
-        
+
         final long cachePurgeTrigSize;
 
-        LRUCache(final long maxSizeInBytes,
+        final long protectedMaxSize;
+
+        SegmentedCache(final long maxSizeInBytes,
                 final double cachePurgeTrigFactor,
                 final double cachePurgeResizeFactor) {
-            super(maxSizeElements(maxSizeInBytes), (float) 0.75, true);
+            int capacity = maxSizeElements(maxSizeInBytes);
+            probation = new LinkedHashMap<String, Long>(capacity, 0.75f, true);
+            protectedFiles = new LinkedHashMap<String, Long>(capacity, 0.75f, true);
             this.maxSizeInBytes = maxSizeInBytes;
-            this.cachePurgeTrigSize = new Double(cachePurgeTrigFactor
-                * maxSizeInBytes).longValue();
-            this.cachePurgeResize = new Double(cachePurgeResizeFactor
-                * maxSizeInBytes).longValue();
+            this.cachePurgeTrigSize = (long) (cachePurgeTrigFactor * maxSizeInBytes);
+            this.cachePurgeResize = (long) (cachePurgeResizeFactor * maxSizeInBytes);
+            this.protectedMaxSize = (long) (PROTECTED_FACTOR * maxSizeInBytes);
+        }
+
+        Long getLength(String fileName) {
+            return lengths.get(fileName);
+        }
+
+        int size() {
+            return lengths.size();
         }
 
         /**
-         * Overridden {@link Map#remove(Object)} to delete corresponding file
-         * from file system.
+         * Add a file to the probation segment.
+         * 
+         * @return false if the file is already cached.
          */
-        @Override
-        public synchronized Long remove(final Object key) {
-            String fileName = (String) key;
-            fileName = fileName.replace("\\", "/");
-            try {
-                // not removing file from local cache, if there is in progress
-                // async upload on it.
-                if (asyncUploadCache.hasEntry(fileName, false)) {
-                    LOG.info(
-                        "AsyncUploadCache upload contains file [{}]. Not removing it from LocalCache.",
-                        fileName);
-                    return null;
-                }
-            } catch (IOException e) {
-                LOG.debug("error: ", e);
-                return null;
-            }
-            Long flength = null;
-            if (tryDelete(fileName)) {
-                flength = super.remove(key);
-                if (flength != null) {
-                    LOG.debug("cache entry [{}], with size [{}] removed.",
-                        fileName, flength);
-                    currentSizeInBytes -= flength.longValue();
-                }
-            } else if (!getFile(fileName).exists()) {
-                // second attempt. remove from cache if file doesn't exists
-                flength = super.remove(key);
-                if (flength != null) {
-                    LOG.debug(
-                        "file not exists. cache entry [{}], with size [{}] removed.",
-                        fileName, flength);
-                    currentSizeInBytes -= flength.longValue();
-                }
-            } else {
-                LOG.info("not able to remove cache entry [{}], size [{}]", key,
-                    super.get(key));
+        synchronized boolean add(String fileName, long length) {
+            if (lengths.containsKey(fileName)) {
+                toBeDeleted.remove(fileName);
+                return false;
             }
-            return flength;
+            lengths.put(fileName, length);
+            probation.put(fileName, length);
+            currentSizeInBytes += length;
+            return true;
         }
 
-        @Override
-        public Long put(final String fileName, final Long value) {
-            if( isInPurgeMode()) {
-                LOG.debug("cache is purge mode: put is no-op");
-                return null;
+        /**
+         * Record a read of a file. A file read in the probation segment is
+         * promoted to the protected segment, which may demote the least
+         * recently used protected files.
+         */
+        synchronized void touch(String fileName) {
+            Long length = probation.remove(fileName);
+            if (length == null) {
+                protectedFiles.get(fileName);
+                return;
             }
-            synchronized (this) {
-                Long oldValue = cache.get(fileName);
-                if (oldValue == null) {
-                    long flength = value.longValue();
-                    currentSizeInBytes += flength;
-                    return super.put(fileName.replace("\\", "/"), value);
-                }
-                toBeDeleted.remove(fileName);
-                return oldValue;
+            protectedFiles.put(fileName, length);
+            protectedSizeInBytes += length;
+            Iterator<Map.Entry<String, Long>> it = protectedFiles.entrySet().iterator();
+            while (protectedSizeInBytes > protectedMaxSize && protectedFiles.size() > 1) {
+                Map.Entry<String, Long> eldest = it.next();
+                it.remove();
+                protectedSizeInBytes -= eldest.getValue();
+                probation.put(eldest.getKey(), eldest.getValue());
             }
         }
-        
-        @Override
-        public Long get(Object key) {
-            if( isInPurgeMode()) {
-                LOG.debug("cache is purge mode: get is no-op");
-                return null;
-            }
-            synchronized (this) {
-                return super.get(key);
+
+        synchronized Long remove(String fileName) {
+            Long length = lengths.remove(fileName);
+            if (length != null) {
+                if (probation.remove(fileName) == null
+                    && protectedFiles.remove(fileName) != null) {
+                    protectedSizeInBytes -= length;
+                }
+                currentSizeInBytes -= length;
+                LOG.debug("cache entry [{}], with size [{}] removed.",
+                    fileName, length);
             }
+            return length;
         }
-        
+
         /**
-         * This method check if cache can admit file of given length. 
-         * @param length length of file.
-         * @return true if cache size + length is less than maxSize.
+         * Select the files to evict to free the given number of bytes, least
+         * recently used probation files first.
+         * 
+         * @param bytes number of bytes to free.
+         * @param skip files not to select.
+         * @param victims list the selected files are added to.
+         * @return the number of bytes of the selected files.
          */
-        synchronized boolean canAdmitFile(final long length) {
-            return cache.currentSizeInBytes + length < cache.maxSizeInBytes;
+        synchronized long selectVictims(long bytes, Set<String> skip,
+                List<String> victims) {
+            long freed = selectVictims(probation, bytes, skip, victims);
+            if (freed < bytes) {
+                freed += selectVictims(protectedFiles, bytes - freed, skip,
+                    victims);
+            }
+            return freed;
+        }
+
+        private long selectVictims(Map<String, Long> segment, long bytes,
+                Set<String> skip, List<String> victims) {
+            long freed = 0;
+            for (Map.Entry<String, Long> entry : segment.entrySet()) {
+                if (freed >= bytes) {
+                    break;
+                }
+                if (skip.contains(entry.getKey())) {
+                    continue;
+                }
+                victims.add(entry.getKey());
+                freed += entry.getValue();
+            }
+            return freed;
         }
     }
 
     /**
-     * This class performs purging of local cache. It implements
-     * {@link Runnable} and should be invoked in a separate thread.
+     * Estimates how often files are accessed, using a count-min sketch of
+     * 4-bit counters. All counters are halved periodically so that old
+     * accesses are forgotten.
      */
-    private class PurgeJob implements Runnable {
-        public PurgeJob() {
-            // TODO Auto-generated constructor stub
+    static class FrequencySketch {
+
+        private static final int[] SEEDS = { 0x9E3779B9, 0x85EBCA6B,
+            0xC2B2AE35, 0x27D4EB2F };
+
+        private static final int MAX_COUNT = 15;
+
+        private final int[] table;
+
+        private final int mask;
+
+        private final int sampleSize;
+
+        private int additions;
+
+        FrequencySketch(int maximumSize) {
+            int width = Integer.highestOneBit(Math.max(maximumSize, 16) - 1) << 1;
+            table = new int[width * SEEDS.length];
+            mask = width - 1;
+            sampleSize = 10 * width;
         }
 
-        /**
-         * This method purges local cache till its size is less than
-         * cacheResizefactor * maxSize
-         */
-        @Override
-        public void run() {
-            try {
-                synchronized (cache) {
-                    // first try to delete toBeDeleted files
-                    int initialSize = cache.size();
-                    LOG.info(" cache purge job started. initial cache entries = [{}]", initialSize);
-                    for (String fileName : new ArrayList<String>(toBeDeleted)) {
-                        cache.remove(fileName);
-                    }
-                    int skipCount = 0;
-                    Iterator<Map.Entry<String, Long>> itr = cache.entrySet().iterator();
-                    while (itr.hasNext()) {
-                        Map.Entry<String, Long> entry = itr.next();
-                        if (entry.getKey() != null) {
-                            if (cache.currentSizeInBytes > cache.cachePurgeResize) {
-                                if (cache.remove(entry.getKey()) != null) {
-                                    itr = cache.entrySet().iterator();
-                                    for (int i = 0; i < skipCount && itr.hasNext(); i++) {
-                                        itr.next();
-                                    }
-                                } else {
-                                    skipCount++;
-                                }
-                            } else {
-                                break;
-                            }
-                        }
-                    }
-                    LOG.info(
-                        " cache purge job completed: cleaned [{}] files and currentSizeInBytes = [{}]",
-                        (initialSize - cache.size()), cache.currentSizeInBytes);
+        synchronized void increment(Object key) {
+            int hash = key.hashCode();
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int index = indexOf(hash, i);
+                if (table[index] < MAX_COUNT) {
+                    table[index]++;
+                    added = true;
                 }
-            } catch (Exception e) {
-                LOG.error("error in purge jobs:", e);
-            } finally {
-                setPurgeMode(false);
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] >>>= 1;
+                }
+                additions /= 2;
             }
         }
+
+        synchronized int frequency(Object key) {
+            int hash = key.hashCode();
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < SEEDS.length; i++) {
+                frequency = Math.min(frequency, table[indexOf(hash, i)]);
+            }
+            return frequency;
+        }
+
+        private int indexOf(int hash, int row) {
+            int h = hash * SEEDS[row];
+            h ^= h >>> 16;
+            return row * (mask + 1) + (h & mask);
+        }
     }
-    
+
     /**
-     * This class implements {@link Runnable} interface to build LRU cache
+     * This class implements {@link Runnable} interface to build the cache
      * asynchronously.
      */
     private class CacheBuildJob implements Runnable {
@@ -665,4 +985,3 @@ public class LocalCache {
         }
     }
 }
-
@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+/**
+ * A data store that can delete the records that are not referenced, given
+ * the identifiers of the referenced records. The garbage collector then
+ * does not need to update the modified date of every referenced record
+ * before deleting the older records.
+ */
+public interface MarkAndSweepAware {
+
+    /**
+     * Deletes the records that were last modified before the given date,
+     * that are not in use, and that are not contained in the filter of
+     * referenced records. Like {@link DataStore#deleteAllOlderThan(long)},
+     * records that are added or accessed while the data store is
+     * updating the modified date on access are not deleted.
+     *
+     * @param min the minimum last modified date of the records to keep
+     * @param referenced the referenced records
+     * @return the number of deleted records
+     * @throws DataStoreException if deleting fails
+     */
+    int deleteAllUnreferencedOlderThan(long min, DataIdentifierFilter referenced)
+            throws DataStoreException;
+
+}
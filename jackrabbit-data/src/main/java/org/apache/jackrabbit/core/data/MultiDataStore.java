@@ -25,7 +25,12 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.ReentrantLock;
 
 import javax.jcr.RepositoryException;
@@ -63,6 +68,11 @@ import org.slf4j.LoggerFactory;
  *     &lt;param name="{@link #setSleepBetweenRecords(long) sleepBetweenRecords}" value="100"/&gt;
  *     &lt;param name="{@link #setDelayedDelete(boolean) delayedDelete}" value="false"/&gt;
  *     &lt;param name="{@link #setDelayedDeleteSleep(long) delayedDeleteSleep}" value="86400"/&gt;
+ *     &lt;param name="{@link #setMinRecordLength(int) minRecordLength}" value="-1"/&gt;
+ *     &lt;param name="{@link #setMaxPrimaryRecordLength(long) maxPrimaryRecordLength}" value="0"/&gt;
+ *     &lt;param name="{@link #setHotAccessCount(int) hotAccessCount}" value="0"/&gt;
+ *     &lt;param name="{@link #setAccessStatisticsSize(int) accessStatisticsSize}" value="65536"/&gt;
+ *     &lt;param name="{@link #setMaxBytesPerSecond(long) maxBytesPerSecond}" value="0"/&gt;
  *     &lt;param name="primary" value="org.apache.jackrabbit.core.data.db.DbDataStore"&gt;
  *        &lt;param .../&gt;
  *     &lt;/param&gt;
@@ -94,6 +104,27 @@ import org.slf4j.LoggerFactory;
  * delayedDeleteTaskThread in seconds. (default = 60 * 60 * 24, which equals 1
  * day). This means the delayed delete from the primary data store will be
  * processed after one day.</li>
+ * <li><code>minRecordLength</code>: the minimum size of binaries that are
+ * stored in a data store, smaller binaries are stored inline in the
+ * persistence manager. (default = <code>-1</code>, which uses the setting of
+ * the primary data store)</li>
+ * <li><code>maxPrimaryRecordLength</code>: records that are larger are moved
+ * to the archive data store on the next run of the move task whatever their
+ * age, and are never copied back to the primary data store. (default =
+ * <code>0</code>, which means no limit)</li>
+ * <li><code>hotAccessCount</code>: records read at least this many times
+ * recently are hot. Hot records are not moved to the archive data store
+ * when they reach maxAge, and hot records read from the archive data store
+ * are copied back to the primary data store in the background. The archive
+ * copy is kept, as the garbage collector only removes records from the
+ * archive. (default = <code>0</code>, which disables access based
+ * placement)</li>
+ * <li><code>accessStatisticsSize</code>: the number of counters used to
+ * estimate the recent reads of the records, each using four bytes. (default
+ * = <code>65536</code>)</li>
+ * <li><code>maxBytesPerSecond</code>: the maximum rate at which records are
+ * moved to the archive data store or copied back to the primary data store.
+ * (default = <code>0</code>, which means no limit)</li>
  * </ul>
  */
 public class MultiDataStore implements DataStore {
@@ -161,6 +192,54 @@ public class MultiDataStore implements DataStore {
      */
     private long sleepBetweenRecords = 100;
 
+    /**
+     * The minimum size of a record, or -1 to use the primary data store setting.
+     */
+    private int minRecordLength = -1;
+
+    /**
+     * The maximum size of a record in the primary data store, 0 for no limit.
+     */
+    private long maxPrimaryRecordLength;
+
+    /**
+     * The number of recent reads that makes a record hot, 0 to disable.
+     */
+    private int hotAccessCount;
+
+    /**
+     * The number of counters of the access statistics.
+     */
+    private int accessStatisticsSize = 1 << 16;
+
+    /**
+     * The maximum number of bytes moved or copied per second, 0 for no limit.
+     */
+    private long maxBytesPerSecond;
+
+    /**
+     * The recent reads of the records, or null if hotAccessCount is not set.
+     */
+    private DataAccessStatistics accessStatistics;
+
+    /**
+     * The maximum number of records waiting to be copied back to the primary
+     * data store.
+     */
+    private static final int MAX_PENDING_PROMOTIONS = 1000;
+
+    /**
+     * The hot records of the archive data store waiting to be copied back
+     * to the primary data store.
+     */
+    private final BlockingQueue<DataIdentifier> pendingPromotions =
+        new LinkedBlockingQueue<DataIdentifier>(MAX_PENDING_PROMOTIONS);
+
+    private final Set<DataIdentifier> pendingPromotionSet =
+        Collections.newSetFromMap(new ConcurrentHashMap<DataIdentifier, Boolean>());
+
+    private Thread promoteDataTaskThread;
+
     {
         if (moveDataTaskNextRun.get(Calendar.HOUR_OF_DAY) >= 1) {
             moveDataTaskNextRun.add(Calendar.DAY_OF_MONTH, 1);
@@ -235,9 +314,18 @@ public class MultiDataStore implements DataStore {
             moveDataTaskLock.lock();
         }
         try {
-            return primaryDataStore.getRecord(identifier);
-        } catch (DataStoreException e) {
-            return archiveDataStore.getRecord(identifier);
+            if (accessStatistics != null) {
+                accessStatistics.recordAccess(identifier);
+            }
+            try {
+                return primaryDataStore.getRecord(identifier);
+            } catch (DataStoreException e) {
+                DataRecord record = archiveDataStore.getRecord(identifier);
+                if (isHot(identifier) && fitsPrimary(record.getLength())) {
+                    schedulePromotion(identifier);
+                }
+                return record;
+            }
         } finally {
             if (moveDataTaskRunning) {
                 moveDataTaskLock.unlock();
@@ -333,6 +421,13 @@ public class MultiDataStore implements DataStore {
             identifiersToDeleteFile = new FileSystemResource(fileSystem, FileSystem.SEPARATOR
                     + IDENTIFIERS_TO_DELETE_FILE_KEY);
         }
+        if (hotAccessCount > 0) {
+            accessStatistics = new DataAccessStatistics(accessStatisticsSize);
+            promoteDataTaskThread = new Thread(new PromoteDataTask(),
+                    "Jackrabbit-MultiDataStore-PromoteDataTaskThread");
+            promoteDataTaskThread.setDaemon(true);
+            promoteDataTaskThread.start();
+        }
         moveDataTaskThread = new Thread(new MoveDataTask(),
                 "Jackrabbit-MulitDataStore-MoveDataTaskThread");
         moveDataTaskThread.setDaemon(true);
@@ -366,14 +461,28 @@ public class MultiDataStore implements DataStore {
 
     /**
      * Get the minimum size of an object that should be stored in the primary
-     * data store.
+     * data store. Unless set, this is the setting of the primary data store.
      * 
      * @return the minimum size in bytes
      */
     public int getMinRecordLength() {
+        if (minRecordLength >= 0) {
+            return minRecordLength;
+        }
         return primaryDataStore.getMinRecordLength();
     }
 
+    /**
+     * Set the minimum size of an object that should be stored in a data
+     * store, smaller objects are stored inline.
+     *
+     * @param minRecordLength the minimum size in bytes, or -1 to use the
+     *          setting of the primary data store
+     */
+    public void setMinRecordLength(int minRecordLength) {
+        this.minRecordLength = minRecordLength;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -403,7 +512,11 @@ public class MultiDataStore implements DataStore {
                 lastException = new DataStoreException(lastException);
             }
         }
-        // 4. if deleteDelayedIdentifiersTaskThread is running interrupt it
+        // 4. stop the promoteDataTaskThread
+        if (promoteDataTaskThread != null) {
+            promoteDataTaskThread.interrupt();
+        }
+        // 5. if deleteDelayedIdentifiersTaskThread is running interrupt it
         try {
             if (deleteDelayedIdentifiersTaskThread != null
                     && deleteDelayedIdentifiersTaskThread.isAlive()) {
@@ -481,6 +594,90 @@ public class MultiDataStore implements DataStore {
         this.delayedDeleteSleep = delayedDeleteSleep;
     }
 
+    public long getMaxPrimaryRecordLength() {
+        return maxPrimaryRecordLength;
+    }
+
+    public void setMaxPrimaryRecordLength(long maxPrimaryRecordLength) {
+        this.maxPrimaryRecordLength = maxPrimaryRecordLength;
+    }
+
+    public int getHotAccessCount() {
+        return hotAccessCount;
+    }
+
+    public void setHotAccessCount(int hotAccessCount) {
+        this.hotAccessCount = hotAccessCount;
+    }
+
+    public int getAccessStatisticsSize() {
+        return accessStatisticsSize;
+    }
+
+    public void setAccessStatisticsSize(int accessStatisticsSize) {
+        this.accessStatisticsSize = accessStatisticsSize;
+    }
+
+    public long getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    /**
+     * Checks whether a record was read at least hotAccessCount times recently.
+     *
+     * @param identifier the data identifier
+     * @return true if the record is hot
+     */
+    boolean isHot(DataIdentifier identifier) {
+        return accessStatistics != null
+                && accessStatistics.getAccessCount(identifier) >= hotAccessCount;
+    }
+
+    /**
+     * Checks whether a record may be kept in the primary data store.
+     *
+     * @param length the length of the record
+     * @return true if the record is not larger than maxPrimaryRecordLength
+     */
+    private boolean fitsPrimary(long length) {
+        return maxPrimaryRecordLength <= 0 || length <= maxPrimaryRecordLength;
+    }
+
+    /**
+     * Schedules copying a hot record of the archive data store back to the
+     * primary data store. Nothing is done if too many records are waiting.
+     *
+     * @param identifier the data identifier
+     */
+    private void schedulePromotion(DataIdentifier identifier) {
+        if (pendingPromotionSet.add(identifier)
+                && !pendingPromotions.offer(identifier)) {
+            pendingPromotionSet.remove(identifier);
+        }
+    }
+
+    /**
+     * Waits so that the records copied since the given time do not exceed
+     * maxBytesPerSecond.
+     *
+     * @param start the time the copying started, in milliseconds
+     * @param bytes the number of bytes copied since then
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void throttle(long start, long bytes) throws InterruptedException {
+        if (maxBytesPerSecond > 0) {
+            long wait = start + bytes * 1000 / maxBytesPerSecond
+                    - System.currentTimeMillis();
+            if (wait > 0) {
+                Thread.sleep(wait);
+            }
+        }
+    }
+
     /**
      * Writes the given DataIdentifier to the delayedDeletedFile.
      * 
@@ -581,10 +778,19 @@ public class MultiDataStore implements DataStore {
                 log.debug("Collecting all Identifiers from PrimaryDataStore...");
                 Iterator<DataIdentifier> allIdentifiers = primaryDataStore.getAllIdentifiers();
                 int moved = 0;
+                long movedBytes = 0;
                 while (allIdentifiers.hasNext()) {
                     DataIdentifier identifier = allIdentifiers.next();
                     DataRecord dataRecord = primaryDataStore.getRecord(identifier);
-                    if ((dataRecord.getLastModified() + maxAgeMilli) < now) {
+                    long length = dataRecord.getLength();
+                    boolean move;
+                    if (!fitsPrimary(length)) {
+                        move = true;
+                    } else {
+                        move = (dataRecord.getLastModified() + maxAgeMilli) < now
+                                && !isHot(identifier);
+                    }
+                    if (move) {
                         try {
                             moveDataTaskLock.lock();
                             if (delayedDelete) {
@@ -609,6 +815,8 @@ public class MultiDataStore implements DataStore {
                         } finally {
                             moveDataTaskLock.unlock();
                         }
+                        movedBytes += length;
+                        throttle(now, movedBytes);
                     }
                     // Give other threads time to use the MultiDataStore while
                     // MoveDataTask is running..
@@ -628,6 +836,62 @@ public class MultiDataStore implements DataStore {
         }
     }
 
+    /**
+     * Class for copying hot records of the archive data store back to the
+     * primary data store.
+     */
+    public class PromoteDataTask implements Runnable {
+
+        /**
+         * {@inheritDoc}
+         */
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    DataIdentifier identifier = pendingPromotions.take();
+                    long start = System.currentTimeMillis();
+                    throttle(start, promote(identifier));
+                    Thread.sleep(sleepBetweenRecords);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            log.debug("Interrupted: stopping promote-data task.");
+        }
+
+        /**
+         * Copies a record of the archive data store to the primary data
+         * store, unless it is there already.
+         *
+         * @param identifier the data identifier
+         * @return the number of bytes copied
+         */
+        protected long promote(DataIdentifier identifier) {
+            pendingPromotionSet.remove(identifier);
+            try {
+                if (primaryDataStore.getRecordIfStored(identifier) != null) {
+                    return 0;
+                }
+                DataRecord record = archiveDataStore.getRecordIfStored(identifier);
+                if (record == null) {
+                    return 0;
+                }
+                InputStream in = record.getStream();
+                try {
+                    primaryDataStore.addRecord(in);
+                } finally {
+                    IOUtils.closeQuietly(in);
+                }
+                log.debug("Copied DataRecord {} to the primary data store.", identifier);
+                return record.getLength();
+            } catch (DataStoreException e) {
+                log.warn("Failed to copy DataRecord to the primary data store. DataIdentifier: "
+                        + identifier, e);
+                return 0;
+            }
+        }
+    }
+
     /**
      * Class to clean up the delayed DataRecords from the primary data store.
      */
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.File;
+import java.io.InputStream;
+
+/**
+ * A {@link Backend} that can read ranges of records and write records in
+ * parts. {@link CachingDataStore} uses these methods to transfer large
+ * records with concurrent connections: the parts of a record are
+ * downloaded in parallel and reassembled in the {@link LocalCache}, and
+ * uploaded in parallel before the record is completed.
+ * <p>
+ * The methods writing parts of the same upload may be called concurrently.
+ */
+public interface MultipartBackend extends Backend {
+
+    /**
+     * Return the minimum size of the parts of a record, except the last one.
+     * 
+     * @return the minimum part size in bytes.
+     */
+    long getMinPartSize();
+
+    /**
+     * Return inputstream of a range of the record identified by identifier.
+     * 
+     * @param identifier
+     *            identifier of record.
+     * @param offset
+     *            position of the first byte of the range.
+     * @param length
+     *            number of bytes of the range.
+     * @return inputstream of the range.
+     * @throws DataStoreException
+     *             if record not found or any error.
+     */
+    InputStream read(DataIdentifier identifier, long offset, long length)
+            throws DataStoreException;
+
+    /**
+     * Starts writing a record in parts. If the record already exists, its
+     * timestamp is updated as with {@link #write(DataIdentifier, File)},
+     * and no upload is started.
+     * 
+     * @param identifier
+     *            key of the record.
+     * @param length
+     *            length of the record.
+     * @return the id of the upload, or <code>null</code> if the record
+     *         already exists.
+     * @throws DataStoreException
+     *             for any error.
+     */
+    String initiateWrite(DataIdentifier identifier, long length)
+            throws DataStoreException;
+
+    /**
+     * Writes a part of a record.
+     * 
+     * @param identifier
+     *            key of the record.
+     * @param uploadId
+     *            id of the upload.
+     * @param partNumber
+     *            number of the part, starting with 1.
+     * @param file
+     *            file that contains the record.
+     * @param offset
+     *            position of the part in the file.
+     * @param length
+     *            length of the part.
+     * @throws DataStoreException
+     *             for any error.
+     */
+    void writePart(DataIdentifier identifier, String uploadId, int partNumber,
+            File file, long offset, long length) throws DataStoreException;
+
+    /**
+     * Completes a record once all its parts are written.
+     * 
+     * @param identifier
+     *            key of the record.
+     * @param uploadId
+     *            id of the upload.
+     * @param partCount
+     *            number of parts.
+     * @throws DataStoreException
+     *             for any error.
+     */
+    void completeWrite(DataIdentifier identifier, String uploadId,
+            int partCount) throws DataStoreException;
+
+    /**
+     * Discards the parts of an upload that failed. Errors are logged.
+     * 
+     * @param identifier
+     *            key of the record.
+     * @param uploadId
+     *            id of the upload.
+     */
+    void abortWrite(DataIdentifier identifier, String uploadId);
+}
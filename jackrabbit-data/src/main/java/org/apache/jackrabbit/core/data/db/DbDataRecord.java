@@ -59,6 +59,10 @@ public class DbDataRecord extends AbstractDataRecord {
      */
     public InputStream getStream() throws DataStoreException {
         lastModified = store.touch(getIdentifier(), lastModified);
+        if (store.getReadChunkSize() > 0) {
+            return new DbRangeInputStream(
+                    store, getIdentifier(), length, store.getReadChunkSize());
+        }
         return new BufferedInputStream(new DbInputStream(store, getIdentifier()));
     }
 
@@ -20,8 +20,10 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.CountingInputStream;
 import org.apache.jackrabbit.core.data.AbstractDataStore;
 import org.apache.jackrabbit.core.data.DataIdentifier;
+import org.apache.jackrabbit.core.data.DataIdentifierFilter;
 import org.apache.jackrabbit.core.data.DataRecord;
 import org.apache.jackrabbit.core.data.DataStoreException;
+import org.apache.jackrabbit.core.data.MarkAndSweepAware;
 import org.apache.jackrabbit.core.data.MultiDataStoreAware;
 import org.apache.jackrabbit.core.util.db.CheckSchemaOperation;
 import org.apache.jackrabbit.core.util.db.ConnectionFactory;
@@ -44,6 +46,7 @@ import java.lang.ref.WeakReference;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.sql.Blob;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -72,6 +75,7 @@ import javax.sql.DataSource;
  *     &lt;param name="{@link #setMinRecordLength(int) minRecordLength}" value="1024"/&gt;
  *     &lt;param name="{@link #setMaxConnections(int) maxConnections}" value="2"/&gt;
  *     &lt;param name="{@link #setCopyWhenReading(boolean) copyWhenReading}" value="true"/&gt;
+ *     &lt;param name="{@link #setReadChunkSize(int) readChunkSize}" value="0"/&gt;
  *     &lt;param name="{@link #setTablePrefix(String) tablePrefix}" value=""/&gt;
  *     &lt;param name="{@link #setSchemaObjectPrefix(String) schemaObjectPrefix}" value=""/&gt;
  *     &lt;param name="{@link #setSchemaCheckEnabled(boolean) schemaCheckEnabled}" value="true"/&gt;
@@ -98,11 +102,17 @@ import javax.sql.DataSource;
  * By default, the data is copied to a temp file when reading, to avoid problems when reading multiple
  * blobs at the same time.
  * <p>
+ * If readChunkSize is set, the data is instead read in ranges of at most this many bytes, each
+ * range using a connection of the pool only while it is read. Neither a temp file nor a connection
+ * is kept while the stream is open, and at most one range per stream is kept in memory. The
+ * ranges are read with the selectDataRange statement of the database type if it is defined,
+ * and otherwise with the JDBC Blob methods of the selectData result.
+ * <p>
  * The tablePrefix can be used to specify a schema and / or catalog name:
  * &lt;param name="tablePrefix" value="ds."&gt;
  */
 public class DbDataStore extends AbstractDataStore
-        implements DatabaseAware, MultiDataStoreAware {
+        implements DatabaseAware, MultiDataStoreAware, MarkAndSweepAware {
 
     /**
      * The default value for the minimum object size.
@@ -252,6 +262,20 @@ public class DbDataStore extends AbstractDataStore
     protected String deleteOlderSQL =
         "DELETE FROM ${tablePrefix}${table} WHERE LAST_MODIFIED<?";
 
+    /**
+     * This is the property 'selectOlder'
+     * in the [databaseType].properties file, initialized with the default value.
+     */
+    protected String selectOlderSQL =
+        "SELECT ID FROM ${tablePrefix}${table} WHERE LAST_MODIFIED<?";
+
+    /**
+     * This is the property 'deleteIfOlder'
+     * in the [databaseType].properties file, initialized with the default value.
+     */
+    protected String deleteIfOlderSQL =
+        "DELETE FROM ${tablePrefix}${table} WHERE ID=? AND LAST_MODIFIED<?";
+
     /**
      * This is the property 'selectMeta'
      * in the [databaseType].properties file, initialized with the default value.
@@ -273,6 +297,14 @@ public class DbDataStore extends AbstractDataStore
     protected String selectDataSQL =
         "SELECT ID, DATA FROM ${tablePrefix}${table} WHERE ID=?";
 
+    /**
+     * This is the property 'selectDataRange'
+     * in the [databaseType].properties file, initialized with the default value.
+     * The parameters are the position (starting with 1), the length and the identifier.
+     * If empty, the ranges are read using the JDBC Blob methods.
+     */
+    protected String selectDataRangeSQL = "";
+
     /**
      * The stream storing mechanism used.
      */
@@ -284,6 +316,12 @@ public class DbDataStore extends AbstractDataStore
      */
     protected boolean copyWhenReading = true;
 
+    /**
+     * The maximum number of bytes read at once when reading in ranges,
+     * or 0 to read the whole stream with one query.
+     */
+    protected int readChunkSize;
+
     /**
      * All data identifiers that are currently in use are in this set until they are garbage collected.
      */
@@ -498,17 +536,7 @@ public class DbDataStore extends AbstractDataStore
 
     public synchronized int deleteAllOlderThan(long min) throws DataStoreException {
         try {
-            ArrayList<String> touch = new ArrayList<String>();
-            ArrayList<DataIdentifier> ids = new ArrayList<DataIdentifier>(inUse.keySet());
-            for (DataIdentifier identifier: ids) {
-                if (identifier != null) {
-                    touch.add(identifier.toString());
-                }
-            }
-            touch.addAll(temporaryInUse);
-            for (String key : touch) {
-                updateLastModifiedDate(key, 0);
-            }
+            touchInUse();
             // DELETE FROM DATASTORE WHERE LAST_MODIFIED<?
             log.debug(deleteOlderSQL + " - Scanstart [" + min + "]");
             return conHelper.update(deleteOlderSQL, min);
@@ -517,6 +545,62 @@ public class DbDataStore extends AbstractDataStore
         }
     }
 
+    /**
+     * Deletes the unreferenced records one by one. The identifiers of the
+     * older records are read first, and each record is deleted with a
+     * statement that checks the modified date again.
+     */
+    public synchronized int deleteAllUnreferencedOlderThan(
+            long min, DataIdentifierFilter referenced) throws DataStoreException {
+        ResultSet rs = null;
+        try {
+            touchInUse();
+            List<String> unreferenced = new ArrayList<String>();
+            // SELECT ID FROM DATASTORE WHERE LAST_MODIFIED<?
+            rs = conHelper.query(selectOlderSQL, min);
+            while (rs.next()) {
+                String id = rs.getString(1);
+                if (id.startsWith(TEMP_PREFIX)
+                        || !referenced.mightContain(new DataIdentifier(id))) {
+                    unreferenced.add(id);
+                }
+            }
+            DbUtility.close(rs);
+            rs = null;
+            int count = 0;
+            for (String id : unreferenced) {
+                // DELETE FROM DATASTORE WHERE ID=? AND LAST_MODIFIED<?
+                count += conHelper.update(deleteIfOlderSQL, id, min);
+            }
+            log.debug("Deleted {} unreferenced records older than {}", count, min);
+            return count;
+        } catch (Exception e) {
+            throw convert("Can not delete records", e);
+        } finally {
+            DbUtility.close(rs);
+        }
+    }
+
+    /**
+     * Updates the modified date of the records in use, so that they are not
+     * deleted.
+     *
+     * @throws Exception if the update fails
+     */
+    private void touchInUse() throws Exception {
+        ArrayList<String> touch = new ArrayList<String>();
+        ArrayList<DataIdentifier> ids = new ArrayList<DataIdentifier>(inUse.keySet());
+        for (DataIdentifier identifier: ids) {
+            if (identifier != null) {
+                touch.add(identifier.toString());
+            }
+        }
+        touch.addAll(temporaryInUse);
+        for (String key : touch) {
+            updateLastModifiedDate(key, 0);
+        }
+    }
+
     public Iterator<DataIdentifier> getAllIdentifiers() throws DataStoreException {
         ArrayList<DataIdentifier> list = new ArrayList<DataIdentifier>();
         ResultSet rs = null;
@@ -613,6 +697,45 @@ public class DbDataStore extends AbstractDataStore
         }
     }
 
+    /**
+     * Read a range of a record, using a connection only while reading.
+     *
+     * @param identifier data identifier
+     * @param position the position of the first byte, starting with 0
+     * @param length the maximum number of bytes to read
+     * @return the bytes, fewer than requested at the end of the record
+     * @throws DataStoreException if the data store could not be accessed,
+     *          or if the given identifier is invalid
+     */
+    byte[] readRange(DataIdentifier identifier, long position, int length) throws DataStoreException {
+        ResultSet rs = null;
+        try {
+            byte[] data;
+            if (selectDataRangeSQL.length() > 0) {
+                // SELECT SUBSTRING(DATA, ?, ?) FROM DATASTORE WHERE ID = ?
+                rs = conHelper.query(selectDataRangeSQL, position + 1, length, identifier.toString());
+                if (!rs.next()) {
+                    throw new DataStoreException("Record not found: " + identifier);
+                }
+                data = rs.getBytes(1);
+            } else {
+                // SELECT ID, DATA FROM DATASTORE WHERE ID = ?
+                rs = conHelper.query(selectDataSQL, identifier.toString());
+                if (!rs.next()) {
+                    throw new DataStoreException("Record not found: " + identifier);
+                }
+                Blob blob = rs.getBlob(2);
+                data = blob == null || position >= blob.length()
+                        ? null : blob.getBytes(position + 1, length);
+            }
+            return data == null ? new byte[0] : data;
+        } catch (Exception e) {
+            throw convert("Can not read identifier " + identifier, e);
+        } finally {
+            DbUtility.close(rs);
+        }
+    }
+
     public synchronized void init(String homeDir) throws DataStoreException {
         try {
             initDatabaseType();
@@ -718,9 +841,12 @@ public class DbDataStore extends AbstractDataStore
         updateSQL = getProperty(prop, "update", updateSQL);
         deleteSQL = getProperty(prop, "delete", deleteSQL);
         deleteOlderSQL = getProperty(prop, "deleteOlder", deleteOlderSQL);
+        selectOlderSQL = getProperty(prop, "selectOlder", selectOlderSQL);
+        deleteIfOlderSQL = getProperty(prop, "deleteIfOlder", deleteIfOlderSQL);
         selectMetaSQL = getProperty(prop, "selectMeta", selectMetaSQL);
         selectAllSQL = getProperty(prop, "selectAll", selectAllSQL);
         selectDataSQL = getProperty(prop, "selectData", selectDataSQL);
+        selectDataRangeSQL = getProperty(prop, "selectDataRange", selectDataRangeSQL);
         storeStream = getProperty(prop, "storeStream", storeStream);
         if (!STORE_SIZE_MINUS_ONE.equals(storeStream)
                 && !STORE_TEMP_FILE.equals(storeStream)
@@ -964,6 +1090,28 @@ public class DbDataStore extends AbstractDataStore
         this.copyWhenReading = copyWhenReading;
     }
 
+    /**
+     * Get the maximum number of bytes read at once.
+     *
+     * @return the chunk size, or 0 if streams are read with one query
+     */
+    public int getReadChunkSize() {
+        return readChunkSize;
+    }
+
+    /**
+     * Set the maximum number of bytes read at once. If set, streams are read
+     * in ranges of this size, without copying them to a temporary file and
+     * without keeping a connection while the stream is open, and the
+     * copyWhenReading setting has no effect. The default is 0, which reads
+     * each stream with one query.
+     *
+     * @param readChunkSize the chunk size, or 0
+     */
+    public void setReadChunkSize(int readChunkSize) {
+        this.readChunkSize = readChunkSize;
+    }
+
     /**
      * Get the table prefix.
      *
@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.jackrabbit.core.data.DataIdentifier;
+import org.apache.jackrabbit.core.data.DataStoreException;
+
+/**
+ * This class represents an input stream backed by a database, that reads
+ * the record in ranges. Each range is read with a separate query, so that
+ * no database objects are held between two reads, and only the current range
+ * is kept in memory. Skipping does not access the database.
+ * <p>
+ * This class supports mark/reset, the range is read again after a reset
+ * if required.
+ */
+public class DbRangeInputStream extends InputStream {
+
+    protected final DbDataStore store;
+    protected final DataIdentifier identifier;
+    protected final int chunkSize;
+
+    /**
+     * The length of the record.
+     */
+    protected long length;
+
+    /**
+     * The position of the next byte to read.
+     */
+    protected long position;
+
+    /**
+     * The marked position.
+     */
+    protected long markPosition;
+
+    /**
+     * The current range, or null.
+     */
+    protected byte[] buffer;
+
+    /**
+     * The position of the first byte of the current range.
+     */
+    protected long bufferPosition;
+
+    /**
+     * Whether the stream has been closed.
+     */
+    protected boolean closed;
+
+    /**
+     * Create a database input stream for the given identifier.
+     * Database access is delayed until the first byte is read from the stream.
+     *
+     * @param store the database data store
+     * @param identifier the data identifier
+     * @param length the length of the record
+     * @param chunkSize the maximum number of bytes to read at once
+     */
+    protected DbRangeInputStream(DbDataStore store, DataIdentifier identifier,
+            long length, int chunkSize) {
+        this.store = store;
+        this.identifier = identifier;
+        this.length = length;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Read the range containing the current position if required.
+     *
+     * @return the number of bytes available in the current range,
+     *          or 0 at the end of the stream
+     * @throws IOException if the range could not be read
+     */
+    protected int fill() throws IOException {
+        checkOpen();
+        if (buffer != null && position >= bufferPosition
+                && position < bufferPosition + buffer.length) {
+            return (int) (bufferPosition + buffer.length - position);
+        }
+        if (position >= length) {
+            return 0;
+        }
+        int len = (int) Math.min(chunkSize, length - position);
+        try {
+            buffer = store.readRange(identifier, position, len);
+        } catch (DataStoreException e) {
+            IOException e2 = new IOException(e.getMessage());
+            e2.initCause(e);
+            throw e2;
+        }
+        bufferPosition = position;
+        if (buffer.length == 0) {
+            // the record is shorter than expected
+            length = position;
+            buffer = null;
+            return 0;
+        }
+        return buffer.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int read() throws IOException {
+        if (fill() == 0) {
+            return -1;
+        }
+        return buffer[(int) (position++ - bufferPosition)] & 0xff;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int n = Math.min(fill(), len);
+        if (n == 0) {
+            return -1;
+        }
+        System.arraycopy(buffer, (int) (position - bufferPosition), b, off, n);
+        position += n;
+        return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long skip(long n) throws IOException {
+        checkOpen();
+        long skipped = Math.max(0, Math.min(n, length - position));
+        position += skipped;
+        return skipped;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int available() throws IOException {
+        checkOpen();
+        if (buffer != null && position >= bufferPosition
+                && position < bufferPosition + buffer.length) {
+            return (int) (bufferPosition + buffer.length - position);
+        }
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The current range is released. Reading from the stream afterwards
+     * fails, it does not query the database again.
+     */
+    public void close() throws IOException {
+        closed = true;
+        buffer = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void mark(int readlimit) {
+        markPosition = position;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reset() throws IOException {
+        checkOpen();
+        position = markPosition;
+    }
+
+    /**
+     * Throw an exception if the stream has been closed.
+     *
+     * @throws IOException if the stream has been closed
+     */
+    protected void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed: " + identifier);
+        }
+    }
+
+    /**
+     * Check whether mark and reset are supported.
+     *
+     * @return true
+     */
+    public boolean markSupported() {
+        return true;
+    }
+}
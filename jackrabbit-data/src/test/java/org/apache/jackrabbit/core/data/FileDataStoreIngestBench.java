@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Measures the throughput of concurrent threads adding distinct records to
+ * a file data store, like a bulk ingestion of binaries does, while a
+ * garbage collection repeatedly scans the store.
+ * <p>
+ * Usage: <code>FileDataStoreIngestBench [threads [records [recordSize]]]</code>
+ */
+public class FileDataStoreIngestBench {
+
+    private static final File DIR = new File("target/fileDataStoreIngestBench");
+
+    int threads;
+
+    int records;
+
+    int recordSize;
+
+    public static void main(String[] args) throws Exception {
+        FileDataStoreIngestBench bench = new FileDataStoreIngestBench();
+        bench.threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        bench.records = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        bench.recordSize = args.length > 2 ? Integer.parseInt(args[2]) : 4096;
+        for (int i = 0; i < 3; i++) {
+            // the first round warms up
+            bench.test(i);
+        }
+    }
+
+    void test(int run) throws Exception {
+        FileUtils.deleteQuietly(DIR);
+        final FileDataStore store = new FileDataStore();
+        store.setPath(DIR.getPath());
+        store.init(DIR.getPath());
+
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> list = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            list.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int n = next.getAndIncrement(); n < records;
+                                n = next.getAndIncrement()) {
+                            store.addRecord(new RandomInputStream(n, recordSize));
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            }));
+        }
+        Thread gc = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    start.await();
+                    while (next.get() < records) {
+                        // deletes no records, but empty directories
+                        store.deleteAllOlderThan(0);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        for (Thread t : list) {
+            t.start();
+        }
+        gc.start();
+
+        long time = System.currentTimeMillis();
+        start.countDown();
+        for (Thread t : list) {
+            t.join();
+        }
+        time = System.currentTimeMillis() - time;
+        gc.join();
+        store.close();
+        if (run > 0) {
+            System.out.println("run: " + run + "; threads: " + threads
+                    + "; records: " + records + "; time: " + time + " ms; "
+                    + (records * 1000L / Math.max(time, 1)) + " records/s");
+        }
+        FileUtils.deleteQuietly(DIR);
+    }
+}
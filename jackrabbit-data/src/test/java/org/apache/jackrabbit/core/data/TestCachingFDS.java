@@ -17,8 +17,11 @@
 
 package org.apache.jackrabbit.core.data;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.InputStream;
 import java.util.Properties;
 
 import javax.jcr.RepositoryException;
@@ -36,6 +39,12 @@ public class TestCachingFDS extends TestFileDataStore {
     private static final String TO_BE_DELETED_UPLOAD_FILE = "async-tobedeleted-uploads.ser";
 
     protected DataStore createDataStore() throws RepositoryException {
+        CachingFDS cacheFDS = createCachingFDS();
+        cacheFDS.init(dataStoreDir);
+        return cacheFDS;
+    }
+
+    private CachingFDS createCachingFDS() {
         CachingFDS cacheFDS = new CachingFDS();
         Properties props = loadProperties("/fs.properties");
         String pathValue = props.getProperty(FSBackend.FS_BACKEND_PATH);
@@ -52,7 +61,6 @@ public class TestCachingFDS extends TestFileDataStore {
         cacheFDS.setSecret("12345");
         // disable asynchronous writing in testing.
         cacheFDS.setAsyncUploadLimit(0);
-        cacheFDS.init(dataStoreDir);
         return cacheFDS;
     }
 
@@ -81,4 +89,48 @@ public class TestCachingFDS extends TestFileDataStore {
             fail(e.getMessage());
         }
     }
+
+    /**
+     * Test that records larger than the part size are uploaded and
+     * downloaded in parts.
+     */
+    public void testMultipartTransfer() {
+        try {
+            CachingFDS cacheFDS = createCachingFDS();
+            cacheFDS.setPartSize(1000);
+            cacheFDS.setPartThreads(3);
+            cacheFDS.init(dataStoreDir);
+            ds = cacheFDS;
+            byte[] data = new byte[12345];
+            randomGen.nextBytes(data);
+            DataRecord rec = ds.addRecord(new ByteArrayInputStream(data));
+            DataIdentifier identifier = rec.getIdentifier();
+            assertEquals(data.length, rec.getLength());
+
+            String id = identifier.toString();
+            File file = new File(fsPath + "/" + id.substring(0, 2) + "/"
+                + id.substring(2, 4) + "/" + id.substring(4, 6), id);
+            InputStream in = new FileInputStream(file);
+            try {
+                assertTrue(IOUtils.contentEquals(
+                    new ByteArrayInputStream(data), in));
+            } finally {
+                in.close();
+            }
+
+            // read the record from the backend
+            cacheFDS.deleteFromCache(identifier);
+            in = ds.getRecord(identifier).getStream();
+            try {
+                assertTrue(IOUtils.contentEquals(
+                    new ByteArrayInputStream(data), in));
+            } finally {
+                in.close();
+            }
+            ds.close();
+        } catch (Exception e) {
+            LOG.error("error:", e);
+            fail(e.getMessage());
+        }
+    }
 }
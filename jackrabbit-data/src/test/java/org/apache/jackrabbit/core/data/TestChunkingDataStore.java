@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Test cases to test {@link ChunkingDataStore}
+ */
+public class TestChunkingDataStore extends TestCaseBase {
+
+    private FileDataStore fds;
+
+    @Override
+    protected DataStore createDataStore() throws RepositoryException {
+        fds = new FileDataStore();
+        fds.setPath(dataStoreDir + "/repository/datastore");
+        fds.init(dataStoreDir);
+        ChunkingDataStore cds = new ChunkingDataStore();
+        cds.setMinChunkSize(2 * 1024);
+        cds.setAverageChunkSize(8 * 1024);
+        cds.setMaxChunkSize(32 * 1024);
+        cds.setChunkDataStore(fds);
+        cds.init(dataStoreDir);
+        return cds;
+    }
+
+    /**
+     * As the chunks are deleted with the records, more than one record is
+     * deleted.
+     */
+    @Override
+    protected void doDeleteAllOlderThan() throws Exception {
+        ds = createDataStore();
+        byte[] data = new byte[dataLength];
+        randomGen.nextBytes(data);
+        DataRecord rec1 = ds.addRecord(new ByteArrayInputStream(data));
+
+        data = new byte[dataLength];
+        randomGen.nextBytes(data);
+        DataRecord rec2 = ds.addRecord(new ByteArrayInputStream(data));
+
+        sleep(2000);
+        long updateTime = System.currentTimeMillis();
+        ds.updateModifiedDateOnAccess(updateTime);
+        sleep(2000);
+
+        data = new byte[dataLength];
+        randomGen.nextBytes(data);
+        DataRecord rec3 = ds.addRecord(new ByteArrayInputStream(data));
+
+        rec1 = ds.getRecord(rec1.getIdentifier());
+        ds.clearInUse();
+        assertTrue("rec2 and its chunks should be deleted",
+            ds.deleteAllOlderThan(updateTime) > 1);
+        assertNull("rec2 should be null",
+            ds.getRecordIfStored(rec2.getIdentifier()));
+
+        List<DataIdentifier> list = new ArrayList<DataIdentifier>();
+        list.add(rec1.getIdentifier());
+        list.add(rec3.getIdentifier());
+        Iterator<DataIdentifier> itr = ds.getAllIdentifiers();
+        while (itr.hasNext()) {
+            assertTrue("record found on list", list.remove(itr.next()));
+        }
+        assertEquals("touched records found", 0, list.size());
+        // the chunks of rec1 are touched when rec1 is accessed
+        assertRecord(getData(rec1), ds.getRecord(rec1.getIdentifier()));
+        ds.close();
+    }
+
+    /**
+     * Test that equal binaries get the same identifier, and that a modified
+     * copy of a binary only adds the chunks around the modification.
+     */
+    public void testDeduplication() throws Exception {
+        ds = createDataStore();
+        byte[] data = new byte[256 * 1024];
+        randomGen.nextBytes(data);
+        DataRecord rec1 = ds.addRecord(new ByteArrayInputStream(data));
+        int records = countChunkStoreRecords();
+        assertTrue(records > 2);
+
+        DataRecord rec2 = ds.addRecord(new ByteArrayInputStream(data));
+        assertEquals(rec1.getIdentifier(), rec2.getIdentifier());
+        assertEquals(records, countChunkStoreRecords());
+
+        // insert some bytes in the middle
+        byte[] modified = new byte[data.length + 10];
+        System.arraycopy(data, 0, modified, 0, 100000);
+        System.arraycopy(data, 100000, modified, 100010, data.length - 100000);
+        DataRecord rec3 = ds.addRecord(new ByteArrayInputStream(modified));
+        assertFalse(rec1.getIdentifier().equals(rec3.getIdentifier()));
+        assertRecord(modified, ds.getRecord(rec3.getIdentifier()));
+        // new manifest, and at most the chunks around the change
+        int added = countChunkStoreRecords() - records;
+        assertTrue("added " + added + " of " + records + " records",
+            added < records / 2);
+        ds.close();
+    }
+
+    /**
+     * Test that skipping within and across chunks returns the right bytes.
+     */
+    public void testSkip() throws Exception {
+        ds = createDataStore();
+        byte[] data = new byte[200 * 1024];
+        randomGen.nextBytes(data);
+        DataRecord rec = ds.addRecord(new ByteArrayInputStream(data));
+        assertEquals(data.length, rec.getLength());
+        InputStream in = ds.getRecord(rec.getIdentifier()).getStream();
+        try {
+            int pos = 0;
+            for (int step : new int[] { 10, 3000, 50000, 1, 70000 }) {
+                assertEquals(step, in.skip(step));
+                pos += step;
+                assertEquals(data[pos] & 0xff, in.read());
+                pos++;
+            }
+            assertEquals(data.length - pos, in.skip(data.length));
+            assertEquals(-1, in.read());
+            // skipping at the end of the record
+            assertEquals(0, in.skip(1));
+            assertEquals(0, in.skip(data.length));
+            assertEquals(-1, in.read());
+        } finally {
+            in.close();
+        }
+        ds.close();
+    }
+
+    /**
+     * Test that an empty binary can be stored.
+     */
+    public void testEmptyRecord() throws Exception {
+        ds = createDataStore();
+        DataRecord rec = ds.addRecord(new ByteArrayInputStream(new byte[0]));
+        assertEquals(0, rec.getLength());
+        InputStream in = ds.getRecord(rec.getIdentifier()).getStream();
+        try {
+            assertEquals(0, in.skip(1));
+            assertEquals(-1, in.read());
+            assertEquals(0, in.skip(1));
+        } finally {
+            in.close();
+        }
+        ds.close();
+    }
+
+    private byte[] getData(DataRecord record) throws Exception {
+        InputStream in = record.getStream();
+        try {
+            return IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private int countChunkStoreRecords() throws Exception {
+        int count = 0;
+        Iterator<DataIdentifier> it = fds.getAllIdentifiers();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the filter of data identifiers.
+ */
+public class TestDataIdentifierFilter extends TestCase {
+
+    public void testContains() {
+        DataIdentifierFilter filter = new DataIdentifierFilter(100, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.add(new DataIdentifier("id" + i));
+        }
+        assertTrue(filter.getCount() <= 10000);
+        assertTrue(filter.getCount() > 9900);
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain(new DataIdentifier("id" + i)));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain(new DataIdentifier("other" + i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 300);
+        assertTrue(filter.getMemoryUsage() < 10000 * 4);
+    }
+
+    public void testInvalidArguments() {
+        try {
+            new DataIdentifierFilter(0, 0.01);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new DataIdentifierFilter(100, 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+}
@@ -17,8 +17,10 @@
 
 package org.apache.jackrabbit.core.data;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
 
 import javax.jcr.RepositoryException;
 
@@ -53,6 +55,58 @@ public class TestFileDataStore extends TestCaseBase {
         return fds;
     }
 
+    /**
+     * Test that concurrent threads adding the same and different records
+     * all get the stored records.
+     */
+    public void testConcurrentAddRecord() throws Exception {
+        ds = createDataStore();
+        final int threadCount = 16;
+        final CountDownLatch start = new CountDownLatch(1);
+        final DataRecord[][] records = new DataRecord[threadCount][2];
+        final Exception[] exception = new Exception[1];
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int x = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        records[x][0] = ds.addRecord(
+                                new ByteArrayInputStream(getData(-1)));
+                        records[x][1] = ds.addRecord(
+                                new ByteArrayInputStream(getData(x)));
+                    } catch (Exception e) {
+                        exception[0] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (exception[0] != null) {
+            throw exception[0];
+        }
+        for (int i = 0; i < threadCount; i++) {
+            assertEquals(records[0][0].getIdentifier(),
+                    records[i][0].getIdentifier());
+            assertRecord(getData(-1), ds.getRecord(records[i][0].getIdentifier()));
+            assertRecord(getData(i), ds.getRecord(records[i][1].getIdentifier()));
+        }
+        ds.close();
+    }
+
+    private static byte[] getData(int seed) {
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (seed + i);
+        }
+        return data;
+    }
+
     @Override
     protected void tearDown() {
         LOG.info("cleaning fsPath [{}]", fsPath);
@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.util.GzipContentProvider;
+
+/**
+ * Test cases for features of {@link FileDataStore} the caching data stores
+ * do not have. Unlike {@link TestFileDataStore}, this class is not extended
+ * to run the tests against other data stores.
+ */
+public class TestFileDataStoreFeatures extends TestCase {
+
+    private final Random randomGen = new Random();
+
+    private String dataStoreDir;
+
+    private FileDataStore fds;
+
+    @Override
+    protected void setUp() throws Exception {
+        dataStoreDir = "target/" + getClass().getSimpleName() + "/" + getName();
+        FileUtils.deleteQuietly(new File(dataStoreDir));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (fds != null) {
+            fds.close();
+            fds = null;
+        }
+        FileUtils.deleteQuietly(new File(dataStoreDir));
+    }
+
+    /**
+     * Test that compressible records are stored compressed under the digest
+     * of their content, and that other records are stored as is.
+     */
+    public void testCompression() throws Exception {
+        String path = dataStoreDir + "/compression";
+        fds = createFileDataStore(path);
+        StringBuilder buff = new StringBuilder();
+        for (int i = 0; buff.length() < 100000; i++) {
+            buff.append("<node name=\"n").append(i).append("\"/>\n");
+        }
+        byte[] text = buff.toString().getBytes("UTF-8");
+        byte[] random = new byte[100000];
+        randomGen.nextBytes(random);
+
+        DataRecord plain = fds.addRecord(new ByteArrayInputStream(text));
+        fds.deleteRecord(plain.getIdentifier());
+        fds.setCompressionThreshold(1024);
+        DataRecord rec = fds.addRecord(new ByteArrayInputStream(text));
+        assertEquals(plain.getIdentifier(), rec.getIdentifier());
+        assertEquals(text.length, rec.getLength());
+        assertRecord(text, fds.getRecord(rec.getIdentifier()));
+        File file = getRecordFile(path, rec.getIdentifier() + GzipFile.SUFFIX);
+        assertTrue(file.exists());
+        assertTrue(file.length() < text.length / 4);
+
+        InputStream in = rec.getStream();
+        assertTrue(in instanceof GzipContentProvider);
+        GzipContentProvider provider = (GzipContentProvider) in;
+        assertEquals(file.length(), provider.getGzipLength());
+        InputStream gzip = new GZIPInputStream(provider.getGzipStream());
+        try {
+            assertTrue(IOUtils.contentEquals(new ByteArrayInputStream(text), gzip));
+        } finally {
+            gzip.close();
+        }
+        in.close();
+
+        // adding the same content again returns the compressed record
+        fds.setCompressionThreshold(-1);
+        assertEquals(text.length,
+            fds.addRecord(new ByteArrayInputStream(text)).getLength());
+        assertFalse(getRecordFile(path, rec.getIdentifier().toString()).exists());
+
+        fds.setCompressionThreshold(1024);
+        DataRecord rnd = fds.addRecord(new ByteArrayInputStream(random));
+        assertTrue(getRecordFile(path, rnd.getIdentifier().toString()).exists());
+        DataRecord small = fds.addRecord(
+            new ByteArrayInputStream(text, 0, 1000));
+        assertTrue(getRecordFile(path, small.getIdentifier().toString()).exists());
+
+        List<DataIdentifier> list = new ArrayList<DataIdentifier>();
+        Iterator<DataIdentifier> it = fds.getAllIdentifiers();
+        while (it.hasNext()) {
+            list.add(it.next());
+        }
+        assertEquals(3, list.size());
+        assertTrue(list.contains(rec.getIdentifier()));
+
+        // compressible beyond the sample, but shorter than the threshold
+        fds.setCompressionThreshold(50000);
+        byte[] part = new byte[40000];
+        System.arraycopy(text, 0, part, 0, part.length);
+        DataRecord medium = fds.addRecord(new ByteArrayInputStream(part));
+        String name = medium.getIdentifier().toString();
+        assertTrue(getRecordFile(path, name).exists());
+        assertFalse(getRecordFile(path, name + GzipFile.SUFFIX).exists());
+        assertRecord(part, fds.getRecord(medium.getIdentifier()));
+        DataRecord large = fds.addRecord(new ByteArrayInputStream(text));
+        assertEquals(rec.getIdentifier(), large.getIdentifier());
+        assertTrue(file.exists());
+
+        fds.deleteRecord(rec.getIdentifier());
+        assertFalse(file.exists());
+        assertNull(fds.getRecordIfStored(rec.getIdentifier()));
+    }
+
+    /**
+     * Test that only the unreferenced records that were not accessed since
+     * the given time are deleted.
+     */
+    public void testDeleteUnreferenced() throws Exception {
+        fds = createFileDataStore(dataStoreDir + "/unreferenced");
+        List<DataIdentifier> ids = new ArrayList<DataIdentifier>();
+        for (int i = 0; i < 20; i++) {
+            byte[] data = new byte[200];
+            randomGen.nextBytes(data);
+            ids.add(fds.addRecord(new ByteArrayInputStream(data)).getIdentifier());
+        }
+        fds.clearInUse();
+        // the modified date has a resolution of one second or more
+        Thread.sleep(2000);
+        long start = System.currentTimeMillis();
+        fds.updateModifiedDateOnAccess(start);
+        byte[] data = new byte[200];
+        randomGen.nextBytes(data);
+        DataIdentifier added = fds.addRecord(
+            new ByteArrayInputStream(data)).getIdentifier();
+
+        DataIdentifierFilter referenced = new DataIdentifierFilter(10, 0.0001);
+        for (int i = 0; i < ids.size(); i += 2) {
+            referenced.add(ids.get(i));
+        }
+        // a false positive of the filter keeps an unreferenced record
+        int unreferenced = 0;
+        for (DataIdentifier id : ids) {
+            if (!referenced.mightContain(id)) {
+                unreferenced++;
+            }
+        }
+        assertTrue(unreferenced > ids.size() / 4);
+        assertEquals(unreferenced,
+            fds.deleteAllUnreferencedOlderThan(start, referenced));
+        for (DataIdentifier id : ids) {
+            assertEquals(referenced.mightContain(id),
+                fds.getRecordIfStored(id) != null);
+        }
+        assertNotNull(fds.getRecordIfStored(added));
+    }
+
+    private FileDataStore createFileDataStore(String path) {
+        FileDataStore store = new FileDataStore();
+        store.setPath(path);
+        store.init(dataStoreDir);
+        return store;
+    }
+
+    private static void assertRecord(byte[] expected, DataRecord record)
+            throws DataStoreException, IOException {
+        InputStream stream = record.getStream();
+        try {
+            assertTrue(IOUtils.contentEquals(
+                new ByteArrayInputStream(expected), stream));
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static File getRecordFile(String path, String name) {
+        return new File(path, name.substring(0, 2) + "/"
+            + name.substring(2, 4) + "/" + name.substring(4, 6) + "/" + name);
+    }
+}
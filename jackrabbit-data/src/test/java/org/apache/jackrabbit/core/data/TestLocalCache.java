@@ -189,11 +189,14 @@ public class TestLocalCache extends TestCase {
             data = new byte[90];
             random.nextBytes(data);
             byteMap.put("a4", data);
+            // a4 is requested more often than a1 and a2
+            assertNull(cache.getIfStored("a4"));
+            assertNull(cache.getIfStored("a4"));
             // storing a4 should purge cache
             cache.store("a4", new ByteArrayInputStream(byteMap.get("a4")));
             do {
                 Thread.sleep(1000);
-            } while (cache.isInPurgeMode());
+            } while (cache.isDeletingEvicted());
 
             result = cache.getIfStored("a1");
             assertNull("a1 should be null", result);
@@ -224,6 +227,51 @@ public class TestLocalCache extends TestCase {
         }
     }
 
+    /**
+     * Test that reading many files once does not evict files that are read
+     * often.
+     */
+    public void testScanResistance() {
+        try {
+            AsyncUploadCache pendingFiles = new AsyncUploadCache();
+            pendingFiles.init(tempDirPath, cacheDirPath, 100);
+            pendingFiles.reset();
+            LocalCache cache = new LocalCache(cacheDirPath, tempDirPath, 1000,
+                0.95, 0.70, pendingFiles);
+            Random random = new Random(12345);
+            Map<String, byte[]> byteMap = new HashMap<String, byte[]>();
+            for (int i = 0; i < 5; i++) {
+                byte[] data = new byte[100];
+                random.nextBytes(data);
+                byteMap.put("h" + i, data);
+                assertNull(cache.getIfStored("h" + i));
+                cache.store("h" + i, new ByteArrayInputStream(data));
+                IOUtils.closeQuietly(cache.getIfStored("h" + i));
+            }
+            for (int i = 0; i < 50; i++) {
+                byte[] data = new byte[100];
+                random.nextBytes(data);
+                assertNull(cache.getIfStored("s" + i));
+                IOUtils.closeQuietly(cache.store("s" + i,
+                    new ByteArrayInputStream(data)));
+            }
+            while (cache.isDeletingEvicted()) {
+                Thread.sleep(100);
+            }
+            assertTrue(cache.getEvictionCount() > 0);
+            assertTrue(cache.getCurrentSizeInBytes() <= 950);
+            for (int i = 0; i < 5; i++) {
+                InputStream result = cache.getIfStored("h" + i);
+                assertNotNull("h" + i + " should be cached", result);
+                assertEquals(new ByteArrayInputStream(byteMap.get("h" + i)),
+                    result);
+            }
+        } catch (Exception e) {
+            LOG.error("error:", e);
+            fail();
+        }
+    }
+
     /**
      * Test to verify cache's purging if cache current size exceeds
      * cachePurgeTrigFactor * size.
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests the placement of records by a MultiDataStore.
+ */
+public class TestMultiDataStore extends TestCase {
+
+    private static final File DIR = new File("target/multiDataStore");
+
+    private FileDataStore primary;
+
+    private FileDataStore archive;
+
+    private MultiDataStore store;
+
+    protected void setUp() throws Exception {
+        FileUtils.deleteQuietly(DIR);
+        primary = new FileDataStore();
+        primary.setPath(new File(DIR, "primary").getPath());
+        primary.init(DIR.getPath());
+        archive = new FileDataStore();
+        archive.setPath(new File(DIR, "archive").getPath());
+        archive.init(DIR.getPath());
+        store = new MultiDataStore();
+        store.setPrimaryDataStore(primary);
+        store.setArchiveDataStore(archive);
+        store.setSleepBetweenRecords(0);
+        store.setMaxPrimaryRecordLength(1000);
+        store.setHotAccessCount(3);
+        store.init(DIR.getPath());
+    }
+
+    protected void tearDown() throws Exception {
+        store.close();
+        FileUtils.deleteQuietly(DIR);
+    }
+
+    public void testMinRecordLength() {
+        assertEquals(primary.getMinRecordLength(), store.getMinRecordLength());
+        store.setMinRecordLength(4096);
+        assertEquals(4096, store.getMinRecordLength());
+    }
+
+    public void testPlacement() throws Exception {
+        DataIdentifier large = store.addRecord(
+                new RandomInputStream(1, 2000)).getIdentifier();
+        DataIdentifier hot = store.addRecord(
+                new RandomInputStream(2, 200)).getIdentifier();
+        DataIdentifier cold = store.addRecord(
+                new RandomInputStream(3, 200)).getIdentifier();
+        for (int i = 0; i < 3; i++) {
+            store.getRecord(hot);
+        }
+
+        // large records are moved whatever their age
+        store.new MoveDataTask().moveOutdatedData();
+        assertNull(primary.getRecordIfStored(large));
+        assertNotNull(archive.getRecordIfStored(large));
+        assertNotNull(primary.getRecordIfStored(hot));
+        assertNotNull(primary.getRecordIfStored(cold));
+
+        // hot records stay when they are outdated
+        store.setMaxAge(0);
+        Thread.sleep(10);
+        store.new MoveDataTask().moveOutdatedData();
+        assertNotNull(primary.getRecordIfStored(hot));
+        assertNull(primary.getRecordIfStored(cold));
+        assertNotNull(archive.getRecordIfStored(cold));
+
+        // hot records are copied back, unless they are too large
+        for (int i = 0; i < 3; i++) {
+            assertEquals(200, store.getRecord(cold).getLength());
+            assertEquals(2000, store.getRecord(large).getLength());
+        }
+        for (int i = 0; i < 500 && primary.getRecordIfStored(cold) == null; i++) {
+            Thread.sleep(10);
+        }
+        assertNotNull(primary.getRecordIfStored(cold));
+        assertNotNull(archive.getRecordIfStored(cold));
+        assertNull(primary.getRecordIfStored(large));
+    }
+
+    public void testAccessStatistics() {
+        DataAccessStatistics statistics = new DataAccessStatistics(1 << 12);
+        assertEquals(1 << 14, statistics.getMemoryUsage());
+        DataIdentifier a = new DataIdentifier("a");
+        DataIdentifier b = new DataIdentifier("b");
+        for (int i = 0; i < 100; i++) {
+            statistics.recordAccess(a);
+        }
+        statistics.recordAccess(b);
+        assertEquals(100, statistics.getAccessCount(a));
+        assertEquals(1, statistics.getAccessCount(b));
+        assertEquals(0, statistics.getAccessCount(new DataIdentifier("c")));
+
+        // the counts are halved after many accesses
+        for (int i = 101; i < 10 * (1 << 12); i++) {
+            statistics.recordAccess(b);
+        }
+        assertEquals(50, statistics.getAccessCount(a));
+        assertEquals(10 * (1 << 12) / 2 - 50, statistics.getAccessCount(b));
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data.db;
+
+import java.io.File;
+import java.io.InputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.data.DataRecord;
+import org.apache.jackrabbit.core.data.RandomInputStream;
+import org.apache.jackrabbit.core.util.db.ConnectionFactory;
+
+/**
+ * Measures the read throughput of a database data store for records from
+ * 1 KB up to 1 GB, when copying the records to a temporary file (the
+ * default), when streaming them with one connection, and when reading them
+ * in ranges.
+ * <p>
+ * Usage: <code>DbDataStoreReadBench [maxSize [readChunkSize]]</code>
+ */
+public class DbDataStoreReadBench {
+
+    private static final File DIR = new File("target/dbDataStoreReadBench");
+
+    private static final long BYTES_PER_SIZE = 64L * 1024 * 1024;
+
+    long maxSize;
+
+    int readChunkSize;
+
+    public static void main(String[] args) throws Exception {
+        DbDataStoreReadBench bench = new DbDataStoreReadBench();
+        bench.maxSize = args.length > 0 ? Long.parseLong(args[0]) : 1L << 30;
+        bench.readChunkSize = args.length > 1 ? Integer.parseInt(args[1]) : 1 << 20;
+        bench.test();
+    }
+
+    void test() throws Exception {
+        FileUtils.deleteQuietly(DIR);
+        DbDataStore store = new DbDataStore();
+        store.setConnectionFactory(new ConnectionFactory());
+        store.setUrl("jdbc:derby:" + DIR.getPath() + "/db;create=true");
+        store.setDriver("org.apache.derby.jdbc.EmbeddedDriver");
+        store.init(DIR.getPath());
+        try {
+            for (long size = 1024; size <= maxSize; size *= 32) {
+                DataRecord record = store.addRecord(new RandomInputStream(size, size));
+                int reads = (int) Math.min(10000, Math.max(2, BYTES_PER_SIZE / size));
+                // the first read warms up
+                read(record, 1);
+                store.setReadChunkSize(0);
+                store.setCopyWhenReading(true);
+                print("copy", size, reads, read(record, reads));
+                store.setCopyWhenReading(false);
+                print("direct", size, reads, read(record, reads));
+                store.setReadChunkSize(readChunkSize);
+                print("ranges", size, reads, read(record, reads));
+                store.deleteRecord(record.getIdentifier());
+            }
+        } finally {
+            store.close();
+            FileUtils.deleteQuietly(DIR);
+        }
+    }
+
+    private static long read(DataRecord record, int reads) throws Exception {
+        byte[] buffer = new byte[8192];
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < reads; i++) {
+            InputStream in = record.getStream();
+            try {
+                while (in.read(buffer) >= 0) {
+                    // read all
+                }
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+        return System.currentTimeMillis() - time;
+    }
+
+    private static void print(String mode, long size, int reads, long time) {
+        System.out.println("mode: " + mode + "; size: " + size + "; reads: " + reads
+                + "; time: " + time + " ms; "
+                + (size * reads * 1000 / 1024 / 1024 / Math.max(time, 1)) + " MB/s");
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.data.DataIdentifier;
+import org.apache.jackrabbit.core.data.DataStoreException;
+
+import junit.framework.TestCase;
+
+public class DbRangeInputStreamTest extends TestCase {
+
+    private final byte[] data = new byte[1000];
+
+    private int queries;
+
+    private int maxLength;
+
+    protected void setUp() throws Exception {
+        new Random(1).nextBytes(data);
+    }
+
+    public void testReadInRanges() throws Exception {
+        InputStream in = createStream(data.length, 64);
+        try {
+            assertTrue(Arrays.equals(data, IOUtils.toByteArray(in)));
+            assertEquals(-1, in.read());
+            assertEquals((data.length + 63) / 64, queries);
+            assertEquals(64, maxLength);
+        } finally {
+            in.close();
+        }
+    }
+
+    public void testReadSingleBytes() throws Exception {
+        InputStream in = createStream(data.length, 100);
+        try {
+            for (int i = 0; i < data.length; i++) {
+                assertEquals(data[i] & 0xff, in.read());
+            }
+            assertEquals(-1, in.read());
+            assertEquals(10, queries);
+        } finally {
+            in.close();
+        }
+    }
+
+    public void testSkipDoesNotRead() throws Exception {
+        InputStream in = createStream(data.length, 100);
+        try {
+            assertEquals(950, in.skip(950));
+            assertEquals(0, queries);
+            assertEquals(data[950] & 0xff, in.read());
+            assertEquals(1, queries);
+            assertEquals(49, in.skip(100));
+            assertEquals(-1, in.read());
+        } finally {
+            in.close();
+        }
+    }
+
+    public void testMarkReset() throws Exception {
+        InputStream in = createStream(data.length, 100);
+        try {
+            assertTrue(in.markSupported());
+            assertEquals(500, in.skip(500));
+            in.mark(0);
+            byte[] first = IOUtils.toByteArray(in);
+            in.reset();
+            byte[] second = IOUtils.toByteArray(in);
+            assertEquals(500, first.length);
+            assertTrue(Arrays.equals(first, second));
+            assertEquals(data[500], first[0]);
+        } finally {
+            in.close();
+        }
+    }
+
+    public void testShorterRecord() throws Exception {
+        InputStream in = createStream(data.length + 500, 400);
+        try {
+            assertTrue(Arrays.equals(data, IOUtils.toByteArray(in)));
+        } finally {
+            in.close();
+        }
+    }
+
+    public void testReadAfterClose() throws Exception {
+        InputStream in = createStream(data.length, 100);
+        assertEquals(data[0] & 0xff, in.read());
+        in.close();
+        in.close();
+        try {
+            in.read();
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            in.read(new byte[10], 0, 10);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            in.skip(10);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(1, queries);
+    }
+
+    public void testReadFailure() throws Exception {
+        DbDataStore store = new DbDataStore() {
+            byte[] readRange(DataIdentifier identifier, long position, int len)
+                    throws DataStoreException {
+                throw new DataStoreException("Record not found: " + identifier);
+            }
+        };
+        InputStream in = new DbRangeInputStream(
+                store, new DataIdentifier("test"), 10, 100);
+        try {
+            in.read();
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof DataStoreException);
+        } finally {
+            in.close();
+        }
+    }
+
+    private InputStream createStream(long length, int chunkSize) {
+        DbDataStore store = new DbDataStore() {
+            byte[] readRange(DataIdentifier identifier, long position, int len)
+                    throws DataStoreException {
+                queries++;
+                maxLength = Math.max(maxLength, len);
+                int start = (int) Math.min(position, data.length);
+                int end = (int) Math.min(position + len, data.length);
+                return Arrays.copyOfRange(data, start, end);
+            }
+        };
+        return new DbRangeInputStream(
+                store, new DataIdentifier("test"), length, chunkSize);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.util;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * An input stream that reads a local file implements this interface to
+ * give access to the channel of the file. Consumers can then transfer the
+ * data, or a range of it, with {@link FileChannel#transferTo} instead of
+ * copying it through the stream.
+ * <p>
+ * The channel belongs to the stream: it must not be closed by the caller,
+ * and is closed when the stream is closed. Reading from the channel does
+ * not change the position of the stream.
+ */
+public interface FileChannelProvider {
+
+    /**
+     * Returns the channel of the file read by this stream, opening the
+     * file if needed.
+     *
+     * @return the file channel
+     * @throws IOException if the file can not be opened, or the stream is
+     *                     already closed
+     */
+    FileChannel getChannel() throws IOException;
+
+}
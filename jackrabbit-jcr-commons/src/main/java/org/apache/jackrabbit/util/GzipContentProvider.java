@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that decompresses content stored in the gzip format
+ * implements this interface to give access to the stored gzip data.
+ * Consumers that can pass on gzip encoded content, such as a server
+ * responding to a client that accepts this content coding, can then send
+ * the stored data as is instead of decompressing it.
+ */
+public interface GzipContentProvider {
+
+    /**
+     * Returns the length of the gzip data.
+     *
+     * @return the length in bytes
+     * @throws IOException if the length can not be determined
+     */
+    long getGzipLength() throws IOException;
+
+    /**
+     * Returns a new stream reading the gzip data. The stream is independent
+     * of this stream and must be closed by the caller.
+     *
+     * @return the gzip data
+     * @throws IOException if the data can not be opened
+     */
+    InputStream getGzipStream() throws IOException;
+
+}
@@ -22,12 +22,14 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 
 /**
  * This Class implements an InputStream that provides the same functionality
  * as a <code>FileInputStream</code> but opens the file by the first file access.
  */
-public class LazyFileInputStream extends InputStream {
+public class LazyFileInputStream extends InputStream
+        implements FileChannelProvider {
 
     /**
      * the underlying input stream
@@ -97,6 +99,14 @@ public class LazyFileInputStream extends InputStream {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public FileChannel getChannel() throws IOException {
+        open();
+        return in.getChannel();
+    }
+
     /**
      * {@inheritDoc}
      */
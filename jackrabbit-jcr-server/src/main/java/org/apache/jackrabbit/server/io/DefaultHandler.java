@@ -407,7 +407,9 @@ public class DefaultHandler implements IOHandler, PropertyHandler, CopyMoveHandl
 
     /**
      * Checks if the given content node contains a jcr:data property
-     * and spools its value to the output stream of the export context.<br>
+     * and spools its value to the output stream of the export context.
+     * An {@link ExportContextImpl} spools the binary value directly to the
+     * response upon completion.<br>
      * Please note, that subclasses that define a different structure of the
      * content node should create their own
      * {@link  #exportData(ExportContext, boolean, Node) exportData} method.
@@ -420,7 +422,11 @@ public class DefaultHandler implements IOHandler, PropertyHandler, CopyMoveHandl
     protected void exportData(ExportContext context, boolean isCollection, Node contentNode) throws IOException, RepositoryException {
         if (contentNode.hasProperty(JcrConstants.JCR_DATA)) {
             Property p = contentNode.getProperty(JcrConstants.JCR_DATA);
-            IOUtil.spool(p.getStream(), context.getOutputStream());
+            if (context instanceof ExportContextImpl) {
+                ((ExportContextImpl) context).setData(p.getBinary());
+            } else {
+                IOUtil.spool(p.getStream(), context.getOutputStream());
+            }
         } // else: stream undefined -> content length was not set
     }
 
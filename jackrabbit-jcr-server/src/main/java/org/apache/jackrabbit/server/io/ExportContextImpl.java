@@ -16,17 +16,22 @@
  */
 package org.apache.jackrabbit.server.io;
 
+import org.apache.jackrabbit.util.GzipContentProvider;
 import org.apache.jackrabbit.webdav.DavConstants;
 import org.apache.jackrabbit.webdav.DavResource;
+import org.apache.jackrabbit.webdav.io.GzipOutputContext;
 import org.apache.jackrabbit.webdav.io.OutputContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.jcr.Binary;
 import javax.jcr.Item;
+import javax.jcr.RepositoryException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Date;
 import java.util.HashMap;
@@ -39,6 +44,10 @@ import java.util.Map;
  * file is created, which is deleted as soon as {@link #informCompleted(boolean)}
  * is called on this context. Note however, that the properties and the stream
  * are written to the  <code>OutputContext</code> but upon successful completion.
+ * Binary data passed to {@link #setData(Binary)} is not copied to the
+ * temporary file, but spooled from the binary upon successful completion.
+ * If the binary is stored in the gzip format and the client accepts this
+ * content coding, the stored gzip data is sent.
  *
  * @see #informCompleted(boolean)
  */
@@ -51,6 +60,7 @@ public class ExportContextImpl extends AbstractExportContext {
 
     private File outFile;
     private OutputStream outStream;
+    private Binary binary;
 
     public ExportContextImpl(Item exportRoot, OutputContext outputCtx)
             throws IOException {
@@ -79,6 +89,7 @@ public class ExportContextImpl extends AbstractExportContext {
                 if (outStream != null) {
                     outStream.close();
                 }
+                setData(null);
                 outStream = new FileOutputStream(outFile);
                 return outStream;
             } catch (IOException e) {
@@ -88,6 +99,41 @@ public class ExportContextImpl extends AbstractExportContext {
         return null;
     }
 
+    /**
+     * Sets the binary to spool to the wrapped <code>OutputContext</code>
+     * upon successful completion, instead of the data written to the
+     * {@link #getOutputStream() output stream}. The binary is disposed
+     * when this context completes.
+     *
+     * @param binary the binary, or <code>null</code>
+     */
+    public void setData(Binary binary) {
+        checkCompleted();
+        if (this.binary != null) {
+            this.binary.dispose();
+        }
+        this.binary = binary;
+    }
+
+    /**
+     * Opens the stream of the binary, if the binary is to be spooled to the
+     * wrapped <code>OutputContext</code>. The stream gives access to the
+     * stored gzip data if it is a {@link GzipContentProvider}.
+     *
+     * @return the stream of the binary, or <code>null</code>
+     */
+    private InputStream openBinaryStream() {
+        if (binary == null || !outputCtx.hasStream()) {
+            return null;
+        }
+        try {
+            return binary.getStream();
+        } catch (RepositoryException e) {
+            log.error(e.toString());
+        }
+        return null;
+    }
+
     /**
      * @see ExportContext#setContentLanguage(String)
      */
@@ -168,23 +214,73 @@ public class ExportContextImpl extends AbstractExportContext {
         if (success) {
             // write properties and data to the output-context
             if (outputCtx != null) {
+                InputStream stream = openBinaryStream();
+                boolean gzip = stream instanceof GzipContentProvider
+                        && outputCtx instanceof GzipOutputContext;
                 boolean hasContentLength = false;
                 for (String name : properties.keySet()) {
                     String value = properties.get(name);
+                    if (gzip
+                            && DavConstants.HEADER_CONTENT_LENGTH.equals(name)) {
+                        // the length of the gzip data is set below
+                        continue;
+                    }
                     if (name != null && value != null) {
                         outputCtx.setProperty(name, value);
                         // check for content-length
-                        hasContentLength = DavConstants.HEADER_CONTENT_LENGTH.equals(name);
+                        if (DavConstants.HEADER_CONTENT_LENGTH.equals(name)) {
+                            hasContentLength = true;
+                        }
                     }
                 }
 
-                if (outputCtx.hasStream() && outFile != null) {
-                    OutputStream out = outputCtx.getOutputStream();
+                if (gzip) {
+                    try {
+                        GzipContentProvider provider = (GzipContentProvider) stream;
+                        GzipOutputContext gzipCtx = (GzipOutputContext) outputCtx;
+                        gzipCtx.setGzipEncoding();
+                        gzipCtx.setContentLength(provider.getGzipLength());
+                        OutputStream out = gzipCtx.getOutputStream();
+                        IOUtil.spool(provider.getGzipStream(), out);
+                    } catch (IOException e) {
+                        log.error(e.toString());
+                    } finally {
+                        try {
+                            stream.close();
+                        } catch (IOException e) {
+                            // ignore
+                        }
+                    }
+                } else if (outputCtx.hasStream() && binary != null) {
+                    if (stream != null) {
+                        try {
+                            // make sure the content-length is set before
+                            // the stream is retrieved
+                            if (!hasContentLength) {
+                                outputCtx.setContentLength(binary.getSize());
+                            }
+                            OutputStream out = outputCtx.getOutputStream();
+                            IOUtil.spool(stream, out);
+                        } catch (IOException e) {
+                            log.error(e.toString());
+                        } catch (RepositoryException e) {
+                            log.error(e.toString());
+                        } finally {
+                            try {
+                                stream.close();
+                            } catch (IOException e) {
+                                // ignore
+                            }
+                        }
+                    }
+                } else if (outputCtx.hasStream() && outFile != null) {
                     try {
-                        // make sure the content-length is set
+                        // make sure the content-length is set before
+                        // the stream is retrieved
                         if (!hasContentLength) {
                             outputCtx.setContentLength(outFile.length());
                         }
+                        OutputStream out = outputCtx.getOutputStream();
                         FileInputStream in = new FileInputStream(outFile);
                         IOUtil.spool(in, out);
                     } catch (IOException e) {
@@ -193,6 +289,10 @@ public class ExportContextImpl extends AbstractExportContext {
                 }
             }
         }
+        if (binary != null) {
+            binary.dispose();
+            binary = null;
+        }
         if (outFile != null) {
             outFile.delete();
         }
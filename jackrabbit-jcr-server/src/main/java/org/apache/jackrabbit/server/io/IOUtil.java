@@ -16,17 +16,23 @@
  */
 package org.apache.jackrabbit.server.io;
 
+import org.apache.jackrabbit.util.FileChannelProvider;
 import org.apache.jackrabbit.util.Text;
 import org.apache.jackrabbit.webdav.DavConstants;
+import org.apache.jackrabbit.webdav.io.RangeOutputStream;
 import org.apache.jackrabbit.webdav.util.HttpDateFormat;
 
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Date;
 
 /**
@@ -77,19 +83,95 @@ public final class IOUtil {
     }
 
     /**
+     * Spools the input stream to the output stream and closes the input
+     * stream. If the input stream reads a local file, the data is
+     * transferred with {@link FileChannel#transferTo}, which avoids copying
+     * it through the heap if the output stream is backed by a channel. If
+     * the output stream is a {@link RangeOutputStream}, only the requested
+     * range is read.
+     *
+     * @param in the input stream
+     * @param out the output stream
+     * @throws IOException if an I/O error occurs
      */
     public static void spool(InputStream in, OutputStream out) throws IOException {
         try {
-            byte[] buffer = new byte[8192];
-            int read;
-            while ((read = in.read(buffer)) >= 0) {
-                out.write(buffer, 0, read);
+            long skip = 0;
+            long count = Long.MAX_VALUE;
+            if (out instanceof RangeOutputStream) {
+                RangeOutputStream range = (RangeOutputStream) out;
+                skip = Math.max(0, range.getOffset() - range.getPosition());
+                count = Math.max(0, range.getOffset() + range.getLength()
+                        - Math.max(range.getOffset(), range.getPosition()));
+            }
+            FileChannel channel = getChannel(in);
+            if (channel != null) {
+                long position = channel.position() + skip;
+                long end = channel.size();
+                if (count < end - position) {
+                    end = position + count;
+                }
+                skip(out, skip);
+                WritableByteChannel target = (out instanceof WritableByteChannel)
+                        ? (WritableByteChannel) out : Channels.newChannel(out);
+                while (position < end) {
+                    long n = channel.transferTo(position, end - position, target);
+                    if (n <= 0) {
+                        break;
+                    }
+                    position += n;
+                }
+            } else {
+                while (skip > 0) {
+                    long n = in.skip(skip);
+                    if (n <= 0) {
+                        break;
+                    }
+                    skip(out, n);
+                    skip -= n;
+                }
+                byte[] buffer = new byte[8192];
+                int read;
+                while (count > 0 && (read = in.read(
+                        buffer, 0, (int) Math.min(buffer.length, count))) >= 0) {
+                    out.write(buffer, 0, read);
+                    count -= read;
+                }
             }
         } finally {
             in.close();
         }
     }
 
+    /**
+     * Returns the channel of a stream reading a local file.
+     *
+     * @param in an input stream
+     * @return the channel, or <code>null</code> if the stream does not read
+     * a local file
+     * @throws IOException if the file can not be opened
+     */
+    private static FileChannel getChannel(InputStream in) throws IOException {
+        if (in instanceof FileChannelProvider) {
+            return ((FileChannelProvider) in).getChannel();
+        } else if (in instanceof FileInputStream) {
+            return ((FileInputStream) in).getChannel();
+        }
+        return null;
+    }
+
+    /**
+     * Advances a {@link RangeOutputStream} over bytes that are not read.
+     *
+     * @param out the output stream
+     * @param n the number of bytes
+     */
+    private static void skip(OutputStream out, long n) {
+        if (n > 0 && out instanceof RangeOutputStream) {
+            ((RangeOutputStream) out).skip(n);
+        }
+    }
+
     /**
      * Build a valid content type string from the given mimeType and encoding:
      * <pre>
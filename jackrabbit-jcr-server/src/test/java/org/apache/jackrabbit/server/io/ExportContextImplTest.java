@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.server.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import javax.jcr.Binary;
+import javax.jcr.Item;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.util.GzipContentProvider;
+import org.apache.jackrabbit.webdav.DavConstants;
+import org.apache.jackrabbit.webdav.io.GzipOutputContext;
+import org.apache.jackrabbit.webdav.io.OutputContext;
+import org.apache.jackrabbit.webdav.io.OutputContextImpl;
+import org.mockito.Mockito;
+
+/**
+ * <code>ExportContextImplTest</code> checks that a binary stored in the
+ * gzip format is spooled as is to clients that accept this content coding,
+ * and decompressed for other clients.
+ */
+public class ExportContextImplTest extends TestCase {
+
+    private byte[] data;
+
+    private byte[] gzip;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        StringBuilder buff = new StringBuilder();
+        for (int i = 0; buff.length() < 10000; i++) {
+            buff.append("<node name=\"n").append(i).append("\"/>\n");
+        }
+        data = buff.toString().getBytes("UTF-8");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzipOut = new GZIPOutputStream(out);
+        gzipOut.write(data);
+        gzipOut.close();
+        gzip = out.toByteArray();
+    }
+
+    public void testGzipBinary() throws Exception {
+        HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputContext outputCtx = GzipOutputContext.wrap(
+                new OutputContextImpl(response, out), response, "gzip");
+        assertTrue(outputCtx instanceof GzipOutputContext);
+
+        GzipBinary binary = new GzipBinary();
+        export(outputCtx, binary);
+
+        assertTrue(Arrays.equals(gzip, out.toByteArray()));
+        assertEquals(1, binary.opened);
+        assertTrue(binary.closed);
+        assertTrue(binary.disposed);
+        Mockito.verify(response).setHeader(
+                DavConstants.HEADER_CONTENT_ENCODING,
+                DavConstants.CONTENT_CODING_GZIP);
+        Mockito.verify(response).setContentLength(gzip.length);
+    }
+
+    public void testIdentityBinary() throws Exception {
+        HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputContext outputCtx = new OutputContextImpl(response, out);
+
+        GzipBinary binary = new GzipBinary();
+        export(outputCtx, binary);
+
+        assertTrue(Arrays.equals(data, out.toByteArray()));
+        assertEquals(1, binary.opened);
+        assertTrue(binary.closed);
+        assertTrue(binary.disposed);
+        Mockito.verify(response).setHeader(
+                DavConstants.HEADER_CONTENT_LENGTH, String.valueOf(data.length));
+    }
+
+    private void export(OutputContext outputCtx, Binary binary)
+            throws IOException {
+        ExportContextImpl context = new ExportContextImpl(
+                Mockito.mock(Item.class), outputCtx);
+        context.setContentLength(data.length);
+        context.setData(binary);
+        context.informCompleted(true);
+    }
+
+    /**
+     * A binary whose stream gives access to gzip data, as the streams of
+     * compressed data store records do.
+     */
+    private class GzipBinary implements Binary {
+
+        private int opened;
+
+        private boolean closed;
+
+        private boolean disposed;
+
+        public InputStream getStream() {
+            opened++;
+            return new GzipStream();
+        }
+
+        public int read(byte[] b, long position) {
+            throw new UnsupportedOperationException();
+        }
+
+        public long getSize() {
+            return data.length;
+        }
+
+        public void dispose() {
+            disposed = true;
+        }
+
+        private class GzipStream extends ByteArrayInputStream
+                implements GzipContentProvider {
+
+            GzipStream() {
+                super(data);
+            }
+
+            public long getGzipLength() {
+                return gzip.length;
+            }
+
+            public InputStream getGzipStream() {
+                return new ByteArrayInputStream(gzip);
+            }
+
+            @Override
+            public void close() throws IOException {
+                closed = true;
+                super.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.server.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.util.LazyFileInputStream;
+import org.apache.jackrabbit.webdav.io.RangeOutputStream;
+
+/**
+ * <code>IOUtilTest</code> checks that file-backed streams are spooled
+ * through their channel, with and without a byte range.
+ */
+public class IOUtilTest extends TestCase {
+
+    private File file;
+
+    private byte[] data;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        data = new byte[100000];
+        new Random(1).nextBytes(data);
+        file = File.createTempFile("ioutil", ".bin");
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testSpoolChannel() throws IOException {
+        ChannelOutputStream out = new ChannelOutputStream();
+        IOUtil.spool(new LazyFileInputStream(file), out);
+        assertTrue(Arrays.equals(data, out.toByteArray()));
+        assertTrue("data was not transferred by channel", out.channelWrites > 0);
+    }
+
+    public void testSpoolChannelRange() throws IOException {
+        ChannelOutputStream out = new ChannelOutputStream();
+        RangeOutputStream range = new RangeOutputStream(out, 1000, 5000);
+        IOUtil.spool(new LazyFileInputStream(file), range);
+        assertTrue(Arrays.equals(
+                Arrays.copyOfRange(data, 1000, 6000), out.toByteArray()));
+        assertEquals(6000, range.getPosition());
+    }
+
+    public void testSpoolChannelRangeAtEnd() throws IOException {
+        ChannelOutputStream out = new ChannelOutputStream();
+        RangeOutputStream range = new RangeOutputStream(out, 99000, 5000);
+        IOUtil.spool(new LazyFileInputStream(file), range);
+        assertTrue(Arrays.equals(
+                Arrays.copyOfRange(data, 99000, 100000), out.toByteArray()));
+    }
+
+    /**
+     * Output stream that is also a channel, like the output stream of a
+     * servlet container with direct access to the socket.
+     */
+    private static class ChannelOutputStream extends ByteArrayOutputStream
+            implements WritableByteChannel {
+
+        private int channelWrites;
+
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            byte[] b = new byte[n];
+            src.get(b);
+            write(b, 0, n);
+            channelWrites++;
+            return n;
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+    }
+}
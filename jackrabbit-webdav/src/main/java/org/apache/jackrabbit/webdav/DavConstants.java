@@ -45,6 +45,18 @@ public interface DavConstants {
     public static final String HEADER_ETAG = "ETag";
     public static final String HEADER_LAST_MODIFIED = "Last-Modified";
 
+    //------------------------------------------------------< Range Headers >---
+    public static final String HEADER_RANGE = "Range";
+    public static final String HEADER_IF_RANGE = "If-Range";
+    public static final String HEADER_CONTENT_RANGE = "Content-Range";
+    public static final String RANGE_UNIT_BYTES = "bytes";
+
+    //---------------------------------------------< Content Coding Headers >---
+    public static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    public static final String HEADER_VARY = "Vary";
+    public static final String CONTENT_CODING_GZIP = "gzip";
+
     //--------------------------------------------------< Lock-Token Header >---
     public static final String HEADER_LOCK_TOKEN = "Lock-Token";
     public static final String OPAQUE_LOCK_TOKEN_PREFIX = "opaquelocktoken:";
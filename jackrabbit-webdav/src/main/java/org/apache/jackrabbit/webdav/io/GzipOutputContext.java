@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.webdav.io;
+
+import org.apache.jackrabbit.webdav.DavConstants;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.OutputStream;
+
+/**
+ * <code>GzipOutputContext</code> wraps the output context of a GET request
+ * whose <code>Accept-Encoding</code> header accepts the gzip content coding.
+ * It does not compress the content itself: a resource whose content is
+ * stored in the gzip format may call {@link #setGzipEncoding()} before
+ * setting the content length, and then write the stored gzip data. The
+ * response then gets the <code>Content-Encoding</code> and
+ * <code>Vary</code> headers, and an entity tag that differs from the one
+ * of the identity encoded content. Any range applies to the gzip data, as
+ * defined by RFC 7233.
+ */
+public class GzipOutputContext implements OutputContext {
+
+    private final OutputContext context;
+
+    private final HttpServletResponse response;
+
+    private String etag;
+
+    private boolean gzip;
+
+    private GzipOutputContext(OutputContext context,
+                              HttpServletResponse response) {
+        this.context = context;
+        this.response = response;
+    }
+
+    /**
+     * Wraps the given output context if the value of the
+     * <code>Accept-Encoding</code> header accepts the gzip content coding.
+     *
+     * @param context the output context
+     * @param response the response
+     * @param acceptEncoding the value of the <code>Accept-Encoding</code>
+     *                       header, or <code>null</code>
+     * @return the wrapped output context, or the given context if gzip
+     * is not accepted
+     */
+    public static OutputContext wrap(OutputContext context,
+                                     HttpServletResponse response,
+                                     String acceptEncoding) {
+        if (acceptEncoding == null || !context.hasStream()
+                || !acceptsGzip(acceptEncoding)) {
+            return context;
+        }
+        return new GzipOutputContext(context, response);
+    }
+
+    /**
+     * Returns whether the value of an <code>Accept-Encoding</code> header
+     * accepts the gzip content coding, either by name or with a wildcard,
+     * with a non-zero quality value.
+     *
+     * @param acceptEncoding the value of the header
+     * @return <code>true</code> if gzip is accepted
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        Boolean wildcard = null;
+        for (String coding : acceptEncoding.split(",")) {
+            String name = coding;
+            boolean accepted = true;
+            int semicolon = coding.indexOf(';');
+            if (semicolon != -1) {
+                name = coding.substring(0, semicolon);
+                String param = coding.substring(semicolon + 1).trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        accepted = Double.parseDouble(param.substring(2).trim()) > 0;
+                    } catch (NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+            name = name.trim();
+            if (DavConstants.CONTENT_CODING_GZIP.equalsIgnoreCase(name)
+                    || "x-gzip".equalsIgnoreCase(name)) {
+                return accepted;
+            } else if ("*".equals(name)) {
+                wildcard = accepted;
+            }
+        }
+        return wildcard != null && wildcard;
+    }
+
+    /**
+     * Marks the content as gzip encoded. Must be called before the content
+     * length is set and the output stream is retrieved.
+     */
+    public void setGzipEncoding() {
+        gzip = true;
+        response.setHeader(DavConstants.HEADER_CONTENT_ENCODING,
+                DavConstants.CONTENT_CODING_GZIP);
+        response.addHeader(DavConstants.HEADER_VARY,
+                DavConstants.HEADER_ACCEPT_ENCODING);
+        if (etag != null) {
+            context.setETag(getGzipETag(etag));
+        }
+    }
+
+    /**
+     * Returns the entity tag of the gzip encoded content.
+     *
+     * @param etag the entity tag of the content
+     * @return the entity tag with a <code>-gzip</code> suffix
+     */
+    static String getGzipETag(String etag) {
+        if (etag.length() > 1 && etag.endsWith("\"")) {
+            return etag.substring(0, etag.length() - 1) + "-gzip\"";
+        }
+        return etag + "-gzip";
+    }
+
+    public boolean hasStream() {
+        return context.hasStream();
+    }
+
+    public OutputStream getOutputStream() {
+        return context.getOutputStream();
+    }
+
+    public void setContentLanguage(String contentLanguage) {
+        context.setContentLanguage(contentLanguage);
+    }
+
+    public void setContentLength(long contentLength) {
+        context.setContentLength(contentLength);
+    }
+
+    public void setContentType(String contentType) {
+        context.setContentType(contentType);
+    }
+
+    public void setModificationTime(long modificationTime) {
+        context.setModificationTime(modificationTime);
+    }
+
+    public void setETag(String etag) {
+        this.etag = etag;
+        context.setETag(gzip && etag != null ? getGzipETag(etag) : etag);
+    }
+
+    public void setProperty(String propertyName, String propertyValue) {
+        if (DavConstants.HEADER_ETAG.equalsIgnoreCase(propertyName)) {
+            setETag(propertyValue);
+        } else {
+            context.setProperty(propertyName, propertyValue);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.webdav.io;
+
+import org.apache.jackrabbit.webdav.DavConstants;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.OutputStream;
+
+/**
+ * <code>RangeOutputContext</code> wraps the output context of a GET request
+ * with a <code>Range</code> header selecting a single range of bytes. Once
+ * the content length is set, the response status and the
+ * <code>Content-Range</code> header are set as defined by RFC 7233, and the
+ * output stream becomes a {@link RangeOutputStream} that only passes the
+ * requested bytes. If the output stream is requested before the content
+ * length is known, the complete content is sent.
+ */
+public class RangeOutputContext implements OutputContext {
+
+    private final OutputContext context;
+
+    private final HttpServletResponse response;
+
+    /**
+     * The first byte of the range, or -1 for a suffix range.
+     */
+    private final long first;
+
+    /**
+     * The last byte of the range, -1 for an open range, or the length of a
+     * suffix range.
+     */
+    private final long last;
+
+    private OutputStream out;
+
+    private boolean resolved;
+
+    private RangeOutputContext(OutputContext context,
+                               HttpServletResponse response,
+                               long first, long last) {
+        this.context = context;
+        this.response = response;
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * Wraps the given output context if the value of the <code>Range</code>
+     * header selects a single range of bytes. Other headers, such as
+     * multiple ranges, are ignored as allowed by RFC 7233.
+     *
+     * @param context the output context
+     * @param response the response
+     * @param range the value of the <code>Range</code> header, or
+     *              <code>null</code>
+     * @return the wrapped output context, or the given context if the range
+     * is not supported
+     */
+    public static OutputContext wrap(OutputContext context,
+                                     HttpServletResponse response,
+                                     String range) {
+        if (range == null || !context.hasStream()) {
+            return context;
+        }
+        range = range.trim();
+        String prefix = DavConstants.RANGE_UNIT_BYTES + "=";
+        if (!range.startsWith(prefix) || range.indexOf(',') != -1) {
+            return context;
+        }
+        range = range.substring(prefix.length()).trim();
+        int dash = range.indexOf('-');
+        if (dash == -1) {
+            return context;
+        }
+        try {
+            String start = range.substring(0, dash).trim();
+            String end = range.substring(dash + 1).trim();
+            if (start.length() == 0) {
+                long suffix = Long.parseLong(end);
+                return suffix < 0 ? context
+                        : new RangeOutputContext(context, response, -1, suffix);
+            }
+            long first = Long.parseLong(start);
+            long last = end.length() == 0 ? -1 : Long.parseLong(end);
+            if (first < 0 || (last != -1 && last < first)) {
+                return context;
+            }
+            return new RangeOutputContext(context, response, first, last);
+        } catch (NumberFormatException e) {
+            return context;
+        }
+    }
+
+    public boolean hasStream() {
+        return context.hasStream();
+    }
+
+    public OutputStream getOutputStream() {
+        if (out == null) {
+            // too late to select a range
+            resolved = true;
+            out = context.getOutputStream();
+        }
+        return out;
+    }
+
+    public void setContentLanguage(String contentLanguage) {
+        context.setContentLanguage(contentLanguage);
+    }
+
+    /**
+     * Sets the status, the <code>Content-Range</code> header and the length
+     * of the response, according to the range and the given length of the
+     * content.
+     *
+     * @param contentLength the length of the complete content
+     */
+    public void setContentLength(long contentLength) {
+        if (resolved || contentLength < 0) {
+            context.setContentLength(contentLength);
+            return;
+        }
+        resolved = true;
+        long start;
+        long end;
+        if (first == -1) {
+            start = Math.max(0, contentLength - last);
+            end = last == 0 ? start : contentLength;
+        } else {
+            start = first;
+            end = last == -1 ? contentLength : Math.min(last + 1, contentLength);
+        }
+        if (start >= end) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(DavConstants.HEADER_CONTENT_RANGE,
+                    DavConstants.RANGE_UNIT_BYTES + " */" + contentLength);
+            context.setContentLength(0);
+            out = new RangeOutputStream(context.getOutputStream(), 0, 0);
+        } else {
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(DavConstants.HEADER_CONTENT_RANGE,
+                    DavConstants.RANGE_UNIT_BYTES + " " + start + "-" + (end - 1)
+                    + "/" + contentLength);
+            context.setContentLength(end - start);
+            out = new RangeOutputStream(context.getOutputStream(), start, end - start);
+        }
+    }
+
+    public void setContentType(String contentType) {
+        context.setContentType(contentType);
+    }
+
+    public void setModificationTime(long modificationTime) {
+        context.setModificationTime(modificationTime);
+    }
+
+    public void setETag(String etag) {
+        context.setETag(etag);
+    }
+
+    public void setProperty(String propertyName, String propertyValue) {
+        if (DavConstants.HEADER_CONTENT_LENGTH.equalsIgnoreCase(propertyName)
+                && propertyValue != null) {
+            try {
+                setContentLength(Long.parseLong(propertyValue.trim()));
+                return;
+            } catch (NumberFormatException e) {
+                // not a length, pass as is
+            }
+        }
+        context.setProperty(propertyName, propertyValue);
+    }
+}
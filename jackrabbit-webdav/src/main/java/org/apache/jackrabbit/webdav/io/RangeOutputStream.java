@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.webdav.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <code>RangeOutputStream</code> passes a range of the bytes written to it
+ * to the underlying stream, and discards all other bytes. Writers aware of
+ * the range may {@link #skip(long) skip} the bytes before the range instead
+ * of writing them, and stop writing at the end of the range.
+ */
+public class RangeOutputStream extends FilterOutputStream {
+
+    private final long offset;
+
+    private final long length;
+
+    private long position;
+
+    /**
+     * Creates a new <code>RangeOutputStream</code>.
+     *
+     * @param out the underlying stream
+     * @param offset the position of the first byte to pass
+     * @param length the number of bytes to pass
+     */
+    public RangeOutputStream(OutputStream out, long offset, long length) {
+        super(out);
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * @return the position of the first byte of the range
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the number of bytes of the range
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return the number of bytes written or skipped so far
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Advances the position as if <code>n</code> bytes outside the range
+     * were written.
+     *
+     * @param n the number of bytes to skip
+     */
+    public void skip(long n) {
+        position += n;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (position >= offset && position - offset < length) {
+            out.write(b);
+        }
+        position++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        long start = Math.max(position, offset);
+        long end = Math.min(position + len, offset + length);
+        if (start < end) {
+            out.write(b, off + (int) (start - position), (int) (end - start));
+        }
+        position += len;
+    }
+}
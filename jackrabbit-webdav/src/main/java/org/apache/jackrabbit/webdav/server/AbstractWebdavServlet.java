@@ -37,10 +37,12 @@ import org.apache.jackrabbit.webdav.bind.UnbindInfo;
 import org.apache.jackrabbit.webdav.bind.BindableResource;
 import org.apache.jackrabbit.webdav.bind.BindInfo;
 import org.apache.jackrabbit.webdav.header.CodedUrlHeader;
+import org.apache.jackrabbit.webdav.io.GzipOutputContext;
 import org.apache.jackrabbit.webdav.io.InputContext;
 import org.apache.jackrabbit.webdav.io.InputContextImpl;
 import org.apache.jackrabbit.webdav.io.OutputContext;
 import org.apache.jackrabbit.webdav.io.OutputContextImpl;
+import org.apache.jackrabbit.webdav.io.RangeOutputContext;
 import org.apache.jackrabbit.webdav.lock.ActiveLock;
 import org.apache.jackrabbit.webdav.lock.LockDiscovery;
 import org.apache.jackrabbit.webdav.lock.LockInfo;
@@ -550,7 +552,19 @@ abstract public class AbstractWebdavServlet extends HttpServlet implements DavCo
 
         // spool resource properties and eventually resource content.
         OutputStream out = (sendContent) ? response.getOutputStream() : null;
-        resource.spool(getOutputContext(response, out));
+        OutputContext context = getOutputContext(response, out);
+        // a conditional range is not validated, the full content is sent
+        if (sendContent && !resource.isCollection()
+                && request.getHeader(HEADER_IF_RANGE) == null) {
+            context = RangeOutputContext.wrap(
+                    context, response, request.getHeader(HEADER_RANGE));
+        }
+        // resources storing gzip data may send it as is
+        if (sendContent && !resource.isCollection()) {
+            context = GzipOutputContext.wrap(
+                    context, response, request.getHeader(HEADER_ACCEPT_ENCODING));
+        }
+        resource.spool(context);
         response.flushBuffer();
     }
 
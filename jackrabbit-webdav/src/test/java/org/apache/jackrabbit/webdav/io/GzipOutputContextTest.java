@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.webdav.io;
+
+import junit.framework.TestCase;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <code>GzipOutputContextTest</code>...
+ */
+public class GzipOutputContextTest extends TestCase {
+
+    private final Map<String, String> headers = new HashMap<String, String>();
+
+    public void testAcceptsGzip() {
+        assertTrue(GzipOutputContext.acceptsGzip("gzip"));
+        assertTrue(GzipOutputContext.acceptsGzip("deflate, GZIP;q=0.5"));
+        assertTrue(GzipOutputContext.acceptsGzip("x-gzip"));
+        assertTrue(GzipOutputContext.acceptsGzip("identity, *"));
+        assertFalse(GzipOutputContext.acceptsGzip("gzip;q=0"));
+        assertFalse(GzipOutputContext.acceptsGzip("*, gzip;q=0"));
+        assertFalse(GzipOutputContext.acceptsGzip("*;q=0"));
+        assertFalse(GzipOutputContext.acceptsGzip("deflate, identity"));
+    }
+
+    public void testWrap() {
+        HttpServletResponse response = createResponse();
+        OutputContext context = new OutputContextImpl(response, new ByteArrayOutputStream());
+        assertSame(context, GzipOutputContext.wrap(context, response, null));
+        assertSame(context, GzipOutputContext.wrap(context, response, "br"));
+        assertTrue(GzipOutputContext.wrap(context, response, "gzip") instanceof GzipOutputContext);
+        OutputContext noStream = new OutputContextImpl(response, null);
+        assertSame(noStream, GzipOutputContext.wrap(noStream, response, "gzip"));
+    }
+
+    public void testGzipEncoding() {
+        HttpServletResponse response = createResponse();
+        GzipOutputContext context = (GzipOutputContext) GzipOutputContext.wrap(
+                new OutputContextImpl(response, new ByteArrayOutputStream()),
+                response, "gzip");
+        context.setProperty("ETag", "\"123\"");
+        assertEquals("\"123\"", headers.get("ETag"));
+        assertNull(headers.get("Content-Encoding"));
+
+        context.setGzipEncoding();
+        assertEquals("gzip", headers.get("Content-Encoding"));
+        assertEquals("Accept-Encoding", headers.get("Vary"));
+        assertEquals("\"123-gzip\"", headers.get("ETag"));
+
+        context.setETag("W/\"456\"");
+        assertEquals("W/\"456-gzip\"", headers.get("ETag"));
+    }
+
+    private HttpServletResponse createResponse() {
+        headers.clear();
+        return (HttpServletResponse) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] {HttpServletResponse.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if (name.equals("setHeader") || name.equals("addHeader")) {
+                            headers.put((String) args[0], (String) args[1]);
+                        }
+                        return null;
+                    }
+                });
+    }
+}
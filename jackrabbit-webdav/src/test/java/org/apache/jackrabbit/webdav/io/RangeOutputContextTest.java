@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.webdav.io;
+
+import junit.framework.TestCase;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <code>RangeOutputContextTest</code>...
+ */
+public class RangeOutputContextTest extends TestCase {
+
+    private static final byte[] DATA = "0123456789".getBytes();
+
+    private final Map<String, String> headers = new HashMap<String, String>();
+
+    private int status = HttpServletResponse.SC_OK;
+
+    private long contentLength = -1;
+
+    public void testRange() throws Exception {
+        assertEquals("234", spool("bytes=2-4"));
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, status);
+        assertEquals("bytes 2-4/10", headers.get("Content-Range"));
+        assertEquals(3, contentLength);
+    }
+
+    public void testOpenRange() throws Exception {
+        assertEquals("789", spool("bytes=7-"));
+        assertEquals("bytes 7-9/10", headers.get("Content-Range"));
+        assertEquals("789", spool("bytes=7-100"));
+    }
+
+    public void testSuffixRange() throws Exception {
+        assertEquals("6789", spool("bytes=-4"));
+        assertEquals("bytes 6-9/10", headers.get("Content-Range"));
+        assertEquals("0123456789", spool("bytes=-20"));
+    }
+
+    public void testNotSatisfiable() throws Exception {
+        assertEquals("", spool("bytes=10-"));
+        assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, status);
+        assertEquals("bytes */10", headers.get("Content-Range"));
+    }
+
+    public void testIgnoredRange() throws Exception {
+        assertEquals("0123456789", spool("bytes=0-1,4-5"));
+        assertEquals("0123456789", spool("items=1-2"));
+        assertEquals("0123456789", spool("bytes=4-2"));
+        assertEquals("0123456789", spool(null));
+        assertEquals(HttpServletResponse.SC_OK, status);
+        assertNull(headers.get("Content-Range"));
+    }
+
+    public void testPositionedWrites() throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        RangeOutputStream out = new RangeOutputStream(buffer, 3, 4);
+        out.write(DATA, 0, 2);
+        out.skip(2);
+        out.write(DATA[4]);
+        out.write(DATA, 5, 5);
+        assertEquals("456", buffer.toString());
+        assertEquals(10, out.getPosition());
+    }
+
+    private String spool(String range) throws Exception {
+        headers.clear();
+        status = HttpServletResponse.SC_OK;
+        contentLength = -1;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        HttpServletResponse response = createResponse();
+        OutputContext context = RangeOutputContext.wrap(
+                new OutputContextImpl(response, buffer), response, range);
+        context.setProperty("Content-Length", String.valueOf(DATA.length));
+        OutputStream out = context.getOutputStream();
+        out.write(DATA);
+        out.flush();
+        return buffer.toString();
+    }
+
+    private HttpServletResponse createResponse() {
+        return (HttpServletResponse) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] {HttpServletResponse.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if (name.equals("setStatus")) {
+                            status = (Integer) args[0];
+                        } else if (name.equals("setHeader")) {
+                            headers.put((String) args[0], (String) args[1]);
+                        } else if (name.equals("setContentLength")) {
+                            contentLength = (Integer) args[0];
+                        }
+                        return null;
+                    }
+                });
+    }
+}
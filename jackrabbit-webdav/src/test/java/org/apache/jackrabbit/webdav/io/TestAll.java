@@ -26,6 +26,8 @@ public class TestAll extends TestCase {
         TestSuite suite = new TestSuite("WebDAV tests");
 
         suite.addTestSuite(OutputContextImplTest.class);
+        suite.addTestSuite(RangeOutputContextTest.class);
+        suite.addTestSuite(GzipOutputContextTest.class);
 
         return suite;
     }